@@ -10,6 +10,7 @@ package coyote.commons;
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
@@ -28,7 +29,10 @@ import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.DecimalFormat;
@@ -106,6 +110,9 @@ public final class FileUtil {
   /** A useful default buffer size ({@value}) */
   private static final int DEFAULT_BUFFER_SIZE = 1024 * 4;
 
+  /** The size of the blocks ({@value}) read backward when tailing a file */
+  private static final int TAIL_BLOCK_SIZE = 1024 * 8;
+
   private static final int EOF = -1;
 
   /** The MD5 Message Digest we use to calculate file hashes */
@@ -1040,6 +1047,146 @@ public final class FileUtil {
 
 
 
+  /**
+   * Find where the last lines of a file begin by reading backward from the
+   * end of the file a block at a time.
+   *
+   * <p>Only the blocks holding the requested lines are read, so the cost
+   * depends on the size of the tail and not the size of the file. A newline
+   * ending the file does not start another line.</p>
+   *
+   * @param channel the open file to search
+   * @param lines the number of lines wanted
+   *
+   * @return the position of the first byte of the tail
+   *
+   * @throws IOException if the file could not be read
+   */
+  public static long findTail(final FileChannel channel, final int lines) throws IOException {
+    long end = channel.size();
+    if (lines < 1 || end == 0) {
+      return end;
+    }
+
+    final ByteBuffer buffer = ByteBuffer.allocate(TAIL_BLOCK_SIZE);
+
+    // ignore the newline which terminates the last line
+    buffer.limit(1);
+    if (channel.read(buffer, end - 1) == 1 && buffer.get(0) == '\n') {
+      end--;
+    }
+
+    int found = 0;
+    long position = end;
+    while (position > 0) {
+      final int length = (int)Math.min(TAIL_BLOCK_SIZE, position);
+      position -= length;
+      buffer.clear();
+      buffer.limit(length);
+      while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) >= 0) {
+        ;
+      }
+      for (int x = buffer.position() - 1; x >= 0; x--) {
+        if (buffer.get(x) == '\n' && ++found == lines) {
+          return position + x + 1;
+        }
+      }
+    }
+    return 0;
+  }
+
+
+
+
+  /**
+   * Return the last lines of a file in the manner of the UNIX tail command.
+   *
+   * <p>The file is read backward from the end so very large files can be
+   * tailed cheaply. The text is decoded with the platform charset and the
+   * lines are joined with a newline, whatever line ending the file uses. The
+   * line ending of the last line, if any, is not returned.</p>
+   *
+   * @param file the file to read
+   * @param lines the number of lines to return
+   *
+   * @return the last lines of the file or null if the file could not be read
+   */
+  public static String tail(final File file, final int lines) {
+    return tail(file, lines, Charset.defaultCharset());
+  }
+
+
+
+
+  /**
+   * Return the last lines of a file in the manner of the UNIX tail command.
+   *
+   * <p>The lines are joined with a newline, whatever line ending the file
+   * uses. The line ending of the last line, if any, is not returned.</p>
+   *
+   * @param file the file to read
+   * @param lines the number of lines to return
+   * @param charset the encoding of the file
+   *
+   * @return the last lines of the file or null if the file could not be read
+   */
+  public static String tail(final File file, final int lines, final Charset charset) {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      final FileChannel channel = raf.getChannel();
+      final long start = findTail(channel, lines);
+      final ByteBuffer buffer = ByteBuffer.allocate((int)(channel.size() - start));
+      while (buffer.hasRemaining() && channel.read(buffer, start + buffer.position()) >= 0) {
+        ;
+      }
+
+      final BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(buffer.array(), 0, buffer.position()), charset));
+      final StringBuilder retval = new StringBuilder(buffer.position());
+      String line = reader.readLine();
+      while (line != null) {
+        retval.append(line);
+        line = reader.readLine();
+        if (line != null) {
+          retval.append('\n');
+        }
+      }
+      return retval.toString();
+    } catch (final Exception ex) {}
+
+    return null;
+  }
+
+
+
+
+  /**
+   * Open a stream over the last lines of a file.
+   *
+   * <p>The start of the tail is found by reading backward from the end of the
+   * file; the stream then reads the tail directly from the file as it is
+   * consumed, so it can be passed to a chunked HTTP response without holding
+   * the tail in memory. Closing the stream closes the file.</p>
+   *
+   * @param file the file to read
+   * @param lines the number of lines to stream
+   *
+   * @return a stream of the last lines of the file
+   *
+   * @throws IOException if the file could not be opened or read
+   */
+  public static InputStream tailStream(final File file, final int lines) throws IOException {
+    final FileChannel channel = new RandomAccessFile(file, "r").getChannel();
+    try {
+      channel.position(findTail(channel, lines));
+      return Channels.newInputStream(channel);
+    } catch (final IOException e) {
+      channel.close();
+      throw e;
+    }
+  }
+
+
+
+
   /**
    * Construct a generational name from the given filename using the given int
    * as the generation.
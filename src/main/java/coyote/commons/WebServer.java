@@ -7,6 +7,7 @@
  */
 package coyote.commons;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
 import java.util.Map;
@@ -15,9 +16,11 @@ import java.util.Set;
 import coyote.commons.network.IpAddress;
 import coyote.commons.network.IpNetwork;
 import coyote.commons.network.MimeType;
+import coyote.commons.network.http.CachePool;
 import coyote.commons.network.http.HTTP;
 import coyote.commons.network.http.HTTPD;
 import coyote.commons.network.http.HTTPSession;
+import coyote.commons.network.http.PooledCacheManagerFactory;
 import coyote.commons.network.http.Response;
 import coyote.commons.network.http.SecurityResponseException;
 import coyote.commons.network.http.Status;
@@ -35,6 +38,7 @@ import coyote.loader.component.AbstractManagedComponent;
 import coyote.loader.component.ManagedComponent;
 import coyote.loader.log.Log;
 import coyote.loader.log.LogMsg;
+import coyote.loader.thread.ScheduledJob;
 
 
 /**
@@ -63,6 +67,15 @@ public class WebServer extends AbstractLoader {
   /** Our main server */
   protected HTTPDRouter server = null;
 
+  /** Shared pool of request body buffers and scratch files, if configured */
+  private CachePool cachePool = null;
+
+  /** The job publishing the request cache usage to the stats board */
+  private ScheduledJob cacheMetrics = null;
+
+  /** How often the request cache usage is published, in milliseconds */
+  private static final long CACHE_METRICS_INTERVAL = 5000;
+
   /** Server on a normal port which sends a redirect to our main server. (E.g., any http: requests are redirected to https:) */
   private HTTPD redirectServer = null;
 
@@ -82,6 +95,14 @@ public class WebServer extends AbstractLoader {
   protected static final String ENABLE_GAUGES = "EnableGauges";
   protected static final String ENABLE_TIMING = "EnableTiming";
 
+  // request body cache pooling and its attributes
+  protected static final String REQUEST_CACHE = "RequestCache";
+  protected static final String BUFFER_SIZE = "BufferSize";
+  protected static final String BUFFER_COUNT = "Buffers";
+  protected static final String DISK_QUOTA = "DiskQuota";
+  protected static final String SCRATCH_FILES = "ScratchFiles";
+  protected static final String DIRECTORY = "Directory";
+
   // mapping attributes
   protected static final String MAPPINGS = "Mappings";
   protected static final String CLASS = "Class";
@@ -180,6 +201,9 @@ public class WebServer extends AbstractLoader {
         // Configure Denial of Service frequency tables
         server.configDosTables(cfg.getSection(ConfigTag.FREQUENCY));
 
+        // Serve request bodies from pooled buffers and scratch files if configured
+        configRequestCache(cfg.getSection(REQUEST_CACHE));
+
         // Add the default routes to ensure basic operation
         server.addDefaultRoutes();
 
@@ -234,6 +258,90 @@ public class WebServer extends AbstractLoader {
 
 
 
+  /**
+   * Configure the server to cache request bodies in a pool of buffers and 
+   * scratch files shared by all connections.
+   * 
+   * <p>If there is no configuration section, the server keeps its default 
+   * cache manager which creates a temporary file for each large body.
+   * 
+   * @param cfg the request cache section, may be null
+   */
+  private void configRequestCache(Config cfg) {
+    if (cfg != null) {
+      int bufferSize = CachePool.DEFAULT_BUFFER_SIZE;
+      int buffers = CachePool.DEFAULT_BUFFER_COUNT;
+      long diskQuota = CachePool.DEFAULT_DISK_QUOTA;
+      int scratchFiles = CachePool.DEFAULT_SCRATCH_FILES;
+      File directory = null;
+      try {
+        if (cfg.containsIgnoreCase(BUFFER_SIZE)) {
+          bufferSize = cfg.getInt(BUFFER_SIZE);
+        }
+        if (cfg.containsIgnoreCase(BUFFER_COUNT)) {
+          buffers = cfg.getInt(BUFFER_COUNT);
+        }
+        if (cfg.containsIgnoreCase(DISK_QUOTA)) {
+          diskQuota = cfg.getLong(DISK_QUOTA);
+        }
+        if (cfg.containsIgnoreCase(SCRATCH_FILES)) {
+          scratchFiles = cfg.getInt(SCRATCH_FILES);
+        }
+      } catch (NumberFormatException e) {
+        Log.error("Request cache configuration contained an invalid number - using defaults: " + e.getMessage());
+        bufferSize = CachePool.DEFAULT_BUFFER_SIZE;
+        buffers = CachePool.DEFAULT_BUFFER_COUNT;
+        diskQuota = CachePool.DEFAULT_DISK_QUOTA;
+        scratchFiles = CachePool.DEFAULT_SCRATCH_FILES;
+      }
+      if (StringUtil.isNotBlank(cfg.getString(DIRECTORY))) {
+        directory = new File(cfg.getString(DIRECTORY));
+      }
+      try {
+        cachePool = new CachePool(bufferSize, buffers, diskQuota, scratchFiles, directory);
+        server.setCacheManagerFactory(new PooledCacheManagerFactory(cachePool));
+        Log.info("Request cache: " + cachePool.toString());
+        publishRequestCache();
+      } catch (IllegalArgumentException e) {
+        Log.error("Could not create request cache pool - " + e.getMessage());
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Publish the usage of the request cache pool to our stats board now and
+   * periodically on the scheduler.
+   */
+  private void publishRequestCache() {
+    final CachePool pool = cachePool;
+    pool.publish(getStats());
+    if (getScheduler() != null) {
+      cacheMetrics = getScheduler().schedule(new Runnable() {
+        @Override
+        public void run() {
+          pool.publish(getStats());
+        }
+      }, System.currentTimeMillis() + CACHE_METRICS_INTERVAL, CACHE_METRICS_INTERVAL, 0, 0);
+      cacheMetrics.setName(REQUEST_CACHE);
+    }
+  }
+
+
+
+
+  /**
+   * @return the pool caching request bodies or null if the server is using its default cache manager
+   */
+  public CachePool getCachePool() {
+    return cachePool;
+  }
+
+
+
+
   /**
    * @param args
    */
@@ -286,8 +394,8 @@ public class WebServer extends AbstractLoader {
       // If we found a class to map to the route
       if (StringUtil.isNotBlank(className)) {
         try {
-          // load the class
-          Class<?> clazz = Class.forName(className);
+          // load the class, once for all the routes it handles
+          Class<?> clazz = factory.loadClass(className);
           Log.info("Loading " + className + " to handle requests for '" + route + "'");
           if (priority > 0) {
             server.addRoute(route, priority, clazz, this, config);
@@ -421,6 +529,13 @@ public class WebServer extends AbstractLoader {
     if (redirectServer != null) {
       redirectServer.stop();
     }
+    if (cacheMetrics != null) {
+      cacheMetrics.setCancelled(true);
+      cacheMetrics = null;
+    }
+    if (cachePool != null) {
+      cachePool.close();
+    }
   }
 
 
@@ -0,0 +1,518 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import coyote.i13n.StatBoard;
+import coyote.loader.log.Log;
+
+
+/**
+ * The shared resources behind all the {@link PooledCacheManager}s of a
+ * server: a pool of direct byte buffers for request bodies which fit in
+ * memory, a pool of reusable scratch files for those which do not, and the
+ * global memory and disk quotas which limit both across all concurrent
+ * uploads.
+ *
+ * <p>Buffers are allocated lazily up to the memory quota and are never
+ * released back to the JVM; once the quota is reached, new cache files go
+ * straight to disk. Scratch files are created up front (one per expected
+ * worker) and are truncated, not deleted, when they are returned so the same
+ * inodes are used over and over again. A scratch file which has been memory
+ * mapped is the exception: it is deleted when returned, as truncating a file
+ * under a live mapping would fault the next reader of the mapping.
+ *
+ * <p>All the counters exposed by this class are safe to read at any time and
+ * can be published to a StatBoard with {@link #publish(StatBoard)}.
+ */
+public class CachePool {
+
+  /** Default size of each pooled buffer, the in-memory threshold */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  /** Default number of buffers which may be allocated */
+  public static final int DEFAULT_BUFFER_COUNT = 64;
+
+  /** Default number of bytes which may be spilled to disk across all uploads */
+  public static final long DEFAULT_DISK_QUOTA = 1024L * 1024L * 1024L;
+
+  /** Default number of scratch files created when the pool is created */
+  public static final int DEFAULT_SCRATCH_FILES = 4;
+
+  private static final String SCRATCH_PREFIX = "HTTPD-";
+  private static final String SCRATCH_SUFFIX = ".scratch";
+
+  /** Prefix of the names the usage metrics are published under */
+  public static final String METRIC_PREFIX = "RequestCache.";
+
+  private final int bufferSize;
+  private final int maxBuffers;
+  private final long diskQuota;
+  private final File directory;
+
+  private final Deque<ByteBuffer> freeBuffers = new ArrayDeque<ByteBuffer>();
+  private final Deque<File> freeFiles = new ArrayDeque<File>();
+
+  // all guarded by this
+  private int buffersAllocated = 0;
+  private int buffersInUse = 0;
+  private int filesCreated = 0;
+  private int filesInUse = 0;
+  private long diskUsed = 0;
+  private long peakDiskUsed = 0;
+  private int peakBuffersInUse = 0;
+  private long spillCount = 0;
+  private long memoryDenials = 0;
+  private long diskDenials = 0;
+
+
+
+
+  /**
+   * Create a pool with the default sizes in the system temporary directory.
+   */
+  public CachePool() {
+    this(DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT, DEFAULT_DISK_QUOTA, DEFAULT_SCRATCH_FILES, null);
+  }
+
+
+
+
+  /**
+   * Create a pool of cache resources.
+   *
+   * @param bufferSize the size of each pooled buffer; bodies larger than this are spilled to disk
+   * @param maxBuffers the maximum number of buffers which may be in use at once (the memory quota is {@code bufferSize * maxBuffers})
+   * @param diskQuota the maximum number of bytes which may be spilled to disk at once across all uploads
+   * @param scratchFiles the number of scratch files to create now, normally the number of workers
+   * @param directory the directory in which scratch files are created, null for the system temporary directory
+   */
+  public CachePool(final int bufferSize, final int maxBuffers, final long diskQuota, final int scratchFiles, final File directory) {
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("Buffer size must be positive");
+    }
+    this.bufferSize = bufferSize;
+    this.maxBuffers = (maxBuffers < 0) ? 0 : maxBuffers;
+    this.diskQuota = (diskQuota < 0) ? 0 : diskQuota;
+    this.directory = (directory != null) ? directory : new File(System.getProperty("java.io.tmpdir"));
+    if (!this.directory.exists()) {
+      this.directory.mkdirs();
+    }
+
+    for (int x = 0; x < scratchFiles; x++) {
+      try {
+        freeFiles.push(createScratchFile());
+      } catch (final IOException e) {
+        Log.append(HTTPD.EVENT, "WARNING: Could not pre-allocate scratch file: " + e.getMessage());
+        break;
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Retrieve a cleared buffer from the pool.
+   *
+   * @return a cleared direct buffer or null if the memory quota has been reached
+   */
+  synchronized ByteBuffer acquireBuffer() {
+    ByteBuffer retval = freeBuffers.poll();
+    if (retval == null) {
+      if (buffersAllocated < maxBuffers) {
+        retval = ByteBuffer.allocateDirect(bufferSize);
+        buffersAllocated++;
+      } else {
+        memoryDenials++;
+        return null;
+      }
+    }
+    buffersInUse++;
+    if (buffersInUse > peakBuffersInUse) {
+      peakBuffersInUse = buffersInUse;
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * Return a buffer to the pool.
+   *
+   * @param buffer the buffer previously obtained from {@link #acquireBuffer()}
+   */
+  synchronized void releaseBuffer(final ByteBuffer buffer) {
+    if (buffer != null) {
+      buffer.clear();
+      freeBuffers.push(buffer);
+      buffersInUse--;
+    }
+  }
+
+
+
+
+  /**
+   * Retrieve an empty scratch file from the pool, creating one if necessary.
+   *
+   * @return an empty scratch file
+   *
+   * @throws IOException if a new scratch file could not be created
+   */
+  File acquireScratchFile() throws IOException {
+    File retval;
+    synchronized (this) {
+      retval = freeFiles.poll();
+      filesInUse++;
+    }
+    if (retval != null && !retval.exists()) {
+      // someone removed the pooled file; its replacement takes its place in the count
+      synchronized (this) {
+        filesCreated--;
+      }
+      retval = null;
+    }
+    if (retval == null) {
+      try {
+        retval = createScratchFile();
+      } catch (final IOException e) {
+        synchronized (this) {
+          filesInUse--;
+        }
+        throw e;
+      }
+    }
+    synchronized (this) {
+      spillCount++;
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * Truncate the scratch file and return it to the pool.
+   *
+   * @param file the file previously obtained from {@link #acquireScratchFile()}
+   */
+  void releaseScratchFile(final File file) {
+    releaseScratchFile(file, true);
+  }
+
+
+
+
+  /**
+   * Return the scratch file to the pool or, if it may not be reused, delete
+   * it.
+   *
+   * <p>A file which has been memory mapped must not be reused; the mapping
+   * may outlive the cache file and truncating the file under it would make
+   * any access through the mapping fault.
+   *
+   * @param file the file previously obtained from {@link #acquireScratchFile()}
+   * @param reuse true to truncate the file and keep it for the next upload, false to delete it
+   */
+  void releaseScratchFile(final File file, final boolean reuse) {
+    if (file != null) {
+      boolean reusable = reuse;
+      if (reusable) {
+        RandomAccessFile raf = null;
+        try {
+          raf = new RandomAccessFile(file, "rw");
+          raf.setLength(0);
+        } catch (final IOException e) {
+          reusable = false;
+          Log.append(HTTPD.EVENT, "WARNING: Could not truncate scratch file " + file.getAbsolutePath() + " - " + e.getMessage());
+        } finally {
+          HTTPD.safeClose(raf);
+        }
+      }
+      synchronized (this) {
+        filesInUse--;
+        if (reusable) {
+          freeFiles.push(file);
+          return;
+        }
+        filesCreated--;
+      }
+      if (!file.delete()) {
+        file.deleteOnExit();
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Reserve disk space against the global quota.
+   *
+   * @param bytes the number of bytes about to be written
+   *
+   * @throws IOException if the reservation would exceed the disk quota
+   */
+  synchronized void reserveDisk(final long bytes) throws IOException {
+    if (diskUsed + bytes > diskQuota) {
+      diskDenials++;
+      throw new IOException("Request cache disk quota of " + diskQuota + " bytes exceeded");
+    }
+    diskUsed += bytes;
+    if (diskUsed > peakDiskUsed) {
+      peakDiskUsed = diskUsed;
+    }
+  }
+
+
+
+
+  /**
+   * Return previously reserved disk space to the global quota.
+   *
+   * @param bytes the number of bytes no longer in use
+   */
+  synchronized void releaseDisk(final long bytes) {
+    diskUsed -= bytes;
+    if (diskUsed < 0) {
+      diskUsed = 0;
+    }
+  }
+
+
+
+
+  /**
+   * Delete all the idle scratch files and drop all the idle buffers.
+   *
+   * <p>Resources currently in use are not affected and will be returned to
+   * the pool as usual.
+   */
+  public void close() {
+    final File[] files;
+    synchronized (this) {
+      files = freeFiles.toArray(new File[freeFiles.size()]);
+      freeFiles.clear();
+      filesCreated -= files.length;
+      buffersAllocated -= freeBuffers.size();
+      freeBuffers.clear();
+    }
+    for (final File file : files) {
+      if (!file.delete()) {
+        file.deleteOnExit();
+      }
+    }
+  }
+
+
+
+
+  private File createScratchFile() throws IOException {
+    final File retval = File.createTempFile(SCRATCH_PREFIX, SCRATCH_SUFFIX, directory);
+    retval.deleteOnExit();
+    synchronized (this) {
+      filesCreated++;
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @return the size of each buffer, the largest body which will be held in memory
+   */
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+
+
+
+  /**
+   * @return the maximum number of bytes held in memory across all uploads
+   */
+  public long getMemoryQuota() {
+    return (long)bufferSize * maxBuffers;
+  }
+
+
+
+
+  /**
+   * @return the maximum number of bytes spilled to disk across all uploads
+   */
+  public long getDiskQuota() {
+    return diskQuota;
+  }
+
+
+
+
+  /**
+   * @return the number of bytes of buffer memory currently checked out
+   */
+  public synchronized long getMemoryUsed() {
+    return (long)bufferSize * buffersInUse;
+  }
+
+
+
+
+  /**
+   * @return the highest number of bytes of buffer memory checked out at once
+   */
+  public synchronized long getPeakMemoryUsed() {
+    return (long)bufferSize * peakBuffersInUse;
+  }
+
+
+
+
+  /**
+   * @return the number of bytes of buffer memory allocated, in use or idle
+   */
+  public synchronized long getMemoryAllocated() {
+    return (long)bufferSize * buffersAllocated;
+  }
+
+
+
+
+  /**
+   * @return the number of bytes currently spilled to disk
+   */
+  public synchronized long getDiskUsed() {
+    return diskUsed;
+  }
+
+
+
+
+  /**
+   * @return the highest number of bytes spilled to disk at once
+   */
+  public synchronized long getPeakDiskUsed() {
+    return peakDiskUsed;
+  }
+
+
+
+
+  /**
+   * @return the number of scratch files currently holding data
+   */
+  public synchronized int getScratchFilesInUse() {
+    return filesInUse;
+  }
+
+
+
+
+  /**
+   * @return the number of scratch files which exist, in use or idle
+   */
+  public synchronized int getScratchFileCount() {
+    return filesCreated;
+  }
+
+
+
+
+  /**
+   * @return the number of times a cache file was spilled to disk
+   */
+  public synchronized long getSpillCount() {
+    return spillCount;
+  }
+
+
+
+
+  /**
+   * @return the number of times a buffer was denied because the memory quota was reached
+   */
+  public synchronized long getMemoryDenials() {
+    return memoryDenials;
+  }
+
+
+
+
+  /**
+   * @return the number of writes refused because the disk quota was reached
+   */
+  public synchronized long getDiskDenials() {
+    return diskDenials;
+  }
+
+
+
+
+  /**
+   * Set the current usage of the pool as states on the given board.
+   *
+   * <p>Each counter is published as a state named {@code RequestCache.}
+   * followed by its name, such as {@code RequestCache.memory_used}, so it is
+   * reported as a gauge by the exporters. Call this periodically to keep the
+   * states current.
+   *
+   * @param board the board to receive the values
+   */
+  public synchronized void publish(final StatBoard board) {
+    if (board != null) {
+      board.setState(METRIC_PREFIX + "memory_used", getMemoryUsed());
+      board.setState(METRIC_PREFIX + "memory_peak", getPeakMemoryUsed());
+      board.setState(METRIC_PREFIX + "memory_allocated", getMemoryAllocated());
+      board.setState(METRIC_PREFIX + "memory_quota", getMemoryQuota());
+      board.setState(METRIC_PREFIX + "disk_used", diskUsed);
+      board.setState(METRIC_PREFIX + "disk_peak", peakDiskUsed);
+      board.setState(METRIC_PREFIX + "disk_quota", diskQuota);
+      board.setState(METRIC_PREFIX + "scratch_in_use", (long)filesInUse);
+      board.setState(METRIC_PREFIX + "scratch_files", (long)filesCreated);
+      board.setState(METRIC_PREFIX + "spills", spillCount);
+      board.setState(METRIC_PREFIX + "memory_denials", memoryDenials);
+      board.setState(METRIC_PREFIX + "disk_denials", diskDenials);
+    }
+  }
+
+
+
+
+  /**
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public synchronized String toString() {
+    final StringBuilder b = new StringBuilder(getClass().getSimpleName());
+    b.append(": memory ");
+    b.append(getMemoryUsed());
+    b.append('/');
+    b.append(getMemoryQuota());
+    b.append(" disk ");
+    b.append(diskUsed);
+    b.append('/');
+    b.append(diskQuota);
+    b.append(" files ");
+    b.append(filesInUse);
+    b.append('/');
+    b.append(filesCreated);
+    b.append(" spills ");
+    b.append(spillCount);
+    return b.toString();
+  }
+
+}
@@ -78,6 +78,7 @@ public class HTTP {
   public static final String HDR_WWW_AUTHENTICATE = "WWW-Authenticate";
   public static final String HDR_WARNING = "Warning";
   public static final String HDR_X_FRAME_OPTIONS = "X-Frame-Options";
+  public static final String HDR_X_CORRELATION_ID = "X-Correlation-ID";
   
   public static final String CHUNKED = "chunked";
   public static final String KEEP_ALIVE = "keep-alive";
@@ -11,10 +11,8 @@ import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
-import java.io.DataOutput;
 import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -25,20 +23,19 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.StringTokenizer;
-import java.util.regex.Matcher;
 
 import javax.net.ssl.SSLException;
 
 import coyote.commons.network.IpAddress;
 import coyote.commons.network.IpAddressException;
 import coyote.commons.network.MimeType;
+import coyote.i13n.Correlation;
 import coyote.loader.log.Log;
 
 
@@ -180,95 +177,45 @@ class HTTPSessionImpl implements HTTPSession {
 
   /**
    * Decodes the Multipart Body data and put it into Key/Value pairs.
+   * 
+   * <p>The body is streamed from the connection in a single pass. Form fields 
+   * are placed in the parameters and file parts are written directly to cache 
+   * files without staging the entire body first.
    */
-  private void decodeMultipartFormData(final ContentType contentType, final ByteBuffer fbuf, final Map<String, String> parms, final Body body) throws ResponseException {
+  private void decodeMultipartFormData(final ContentType contentType, final long size, final Map<String, String> parms, final Body body) throws ResponseException {
     int pcount = 0;
+    final MultipartParser parser = new MultipartParser(inputStream, contentType.getBoundary(), size, contentType.getEncoding());
     try {
-      final int[] boundaryIdxs = getBoundaryPositions(fbuf, contentType.getBoundary().getBytes());
-      if (boundaryIdxs.length < 2) {
-        throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but contains less than two boundary strings.");
-      }
-
-      final byte[] partHeaderBuff = new byte[MAX_HEADER_SIZE];
-      for (int boundaryIdx = 0; boundaryIdx < (boundaryIdxs.length - 1); boundaryIdx++) {
-        fbuf.position(boundaryIdxs[boundaryIdx]);
-        final int len = (fbuf.remaining() < MAX_HEADER_SIZE) ? fbuf.remaining() : MAX_HEADER_SIZE;
-        fbuf.get(partHeaderBuff, 0, len);
-        final BufferedReader in = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(partHeaderBuff, 0, len), Charset.forName(contentType.getEncoding())), len);
-
-        int headerLines = 0;
-        // First line is boundary string
-        String mpline = in.readLine();
-        headerLines++;
-        if ((mpline == null) || !mpline.contains(contentType.getBoundary())) {
-          throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but chunk does not start with boundary.");
-        }
-
-        String partName = null;
-        String fileName = null;
-        String partContentType = null;
-        // Parse the reset of the header lines
-        mpline = in.readLine();
-        headerLines++;
-        while ((mpline != null) && (mpline.trim().length() > 0)) {
-          Matcher matcher = HTTPD.CONTENT_DISPOSITION_PATTERN.matcher(mpline);
-          if (matcher.matches()) {
-            final String attributeString = matcher.group(2);
-            matcher = HTTPD.CONTENT_DISPOSITION_ATTRIBUTE_PATTERN.matcher(attributeString);
-            while (matcher.find()) {
-              final String key = matcher.group(1);
-              if ("name".equalsIgnoreCase(key)) {
-                partName = matcher.group(2);
-              } else if ("filename".equalsIgnoreCase(key)) {
-                fileName = matcher.group(2);
-                // add these two line to support multiple files uploaded using 
-                // the same field Id
-                if (!fileName.isEmpty()) {
-                  if (pcount > 0) {
-                    partName = partName + String.valueOf(pcount++);
-                  } else {
-                    pcount++;
-                  }
-                }
-              }
-            }
-          }
-          matcher = HTTPD.CONTENT_TYPE_PATTERN.matcher(mpline);
-          if (matcher.matches()) {
-            partContentType = matcher.group(2).trim();
+      MultipartParser.Part part;
+      while ((part = parser.next()) != null) {
+        String partName = part.getName();
+        final String fileName = part.getFileName();
+
+        // support multiple files uploaded using the same field Id
+        if ((fileName != null) && !fileName.isEmpty()) {
+          if (pcount > 0) {
+            partName = partName + String.valueOf(pcount++);
+          } else {
+            pcount++;
           }
-          mpline = in.readLine();
-          headerLines++;
-        }
-        int partHeaderLength = 0;
-        while (headerLines-- > 0) {
-          partHeaderLength = skipPastNewLine(partHeaderBuff, partHeaderLength);
-        }
-        // Read the part data
-        if (partHeaderLength >= (len - 4)) {
-          throw new ResponseException(Status.INTERNAL_ERROR, "Multipart header size exceeds MAX_HEADER_SIZE.");
         }
-        final int partDataStart = boundaryIdxs[boundaryIdx] + partHeaderLength;
-        final int partDataEnd = boundaryIdxs[boundaryIdx + 1] - 4;
 
-        fbuf.position(partDataStart);
-        if (partContentType == null) {
+        if (part.getContentType() == null) {
           // Read the part into a string
-          final byte[] data_bytes = new byte[partDataEnd - partDataStart];
-          fbuf.get(data_bytes);
-          parms.put(partName, new String(data_bytes, contentType.getEncoding()));
+          parms.put(partName, part.getString());
         } else {
-          // Read it into a file
-          final String path = saveTmpFile(fbuf, partDataStart, partDataEnd - partDataStart, fileName);
-          if (!body.containsKey(partName)) {
-            body.put(partName, new File(path), new ContentType(partContentType));
-          } else {
+          // Stream it into a cache file
+          String key = partName;
+          if (body.containsKey(partName)) {
             int count = 2;
             while (body.containsKey(partName + count)) {
               count++;
             }
-            body.put(partName + count, new File(path), new ContentType(partContentType));
+            key = partName + count;
           }
+          // file parts are always handed over as files, whatever their size
+          final CacheFile tempFile = saveTmpFile(part, fileName);
+          body.put(key, new File(tempFile != null ? tempFile.getName() : ""), new ContentType(part.getContentType()));
           parms.put(partName, fileName);
         }
       }
@@ -276,6 +223,8 @@ class HTTPSessionImpl implements HTTPSession {
       throw re;
     } catch (final Exception e) {
       throw new ResponseException(Status.INTERNAL_ERROR, e.toString());
+    } finally {
+      HTTPD.safeClose(parser);
     }
   }
 
@@ -313,6 +262,7 @@ class HTTPSessionImpl implements HTTPSession {
   @Override
   public void execute() throws IOException {
     Response response = null;
+    String previousCrid = null;
     try {
       // Read the first 8192 bytes; this _should_ fit the entire header.
       final byte[] buf = new byte[HTTPSessionImpl.BUFSIZE];
@@ -378,6 +328,10 @@ class HTTPSessionImpl implements HTTPSession {
 
       cookies = new CookieHandler(requestHeaders);
 
+      // relate all the work done for this request to the caller's correlation identifier
+      final String crid = requestHeaders.get(HTTP.HDR_X_CORRELATION_ID.toLowerCase());
+      previousCrid = Correlation.setId(crid);
+
       final String connection = requestHeaders.get("connection");
       final boolean keepAlive = HTTP.VERSION_1_1.equals(protocolVersion) && ((connection == null) || !connection.matches("(?i).*close.*"));
 
@@ -392,6 +346,9 @@ class HTTPSessionImpl implements HTTPSession {
         response.setGzipEncoding(this.httpd.useGzipWhenAccepted(response) && (acceptEncoding != null) && acceptEncoding.contains("gzip"));
         response.setKeepAlive(keepAlive);
         response.addHeaders(responseHeaders);
+        if (crid != null) {
+          response.addHeader(HTTP.HDR_X_CORRELATION_ID, crid);
+        }
         response.send(outputStream);
       }
       if (!keepAlive || response.isCloseConnection()) {
@@ -419,6 +376,7 @@ class HTTPSessionImpl implements HTTPSession {
       resp.send(outputStream);
       HTTPD.safeClose(outputStream);
     } finally {
+      Correlation.setId(previousCrid);
       HTTPD.safeClose(response);
       cacheManager.clear();
     }
@@ -469,58 +427,6 @@ class HTTPSessionImpl implements HTTPSession {
 
 
 
-  /**
-   * Find the byte positions where multi-part boundaries start. 
-   * 
-   * <p>This reads a large block at a time and uses a temporary buffer to 
-   * optimize file access.
-   */
-  private int[] getBoundaryPositions(final ByteBuffer b, final byte[] boundary) {
-    int[] res = new int[0];
-    if (b.remaining() < boundary.length) {
-      return res;
-    }
-
-    int search_window_pos = 0;
-    final byte[] search_window = new byte[(4 * 1024) + boundary.length];
-
-    final int first_fill = (b.remaining() < search_window.length) ? b.remaining() : search_window.length;
-    b.get(search_window, 0, first_fill);
-    int new_bytes = first_fill - boundary.length;
-
-    do {
-      // Search the search_window
-      for (int j = 0; j < new_bytes; j++) {
-        for (int i = 0; i < boundary.length; i++) {
-          if (search_window[j + i] != boundary[i]) {
-            break;
-          }
-          if (i == (boundary.length - 1)) {
-            // Match found, add it to results
-            final int[] new_res = new int[res.length + 1];
-            System.arraycopy(res, 0, new_res, 0, res.length);
-            new_res[res.length] = search_window_pos + j;
-            res = new_res;
-          }
-        }
-      }
-      search_window_pos += new_bytes;
-
-      // Copy the end of the buffer to the start
-      System.arraycopy(search_window, search_window.length - boundary.length, search_window, 0, boundary.length);
-
-      // Refill search_window
-      new_bytes = search_window.length - boundary.length;
-      new_bytes = (b.remaining() < new_bytes) ? b.remaining() : new_bytes;
-      b.get(search_window, boundary.length, new_bytes);
-    }
-    while (new_bytes > 0);
-    return res;
-  }
-
-
-
-
   @Override
   public CookieHandler getCookies() {
     return cookies;
@@ -605,10 +511,9 @@ class HTTPSessionImpl implements HTTPSession {
 
 
 
-  private RandomAccessFile getTmpBucket() {
+  private CacheFile getTmpBucket() {
     try {
-      final CacheFile tempFile = cacheManager.createCacheFile(null);
-      return new RandomAccessFile(tempFile.getName(), "rw");
+      return cacheManager.createCacheFile(null);
     } catch (final Exception e) {
       throw new Error(e); // we won't recover, so throw an error
     }
@@ -617,6 +522,28 @@ class HTTPSessionImpl implements HTTPSession {
 
 
 
+  /**
+   * Access the data written to the given cache file as a buffer.
+   * 
+   * <p>Pooled cache files map themselves, so they know not to reuse a mapped 
+   * scratch file; anything else is memory-mapped here.
+   */
+  private ByteBuffer mapTmpBucket(final CacheFile bucket) throws IOException {
+    if (bucket instanceof PooledCacheFile) {
+      return ((PooledCacheFile)bucket).map();
+    }
+    RandomAccessFile randomAccessFile = null;
+    try {
+      randomAccessFile = new RandomAccessFile(bucket.getName(), "r");
+      return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
+    } finally {
+      HTTPD.safeClose(randomAccessFile);
+    }
+  }
+
+
+
+
   @Override
   public final String getUri() {
     return uri;
@@ -629,19 +556,39 @@ class HTTPSessionImpl implements HTTPSession {
   public Body parseBody() throws IOException, ResponseException {
     Body retval = new Body();
 
-    RandomAccessFile randomAccessFile = null;
-    try {
-      long size = getBodySize();
-      ByteArrayOutputStream baos = null;
-      DataOutput requestDataOutput = null;
+    // Multipart form data is parsed as it is read from the connection
+    if (Method.POST.equals(method)) {
+      final ContentType contentType = new ContentType(requestHeaders.get(HTTP.HDR_CONTENT_TYPE.toLowerCase()));
+      if (contentType.isMultipart()) {
+        final String boundary = contentType.getBoundary();
+        if (boundary == null) {
+          throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html");
+        }
+        decodeMultipartFormData(contentType, getBodySize(), parms, retval);
+        return retval;
+      }
+    }
+
+    long size = getBodySize();
+    ByteArrayOutputStream baos = null;
+    CacheFile bucket = null;
+    DataOutputStream requestDataOutput = null;
 
-      // Store the request in memory or a file, depending on size
+    // Store the request in memory or a cache file, depending on size
+    ByteBuffer fbuf = null;
+    try {
       if (size < MEMORY_STORE_LIMIT) {
         baos = new ByteArrayOutputStream();
         requestDataOutput = new DataOutputStream(baos);
       } else {
-        randomAccessFile = getTmpBucket();
-        requestDataOutput = randomAccessFile;
+        bucket = getTmpBucket();
+        try {
+          requestDataOutput = new DataOutputStream(bucket.open());
+        } catch (final IOException e) {
+          throw e;
+        } catch (final Exception e) {
+          throw new Error(e); // we won't recover, so throw an error
+        }
       }
 
       // Read all the body and write it to request_data_output
@@ -654,42 +601,33 @@ class HTTPSessionImpl implements HTTPSession {
         }
       }
 
-      ByteBuffer fbuf = null;
+      requestDataOutput.flush();
       if (baos != null) {
         fbuf = ByteBuffer.wrap(baos.toByteArray(), 0, baos.size());
       } else {
-        fbuf = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, randomAccessFile.length());
-        randomAccessFile.seek(0);
+        fbuf = mapTmpBucket(bucket);
       }
+    } finally {
+      HTTPD.safeClose(requestDataOutput);
+    }
 
-      // If the method is POST, there may be parameters in data section, too, 
-      // read them:
-      if (Method.POST.equals(method)) {
-        final ContentType contentType = new ContentType(requestHeaders.get(HTTP.HDR_CONTENT_TYPE.toLowerCase()));
-        if (contentType.isMultipart()) {
-          final String boundary = contentType.getBoundary();
-          if (boundary == null) {
-            throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but boundary missing. Usage: GET /example/file.html");
-          }
-          decodeMultipartFormData(contentType, fbuf, parms, retval);
-        } else {
-          final byte[] postBytes = new byte[fbuf.remaining()];
-          fbuf.get(postBytes);
-          final String postLine = new String(postBytes, contentType.getEncoding()).trim();
-          // Handle application/x-www-form-urlencoded
-          if (MimeType.APPLICATION_FORM.getType().equalsIgnoreCase(contentType.getContentType())) {
-            decodeParms(postLine, parms);
-          } else if (postLine.length() != 0) {
-            // Special case for raw POST data => create a special files entry 
-            // "postData" with raw content data
-            retval.put("postData", postLine);
-          }
-        }
-      } else {
-        retval.put(Body.CONTENT, fbuf, new ContentType(requestHeaders.get(HTTP.HDR_CONTENT_TYPE.toLowerCase())));
+    // If the method is POST, there may be parameters in data section, too, 
+    // read them:
+    if (Method.POST.equals(method)) {
+      final ContentType contentType = new ContentType(requestHeaders.get(HTTP.HDR_CONTENT_TYPE.toLowerCase()));
+      final byte[] postBytes = new byte[fbuf.remaining()];
+      fbuf.get(postBytes);
+      final String postLine = new String(postBytes, contentType.getEncoding()).trim();
+      // Handle application/x-www-form-urlencoded
+      if (MimeType.APPLICATION_FORM.getType().equalsIgnoreCase(contentType.getContentType())) {
+        decodeParms(postLine, parms);
+      } else if (postLine.length() != 0) {
+        // Special case for raw POST data => create a special files entry 
+        // "postData" with raw content data
+        retval.put("postData", postLine);
       }
-    } finally {
-      HTTPD.safeClose(randomAccessFile);
+    } else {
+      retval.put(Body.CONTENT, fbuf, new ContentType(requestHeaders.get(HTTP.HDR_CONTENT_TYPE.toLowerCase())));
     }
 
     return retval;
@@ -699,40 +637,36 @@ class HTTPSessionImpl implements HTTPSession {
 
 
   /**
-   * Retrieves the content of a sent file and saves it to a temporary file. 
+   * Streams the content of a sent file part into a cache file. 
    * 
-   * The full path to the saved file is returned.
+   * <p>The cache file is only created if the part contains data.
+   * 
+   * @return the cache file holding the data or null if the part was empty.
    */
-  private String saveTmpFile(final ByteBuffer b, final int offset, final int len, final String filename_hint) {
-    String path = "";
-    if (len > 0) {
-      FileOutputStream fileOutputStream = null;
+  private CacheFile saveTmpFile(final MultipartParser.Part part, final String filename_hint) throws IOException {
+    CacheFile retval = null;
+    final InputStream in = part.getInputStream();
+    final byte[] buf = new byte[BUFSIZE];
+    int read = in.read(buf, 0, buf.length);
+    if (read > 0) {
+      OutputStream out = null;
       try {
-        final CacheFile tempFile = cacheManager.createCacheFile(filename_hint);
-        final ByteBuffer src = b.duplicate();
-        fileOutputStream = new FileOutputStream(tempFile.getName());
-        final FileChannel dest = fileOutputStream.getChannel();
-        src.position(offset).limit(offset + len);
-        dest.write(src.slice());
-        path = tempFile.getName();
+        retval = cacheManager.createCacheFile(filename_hint);
+        out = retval.open();
+        while (read >= 0) {
+          out.write(buf, 0, read);
+          read = in.read(buf, 0, buf.length);
+        }
+        out.flush();
+      } catch (final IOException e) {
+        throw e;
       } catch (final Exception e) {
         throw new Error(e);
       } finally {
-        HTTPD.safeClose(fileOutputStream);
+        HTTPD.safeClose(out);
       }
     }
-    return path;
-  }
-
-
-
-
-  private int skipPastNewLine(final byte[] partHeaderBuff, int index) {
-    int retval = index;
-    while (partHeaderBuff[retval] != '\n') {
-      retval++;
-    }
-    return ++retval;
+    return retval;
   }
 
 
@@ -794,4 +728,4 @@ class HTTPSessionImpl implements HTTPSession {
     return secure;
   }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,752 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+
+/**
+ * A single-pass, streaming parser for {@code multipart/form-data} bodies.
+ *
+ * <p>The parser reads the request stream exactly once through a fixed-size
+ * window and locates part delimiters with a Boyer-Moore-Horspool scan. Part
+ * data is never staged; each part is exposed as an {@code InputStream} which
+ * ends at the next delimiter, so a caller can copy it straight to its final
+ * destination (a file, a socket, a digest) using bounded memory regardless of
+ * the size of the upload.
+ *
+ * <p>Parts can be pulled one at a time with {@link #next()} or pushed to a
+ * {@link PartHandler} with {@link #parse(PartHandler)}. A part which is not
+ * completely read by the caller is skipped when the next part is requested.
+ *
+ * <p>The parser will never read more than the given content length from the
+ * underlying stream so it is safe to use on keep-alive connections. Closing
+ * the parser consumes any epilogue remaining within the content length.
+ */
+public class MultipartParser implements Closeable {
+
+  /** Default size of the scanning window */
+  public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  /** The longest header line we will accept in a part */
+  private static final int MAX_HEADER_LINE = 1024;
+
+  /** The maximum number of header lines we will accept in a part */
+  private static final int MAX_HEADER_LINES = 32;
+
+  private static final byte CR = '\r';
+  private static final byte LF = '\n';
+  private static final byte DASH = '-';
+
+  /** The source of our data, limited to the content length */
+  private final InputStream input;
+
+  /** The number of bytes we may still read from the input stream */
+  private long remaining;
+
+  /** The delimiter for which we scan: CRLF--boundary */
+  private final byte[] delimiter;
+
+  /** Horspool bad-character shift table for the delimiter */
+  private final int[] shift = new int[256];
+
+  /** The character set used to decode headers and field values */
+  private final Charset charset;
+
+  /** The fixed scanning window */
+  private final byte[] buffer;
+
+  /** Index of the first unconsumed byte in the window */
+  private int head = 0;
+
+  /** Index one past the last valid byte in the window */
+  private int tail = 0;
+
+  /** Set when the input stream has no more data for us */
+  private boolean eof = false;
+
+  /** Set when the close-delimiter has been read */
+  private boolean finished = false;
+
+  /** The part currently being read, if any */
+  private Part current = null;
+
+  /** The number of parts returned so far */
+  private int partCount = 0;
+
+
+
+
+  /**
+   * Callback interface for push-style parsing.
+   */
+  public interface PartHandler {
+
+    /**
+     * Handle the given part.
+     *
+     * <p>The part data is only valid for the duration of this call; any data
+     * not read from {@link Part#getInputStream()} before this method returns
+     * is skipped.
+     *
+     * @param part the part to handle
+     *
+     * @throws IOException if there were problems reading or writing the data
+     * @throws ResponseException if the handler rejects the part
+     */
+    void handle(Part part) throws IOException, ResponseException;
+  }
+
+
+
+
+  /**
+   * Create a parser which reads no more than the given number of bytes from
+   * the stream.
+   *
+   * @param stream the stream from which the body is read
+   * @param boundary the boundary string from the content type header
+   * @param length the number of bytes in the body, negative for unknown (read until EOF)
+   * @param encoding the character set used to decode headers and text
+   */
+  public MultipartParser(final InputStream stream, final String boundary, final long length, final String encoding) {
+    this(stream, boundary, length, encoding, DEFAULT_BUFFER_SIZE);
+  }
+
+
+
+
+  /**
+   * Create a parser with the given scanning window size.
+   *
+   * @param stream the stream from which the body is read
+   * @param boundary the boundary string from the content type header
+   * @param length the number of bytes in the body, negative for unknown (read until EOF)
+   * @param encoding the character set used to decode headers and text
+   * @param bufferSize the size of the scanning window; will be raised to fit the boundary
+   */
+  public MultipartParser(final InputStream stream, final String boundary, final long length, final String encoding, final int bufferSize) {
+    if (stream == null) {
+      throw new IllegalArgumentException("Input stream cannot be null");
+    }
+    if (boundary == null || boundary.length() == 0) {
+      throw new IllegalArgumentException("Boundary cannot be null or empty");
+    }
+    input = stream;
+    remaining = (length < 0) ? Long.MAX_VALUE : length;
+    charset = Charset.forName(encoding != null ? encoding : "US-ASCII");
+
+    final byte[] bnd = boundary.getBytes(charset);
+    delimiter = new byte[bnd.length + 4];
+    delimiter[0] = CR;
+    delimiter[1] = LF;
+    delimiter[2] = DASH;
+    delimiter[3] = DASH;
+    System.arraycopy(bnd, 0, delimiter, 4, bnd.length);
+
+    final int m = delimiter.length;
+    for (int i = 0; i < shift.length; i++) {
+      shift[i] = m;
+    }
+    for (int i = 0; i < m - 1; i++) {
+      shift[delimiter[i] & 0xFF] = m - 1 - i;
+    }
+
+    buffer = new byte[Math.max(bufferSize, (m * 2) + MAX_HEADER_LINE)];
+
+    // the first boundary may appear at the very start of the body without a
+    // preceding CRLF, so prime the window with one to make it a delimiter
+    buffer[tail++] = CR;
+    buffer[tail++] = LF;
+  }
+
+
+
+
+  /**
+   * Retrieve the next part in the body.
+   *
+   * <p>Any data remaining in the previously returned part is skipped.
+   *
+   * @return the next part or null if there are no more parts in the body
+   *
+   * @throws IOException if the stream could not be read or ended prematurely
+   * @throws ResponseException if the body is not properly formatted
+   */
+  public Part next() throws IOException, ResponseException {
+    if (finished) {
+      return null;
+    }
+
+    // skip the preamble or whatever the caller did not read of the last part
+    if (current != null) {
+      current.skip();
+    } else if (partCount == 0) {
+      skipToDelimiter();
+    }
+    current = null;
+
+    // after a delimiter comes either "--" (the end) or CRLF (another part)
+    if (!ensure(2)) {
+      throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Multipart body ended after a boundary.");
+    }
+    if (buffer[head] == DASH && buffer[head + 1] == DASH) {
+      head += 2;
+      finished = true;
+      return null;
+    }
+    skipTransportPadding();
+
+    final Part part = new Part(readHeaders());
+    partCount++;
+    current = part;
+    return part;
+  }
+
+
+
+
+  /**
+   * Parse the entire body, passing each part to the given handler.
+   *
+   * @param handler the handler which is to receive each part
+   *
+   * @return the number of parts handled
+   *
+   * @throws IOException if the stream could not be read or ended prematurely
+   * @throws ResponseException if the body is not properly formatted or the handler rejected a part
+   */
+  public int parse(final PartHandler handler) throws IOException, ResponseException {
+    int count = 0;
+    Part part;
+    while ((part = next()) != null) {
+      handler.handle(part);
+      count++;
+    }
+    return count;
+  }
+
+
+
+
+  /**
+   * Consume whatever remains of the body within its content length.
+   *
+   * <p>This does not close the underlying stream as it normally belongs to a
+   * connection which may be kept alive.
+   */
+  @Override
+  public void close() throws IOException {
+    head = tail;
+    while (!eof && remaining > 0 && remaining != Long.MAX_VALUE) {
+      final long skipped = input.skip(remaining);
+      if (skipped <= 0) {
+        if (input.read() < 0) {
+          eof = true;
+        } else {
+          remaining--;
+        }
+      } else {
+        remaining -= skipped;
+      }
+    }
+  }
+
+
+
+
+  /**
+   * @return true if the close-delimiter has been read, false if there may be more parts
+   */
+  public boolean isFinished() {
+    return finished;
+  }
+
+
+
+
+  /**
+   * Locate the delimiter in the window between the given indexes using the
+   * Horspool bad-character rule.
+   *
+   * @return the index of the start of the delimiter or -1 if not found
+   */
+  private int indexOfDelimiter(final int from, final int to) {
+    final int m = delimiter.length;
+    final int last = m - 1;
+    int pos = from;
+    while (pos <= to - m) {
+      int i = last;
+      while (buffer[pos + i] == delimiter[i]) {
+        if (i == 0) {
+          return pos;
+        }
+        i--;
+      }
+      pos += shift[buffer[pos + last] & 0xFF];
+    }
+    return -1;
+  }
+
+
+
+
+  /**
+   * Compact the window and read more data from the stream into it.
+   *
+   * @return true if more data was placed in the window, false if the stream is exhausted
+   */
+  private boolean fill() throws IOException {
+    if (eof) {
+      return false;
+    }
+    if (head > 0) {
+      final int len = tail - head;
+      if (len > 0) {
+        System.arraycopy(buffer, head, buffer, 0, len);
+      }
+      head = 0;
+      tail = len;
+    }
+    final int space = buffer.length - tail;
+    if (space == 0) {
+      return false;
+    }
+    final int len = (int)Math.min(space, remaining);
+    if (len <= 0) {
+      eof = true;
+      return false;
+    }
+    final int read = input.read(buffer, tail, len);
+    if (read < 0) {
+      eof = true;
+      return false;
+    }
+    tail += read;
+    remaining -= read;
+    return true;
+  }
+
+
+
+
+  /**
+   * Make sure there are at least the given number of bytes in the window.
+   *
+   * @return false if the stream ended before that many bytes were available
+   */
+  private boolean ensure(final int count) throws IOException {
+    while (tail - head < count) {
+      if (!fill()) {
+        return tail - head >= count;
+      }
+    }
+    return true;
+  }
+
+
+
+
+  /**
+   * Read part data up to, but not including, the next delimiter.
+   *
+   * <p>When the delimiter is reached, it is consumed and -1 is returned.
+   *
+   * @return the number of bytes read or -1 if the delimiter was reached
+   */
+  private int readPartData(final byte[] b, final int off, final int len) throws IOException {
+    while (true) {
+      final int pos = indexOfDelimiter(head, tail);
+      if (pos >= 0) {
+        if (pos == head) {
+          head += delimiter.length;
+          return -1;
+        }
+        final int count = Math.min(len, pos - head);
+        System.arraycopy(buffer, head, b, off, count);
+        head += count;
+        return count;
+      }
+
+      // bytes which cannot be the start of a delimiter are safe to return
+      final int safe = (tail - head) - (delimiter.length - 1);
+      if (safe > 0) {
+        final int count = Math.min(len, safe);
+        System.arraycopy(buffer, head, b, off, count);
+        head += count;
+        return count;
+      }
+
+      if (!fill()) {
+        throw new IOException("Multipart body ended before the closing boundary");
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Discard everything up to and including the next delimiter.
+   */
+  private void skipToDelimiter() throws IOException, ResponseException {
+    while (true) {
+      final int pos = indexOfDelimiter(head, tail);
+      if (pos >= 0) {
+        head = pos + delimiter.length;
+        return;
+      }
+      head = Math.max(head, tail - (delimiter.length - 1));
+      if (!fill()) {
+        throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but contains no boundary strings.");
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Skip any linear whitespace after a delimiter and the CRLF which ends the
+   * delimiter line.
+   */
+  private void skipTransportPadding() throws IOException, ResponseException {
+    while (ensure(1) && (buffer[head] == ' ' || buffer[head] == '\t')) {
+      head++;
+    }
+    if (ensure(1) && buffer[head] == CR) {
+      head++;
+    }
+    if (ensure(1) && buffer[head] == LF) {
+      head++;
+    } else {
+      throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Content type is multipart/form-data but chunk does not start with boundary.");
+    }
+  }
+
+
+
+
+  /**
+   * Read a single header line from the window, without its line terminator.
+   */
+  private String readLine() throws IOException, ResponseException {
+    int scanned = 0;
+    while (true) {
+      for (int i = head + scanned; i < tail; i++) {
+        if (buffer[i] == LF) {
+          int end = i;
+          if (end > head && buffer[end - 1] == CR) {
+            end--;
+          }
+          final String retval = new String(buffer, head, end - head, charset);
+          head = i + 1;
+          return retval;
+        }
+      }
+      scanned = tail - head;
+      if (scanned > MAX_HEADER_LINE) {
+        throw new ResponseException(Status.INTERNAL_ERROR, "Multipart header size exceeds MAX_HEADER_SIZE.");
+      }
+      if (!fill()) {
+        throw new ResponseException(Status.BAD_REQUEST, "BAD REQUEST: Multipart body ended within part headers.");
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Read the part headers up to and including the blank line.
+   *
+   * @return the headers keyed by their lower case name
+   */
+  private Map<String, String> readHeaders() throws IOException, ResponseException {
+    final Map<String, String> retval = new HashMap<String, String>();
+    String line = readLine();
+    int lines = 0;
+    while (line.trim().length() > 0) {
+      if (++lines > MAX_HEADER_LINES) {
+        throw new ResponseException(Status.INTERNAL_ERROR, "Multipart header size exceeds MAX_HEADER_SIZE.");
+      }
+      final int p = line.indexOf(':');
+      if (p >= 0) {
+        retval.put(line.substring(0, p).trim().toLowerCase(Locale.US), line.substring(p + 1).trim());
+      }
+      line = readLine();
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * A single part of a multipart body.
+   */
+  public class Part {
+    private final Map<String, String> headers;
+    private String name = null;
+    private String fileName = null;
+    private final String contentType;
+    private final InputStream stream;
+    private boolean done = false;
+    private long size = 0;
+
+
+
+
+    Part(final Map<String, String> hdrs) {
+      headers = Collections.unmodifiableMap(hdrs);
+      contentType = hdrs.get(HTTP.HDR_CONTENT_TYPE.toLowerCase(Locale.US));
+
+      final String disposition = hdrs.get("content-disposition");
+      if (disposition != null) {
+        final Matcher matcher = HTTPD.CONTENT_DISPOSITION_ATTRIBUTE_PATTERN.matcher(disposition);
+        while (matcher.find()) {
+          final String key = matcher.group(1);
+          if ("name".equalsIgnoreCase(key)) {
+            name = matcher.group(2);
+          } else if ("filename".equalsIgnoreCase(key)) {
+            fileName = matcher.group(2);
+          }
+        }
+      }
+
+      stream = new InputStream() {
+
+        @Override
+        public int read() throws IOException {
+          final byte[] single = new byte[1];
+          final int count = read(single, 0, 1);
+          return (count < 0) ? -1 : (single[0] & 0xFF);
+        }
+
+
+
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+          if (done) {
+            return -1;
+          }
+          if (len == 0) {
+            return 0;
+          }
+          final int count = readPartData(b, off, len);
+          if (count < 0) {
+            done = true;
+          } else {
+            size += count;
+          }
+          return count;
+        }
+
+
+
+
+        @Override
+        public int available() throws IOException {
+          if (done) {
+            return 0;
+          }
+          return Math.max(0, (tail - head) - (delimiter.length - 1));
+        }
+      };
+    }
+
+
+
+
+    /**
+     * @return the value of the {@code name} attribute of the content disposition, may be null
+     */
+    public String getName() {
+      return name;
+    }
+
+
+
+
+    /**
+     * @return the value of the {@code filename} attribute of the content disposition, may be null
+     */
+    public String getFileName() {
+      return fileName;
+    }
+
+
+
+
+    /**
+     * @return the content type of the part or null if the part did not specify one
+     */
+    public String getContentType() {
+      return contentType;
+    }
+
+
+
+
+    /**
+     * @param name the case-insensitive name of the header to retrieve
+     *
+     * @return the value of the named part header or null if not present
+     */
+    public String getHeader(final String name) {
+      return (name != null) ? headers.get(name.toLowerCase(Locale.US)) : null;
+    }
+
+
+
+
+    /**
+     * @return an unmodifiable map of the part headers keyed by their lower case names
+     */
+    public Map<String, String> getHeaders() {
+      return headers;
+    }
+
+
+
+
+    /**
+     * @return the stream of part data which ends at the next boundary
+     */
+    public InputStream getInputStream() {
+      return stream;
+    }
+
+
+
+
+    /**
+     * @return the number of data bytes read from this part so far
+     */
+    public long getSize() {
+      return size;
+    }
+
+
+
+
+    /**
+     * Copy the rest of the part data to the given stream.
+     *
+     * <p>The target stream is neither flushed nor closed.
+     *
+     * @param out the stream to which the data is written
+     *
+     * @return the number of bytes written
+     *
+     * @throws IOException if the data could not be read or written
+     */
+    public long transferTo(final OutputStream out) throws IOException {
+      final byte[] buf = new byte[DEFAULT_BUFFER_SIZE];
+      long retval = 0;
+      int read;
+      while ((read = stream.read(buf, 0, buf.length)) >= 0) {
+        out.write(buf, 0, read);
+        retval += read;
+      }
+      return retval;
+    }
+
+
+
+
+    /**
+     * Copy the rest of the part data to the given file, replacing any
+     * existing content.
+     *
+     * @param file the destination file
+     *
+     * @return the number of bytes written
+     *
+     * @throws IOException if the data could not be read or written
+     */
+    public long transferTo(final File file) throws IOException {
+      final FileOutputStream out = new FileOutputStream(file);
+      try {
+        return transferTo(out);
+      } finally {
+        out.close();
+      }
+    }
+
+
+
+
+    /**
+     * Read the rest of the part data as a string using the body encoding.
+     *
+     * <p>This buffers the data in memory so it should only be used for form
+     * fields and other small parts.
+     *
+     * @return the part data as a string
+     *
+     * @throws IOException if the data could not be read
+     */
+    public String getString() throws IOException {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      transferTo(out);
+      return new String(out.toByteArray(), charset);
+    }
+
+
+
+
+    /**
+     * @return true if all of the part data has been read
+     */
+    public boolean isComplete() {
+      return done;
+    }
+
+
+
+
+    /**
+     * Discard the rest of the part data.
+     */
+    void skip() throws IOException {
+      while (!done) {
+        final int pos = indexOfDelimiter(head, tail);
+        if (pos >= 0) {
+          size += pos - head;
+          head = pos + delimiter.length;
+          done = true;
+        } else {
+          final int safe = (tail - head) - (delimiter.length - 1);
+          if (safe > 0) {
+            size += safe;
+            head += safe;
+          }
+          if (!fill()) {
+            throw new IOException("Multipart body ended before the closing boundary");
+          }
+        }
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+/**
+ * A cache file which holds its data in a pooled direct buffer until it grows
+ * past the buffer size, at which point it spills into a pooled scratch file.
+ *
+ * <p>Small request bodies therefore never touch the disk. Callers which need
+ * a file name (e.g. to map or re-open the data) will cause the data to be
+ * spilled on their first call to {@link #getName()}; callers which can work
+ * with a buffer should check {@link #isInMemory()} and use
+ * {@link #getBuffer()} instead, or use {@link #map()} for either case.
+ *
+ * <p>Instances are not thread-safe; like all cache files, each is expected to
+ * be used by the single thread servicing its session.
+ */
+public class PooledCacheFile implements CacheFile {
+
+  private final CachePool pool;
+  private ByteBuffer buffer;
+  private File file = null;
+  private RandomAccessFile randomAccessFile = null;
+  private FileChannel channel = null;
+  private long size = 0;
+  private long reserved = 0;
+  private OutputStream stream = null;
+  private boolean deleted = false;
+  private boolean mapped = false;
+
+
+
+
+  /**
+   * Create a cache file backed by a buffer from the given pool.
+   *
+   * <p>If the memory quota of the pool has been reached, the cache file
+   * starts out on disk.
+   *
+   * @param pool the pool from which buffers and scratch files are drawn
+   */
+  PooledCacheFile(final CachePool pool) {
+    this.pool = pool;
+    buffer = pool.acquireBuffer();
+  }
+
+
+
+
+  /**
+   * Release the buffer or scratch file back to the pool.
+   *
+   * @see coyote.commons.network.http.CacheFile#delete()
+   */
+  @Override
+  public void delete() throws Exception {
+    if (!deleted) {
+      deleted = true;
+      HTTPD.safeClose(channel);
+      HTTPD.safeClose(randomAccessFile);
+      channel = null;
+      randomAccessFile = null;
+      if (buffer != null) {
+        pool.releaseBuffer(buffer);
+        buffer = null;
+      }
+      if (file != null) {
+        // a mapping may outlive us, so a mapped file is never reused
+        pool.releaseScratchFile(file, !mapped);
+        file = null;
+      }
+      pool.releaseDisk(reserved);
+      reserved = 0;
+    }
+  }
+
+
+
+
+  /**
+   * Return the absolute path to the file holding the data.
+   *
+   * <p>If the data is currently held in memory, this spills it to disk so
+   * the returned name can be used to access the data. The file is reused by
+   * the pool once this cache file is deleted, so it must not be memory mapped
+   * through its name; use {@link #map()} instead.
+   *
+   * @throws UncheckedIOException if the data could not be spilled to disk
+   *
+   * @see coyote.commons.network.http.CacheFile#getName()
+   */
+  @Override
+  public String getName() {
+    try {
+      spill();
+    } catch (final IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    return file.getAbsolutePath();
+  }
+
+
+
+
+  /**
+   * Access the cached data as a read-only buffer positioned at the start of
+   * the data.
+   *
+   * <p>Data held in memory is returned as with {@link #getBuffer()}. Data on
+   * disk is memory mapped, and the scratch file is then deleted rather than
+   * reused when this cache file is deleted, so the mapping stays valid for as
+   * long as it is reachable.
+   *
+   * @return the data
+   *
+   * @throws IOException if the cache file has been deleted or could not be mapped
+   */
+  public ByteBuffer map() throws IOException {
+    if (isInMemory()) {
+      return getBuffer();
+    }
+    spill();
+    mapped = true;
+    return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+  }
+
+
+
+
+  /**
+   * @see coyote.commons.network.http.CacheFile#open()
+   */
+  @Override
+  public OutputStream open() throws Exception {
+    if (stream == null) {
+      stream = new OutputStream() {
+
+        @Override
+        public void write(final int b) throws IOException {
+          write(new byte[]{(byte)b}, 0, 1);
+        }
+
+
+
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+          append(b, off, len);
+        }
+      };
+    }
+    return stream;
+  }
+
+
+
+
+  /**
+   * @return true if the data is held in a pooled buffer, false if it has been spilled to disk
+   */
+  public boolean isInMemory() {
+    return file == null && buffer != null && !deleted;
+  }
+
+
+
+
+  /**
+   * Access the cached data while it is held in memory.
+   *
+   * <p>The returned buffer is a read-only view positioned at the start of the
+   * data. It is only valid until this cache file is deleted, at which point
+   * the underlying memory returns to the pool.
+   *
+   * @return a read-only view of the data or null if the data is not in memory
+   */
+  public ByteBuffer getBuffer() {
+    if (isInMemory()) {
+      final ByteBuffer retval = buffer.asReadOnlyBuffer();
+      retval.flip();
+      return retval;
+    }
+    return null;
+  }
+
+
+
+
+  /**
+   * @return the number of bytes written to this cache file
+   */
+  public long getSize() {
+    return size;
+  }
+
+
+
+
+  private void append(final byte[] b, final int off, final int len) throws IOException {
+    if (deleted) {
+      throw new IOException("Cache file has been deleted");
+    }
+    if (len > 0) {
+      if (file == null && buffer != null && buffer.remaining() >= len) {
+        buffer.put(b, off, len);
+      } else {
+        spill();
+        pool.reserveDisk(len);
+        reserved += len;
+        final ByteBuffer src = ByteBuffer.wrap(b, off, len);
+        while (src.hasRemaining()) {
+          channel.write(src);
+        }
+      }
+      size += len;
+    }
+  }
+
+
+
+
+  /**
+   * Move any data in memory to a scratch file and send all further writes to
+   * that file.
+   */
+  private void spill() throws IOException {
+    if (deleted) {
+      throw new IOException("Cache file has been deleted");
+    }
+    if (file == null) {
+      final ByteBuffer data = buffer;
+      final int length = (data != null) ? data.position() : 0;
+      pool.reserveDisk(length);
+      reserved += length;
+      file = pool.acquireScratchFile();
+      randomAccessFile = new RandomAccessFile(file, "rw");
+      channel = randomAccessFile.getChannel();
+      if (data != null) {
+        data.flip();
+        while (data.hasRemaining()) {
+          channel.write(data);
+        }
+        pool.releaseBuffer(data);
+        buffer = null;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import coyote.loader.log.Log;
+
+
+/**
+ * A cache manager which draws its cache files from a shared
+ * {@link CachePool} instead of creating a new temporary file for each body.
+ *
+ * <p>One of these is created for each connection; all of them share the pool
+ * so the memory and disk quotas apply across all concurrent uploads.
+ */
+public class PooledCacheManager implements CacheManager {
+
+  private final CachePool pool;
+
+  private final List<CacheFile> cacheFiles = new ArrayList<CacheFile>();
+
+
+
+
+  /**
+   * @param pool the pool from which all cache files are drawn
+   */
+  public PooledCacheManager(final CachePool pool) {
+    if (pool == null) {
+      throw new IllegalArgumentException("Cache pool cannot be null");
+    }
+    this.pool = pool;
+  }
+
+
+
+
+  /**
+   * Return all the buffers and scratch files to the pool.
+   *
+   * @see coyote.commons.network.http.CacheManager#clear()
+   */
+  @Override
+  public void clear() {
+    final CacheFile[] files;
+    synchronized (cacheFiles) {
+      files = cacheFiles.toArray(new CacheFile[cacheFiles.size()]);
+      cacheFiles.clear();
+    }
+    for (final CacheFile file : files) {
+      try {
+        file.delete();
+      } catch (final Exception ignored) {
+        Log.append(HTTPD.EVENT, "WARNING: Could not release cache file ", ignored);
+      }
+    }
+  }
+
+
+
+
+  /**
+   * The tag is ignored as pooled scratch files are reused.
+   *
+   * @see coyote.commons.network.http.CacheManager#createCacheFile(java.lang.String)
+   */
+  @Override
+  public CacheFile createCacheFile(final String tag) throws Exception {
+    final PooledCacheFile retval = new PooledCacheFile(pool);
+    synchronized (cacheFiles) {
+      cacheFiles.add(retval);
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @return the pool from which this manager draws its cache files
+   */
+  public CachePool getPool() {
+    return pool;
+  }
+
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+/**
+ * Creates cache managers which all share a single {@link CachePool}.
+ *
+ * <p>Install this on a server with
+ * {@link HTTPD#setCacheManagerFactory(CacheManagerFactory)} to serve request
+ * bodies from pooled memory and reusable scratch files.
+ */
+public class PooledCacheManagerFactory implements CacheManagerFactory {
+
+  private final CachePool pool;
+
+
+
+
+  /**
+   * Create a factory with a pool using the default sizes and quotas.
+   */
+  public PooledCacheManagerFactory() {
+    this(new CachePool());
+  }
+
+
+
+
+  /**
+   * @param pool the pool shared by all the cache managers this factory creates
+   */
+  public PooledCacheManagerFactory(final CachePool pool) {
+    this.pool = pool;
+  }
+
+
+
+
+  @Override
+  public CacheManager create() {
+    return new PooledCacheManager(pool);
+  }
+
+
+
+
+  /**
+   * @return the pool shared by all the cache managers, for metrics
+   */
+  public CachePool getPool() {
+    return pool;
+  }
+
+}
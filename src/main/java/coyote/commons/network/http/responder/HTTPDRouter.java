@@ -163,6 +163,7 @@ public class HTTPDRouter extends HTTPD {
     }
     finally {
       arm.stop();
+      arm.destroy();
     }
   }
 
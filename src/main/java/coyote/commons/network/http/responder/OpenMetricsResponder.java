@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+
+package coyote.commons.network.http.responder;
+
+import java.util.Map;
+
+import coyote.commons.network.MimeType;
+import coyote.commons.network.http.HTTP;
+import coyote.commons.network.http.HTTPSession;
+import coyote.commons.network.http.Response;
+import coyote.commons.network.http.Status;
+import coyote.i13n.OpenMetrics;
+import coyote.i13n.StatBoard;
+import coyote.loader.Loader;
+
+
+/**
+ * Responder which exposes the counters, gauges, states, timers and ARM
+ * masters of a statboard for scraping by Prometheus or any other OpenMetrics
+ * collector.
+ *
+ * <p>The statboard is located in the initialization parameters of the
+ * resource; either a StatBoard instance or a Loader (such as the WebServer)
+ * whose statboard is used. This allows the responder to be mounted in code:
+ * <pre>
+ * router.addRoute( "/metrics", OpenMetricsResponder.class, statboard );</pre>
+ * or through the mappings of the WebServer configuration:<pre>
+ * "Mappings": { "/metrics": { "Class": "coyote.commons.network.http.responder.OpenMetricsResponder" } }</pre>
+ *
+ * <p>The OpenMetrics format is returned when the client asks for it in the
+ * Accept header, the Prometheus text format otherwise. The metrics are
+ * captured once at the start of the request and streamed as a chunked
+ * response while they are rendered.
+ */
+public class OpenMetricsResponder extends DefaultResponder {
+
+  @Override
+  public Response get(final Resource resource, final Map<String, String> urlParams, final HTTPSession session) {
+    final StatBoard board = findStatBoard(resource);
+    if (board == null) {
+      return Response.createFixedLengthResponse(Status.NOT_FOUND, MimeType.TEXT.getType(), "No statboard available");
+    }
+    final boolean openMetrics = OpenMetrics.acceptsOpenMetrics(session.getRequestHeaders().get(HTTP.HDR_ACCEPT.toLowerCase()));
+    final String type = openMetrics ? OpenMetrics.OPENMETRICS_CONTENT_TYPE : OpenMetrics.TEXT_CONTENT_TYPE;
+    return Response.createChunkedResponse(Status.OK, type, OpenMetrics.snapshot(board).openStream(openMetrics));
+  }
+
+
+
+
+  /**
+   * Find the statboard in the initialization parameters of the resource.
+   *
+   * @param resource the resource being requested
+   *
+   * @return the first statboard found or null if there are none
+   */
+  private StatBoard findStatBoard(final Resource resource) {
+    for (int x = 0; x < resource.getInitParameterLength(); x++) {
+      final Object param = resource.initParameter(x, Object.class);
+      if (param instanceof StatBoard) {
+        return (StatBoard)param;
+      } else if (param instanceof Loader && ((Loader)param).getStats() != null) {
+        return ((Loader)param).getStats();
+      }
+    }
+    return null;
+  }
+
+
+
+
+  @Override
+  public String getMimeType() {
+    return OpenMetrics.TEXT_CONTENT_TYPE;
+  }
+
+
+
+
+  @Override
+  public Status getStatus() {
+    return Status.OK;
+  }
+
+
+
+
+  @Override
+  public String getText() {
+    throw new IllegalStateException("This method should not be called");
+  }
+
+}
\ No newline at end of file
@@ -26,6 +26,7 @@ import coyote.commons.network.http.SecurityResponseException;
 import coyote.commons.network.http.Status;
 import coyote.commons.network.http.auth.Auth;
 import coyote.commons.network.http.auth.AuthProvider;
+import coyote.loader.ComponentFactory;
 import coyote.loader.log.Log;
 
 
@@ -188,7 +189,7 @@ public class Resource {
 
     if (responderClass != null) {
       try {
-        final Object object = responderClass.newInstance();
+        final Object object = ComponentFactory.construct(responderClass);
 
         // Check for a class level Auth annotation which is applied to all methods
         if (responderClass.isAnnotationPresent(Auth.class)) {
@@ -0,0 +1,969 @@
+package coyote.commons.network.http.wsd;
+
+import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+
+import coyote.commons.network.http.wsd.WebSocketFrame.CloseCode;
+import coyote.commons.network.http.wsd.WebSocketFrame.OpCode;
+
+
+/**
+ * Fans frames out to the WebSockets subscribed to a topic.
+ *
+ * <p>A published frame is encoded exactly once into an immutable
+ * {@link EncodedFrame} which is then placed in the bounded outbound queue of
+ * each subscriber. Publishing never touches a socket; the queues are drained
+ * by a small set of writer threads owned by the hub, so a slow
+ * consumer only ever delays its own frames. When a queue is full, the
+ * {@link SlowConsumerPolicy} of that connection decides what gives.
+ *
+ * <p>Each connection is drained by at most one writer at a time, so frames
+ * arrive in the order they were published. A writer sends a limited batch of
+ * frames before moving on to the next connection so a busy connection does
+ * not starve the others.
+ *
+ * <p>Socket writes block, so a peer which stops reading would hold its
+ * writer. A monitor thread therefore watches every write and when one has
+ * taken longer than the write timeout, the connection is treated as a slow
+ * consumer: under {@link SlowConsumerPolicy#DISCONNECT} it is dropped at
+ * once, which also releases the writer; under the other policies the writer
+ * is left with the stalled connection and a new writer takes its place, while
+ * the stalled connection's queue keeps applying its policy until the peer
+ * catches up. The writer left behind retires when its write completes. At
+ * most as many writers as the hub was created with may be stalled at once;
+ * beyond that, stalled connections are dropped whatever their policy.
+ *
+ * <p>Sockets should be removed from the hub in their
+ * {@link WebSocket#onClose(CloseCode, String, boolean)} method; sockets found
+ * closed are also removed as they are encountered.
+ */
+public class BroadcastHub {
+
+  /** The default number of frames which may wait for each connection */
+  public static final int DEFAULT_QUEUE_CAPACITY = 64;
+
+  /** The default number of writer threads */
+  public static final int DEFAULT_WRITERS = 2;
+
+  /** The default number of milliseconds a write may block before the connection is considered stalled */
+  public static final long DEFAULT_WRITE_TIMEOUT = 5000;
+
+  /** The number of frames written to a connection before yielding to the next */
+  private static final int BATCH_SIZE = 16;
+
+  // results of offering a frame to a connection
+  private static final int QUEUED = 0;
+  private static final int SCHEDULE = 1;
+  private static final int COALESCED = 2;
+  private static final int DISPLACED = 3;
+  private static final int DROPPED = 4;
+  private static final int OVERFLOW = 5;
+  private static final int CLOSED = 6;
+
+  private static int hubCount = 0;
+
+  private final int id;
+  private final int queueCapacity;
+  private final SlowConsumerPolicy defaultPolicy;
+  private final int writerCount;
+  private volatile long writeTimeout = DEFAULT_WRITE_TIMEOUT;
+
+  // guarded by this
+  private final Map<WebSocket, Connection> connections = new HashMap<WebSocket, Connection>();
+  private final Map<String, Connection[]> topics = new HashMap<String, Connection[]>();
+  private long published = 0;
+  private long queued = 0;
+  private long dropped = 0;
+  private long coalesced = 0;
+  private long disconnected = 0;
+  private long stalls = 0;
+
+  /** Frames written, counted by the writers without taking the hub lock */
+  private final LongAdder written = new LongAdder();
+
+  /** Connections with frames waiting for a writer, guarded by itself */
+  private final ArrayDeque<Connection> ready = new ArrayDeque<Connection>();
+
+  /** The live writers, including stalled ones, guarded by itself */
+  private final List<Writer> writers = new ArrayList<Writer>();
+  private int writerSequence = 0;
+  private final Thread monitor;
+  private volatile boolean running = true;
+
+
+
+
+  /**
+   * Create a hub with the default queue capacity, writer count and the
+   * {@link SlowConsumerPolicy#DROP} policy.
+   */
+  public BroadcastHub() {
+    this(DEFAULT_QUEUE_CAPACITY, SlowConsumerPolicy.DROP, DEFAULT_WRITERS);
+  }
+
+
+
+
+  /**
+   * Create a hub and start its writer threads.
+   *
+   * @param queueCapacity the number of frames which may wait for each connection
+   * @param policy the policy for connections subscribed without one of their own
+   * @param writerCount the number of threads writing to sockets
+   */
+  public BroadcastHub(final int queueCapacity, final SlowConsumerPolicy policy, final int writerCount) {
+    if (queueCapacity < 1) {
+      throw new IllegalArgumentException("Queue capacity must be positive");
+    }
+    if (writerCount < 1) {
+      throw new IllegalArgumentException("There must be at least one writer");
+    }
+    this.queueCapacity = queueCapacity;
+    this.writerCount = writerCount;
+    defaultPolicy = (policy != null) ? policy : SlowConsumerPolicy.DROP;
+
+    synchronized (BroadcastHub.class) {
+      id = hubCount++;
+    }
+    synchronized (writers) {
+      for (int x = 0; x < writerCount; x++) {
+        startWriter();
+      }
+    }
+    monitor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        monitorLoop();
+      }
+    });
+    monitor.setDaemon(true);
+    monitor.setName("WebSocket Write Monitor(" + id + ")");
+    monitor.start();
+  }
+
+
+
+
+  /**
+   * @return the number of milliseconds a write may block before its connection is considered stalled
+   */
+  public long getWriteTimeout() {
+    return writeTimeout;
+  }
+
+
+
+
+  /**
+   * Set how long a write may block before its connection is treated as a
+   * slow consumer.
+   *
+   * @param millis the number of milliseconds a write may block
+   */
+  public void setWriteTimeout(final long millis) {
+    if (millis < 1) {
+      throw new IllegalArgumentException("Write timeout must be positive");
+    }
+    writeTimeout = millis;
+    monitor.interrupt(); // check again at the new pace
+  }
+
+
+
+
+  /**
+   * Subscribe a socket to a topic using the default slow-consumer policy of
+   * this hub.
+   *
+   * @param topic the name of the topic
+   * @param socket the socket to receive frames published to the topic
+   */
+  public void subscribe(final String topic, final WebSocket socket) {
+    subscribe(topic, socket, null);
+  }
+
+
+
+
+  /**
+   * Subscribe a socket to a topic.
+   *
+   * <p>The policy applies to the connection as a whole, not just this topic;
+   * subscribing with a different policy changes it for all the topics of the
+   * socket.
+   *
+   * @param topic the name of the topic
+   * @param socket the socket to receive frames published to the topic
+   * @param policy how to treat the socket when it falls behind, null for the hub default
+   */
+  public void subscribe(final String topic, final WebSocket socket, final SlowConsumerPolicy policy) {
+    if (topic == null || socket == null) {
+      throw new IllegalArgumentException("Topic and socket are required");
+    }
+    synchronized (this) {
+      Connection connection = connections.get(socket);
+      if (connection == null) {
+        connection = new Connection(socket, (policy != null) ? policy : defaultPolicy);
+        connections.put(socket, connection);
+      } else if (policy != null) {
+        connection.policy = policy;
+      }
+      if (connection.topics.add(topic)) {
+        final Connection[] current = topics.get(topic);
+        if (current == null) {
+          topics.put(topic, new Connection[]{connection});
+        } else {
+          final Connection[] next = new Connection[current.length + 1];
+          System.arraycopy(current, 0, next, 0, current.length);
+          next[current.length] = connection;
+          topics.put(topic, next);
+        }
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Remove a socket from a topic.
+   *
+   * <p>Frames already queued for the socket are still delivered.
+   *
+   * @param topic the name of the topic
+   * @param socket the socket to unsubscribe
+   */
+  public synchronized void unsubscribe(final String topic, final WebSocket socket) {
+    final Connection connection = connections.get(socket);
+    if (connection != null && connection.topics.remove(topic)) {
+      removeFromTopic(topic, connection);
+      if (connection.topics.isEmpty()) {
+        connections.remove(socket);
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Remove a socket from all its topics and discard anything queued for it.
+   *
+   * @param socket the socket to remove
+   */
+  public void remove(final WebSocket socket) {
+    final Connection connection;
+    synchronized (this) {
+      connection = connections.get(socket);
+      if (connection != null) {
+        detach(connection);
+      }
+    }
+    if (connection != null) {
+      connection.close();
+    }
+  }
+
+
+
+
+  /**
+   * Publish a text message to a topic.
+   *
+   * @param topic the name of the topic
+   * @param text the message
+   *
+   * @return the number of connections the message was queued for
+   *
+   * @throws CharacterCodingException if the text could not be encoded
+   */
+  public int publish(final String topic, final String text) throws CharacterCodingException {
+    if (!hasSubscribers(topic)) {
+      countPublished();
+      return 0;
+    }
+    return publish(topic, new WebSocketFrame(OpCode.Text, true, text));
+  }
+
+
+
+
+  /**
+   * Publish a binary message to a topic.
+   *
+   * @param topic the name of the topic
+   * @param data the message
+   *
+   * @return the number of connections the message was queued for
+   */
+  public int publish(final String topic, final byte[] data) {
+    return publish(topic, new WebSocketFrame(OpCode.Binary, true, data));
+  }
+
+
+
+
+  /**
+   * Publish a frame to a topic.
+   *
+   * <p>The frame is only encoded if the topic has subscribers.
+   *
+   * @param topic the name of the topic
+   * @param frame the frame to publish
+   *
+   * @return the number of connections the frame was queued for
+   */
+  public int publish(final String topic, final WebSocketFrame frame) {
+    if (!hasSubscribers(topic)) {
+      countPublished();
+      return 0;
+    }
+    return publish(topic, new EncodedFrame(frame));
+  }
+
+
+
+
+  /**
+   * Publish an encoded frame to a topic.
+   *
+   * <p>This never blocks on a socket. Connections whose queues are full are
+   * handled according to their slow-consumer policy.
+   *
+   * @param topic the name of the topic
+   * @param frame the encoded frame to publish
+   *
+   * @return the number of connections the frame was queued for
+   */
+  public int publish(final String topic, final EncodedFrame frame) {
+    final Connection[] subscribers;
+    synchronized (this) {
+      published++;
+      subscribers = topics.get(topic);
+    }
+    if (subscribers == null || !running) {
+      return 0;
+    }
+
+    int accepted = 0;
+    int drops = 0;
+    int merges = 0;
+    Set<Connection> overflowed = null;
+    for (final Connection connection : subscribers) {
+      switch (connection.offer(topic, frame)) {
+        case SCHEDULE:
+          schedule(connection);
+          accepted++;
+          break;
+        case QUEUED:
+          accepted++;
+          break;
+        case COALESCED:
+          merges++;
+          accepted++;
+          break;
+        case DISPLACED:
+          drops++;
+          accepted++;
+          break;
+        case DROPPED:
+          drops++;
+          break;
+        case OVERFLOW:
+          if (overflowed == null) {
+            overflowed = new HashSet<Connection>();
+          }
+          overflowed.add(connection);
+          break;
+        default:
+          // closed, on its way out
+          break;
+      }
+    }
+
+    synchronized (this) {
+      queued += accepted;
+      dropped += drops;
+      coalesced += merges;
+      if (overflowed != null) {
+        for (final Connection connection : overflowed) {
+          detach(connection);
+          disconnected++;
+        }
+      }
+    }
+
+    if (overflowed != null) {
+      for (final Connection connection : overflowed) {
+        WebSocketDaemon.LOG.log(Level.FINE, "Disconnecting slow WebSocket consumer");
+        connection.socket.abort(CloseCode.PolicyViolation, "Outbound queue overflow");
+      }
+    }
+    return accepted;
+  }
+
+
+
+
+  /**
+   * Stop the writer threads and forget all connections.
+   *
+   * <p>Queued frames are discarded; the sockets themselves are not closed.
+   */
+  public void shutdown() {
+    running = false;
+    monitor.interrupt();
+    synchronized (ready) {
+      ready.clear();
+      ready.notifyAll();
+    }
+    final Connection[] all;
+    synchronized (this) {
+      all = connections.values().toArray(new Connection[connections.size()]);
+      connections.clear();
+      topics.clear();
+    }
+    for (final Connection connection : all) {
+      connection.close();
+    }
+    final Writer[] threads;
+    synchronized (writers) {
+      threads = writers.toArray(new Writer[writers.size()]);
+    }
+    for (final Writer writer : threads) {
+      try {
+        writer.thread.join(1000);
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+  }
+
+
+
+
+  /**
+   * @param topic the name of the topic
+   *
+   * @return true if at least one socket is subscribed to the topic
+   */
+  public synchronized boolean hasSubscribers(final String topic) {
+    return topics.containsKey(topic);
+  }
+
+
+
+
+  /**
+   * @param topic the name of the topic
+   *
+   * @return the number of sockets subscribed to the topic
+   */
+  public synchronized int getSubscriberCount(final String topic) {
+    final Connection[] subscribers = topics.get(topic);
+    return (subscribers != null) ? subscribers.length : 0;
+  }
+
+
+
+
+  /**
+   * @return the number of sockets subscribed to at least one topic
+   */
+  public synchronized int getConnectionCount() {
+    return connections.size();
+  }
+
+
+
+
+  /**
+   * @param socket the socket to check
+   *
+   * @return the number of frames waiting to be written to the socket
+   */
+  public int getQueueDepth(final WebSocket socket) {
+    final Connection connection;
+    synchronized (this) {
+      connection = connections.get(socket);
+    }
+    if (connection == null) {
+      return 0;
+    }
+    synchronized (connection) {
+      return connection.queue.size();
+    }
+  }
+
+
+
+
+  /**
+   * @return the number of frames which may wait for each connection
+   */
+  public int getQueueCapacity() {
+    return queueCapacity;
+  }
+
+
+
+
+  /**
+   * @return the number of frames published, with or without subscribers
+   */
+  public synchronized long getPublishedCount() {
+    return published;
+  }
+
+
+
+
+  /**
+   * @return the number of frames placed in (or merged into) outbound queues
+   */
+  public synchronized long getQueuedCount() {
+    return queued;
+  }
+
+
+
+
+  /**
+   * @return the number of frames written to sockets
+   */
+  public long getWrittenCount() {
+    return written.sum();
+  }
+
+
+
+
+  /**
+   * @return the number of frames discarded because a queue was full
+   */
+  public synchronized long getDroppedCount() {
+    return dropped;
+  }
+
+
+
+
+  /**
+   * @return the number of frames which replaced a queued frame of the same topic
+   */
+  public synchronized long getCoalescedCount() {
+    return coalesced;
+  }
+
+
+
+
+  /**
+   * @return the number of connections dropped for falling behind
+   */
+  public synchronized long getDisconnectedCount() {
+    return disconnected;
+  }
+
+
+
+
+  /**
+   * @return the number of writes which blocked for longer than the write timeout
+   */
+  public synchronized long getStalledCount() {
+    return stalls;
+  }
+
+
+
+
+  @Override
+  public synchronized String toString() {
+    final StringBuilder b = new StringBuilder(getClass().getSimpleName());
+    b.append(": connections ");
+    b.append(connections.size());
+    b.append(" topics ");
+    b.append(topics.size());
+    b.append(" published ");
+    b.append(published);
+    b.append(" written ");
+    b.append(written.sum());
+    b.append(" dropped ");
+    b.append(dropped);
+    b.append(" coalesced ");
+    b.append(coalesced);
+    b.append(" disconnected ");
+    b.append(disconnected);
+    return b.toString();
+  }
+
+
+
+
+  private synchronized void countPublished() {
+    published++;
+  }
+
+
+
+
+  /**
+   * Remove the connection from all its topics; caller must hold the lock.
+   */
+  private void detach(final Connection connection) {
+    connections.remove(connection.socket);
+    for (final String topic : connection.topics) {
+      removeFromTopic(topic, connection);
+    }
+    connection.topics.clear();
+  }
+
+
+
+
+  /**
+   * Remove the connection from the subscribers of a topic; caller must hold
+   * the lock.
+   */
+  private void removeFromTopic(final String topic, final Connection connection) {
+    final Connection[] current = topics.get(topic);
+    if (current != null) {
+      int index = -1;
+      for (int x = 0; x < current.length; x++) {
+        if (current[x] == connection) {
+          index = x;
+          break;
+        }
+      }
+      if (index >= 0) {
+        if (current.length == 1) {
+          topics.remove(topic);
+        } else {
+          final Connection[] next = new Connection[current.length - 1];
+          System.arraycopy(current, 0, next, 0, index);
+          System.arraycopy(current, index + 1, next, index, current.length - index - 1);
+          topics.put(topic, next);
+        }
+      }
+    }
+  }
+
+
+
+
+  private void schedule(final Connection connection) {
+    synchronized (ready) {
+      ready.add(connection);
+      ready.notify();
+    }
+  }
+
+
+
+
+  /**
+   * Start another writer; caller must hold the writers lock.
+   */
+  private void startWriter() {
+    final Writer writer = new Writer("WebSocket Writer(" + id + "." + writerSequence++ + ")");
+    writers.add(writer);
+    writer.thread.start();
+  }
+
+
+
+
+  /**
+   * The body of each writer thread: take a connection with frames waiting,
+   * write a batch of them and put the connection back at the end of the line
+   * if there is more. A writer which stalled retires once its write returns,
+   * as another has already taken its place.
+   */
+  private void writeLoop(final Writer writer) {
+    try {
+      while (running && !writer.stalled) {
+        final Connection connection;
+        synchronized (ready) {
+          while (running && ready.isEmpty()) {
+            try {
+              ready.wait();
+            } catch (final InterruptedException e) {
+              return;
+            }
+          }
+          connection = ready.poll();
+        }
+        if (connection != null) {
+          drain(writer, connection);
+        }
+      }
+    } finally {
+      synchronized (writers) {
+        writers.remove(writer);
+      }
+    }
+  }
+
+
+
+
+  private void drain(final Writer writer, final Connection connection) {
+    for (int x = 0; x < BATCH_SIZE; x++) {
+      final EncodedFrame frame = connection.next();
+      if (frame == null) {
+        return;
+      }
+      if (!connection.socket.isOpen()) {
+        remove(connection.socket);
+        return;
+      }
+      writer.connection = connection;
+      writer.since = System.nanoTime();
+      try {
+        connection.socket.sendFrame(frame);
+        written.increment();
+      } catch (final IOException e) {
+        WebSocketDaemon.LOG.log(Level.FINE, "Broadcast write failed", e);
+        connection.socket.abort(CloseCode.AbnormalClosure, e.toString());
+        remove(connection.socket);
+        return;
+      } finally {
+        writer.since = 0;
+        writer.connection = null;
+      }
+      if (writer.stalled) {
+        break; // hand the rest to the writers still in service
+      }
+    }
+    if (connection.reschedule()) {
+      schedule(connection);
+    }
+  }
+
+
+
+
+  /**
+   * The body of the monitor thread: look for stalled writes a few times per
+   * write timeout.
+   */
+  private void monitorLoop() {
+    while (running) {
+      try {
+        Thread.sleep(Math.min(1000, Math.max(10, writeTimeout / 4)));
+      } catch (final InterruptedException e) {
+        continue; // shut down or the timeout changed
+      }
+      checkWriters();
+    }
+  }
+
+
+
+
+  /**
+   * Treat the connection of every write which has blocked past the write
+   * timeout as a slow consumer.
+   */
+  private void checkWriters() {
+    final long now = System.nanoTime();
+    final long limit = writeTimeout * 1000000L;
+    int stalled = 0;
+    final List<Connection> evicted = new ArrayList<Connection>();
+    synchronized (writers) {
+      for (final Writer writer : new ArrayList<Writer>(writers)) {
+        final Connection connection = writer.connection;
+        final long since = writer.since;
+        if (writer.stalled || connection == null || since == 0 || now - since <= limit) {
+          continue;
+        }
+        writer.stalled = true;
+        stalled++;
+        // never more stalled writers than writers in service
+        if (connection.policy == SlowConsumerPolicy.DISCONNECT || writers.size() >= 2 * writerCount) {
+          evicted.add(connection);
+        }
+        startWriter();
+      }
+    }
+    if (stalled == 0) {
+      return;
+    }
+
+    synchronized (this) {
+      stalls += stalled;
+      for (final Connection connection : evicted) {
+        if (connections.get(connection.socket) == connection) {
+          detach(connection);
+          disconnected++;
+        }
+      }
+    }
+    for (final Connection connection : evicted) {
+      WebSocketDaemon.LOG.log(Level.FINE, "Disconnecting stalled WebSocket consumer");
+      connection.close();
+      connection.socket.abort(CloseCode.PolicyViolation, "Write timed out");
+    }
+  }
+
+
+
+
+  /**
+   * A writer thread and the write it is blocked in, if any.
+   */
+  private class Writer implements Runnable {
+    final Thread thread;
+    volatile Connection connection = null;
+    volatile long since = 0;
+    volatile boolean stalled = false;
+
+
+
+
+    Writer(final String name) {
+      thread = new Thread(this);
+      thread.setDaemon(true);
+      thread.setName(name);
+    }
+
+
+
+
+    @Override
+    public void run() {
+      writeLoop(this);
+    }
+  }
+
+
+
+
+  /**
+   * A frame waiting in an outbound queue.
+   */
+  private static class Entry {
+    final String topic;
+    EncodedFrame frame;
+
+
+
+
+    Entry(final String topic, final EncodedFrame frame) {
+      this.topic = topic;
+      this.frame = frame;
+    }
+  }
+
+  /**
+   * The outbound side of one socket: its queue, its policy and its topics.
+   *
+   * <p>The queue and the scheduling flag are guarded by the connection
+   * itself; the topics by the hub.
+   */
+  private class Connection {
+    final WebSocket socket;
+    final Set<String> topics = new HashSet<String>();
+    final ArrayDeque<Entry> queue = new ArrayDeque<Entry>();
+    volatile SlowConsumerPolicy policy;
+    boolean scheduled = false;
+    boolean closed = false;
+
+
+
+
+    Connection(final WebSocket socket, final SlowConsumerPolicy policy) {
+      this.socket = socket;
+      this.policy = policy;
+    }
+
+
+
+
+    synchronized int offer(final String topic, final EncodedFrame frame) {
+      if (closed) {
+        return CLOSED;
+      }
+      final SlowConsumerPolicy current = policy;
+      int retval = QUEUED;
+      if (current == SlowConsumerPolicy.COALESCE) {
+        for (final Iterator<Entry> it = queue.iterator(); it.hasNext();) {
+          final Entry entry = it.next();
+          if (entry.topic.equals(topic)) {
+            entry.frame = frame;
+            return COALESCED;
+          }
+        }
+      }
+      if (queue.size() >= queueCapacity) {
+        if (current == SlowConsumerPolicy.DROP) {
+          return DROPPED;
+        } else if (current == SlowConsumerPolicy.DISCONNECT) {
+          closed = true;
+          queue.clear();
+          return OVERFLOW;
+        } else {
+          queue.poll();
+          retval = DISPLACED;
+        }
+      }
+      queue.add(new Entry(topic, frame));
+      if (!scheduled) {
+        // only an empty queue is ever unscheduled, so nothing was displaced
+        scheduled = true;
+        return SCHEDULE;
+      }
+      return retval;
+    }
+
+
+
+
+    /**
+     * @return the next frame to write or null (clearing the scheduled flag) if there is none
+     */
+    synchronized EncodedFrame next() {
+      final Entry entry = closed ? null : queue.poll();
+      if (entry == null) {
+        scheduled = false;
+        return null;
+      }
+      return entry.frame;
+    }
+
+
+
+
+    /**
+     * @return true if frames remain and the connection should go back in line
+     */
+    synchronized boolean reschedule() {
+      if (closed || queue.isEmpty()) {
+        scheduled = false;
+        return false;
+      }
+      return true;
+    }
+
+
+
+
+    synchronized void close() {
+      closed = true;
+      queue.clear();
+    }
+  }
+
+}
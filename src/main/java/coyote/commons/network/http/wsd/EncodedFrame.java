@@ -0,0 +1,84 @@
+package coyote.commons.network.http.wsd;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import coyote.commons.network.http.wsd.WebSocketFrame.OpCode;
+
+
+/**
+ * A WebSocket frame which has been encoded into its wire format once so it
+ * can be written to any number of connections.
+ *
+ * <p>Instances are immutable and may be shared freely between threads; the
+ * encoded bytes are never exposed, only written.
+ */
+public final class EncodedFrame {
+
+  private final byte[] data;
+  private final OpCode opCode;
+
+
+
+
+  /**
+   * Encode the given frame.
+   *
+   * <p>Frames sent by a server must not be masked, so any masking key on the
+   * frame is encoded as is and is the responsibility of the caller.
+   *
+   * @param frame the frame to encode
+   */
+  public EncodedFrame(final WebSocketFrame frame) {
+    if (frame == null) {
+      throw new IllegalArgumentException("Frame cannot be null");
+    }
+    data = frame.encode();
+    opCode = frame.getOpCode();
+  }
+
+
+
+
+  /**
+   * @return the operation code of the encoded frame
+   */
+  public OpCode getOpCode() {
+    return opCode;
+  }
+
+
+
+
+  /**
+   * @return the number of bytes this frame occupies on the wire
+   */
+  public int length() {
+    return data.length;
+  }
+
+
+
+
+  /**
+   * Write the encoded frame to the given stream in a single write and flush
+   * it.
+   *
+   * @param out the stream to which the frame is written
+   *
+   * @throws IOException if the frame could not be written
+   */
+  public void write(final OutputStream out) throws IOException {
+    out.write(data, 0, data.length);
+    out.flush();
+  }
+
+
+
+
+  @Override
+  public String toString() {
+    return "WS[" + opCode + ", encoded, " + data.length + "b]";
+  }
+
+}
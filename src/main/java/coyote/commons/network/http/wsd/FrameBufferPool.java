@@ -0,0 +1,147 @@
+package coyote.commons.network.http.wsd;
+
+import java.util.ArrayDeque;
+
+
+/**
+ * A pool of equally sized byte arrays used to assemble frames on their way
+ * out so each frame leaves in a single write without a fresh allocation.
+ *
+ * <p>Requests larger than the buffer size are satisfied with a new array
+ * which is simply dropped when it is released. The pool never holds more than
+ * its maximum number of idle buffers.
+ */
+public class FrameBufferPool {
+
+  /** Default size of each pooled buffer */
+  public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  /** Default number of idle buffers retained */
+  public static final int DEFAULT_BUFFER_COUNT = 32;
+
+  private final int bufferSize;
+  private final int maxBuffers;
+
+  // guarded by this
+  private final ArrayDeque<byte[]> free = new ArrayDeque<byte[]>();
+  private long hits = 0;
+  private long misses = 0;
+
+
+
+
+  /**
+   * Create a pool with the default buffer size and count.
+   */
+  public FrameBufferPool() {
+    this(DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT);
+  }
+
+
+
+
+  /**
+   * Create a pool.
+   *
+   * @param bufferSize the size of each buffer, the largest request served from the pool
+   * @param maxBuffers the maximum number of idle buffers to retain
+   */
+  public FrameBufferPool(final int bufferSize, final int maxBuffers) {
+    if (bufferSize < 1) {
+      throw new IllegalArgumentException("Buffer size must be positive");
+    }
+    this.bufferSize = bufferSize;
+    this.maxBuffers = (maxBuffers < 0) ? 0 : maxBuffers;
+  }
+
+
+
+
+  /**
+   * Retrieve a buffer of at least the given size.
+   *
+   * @param size the number of bytes required
+   *
+   * @return a pooled buffer or, if the size exceeds the buffer size, a new one
+   */
+  public byte[] acquire(final int size) {
+    if (size > bufferSize) {
+      synchronized (this) {
+        misses++;
+      }
+      return new byte[size];
+    }
+    byte[] retval;
+    synchronized (this) {
+      retval = free.poll();
+      if (retval != null) {
+        hits++;
+      } else {
+        misses++;
+      }
+    }
+    return (retval != null) ? retval : new byte[bufferSize];
+  }
+
+
+
+
+  /**
+   * Return a buffer to the pool.
+   *
+   * <p>Buffers not of the pool size, and buffers beyond the maximum idle
+   * count, are left for the garbage collector.
+   *
+   * @param buffer the buffer previously obtained from {@link #acquire(int)}
+   */
+  public void release(final byte[] buffer) {
+    if (buffer != null && buffer.length == bufferSize) {
+      synchronized (this) {
+        if (free.size() < maxBuffers) {
+          free.push(buffer);
+        }
+      }
+    }
+  }
+
+
+
+
+  /**
+   * @return the size of each pooled buffer
+   */
+  public int getBufferSize() {
+    return bufferSize;
+  }
+
+
+
+
+  /**
+   * @return the number of requests served by an idle pooled buffer
+   */
+  public synchronized long getHitCount() {
+    return hits;
+  }
+
+
+
+
+  /**
+   * @return the number of requests which required a new array
+   */
+  public synchronized long getMissCount() {
+    return misses;
+  }
+
+
+
+
+  /**
+   * @return the number of idle buffers in the pool
+   */
+  public synchronized int getIdleCount() {
+    return free.size();
+  }
+
+}
@@ -0,0 +1,434 @@
+package coyote.commons.network.http.wsd;
+
+import java.io.ByteArrayOutputStream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import coyote.commons.network.http.wsd.WebSocketFrame.CloseCode;
+import coyote.commons.network.http.wsd.WebSocketFrame.OpCode;
+
+
+/**
+ * The {@code permessage-deflate} extension (RFC 7692).
+ *
+ * <p>An instance configured on the {@link WebSocketDaemon} is the server
+ * policy: it never compresses anything itself but {@link #negotiate(String)
+ * negotiates} with the offer of each client, producing a new instance bound
+ * to that connection. The connection instance owns one {@link Deflater} and
+ * one {@link Inflater} for the life of the connection so, unless context
+ * takeover was declined, each message is compressed using the history of
+ * the ones before it.
+ *
+ * <p>Messages smaller than the threshold are sent uncompressed; the RSV1 bit
+ * tells the peer which is which. Frames encoded once for many connections
+ * (see {@link BroadcastHub}) are never compressed since the compressed form
+ * depends on the history of each connection.
+ *
+ * <p>{@code java.util.zip} always compresses with a 32K window, so offers
+ * which limit the server window below 15 bits are declined. The client
+ * window needs no special handling as our inflater accepts any window size.
+ */
+public class PerMessageDeflate {
+
+  /** The extension name used in the handshake */
+  public static final String EXTENSION_NAME = "permessage-deflate";
+
+  /** Default size in bytes below which messages are sent uncompressed */
+  public static final int DEFAULT_THRESHOLD = 128;
+
+  /** Default limit on the size of a decompressed message */
+  public static final int DEFAULT_MAX_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+  static final String SERVER_NO_CONTEXT_TAKEOVER = "server_no_context_takeover";
+  static final String CLIENT_NO_CONTEXT_TAKEOVER = "client_no_context_takeover";
+  static final String SERVER_MAX_WINDOW_BITS = "server_max_window_bits";
+  static final String CLIENT_MAX_WINDOW_BITS = "client_max_window_bits";
+
+  /** The empty stored block which SYNC_FLUSH appends and RFC 7692 removes */
+  private static final byte[] TAIL = {0x00, 0x00, (byte)0xFF, (byte)0xFF};
+
+  private int threshold = DEFAULT_THRESHOLD;
+  private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+  private int maxMessageSize = DEFAULT_MAX_MESSAGE_SIZE;
+  private boolean serverNoContextTakeover = false;
+  private boolean clientNoContextTakeover = false;
+
+  // only set on negotiated instances
+  private String responseHeader = null;
+  private Deflater deflater = null;
+  private Inflater inflater = null;
+  private final byte[] buffer = new byte[8192];
+
+
+
+
+  /**
+   * Create a server policy which keeps the compression context between
+   * messages in both directions.
+   */
+  public PerMessageDeflate() {}
+
+
+
+
+  /**
+   * Create the instance for a connection from the server policy.
+   */
+  private PerMessageDeflate(final PerMessageDeflate policy, final boolean serverNoContext, final boolean clientNoContext, final String header) {
+    threshold = policy.threshold;
+    compressionLevel = policy.compressionLevel;
+    maxMessageSize = policy.maxMessageSize;
+    serverNoContextTakeover = serverNoContext;
+    clientNoContextTakeover = clientNoContext;
+    responseHeader = header;
+  }
+
+
+
+
+  /**
+   * Pick the first acceptable {@code permessage-deflate} offer from the
+   * value of a {@code Sec-WebSocket-Extensions} request header.
+   *
+   * @param offers the value of the extensions header sent by the client
+   *
+   * @return an instance for the connection or null if no offer was acceptable
+   */
+  public PerMessageDeflate negotiate(final String offers) {
+    if (offers == null) {
+      return null;
+    }
+    for (final String offer : offers.split(",")) {
+      final String[] tokens = offer.split(";");
+      if (!EXTENSION_NAME.equalsIgnoreCase(tokens[0].trim())) {
+        continue;
+      }
+
+      boolean acceptable = true;
+      boolean serverNoContext = serverNoContextTakeover;
+      boolean clientNoContext = clientNoContextTakeover;
+      boolean serverNoContextOffered = false;
+      boolean clientNoContextOffered = false;
+      boolean serverWindow = false;
+      boolean clientWindow = false;
+      for (int x = 1; x < tokens.length && acceptable; x++) {
+        final String param = tokens[x].trim();
+        if (param.length() == 0) {
+          continue;
+        }
+        final int eq = param.indexOf('=');
+        final String name = ((eq < 0) ? param : param.substring(0, eq)).trim().toLowerCase();
+        String value = (eq < 0) ? null : param.substring(eq + 1).trim();
+        if (value != null && value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+          value = value.substring(1, value.length() - 1);
+        }
+
+        // unknown, duplicate or malformed parameters make the offer unacceptable
+        if (SERVER_NO_CONTEXT_TAKEOVER.equals(name)) {
+          acceptable = (value == null) && !serverNoContextOffered;
+          serverNoContextOffered = true;
+          serverNoContext = true;
+        } else if (CLIENT_NO_CONTEXT_TAKEOVER.equals(name)) {
+          acceptable = (value == null) && !clientNoContextOffered;
+          clientNoContextOffered = true;
+          clientNoContext = true;
+        } else if (SERVER_MAX_WINDOW_BITS.equals(name)) {
+          // we can only honour the largest window
+          acceptable = !serverWindow && "15".equals(value);
+          serverWindow = true;
+        } else if (CLIENT_MAX_WINDOW_BITS.equals(name)) {
+          acceptable = !clientWindow && ((value == null) || isWindowBits(value));
+          clientWindow = true;
+        } else {
+          acceptable = false;
+        }
+      }
+
+      if (acceptable) {
+        final StringBuilder header = new StringBuilder(EXTENSION_NAME);
+        if (serverNoContext) {
+          header.append("; ").append(SERVER_NO_CONTEXT_TAKEOVER);
+        }
+        if (clientNoContext) {
+          header.append("; ").append(CLIENT_NO_CONTEXT_TAKEOVER);
+        }
+        if (serverWindow) {
+          header.append("; ").append(SERVER_MAX_WINDOW_BITS).append("=15");
+        }
+        return new PerMessageDeflate(this, serverNoContext, clientNoContext, header.toString());
+      }
+    }
+    return null;
+  }
+
+
+
+
+  private static boolean isWindowBits(final String value) {
+    try {
+      final int bits = Integer.parseInt(value);
+      return bits >= 8 && bits <= 15;
+    } catch (final NumberFormatException e) {
+      return false;
+    }
+  }
+
+
+
+
+  /**
+   * @return the value of the extensions header accepting the offer, null for a server policy
+   */
+  public String getResponseHeader() {
+    return responseHeader;
+  }
+
+
+
+
+  /**
+   * Determine if a frame about to be sent should be compressed.
+   *
+   * <p>Only complete (unfragmented) data messages at or above the threshold
+   * are compressed.
+   *
+   * @param frame the frame about to be sent
+   *
+   * @return true if the frame should be sent through {@link #compress(WebSocketFrame)}
+   */
+  public boolean shouldCompress(final WebSocketFrame frame) {
+    final OpCode opCode = frame.getOpCode();
+    return (opCode == OpCode.Text || opCode == OpCode.Binary) && frame.isFin() && !frame.isCompressed() && frame.getBinaryPayload() != null && frame.getBinaryPayload().length >= threshold;
+  }
+
+
+
+
+  /**
+   * Compress the payload of a message.
+   *
+   * <p>The given frame is not modified.
+   *
+   * @param frame the complete message to compress
+   *
+   * @return a new frame carrying the compressed payload with RSV1 set
+   */
+  public synchronized WebSocketFrame compress(final WebSocketFrame frame) {
+    if (deflater == null) {
+      deflater = new Deflater(compressionLevel, true);
+    }
+    deflater.setInput(frame.getBinaryPayload());
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(frame.getBinaryPayload().length / 2 + 16);
+    int count;
+    do {
+      count = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+      out.write(buffer, 0, count);
+    }
+    while (count == buffer.length);
+    if (serverNoContextTakeover) {
+      deflater.reset();
+    }
+
+    byte[] data = out.toByteArray();
+    if (endsWithTail(data)) {
+      final byte[] trimmed = new byte[data.length - TAIL.length];
+      System.arraycopy(data, 0, trimmed, 0, trimmed.length);
+      data = trimmed;
+    }
+    final WebSocketFrame retval = new WebSocketFrame(frame.getOpCode(), true, data, frame.getMaskingKey());
+    retval.setCompressed(true);
+    return retval;
+  }
+
+
+
+
+  /**
+   * Decompress the payload of a complete message in place and clear its
+   * RSV1 bit.
+   *
+   * @param frame the complete message as received
+   *
+   * @throws WebSocketException if the payload is not valid deflate data or decompresses beyond the maximum message size
+   */
+  public synchronized void decompress(final WebSocketFrame frame) throws WebSocketException {
+    if (inflater == null) {
+      inflater = new Inflater(true);
+    }
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(frame.getBinaryPayload().length * 2 + 16);
+    try {
+      inflate(frame.getBinaryPayload(), out);
+      if (!inflater.finished()) {
+        inflate(TAIL, out);
+      }
+    } catch (final DataFormatException e) {
+      inflater.reset();
+      throw new WebSocketException(CloseCode.InvalidFramePayloadData, "Invalid compressed data: " + e.getMessage());
+    }
+    if (clientNoContextTakeover || inflater.finished()) {
+      inflater.reset();
+    }
+    frame.setBinaryPayload(out.toByteArray());
+    frame.setCompressed(false);
+  }
+
+
+
+
+  private void inflate(final byte[] data, final ByteArrayOutputStream out) throws DataFormatException, WebSocketException {
+    inflater.setInput(data);
+    while (!inflater.needsInput() && !inflater.finished()) {
+      final int count = inflater.inflate(buffer);
+      if (count == 0 && inflater.needsDictionary()) {
+        throw new DataFormatException("Preset dictionary required");
+      }
+      out.write(buffer, 0, count);
+      if (out.size() > maxMessageSize) {
+        inflater.reset();
+        throw new WebSocketException(CloseCode.MessageTooBig, "Decompressed message exceeds " + maxMessageSize + " bytes.");
+      }
+    }
+  }
+
+
+
+
+  private static boolean endsWithTail(final byte[] data) {
+    if (data.length < TAIL.length) {
+      return false;
+    }
+    for (int x = 0; x < TAIL.length; x++) {
+      if (data[data.length - TAIL.length + x] != TAIL[x]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+
+
+  /**
+   * Release the native resources of the compressor and decompressor.
+   */
+  public synchronized void end() {
+    if (deflater != null) {
+      deflater.end();
+      deflater = null;
+    }
+    if (inflater != null) {
+      inflater.end();
+      inflater = null;
+    }
+  }
+
+
+
+
+  /**
+   * @return the size in bytes below which messages are sent uncompressed
+   */
+  public int getThreshold() {
+    return threshold;
+  }
+
+
+
+
+  /**
+   * @param bytes the size below which messages are sent uncompressed
+   */
+  public void setThreshold(final int bytes) {
+    threshold = (bytes < 0) ? 0 : bytes;
+  }
+
+
+
+
+  /**
+   * @return the deflate compression level
+   */
+  public int getCompressionLevel() {
+    return compressionLevel;
+  }
+
+
+
+
+  /**
+   * @param level the deflate compression level, 0-9 or {@link Deflater#DEFAULT_COMPRESSION}
+   */
+  public void setCompressionLevel(final int level) {
+    if ((level < 0 || level > 9) && level != Deflater.DEFAULT_COMPRESSION) {
+      throw new IllegalArgumentException("Invalid compression level " + level);
+    }
+    compressionLevel = level;
+  }
+
+
+
+
+  /**
+   * @return the largest message we will decompress
+   */
+  public int getMaxMessageSize() {
+    return maxMessageSize;
+  }
+
+
+
+
+  /**
+   * @param bytes the largest message we will decompress
+   */
+  public void setMaxMessageSize(final int bytes) {
+    maxMessageSize = bytes;
+  }
+
+
+
+
+  /**
+   * @return true if the server compresses each message independently
+   */
+  public boolean isServerNoContextTakeover() {
+    return serverNoContextTakeover;
+  }
+
+
+
+
+  /**
+   * Have the server compress each message independently, trading ratio for
+   * not keeping a 32K compression window per connection between messages.
+   *
+   * @param flag true to reset the compressor after each message
+   */
+  public void setServerNoContextTakeover(final boolean flag) {
+    serverNoContextTakeover = flag;
+  }
+
+
+
+
+  /**
+   * @return true if clients are asked to compress each message independently
+   */
+  public boolean isClientNoContextTakeover() {
+    return clientNoContextTakeover;
+  }
+
+
+
+
+  /**
+   * Ask clients to compress each message independently.
+   *
+   * @param flag true to reset the decompressor after each message
+   */
+  public void setClientNoContextTakeover(final boolean flag) {
+    clientNoContextTakeover = flag;
+  }
+
+}
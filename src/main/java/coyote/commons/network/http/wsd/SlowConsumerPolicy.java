@@ -0,0 +1,30 @@
+package coyote.commons.network.http.wsd;
+
+/**
+ * What a {@link BroadcastHub} does when a frame is published to a connection
+ * whose outbound queue is already full.
+ */
+public enum SlowConsumerPolicy {
+
+  /**
+   * Discard the new frame; the connection simply misses it. This suits
+   * streams where every message stands on its own.
+   */
+  DROP,
+
+  /**
+   * Discard everything queued for the connection and drop it. This suits
+   * streams where a gap is worse than no data at all; the client is expected
+   * to reconnect and resynchronize.
+   */
+  DISCONNECT,
+
+  /**
+   * Replace any queued frame for the same topic with the new one so only the
+   * latest value of each topic is waiting; if the queue is still full the
+   * oldest frame is discarded. This suits streams of state snapshots such as
+   * live metrics where only the current value matters.
+   */
+  COALESCE
+
+}
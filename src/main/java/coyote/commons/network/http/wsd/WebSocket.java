@@ -21,6 +21,8 @@ public abstract class WebSocket {
 
   private final List<WebSocketFrame> continuousFrames = new LinkedList<WebSocketFrame>();
   private WebSocketFrame.OpCode continuousOpCode = null;
+  private boolean continuousCompressed = false;
+  private volatile PerMessageDeflate deflate = null;
   private final HTTPSession handshakeRequest;
   private final InputStream in;
   private OutputStream out;
@@ -78,6 +80,28 @@ public abstract class WebSocket {
 
 
 
+  /**
+   * @return the negotiated permessage-deflate extension or null if messages are not compressed
+   */
+  public PerMessageDeflate getPerMessageDeflate() {
+    return deflate;
+  }
+
+
+
+
+  /**
+   * Called during the handshake when permessage-deflate was negotiated.
+   *
+   * @param extension the extension instance bound to this connection
+   */
+  void setPerMessageDeflate(final PerMessageDeflate extension) {
+    deflate = extension;
+  }
+
+
+
+
   public boolean isOpen() {
     return state == State.OPEN;
   }
@@ -106,14 +130,63 @@ public abstract class WebSocket {
 
 
 
+  /**
+   * Send a frame, compressing it first if permessage-deflate was negotiated
+   * and the frame is a complete message above the compression threshold.
+   *
+   * @param frame the frame to send
+   *
+   * @throws IOException if the frame could not be written
+   */
   public synchronized void sendFrame(final WebSocketFrame frame) throws IOException {
     debugFrameSent(frame);
+    final PerMessageDeflate extension = deflate;
+    if (extension != null && extension.shouldCompress(frame)) {
+      extension.compress(frame).write(out);
+    } else {
+      frame.write(out);
+    }
+  }
+
+
+
+
+  /**
+   * Send a frame which has already been encoded, usually one shared by many
+   * connections.
+   *
+   * <p>This uses the same lock as {@link #sendFrame(WebSocketFrame)} so
+   * encoded and regular frames are never interleaved on the wire.
+   *
+   * @param frame the encoded frame to send
+   *
+   * @throws IOException if the frame could not be written
+   */
+  public synchronized void sendFrame(final EncodedFrame frame) throws IOException {
     frame.write(out);
   }
 
 
 
 
+  /**
+   * Drop the connection without going through the closing handshake.
+   *
+   * <p>This is used to shed connections which can not keep up; sending a
+   * close frame to such a peer would block just like any other frame. The
+   * streams are closed without taking the send lock so a writer blocked on
+   * this connection is released.
+   *
+   * @param code the code reported to {@link #onClose(CloseCode, String, boolean)}
+   * @param reason the reason reported to {@link #onClose(CloseCode, String, boolean)}
+   */
+  void abort(final CloseCode code, final String reason) {
+    doClose(code, reason, false);
+  }
+
+
+
+
   private void doClose(final CloseCode code, final String reason, final boolean initiatedByRemote) {
     if (state != State.CLOSED) {
       if (in != null) {
@@ -131,6 +204,10 @@ public abstract class WebSocket {
         }
       }
       state = State.CLOSED;
+      final PerMessageDeflate extension = deflate;
+      if (extension != null) {
+        extension.end();
+      }
       onClose(code, reason, initiatedByRemote);
     }
   }
@@ -161,13 +238,17 @@ public abstract class WebSocket {
         throw new WebSocketException(CloseCode.ProtocolError, "Previous continuous frame sequence not completed.");
       }
       continuousOpCode = frame.getOpCode();
+      continuousCompressed = frame.isCompressed();
       continuousFrames.clear();
       continuousFrames.add(frame);
     } else if (frame.isFin()) {
       if (continuousOpCode == null) {
         throw new WebSocketException(CloseCode.ProtocolError, "Continuous frame sequence was not started.");
       }
-      onMessage(new WebSocketFrame(continuousOpCode, continuousFrames));
+      continuousFrames.add(frame);
+      final WebSocketFrame message = new WebSocketFrame(continuousOpCode, continuousFrames);
+      message.setCompressed(continuousCompressed);
+      onMessage(inflate(message));
       continuousOpCode = null;
       continuousFrames.clear();
     } else if (continuousOpCode == null) {
@@ -193,7 +274,7 @@ public abstract class WebSocket {
     } else if (continuousOpCode != null) {
       throw new WebSocketException(CloseCode.ProtocolError, "Continuous frame sequence not completed.");
     } else if ((frame.getOpCode() == OpCode.Text) || (frame.getOpCode() == OpCode.Binary)) {
-      onMessage(frame);
+      onMessage(inflate(frame));
     } else {
       throw new WebSocketException(CloseCode.ProtocolError, "Non control or continuous frame expected.");
     }
@@ -202,10 +283,31 @@ public abstract class WebSocket {
 
 
 
+  /**
+   * Decompress a complete message if it arrived compressed.
+   */
+  private WebSocketFrame inflate(final WebSocketFrame message) throws IOException {
+    if (message.isCompressed()) {
+      final PerMessageDeflate extension = deflate;
+      if (extension == null) {
+        throw new WebSocketException(CloseCode.ProtocolError, "Compressed message received without a compression extension.");
+      }
+      extension.decompress(message);
+      if (message.getOpCode() == OpCode.Text) {
+        // decode the inflated text just as read() does for uncompressed text
+        message.getTextPayload();
+      }
+    }
+    return message;
+  }
+
+
+
+
   private void readWebsocket() {
     try {
       while (state == State.OPEN) {
-        handleWebsocketFrame(WebSocketFrame.read(in));
+        handleWebsocketFrame(WebSocketFrame.read(in, deflate != null));
       }
     } catch (final CharacterCodingException e) {
       onException(e);
@@ -24,6 +24,7 @@ public abstract class WebSocketDaemon extends HTTPD {
   public static final String HEADER_UPGRADE = "upgrade";
   public static final String HEADER_UPGRADE_VALUE = "websocket";
   public static final String HEADER_WEBSOCKET_ACCEPT = "sec-websocket-accept";
+  public static final String HEADER_WEBSOCKET_EXTENSIONS = "sec-websocket-extensions";
   public static final String HEADER_WEBSOCKET_KEY = "sec-websocket-key";
   public static final String HEADER_WEBSOCKET_PROTOCOL = "sec-websocket-protocol";
   public static final String HEADER_WEBSOCKET_VERSION = "sec-websocket-version";
@@ -32,6 +33,9 @@ public abstract class WebSocketDaemon extends HTTPD {
   private final static String WEBSOCKET_KEY_MAGIC = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
   static final Logger LOG = Logger.getLogger(WebSocketDaemon.class.getName());
 
+  /** The permessage-deflate policy offered to clients, null to disable compression */
+  private volatile PerMessageDeflate deflatePolicy = new PerMessageDeflate();
+
 
 
 
@@ -121,6 +125,15 @@ public abstract class WebSocketDaemon extends HTTPD {
         handshakeResponse.addHeader(WebSocketDaemon.HEADER_WEBSOCKET_PROTOCOL, headers.get(WebSocketDaemon.HEADER_WEBSOCKET_PROTOCOL).split(",")[0]);
       }
 
+      final PerMessageDeflate policy = deflatePolicy;
+      if (policy != null && headers.containsKey(WebSocketDaemon.HEADER_WEBSOCKET_EXTENSIONS)) {
+        final PerMessageDeflate extension = policy.negotiate(headers.get(WebSocketDaemon.HEADER_WEBSOCKET_EXTENSIONS));
+        if (extension != null) {
+          webSocket.setPerMessageDeflate(extension);
+          handshakeResponse.addHeader(WebSocketDaemon.HEADER_WEBSOCKET_EXTENSIONS, extension.getResponseHeader());
+        }
+      }
+
       return handshakeResponse;
     } else {
       return serveHttp(session);
@@ -138,6 +151,31 @@ public abstract class WebSocketDaemon extends HTTPD {
 
 
 
+  /**
+   * @return the permessage-deflate policy used when negotiating with clients, null if compression is disabled
+   */
+  public PerMessageDeflate getPerMessageDeflate() {
+    return deflatePolicy;
+  }
+
+
+
+
+  /**
+   * Set the permessage-deflate policy used when negotiating with clients.
+   *
+   * <p>The policy controls the compression threshold, level and context
+   * takeover for connections opened after this call.
+   *
+   * @param policy the policy to use or null to disable compression
+   */
+  public void setPerMessageDeflate(final PerMessageDeflate policy) {
+    deflatePolicy = policy;
+  }
+
+
+
+
   protected boolean isWebsocketRequested(final HTTPSession session) {
     final Map<String, String> headers = session.getRequestHeaders();
     final String upgrade = headers.get(WebSocketDaemon.HEADER_UPGRADE);
@@ -4,6 +4,7 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.CharacterCodingException;
 import java.nio.charset.Charset;
 import java.util.Arrays;
@@ -12,9 +13,12 @@ import java.util.List;
 
 public class WebSocketFrame {
   public static final Charset TEXT_CHARSET = Charset.forName("UTF-8");
+  private static final byte[] EMPTY = new byte[0];
+  private static volatile FrameBufferPool bufferPool = new FrameBufferPool();
   private transient int _payloadLength;
   private transient String _payloadString;
   private boolean fin;
+  private boolean compressed;
   private byte[] maskingKey;
   private WebSocketFrame.OpCode opCode;
   private byte[] payload;
@@ -37,11 +41,32 @@ public class WebSocketFrame {
 
 
   public static WebSocketFrame read(final InputStream in) throws IOException {
-    final byte head = (byte)checkedRead(in.read());
+    return read(in, false);
+  }
+
+
+
+
+  /**
+   * Read a frame from the stream.
+   *
+   * @param in the stream from which to read
+   * @param allowCompressed true if a compression extension was negotiated, allowing RSV1 to be set on data frames
+   *
+   * @return the frame read
+   *
+   * @throws IOException if the frame could not be read or violates the protocol
+   */
+  public static WebSocketFrame read(final InputStream in, final boolean allowCompressed) throws IOException {
+    // big enough for the 64-bit extended length
+    final byte[] header = new byte[8];
+    readFully(in, header, 0, 2);
+    final byte head = header[0];
     final boolean fin = (head & 0x80) != 0;
     final WebSocketFrame.OpCode opCode = OpCode.find((byte)(head & 0x0F));
-    if ((head & 0x70) != 0) {
-      throw new WebSocketException(CloseCode.ProtocolError, "The reserved bits (" + Integer.toBinaryString(head & 0x70) + ") must be 0.");
+    final int reserved = allowCompressed ? 0x30 : 0x70;
+    if ((head & reserved) != 0) {
+      throw new WebSocketException(CloseCode.ProtocolError, "The reserved bits (" + Integer.toBinaryString(head & reserved) + ") must be 0.");
     }
     if (opCode == null) {
       throw new WebSocketException(CloseCode.ProtocolError, "Received frame with reserved/unknown opcode " + (head & 0x0F) + ".");
@@ -50,7 +75,11 @@ public class WebSocketFrame {
     }
 
     final WebSocketFrame frame = new WebSocketFrame(opCode, fin);
-    frame.readPayloadInfo(in);
+    frame.compressed = (head & 0x40) != 0;
+    if (frame.compressed && (opCode.isControlFrame() || opCode == OpCode.Continuation)) {
+      throw new WebSocketException(CloseCode.ProtocolError, "RSV1 set on a " + opCode + " frame.");
+    }
+    frame.readPayloadInfo(in, header);
     frame.readPayload(in);
     if (frame.getOpCode() == OpCode.Close) {
       return new CloseFrame(frame);
@@ -69,6 +98,59 @@ public class WebSocketFrame {
 
 
 
+  /**
+   * @return the buffer pool used to assemble outbound frames
+   */
+  public static FrameBufferPool getBufferPool() {
+    return bufferPool;
+  }
+
+
+
+
+  /**
+   * Replace the buffer pool used to assemble outbound frames.
+   *
+   * @param pool the pool to use
+   */
+  public static void setBufferPool(final FrameBufferPool pool) {
+    if (pool == null) {
+      throw new IllegalArgumentException("Buffer pool cannot be null");
+    }
+    bufferPool = pool;
+  }
+
+
+
+
+  /**
+   * XOR the masking key over a range of bytes in place.
+   *
+   * <p>The bulk of the data is processed eight bytes at a time through a
+   * {@code ByteBuffer} view, leaving at most seven bytes for the byte-wise
+   * tail. Masking and unmasking are the same operation.
+   *
+   * @param data the bytes to (un)mask
+   * @param offset the index of the first payload byte, where the key starts
+   * @param length the number of bytes to (un)mask
+   * @param key the 4-byte masking key
+   */
+  static void mask(final byte[] data, final int offset, final int length, final byte[] key) {
+    final long word = ((long)(key[0] & 0xFF) << 56) | ((long)(key[1] & 0xFF) << 48) | ((long)(key[2] & 0xFF) << 40) | ((long)(key[3] & 0xFF) << 32) | ((long)(key[0] & 0xFF) << 24) | ((key[1] & 0xFF) << 16) | ((key[2] & 0xFF) << 8) | (key[3] & 0xFF);
+    final ByteBuffer view = ByteBuffer.wrap(data);
+    final int words = length & ~7;
+    int i = 0;
+    for (; i < words; i += 8) {
+      view.putLong(offset + i, view.getLong(offset + i) ^ word);
+    }
+    for (; i < length; i++) {
+      data[offset + i] ^= key[i & 3];
+    }
+  }
+
+
+
+
   private static int checkedRead(final int read) throws IOException {
     if (read < 0) {
       throw new EOFException();
@@ -79,9 +161,20 @@ public class WebSocketFrame {
 
 
 
+  private static void readFully(final InputStream in, final byte[] buffer, final int offset, final int length) throws IOException {
+    int read = 0;
+    while (read < length) {
+      read += checkedRead(in.read(buffer, offset + read, length - read));
+    }
+  }
+
+
+
+
   public WebSocketFrame(final WebSocketFrame clone) {
     setOpCode(clone.getOpCode());
     setFin(clone.isFin());
+    setCompressed(clone.isCompressed());
     setBinaryPayload(clone.getBinaryPayload());
     setMaskingKey(clone.getMaskingKey());
   }
@@ -153,6 +246,25 @@ public class WebSocketFrame {
 
 
 
+  /**
+   * Encode this frame into a single array exactly as it would appear on the
+   * wire, header, masking key and (masked) payload included.
+   *
+   * <p>This allows a frame to be encoded once and the result written to any
+   * number of connections.
+   *
+   * @return the wire representation of this frame
+   */
+  public byte[] encode() {
+    final byte[] data = (payload != null) ? payload : EMPTY;
+    final byte[] retval = new byte[headerLength(data.length) + data.length];
+    encodeInto(retval, data);
+    return retval;
+  }
+
+
+
+
   public byte[] getBinaryPayload() {
     return payload;
   }
@@ -188,6 +300,16 @@ public class WebSocketFrame {
 
 
 
+  /**
+   * @return true if the payload is compressed by a compression extension (RSV1 is set)
+   */
+  public boolean isCompressed() {
+    return compressed;
+  }
+
+
+
+
   public boolean isFin() {
     return fin;
   }
@@ -211,6 +333,19 @@ public class WebSocketFrame {
 
 
 
+  /**
+   * Mark the payload as compressed by a compression extension, setting RSV1
+   * when the frame is written.
+   *
+   * @param compressed true if the payload is compressed
+   */
+  public void setCompressed(final boolean compressed) {
+    this.compressed = compressed;
+  }
+
+
+
+
   public void setFin(final boolean fin) {
     this.fin = fin;
   }
@@ -257,6 +392,9 @@ public class WebSocketFrame {
     sb.append(getOpCode());
     sb.append(", ").append(isFin() ? "fin" : "inter");
     sb.append(", ").append(isMasked() ? "masked" : "unmasked");
+    if (isCompressed()) {
+      sb.append(", compressed");
+    }
     sb.append(", ").append(payloadToString());
     sb.append(']');
     return sb.toString();
@@ -265,42 +403,102 @@ public class WebSocketFrame {
 
 
 
+  /**
+   * Write this frame to the given stream.
+   *
+   * <p>The header and payload are assembled in a buffer from the
+   * {@link #getBufferPool() pool} and leave in a single write. Unmasked
+   * payloads too large for a pooled buffer are written directly after the
+   * header rather than copied.
+   *
+   * @param out the stream to which the frame is written
+   *
+   * @throws IOException if the frame could not be written
+   */
   public void write(final OutputStream out) throws IOException {
-    byte header = 0;
-    if (fin) {
-      header |= 0x80;
-    }
-    header |= opCode.getValue() & 0x0F;
-    out.write(header);
-
-    _payloadLength = getBinaryPayload().length;
-    if (_payloadLength <= 125) {
-      out.write(isMasked() ? 0x80 | (byte)_payloadLength : (byte)_payloadLength);
-    } else if (_payloadLength <= 0xFFFF) {
-      out.write(isMasked() ? 0xFE : 126);
-      out.write(_payloadLength >>> 8);
-      out.write(_payloadLength);
+    final byte[] data = (payload != null) ? payload : EMPTY;
+    _payloadLength = data.length;
+    final int headerLength = headerLength(_payloadLength);
+    final int total = headerLength + _payloadLength;
+    final FrameBufferPool pool = bufferPool;
+
+    if (!isMasked() && (total > pool.getBufferSize())) {
+      final byte[] header = new byte[headerLength];
+      writeHeader(header, _payloadLength);
+      out.write(header, 0, headerLength);
+      out.write(data, 0, _payloadLength);
     } else {
-      out.write(isMasked() ? 0xFF : 127);
-      out.write((_payloadLength >>> 56) & 0);
-      out.write((_payloadLength >>> 48) & 0);
-      out.write((_payloadLength >>> 40) & 0);
-      out.write((_payloadLength >>> 32) & 0);
-      out.write(_payloadLength >>> 24);
-      out.write(_payloadLength >>> 16);
-      out.write(_payloadLength >>> 8);
-      out.write(_payloadLength);
+      final byte[] buffer = pool.acquire(total);
+      try {
+        encodeInto(buffer, data);
+        out.write(buffer, 0, total);
+      } finally {
+        pool.release(buffer);
+      }
     }
+    out.flush();
+  }
+
+
 
+
+  /**
+   * Place the complete wire format of this frame at the start of the buffer.
+   */
+  private void encodeInto(final byte[] buffer, final byte[] data) {
+    final int headerLength = writeHeader(buffer, data.length);
+    System.arraycopy(data, 0, buffer, headerLength, data.length);
     if (isMasked()) {
-      out.write(maskingKey);
-      for (int i = 0; i < _payloadLength; i++) {
-        out.write(getBinaryPayload()[i] ^ maskingKey[i % 4]);
-      }
+      mask(buffer, headerLength, data.length, maskingKey);
+    }
+  }
+
+
+
+
+  /**
+   * @return the number of bytes preceding a payload of the given length
+   */
+  private int headerLength(final int length) {
+    final int extended = (length <= 125) ? 0 : ((length <= 0xFFFF) ? 2 : 8);
+    return 2 + extended + (isMasked() ? 4 : 0);
+  }
+
+
+
+
+  /**
+   * Place the header, including any masking key, at the start of the buffer.
+   *
+   * @return the number of header bytes written
+   */
+  private int writeHeader(final byte[] buffer, final int length) {
+    int pos = 0;
+    buffer[pos++] = (byte)((fin ? 0x80 : 0) | (compressed ? 0x40 : 0) | (opCode.getValue() & 0x0F));
+    final int maskBit = isMasked() ? 0x80 : 0;
+    if (length <= 125) {
+      buffer[pos++] = (byte)(maskBit | length);
+    } else if (length <= 0xFFFF) {
+      buffer[pos++] = (byte)(maskBit | 126);
+      buffer[pos++] = (byte)(length >>> 8);
+      buffer[pos++] = (byte)length;
     } else {
-      out.write(getBinaryPayload());
+      buffer[pos++] = (byte)(maskBit | 127);
+      // lengths never exceed Integer.MAX_VALUE
+      buffer[pos++] = 0;
+      buffer[pos++] = 0;
+      buffer[pos++] = 0;
+      buffer[pos++] = 0;
+      buffer[pos++] = (byte)(length >>> 24);
+      buffer[pos++] = (byte)(length >>> 16);
+      buffer[pos++] = (byte)(length >>> 8);
+      buffer[pos++] = (byte)length;
     }
-    out.flush();
+    if (isMasked()) {
+      System.arraycopy(maskingKey, 0, buffer, pos, 4);
+      pos += 4;
+    }
+    return pos;
   }
 
 
@@ -337,19 +535,14 @@ public class WebSocketFrame {
 
   private void readPayload(final InputStream in) throws IOException {
     payload = new byte[_payloadLength];
-    int read = 0;
-    while (read < _payloadLength) {
-      read += checkedRead(in.read(payload, read, _payloadLength - read));
-    }
+    readFully(in, payload, 0, _payloadLength);
 
     if (isMasked()) {
-      for (int i = 0; i < payload.length; i++) {
-        payload[i] ^= maskingKey[i % 4];
-      }
+      mask(payload, 0, payload.length, maskingKey);
     }
 
-    // Test for Unicode errors
-    if (getOpCode() == OpCode.Text) {
+    // Test for Unicode errors, compressed text is tested once it is inflated
+    if (getOpCode() == OpCode.Text && !compressed) {
       _payloadString = binary2Text(getBinaryPayload());
     }
   }
@@ -357,19 +550,26 @@ public class WebSocketFrame {
 
 
 
-  private void readPayloadInfo(final InputStream in) throws IOException {
-    final byte b = (byte)checkedRead(in.read());
+  /**
+   * Read the payload length and masking key.
+   *
+   * @param in the stream positioned after the first two header bytes
+   * @param header a scratch buffer of at least 8 bytes holding those two bytes
+   */
+  private void readPayloadInfo(final InputStream in, final byte[] header) throws IOException {
+    final byte b = header[1];
     final boolean masked = (b & 0x80) != 0;
 
     _payloadLength = (byte)(0x7F & b);
     if (_payloadLength == 126) {
-      // checkedRead must return int for this to work
-      _payloadLength = ((checkedRead(in.read()) << 8) | checkedRead(in.read())) & 0xFFFF;
+      readFully(in, header, 0, 2);
+      _payloadLength = ((header[0] & 0xFF) << 8) | (header[1] & 0xFF);
       if (_payloadLength < 126) {
         throw new WebSocketException(CloseCode.ProtocolError, "Invalid data frame 2byte length. (not using minimal length encoding)");
       }
     } else if (_payloadLength == 127) {
-      final long _payloadLength = ((long)checkedRead(in.read()) << 56) | ((long)checkedRead(in.read()) << 48) | ((long)checkedRead(in.read()) << 40) | ((long)checkedRead(in.read()) << 32) | (checkedRead(in.read()) << 24) | (checkedRead(in.read()) << 16) | (checkedRead(in.read()) << 8) | checkedRead(in.read());
+      readFully(in, header, 0, 8);
+      final long _payloadLength = ByteBuffer.wrap(header).getLong();
       if (_payloadLength < 65536) {
         throw new WebSocketException(CloseCode.ProtocolError, "Invalid data frame 4byte length. (not using minimal length encoding)");
       }
@@ -390,10 +590,7 @@ public class WebSocketFrame {
 
     if (masked) {
       maskingKey = new byte[4];
-      int read = 0;
-      while (read < maskingKey.length) {
-        read += checkedRead(in.read(maskingKey, read, maskingKey.length - read));
-      }
+      readFully(in, maskingKey, 0, maskingKey.length);
     }
   }
 
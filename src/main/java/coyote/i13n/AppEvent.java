@@ -296,6 +296,16 @@ public class AppEvent {
 
 
 
+  /**
+   * @param seq the sequence given to the event by the list it was added to
+   */
+  void setSequence( final long seq ) {
+    _seq = seq;
+  }
+
+
+
+
   /**
    * @return Returns the severity of the event.
    */
@@ -15,6 +15,10 @@ import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
 
 import coyote.dataframe.DataFrame;
 
@@ -22,6 +26,15 @@ import coyote.dataframe.DataFrame;
 /**
  * The ArmMaster class models the master of all ARM transactions with a given
  * name.
+ *
+ * <p>Transactions are timed in nanoseconds and aggregated into striped adders
+ * and atomics so any number of threads can start and stop transactions of
+ * the same name without contending on a lock.
+ *
+ * <p>The master keeps a small pool of stopped transactions. A transaction
+ * which is destroyed after it is stopped is returned to the pool and reused
+ * by a later call to {@link #createArm(String, String)}, so steady-state
+ * tracking allocates nothing.
  */
 public class ArmMaster {
   static private final String NAME = "Name";
@@ -39,6 +52,11 @@ public class ArmMaster {
   static private final String FIRSTACCESS = "First Access";
   static private final String LASTACCESS = "Last Access";
 
+  /** Number of recycled transactions kept by each master, a power of 2 */
+  static final int POOL_SIZE = 32;
+
+  private static final long NANOS_PER_MILLI = 1000000L;
+
 
 
 
@@ -60,22 +78,27 @@ public class ArmMaster {
   /** Flag indicating if this set is enabled. */
   private volatile boolean _enabled = true;
   /** Times this class of ARM has been invoked. */
-  private int hits;
+  private final LongAdder hits = new LongAdder();
   /** The number of transactions of this type currently active. */
-  private volatile long activeCounter;
-  /** Flag indicating whether or not to store the first accessed time */
-  private boolean isFirstAccess = true;
-  /** Epoch time in milliseconds when this ARM was first accessed */
-  private long firstAccessTime;
+  private final AtomicLong activeCounter = new AtomicLong();
+  /** Epoch time in milliseconds when this ARM was first accessed, 0 if never */
+  private final AtomicLong firstAccessTime = new AtomicLong();
   /** Epoch time in milliseconds when this ARM was last accessed */
-  private long lastAccessTime;
-  private long maxActive = 0;
-  private long totalActive = 0;
-  long accrued;
-  private long min = Long.MAX_VALUE;
-  private long max = Long.MIN_VALUE;
-  private long total;
-  private long sumOfSquares;
+  private volatile long lastAccessTime;
+  private final AtomicLong maxActive = new AtomicLong();
+  private final LongAdder totalActive = new LongAdder();
+  /** The number of transactions which have been stopped */
+  private final LongAdder closures = new LongAdder();
+  /** Shortest and longest transaction in nanoseconds */
+  private final AtomicLong min = new AtomicLong( Long.MAX_VALUE );
+  private final AtomicLong max = new AtomicLong( Long.MIN_VALUE );
+  /** Total nanoseconds of all stopped transactions */
+  private final LongAdder total = new LongAdder();
+  /** Sum of the squared durations in milliseconds; a double so it can't overflow */
+  private final DoubleAdder sumOfSquares = new DoubleAdder();
+
+  /** Stopped transactions waiting to be reused */
+  private final AtomicReferenceArray<TimingArm> pool = new AtomicReferenceArray<TimingArm>( POOL_SIZE );
 
 
 
@@ -110,8 +133,14 @@ public class ArmMaster {
   public ArmTransaction createArm( final String name, final String crid ) {
     ArmTransaction retval;
     if ( _enabled ) {
-      retval = new TimingArm( this, name, crid );
-      hits++;
+      TimingArm arm = acquire();
+      if ( arm != null ) {
+        arm.reuse( name, crid );
+      } else {
+        arm = new TimingArm( this, name, crid );
+      }
+      retval = arm;
+      hits.increment();
     } else {
       retval = new NullArm( this, name, crid );
     }
@@ -122,16 +151,63 @@ public class ArmMaster {
 
 
   /**
-   * @return the average time for all stopped transactions for this master list.
+   * Take a recycled transaction from the pool.
+   *
+   * <p>The search starts at a slot chosen by the calling thread so threads
+   * tend not to compete for the same slots.
+   *
+   * @return a recycled transaction or null if the pool is empty
+   */
+  private TimingArm acquire() {
+    final int start = (int)Thread.currentThread().getId();
+    for ( int x = 0; x < POOL_SIZE; x++ ) {
+      final int slot = ( start + x ) & ( POOL_SIZE - 1 );
+      if ( pool.get( slot ) != null ) {
+        final TimingArm arm = pool.getAndSet( slot, null );
+        if ( arm != null ) {
+          return arm;
+        }
+      }
+    }
+    return null;
+  }
+
+
+
+
+  /**
+   * Return a stopped transaction to the pool.
+   *
+   * @param arm the transaction to recycle
+   *
+   * @return true if the transaction was pooled, false if the pool is full
+   */
+  boolean release( final TimingArm arm ) {
+    final int start = (int)Thread.currentThread().getId();
+    for ( int x = 0; x < POOL_SIZE; x++ ) {
+      final int slot = ( start + x ) & ( POOL_SIZE - 1 );
+      if ( pool.get( slot ) == null && pool.compareAndSet( slot, null, arm ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+
+
+
+  /**
+   * @return the average time in milliseconds for all stopped transactions for
+   *         this master list.
    */
   private long getAverage() {
     // we can only average the total number of closures not just the hits
-    final long closures = ( hits - activeCounter );
+    final long count = closures.sum();
 
-    if ( closures == 0 ) {
+    if ( count == 0 ) {
       return 0;
     } else {
-      return total / closures;
+      return ( total.sum() / count ) / NANOS_PER_MILLI;
     }
   }
 
@@ -142,10 +218,11 @@ public class ArmMaster {
    * @return the average number of active for the life of this master list.
    */
   final float getAvgActive() {
-    if ( hits == 0 ) {
+    final long count = hits.sum();
+    if ( count == 0 ) {
       return 0;
     } else {
-      return (float)totalActive / hits;
+      return (float)totalActive.sum() / count;
     }
   }
 
@@ -190,17 +267,18 @@ public class ArmMaster {
    * Access the current standard deviation for all stopped transactions using
    * the Sum of Squares alogrithm.
    *
-   * @return The amount of one standard deviation of all the interval times.
+   * @return The amount of one standard deviation of all the interval times in
+   *         milliseconds.
    */
   private long getStandardDeviation() {
     long stdDeviation = 0;
-    if ( hits != 0 ) {
-      final long sumOfX = total;
-      final int n = hits;
-      final int nMinus1 = ( n <= 1 ) ? 1 : n - 1; // avoid 0 divides;
+    final long n = closures.sum();
+    if ( n != 0 ) {
+      final double sumOfX = (double)total.sum() / NANOS_PER_MILLI;
+      final long nMinus1 = ( n <= 1 ) ? 1 : n - 1; // avoid 0 divides;
 
-      final long numerator = sumOfSquares - ( ( sumOfX * sumOfX ) / n );
-      stdDeviation = (long)java.lang.Math.sqrt( numerator / nMinus1 );
+      final double numerator = sumOfSquares.sum() - ( ( sumOfX * sumOfX ) / n );
+      stdDeviation = (long)java.lang.Math.sqrt( Math.max( 0, numerator ) / nMinus1 );
     }
 
     return stdDeviation;
@@ -217,24 +295,94 @@ public class ArmMaster {
    *
    * @param value the amount to increase the accrued value.
    */
-  public synchronized void increase( final long value ) {
-    // calculate min
-    if ( value < min ) {
-      min = value;
+  public void increase( final long value ) {
+    record( value * NANOS_PER_MILLI );
+  }
+
+
+
+
+  /**
+   * Record the duration of a stopped transaction.
+   *
+   * @param nanos the duration of the transaction in nanoseconds
+   */
+  public void record( final long nanos ) {
+    long current = min.get();
+    while ( nanos < current && !min.compareAndSet( current, nanos ) ) {
+      current = min.get();
     }
 
-    // calculate max
-    if ( value > max ) {
-      max = value;
+    current = max.get();
+    while ( nanos > current && !max.compareAndSet( current, nanos ) ) {
+      current = max.get();
     }
 
-    // total _accrued value
-    accrued += value;
+    total.add( nanos );
+    closures.increment();
+
+    final double millis = (double)nanos / NANOS_PER_MILLI;
+    sumOfSquares.add( millis * millis );
+  }
+
+
 
-    // calculate total i.e. sumofX's
-    total += value;
 
-    sumOfSquares += value * value;
+  /**
+   * @return the name of this master set of transactions
+   */
+  public String getName() {
+    return _name;
+  }
+
+
+
+
+  /**
+   * @return the number of transactions created, including those still active
+   */
+  public long getHits() {
+    return hits.sum();
+  }
+
+
+
+
+  /**
+   * @return the number of transactions which have been stopped
+   */
+  public long getClosures() {
+    return closures.sum();
+  }
+
+
+
+
+  /**
+   * @return the total milliseconds accrued by all stopped transactions
+   */
+  public long getTotal() {
+    return total.sum() / NANOS_PER_MILLI;
+  }
+
+
+
+
+  /**
+   * @return the total nanoseconds accrued by all stopped transactions
+   */
+  public long getTotalNanos() {
+    return total.sum();
+  }
+
+
+
+
+  /**
+   * @return the number of transactions currently active
+   */
+  public long getCurrentActive() {
+    return activeCounter.get();
   }
 
 
@@ -243,7 +391,7 @@ public class ArmMaster {
   /**
    * @return True if the ARM set is enabled, false otherwise.
    */
-  public synchronized boolean isEnabled() {
+  public boolean isEnabled() {
     return _enabled;
   }
 
@@ -255,36 +403,35 @@ public class ArmMaster {
    *
    * @param flag True to enable the ARMs, false to keep it from processing.
    */
-  public synchronized void setEnabled( final boolean flag ) {
+  public void setEnabled( final boolean flag ) {
     _enabled = flag;
   }
 
 
 
 
-  public synchronized void start( final ArmTransaction arm ) {
-    activeCounter++;
-    if ( activeCounter > maxActive ) {
-      maxActive = activeCounter;
+  public void start( final ArmTransaction arm ) {
+    final long active = activeCounter.incrementAndGet();
+    long current = maxActive.get();
+    while ( active > current && !maxActive.compareAndSet( current, active ) ) {
+      current = maxActive.get();
     }
 
-    totalActive += activeCounter;
+    totalActive.add( active );
 
     final long now = System.currentTimeMillis();
     lastAccessTime = now;
 
-    if ( isFirstAccess ) {
-      isFirstAccess = false;
-      firstAccessTime = now;
+    if ( firstAccessTime.get() == 0 ) {
+      firstAccessTime.compareAndSet( 0, now );
     }
   }
 
 
 
 
-  public synchronized void stop( final ArmTransaction arm ) {
-    activeCounter--;
-    accrued += arm.getTotalTime();
+  public void stop( final ArmTransaction arm ) {
+    activeCounter.decrementAndGet();
   }
 
 
@@ -294,19 +441,19 @@ public class ArmMaster {
   public String toString() {
     final StringBuffer message = new StringBuffer( _name );
     message.append( ": " );
-    message.append( getDisplayString( ArmMaster.CALLS, convertToString( hits ), ArmMaster.NONE ) );
+    message.append( getDisplayString( ArmMaster.CALLS, convertToString( hits.sum() ), ArmMaster.NONE ) );
 
-    if ( ( hits - activeCounter ) > 0 ) {
+    if ( closures.sum() > 0 ) {
       message.append( getDisplayString( ArmMaster.AVG, convertToString( getAverage() ), ArmMaster.MILLISECONDS ) );
-      message.append( getDisplayString( ArmMaster.TOTAL, convertToString( total ), ArmMaster.MILLISECONDS ) );
+      message.append( getDisplayString( ArmMaster.TOTAL, convertToString( getTotal() ), ArmMaster.MILLISECONDS ) );
       message.append( getDisplayString( ArmMaster.STANDARD_DEVIATION, convertToString( getStandardDeviation() ), ArmMaster.MILLISECONDS ) );
-      message.append( getDisplayString( ArmMaster.MIN, convertToString( min ), ArmMaster.MILLISECONDS ) );
-      message.append( getDisplayString( ArmMaster.MAX, convertToString( max ), ArmMaster.MILLISECONDS ) );
+      message.append( getDisplayString( ArmMaster.MIN, convertToString( min.get() / NANOS_PER_MILLI ), ArmMaster.MILLISECONDS ) );
+      message.append( getDisplayString( ArmMaster.MAX, convertToString( max.get() / NANOS_PER_MILLI ), ArmMaster.MILLISECONDS ) );
     }
-    message.append( getDisplayString( ArmMaster.ACTIVE, convertToString( activeCounter ), ArmMaster.NONE ) );
-    message.append( getDisplayString( ArmMaster.MAXACTIVE, convertToString( maxActive ), ArmMaster.NONE ) );
+    message.append( getDisplayString( ArmMaster.ACTIVE, convertToString( activeCounter.get() ), ArmMaster.NONE ) );
+    message.append( getDisplayString( ArmMaster.MAXACTIVE, convertToString( maxActive.get() ), ArmMaster.NONE ) );
     message.append( getDisplayString( ArmMaster.AVGACTIVE, ArmMaster.convertToString( getAvgActive() ), ArmMaster.NONE ) );
-    message.append( getDisplayString( ArmMaster.FIRSTACCESS, getDateString( firstAccessTime ), ArmMaster.NONE ) );
+    message.append( getDisplayString( ArmMaster.FIRSTACCESS, getDateString( firstAccessTime.get() ), ArmMaster.NONE ) );
     message.append( getDisplayString( ArmMaster.LASTACCESS, getDateString( lastAccessTime ), ArmMaster.NONE ) );
 
     return message.toString();
@@ -315,19 +462,21 @@ public class ArmMaster {
 
 
 
-  public synchronized DataFrame toFrame() {
+  public DataFrame toFrame() {
+    final long minimum = min.get();
+    final long maximum = max.get();
     DataFrame retval = new DataFrame();
     retval.put( NAME, _name );
-    retval.put( CALLS, new Integer( hits ) );
+    retval.put( CALLS, new Long( hits.sum() ) );
     retval.put( AVG, new Long( getAverage() ) );
-    retval.put( TOTAL, new Long( total ) );
+    retval.put( TOTAL, new Long( getTotal() ) );
     retval.put( STANDARD_DEVIATION, new Long( getStandardDeviation() ) );
-    retval.put( MIN, new Long( min ) );
-    retval.put( MAX, new Long( max ) );
-    retval.put( ACTIVE, new Long( activeCounter ) );
-    retval.put( MAXACTIVE, new Long( maxActive ) );
+    retval.put( MIN, new Long( ( minimum == Long.MAX_VALUE ) ? minimum : minimum / NANOS_PER_MILLI ) );
+    retval.put( MAX, new Long( ( maximum == Long.MIN_VALUE ) ? maximum : maximum / NANOS_PER_MILLI ) );
+    retval.put( ACTIVE, new Long( activeCounter.get() ) );
+    retval.put( MAXACTIVE, new Long( maxActive.get() ) );
     retval.put( AVGACTIVE, new Float( getAvgActive() ) );
-    retval.put( FIRSTACCESS, new Date( firstAccessTime ) );
+    retval.put( FIRSTACCESS, new Date( firstAccessTime.get() ) );
     retval.put( LASTACCESS, new Date( lastAccessTime ) );
     return retval;
   }
@@ -0,0 +1,65 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+/**
+ * The Correlation class holds the correlation identifier (CRID) of the work
+ * the current thread is performing.
+ *
+ * <p>ARM transactions started without an explicit CRID use the identifier of
+ * the current thread so all the transactions performed on behalf of a single
+ * request can be related. The identifier is carried across thread
+ * boundaries by the components which hand work between threads; the thread
+ * pool passes it along with each job and the HTTP server takes it from (and
+ * returns it in) the {@code X-Correlation-ID} header.
+ */
+public final class Correlation {
+
+  private static final ThreadLocal<String> CURRENT = new ThreadLocal<String>();
+
+
+
+
+  private Correlation() {}
+
+
+
+
+  /**
+   * @return the correlation identifier of the current thread, or null if
+   *         there is none
+   */
+  public static String getId() {
+    return CURRENT.get();
+  }
+
+
+
+
+  /**
+   * Set the correlation identifier of the current thread.
+   *
+   * @param crid the correlation identifier, null to clear it
+   *
+   * @return the previous identifier so it can be restored
+   */
+  public static String setId( final String crid ) {
+    final String retval = CURRENT.get();
+    if ( crid == null ) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set( crid );
+    }
+    return retval;
+  }
+
+}
@@ -11,6 +11,10 @@
  */
 package coyote.i13n;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+
 /**
  * The Counter class models an object that tracks a numerical value.
  *
@@ -18,17 +22,29 @@ package coyote.i13n;
  * by a name. These counters allow applications to increment, decrement and
  * reset these values allowing for easy metric collection.
  *
- * <p>This class is thread-safe in that all the methods synchronize on the name
- * of the counter to avoid double synchronization on the class itself.
+ * <p>The value and update count are held in striped {@link LongAdder} cells
+ * so threads updating the same counter do not contend with each other; an
+ * update only ever adds to the cells. The minimum and maximum values are
+ * folded in by the readers: each time the value is read through
+ * {@link #getValue()}, {@link #getMinValue()}, {@link #getMaxValue()},
+ * {@link #toString()} or a snapshot, it is compared against the recorded
+ * extremes. Values which exist only between two reads, such as a transient
+ * peak, are therefore not reflected in the extremes.
+ *
+ * <p>The value-returning update methods sum the cells to report the result,
+ * which reads every cell; hot paths should resolve the counter once with
+ * {@code StatBoard.getCounter(name)} and call {@link #add(long)} on that
+ * handle, which neither looks up the name nor reads the cells.
  *
  * @author Stephan D. Cote' - Enterprise Architecture
  * @version $Revision$
  */
 public class Counter extends Metric implements Cloneable {
-  private String _units = null;
-  private long _value = 0;
-  private long _minValue = 0;
-  private long _maxValue = 0;
+  private volatile String _units = null;
+  private final LongAdder _value = new LongAdder();
+  private final LongAdder _updates = new LongAdder();
+  private final AtomicLong _minValue = new AtomicLong();
+  private final AtomicLong _maxValue = new AtomicLong();
 
 
 
@@ -50,16 +66,33 @@ public class Counter extends Metric implements Cloneable {
   public Object clone() {
     final Counter retval = new Counter( _name );
     retval._units = _units;
-    retval._value = _value;
-    retval._minValue = _minValue;
-    retval._maxValue = _maxValue;
-    retval._updateCount = _updateCount;
+    final long value = fold();
+    retval._value.add( value );
+    retval._updates.add( _updates.sum() );
+    retval._minValue.set( _minValue.get() );
+    retval._maxValue.set( _maxValue.get() );
     return retval;
   }
 
 
 
 
+  /**
+   * Add the given amount to the counter without computing the result.
+   *
+   * <p>This is the cheapest way to update a counter and is intended for hot
+   * paths holding a reference to the counter.
+   *
+   * @param amt The amount to add to the counter, negative to subtract.
+   */
+  public void add( final long amt ) {
+    _updates.increment();
+    _value.add( amt );
+  }
+
+
+
+
   /**
    * Decrease the counter by the given amount.
    *
@@ -68,17 +101,8 @@ public class Counter extends Metric implements Cloneable {
    * @return The final value of the counter after the operation.
    */
   public long decrease( final long amt ) {
-    synchronized( _name ) {
-      _updateCount++;
-      _value -= amt;
-      if ( _value < _minValue ) {
-        _minValue = _value;
-      }
-      if ( _value > _maxValue ) {
-        _maxValue = _value;
-      }
-      return _value;
-    }
+    add( -amt );
+    return _value.sum();
   }
 
 
@@ -90,14 +114,8 @@ public class Counter extends Metric implements Cloneable {
    * @return The final value of the counter after the operation.
    */
   public long decrement() {
-    synchronized( _name ) {
-      _updateCount++;
-      _value--;
-      if ( _value < _minValue ) {
-        _minValue = _value;
-      }
-      return _value;
-    }
+    add( -1 );
+    return _value.sum();
   }
 
 
@@ -107,9 +125,8 @@ public class Counter extends Metric implements Cloneable {
    * @return Returns the maximum value the counter ever represented.
    */
   public long getMaxValue() {
-    synchronized( _name ) {
-      return _maxValue;
-    }
+    fold();
+    return _maxValue.get();
   }
 
 
@@ -119,9 +136,8 @@ public class Counter extends Metric implements Cloneable {
    * @return Returns the minimum value the counter ever represented.
    */
   public long getMinValue() {
-    synchronized( _name ) {
-      return _minValue;
-    }
+    fold();
+    return _minValue.get();
   }
 
 
@@ -137,13 +153,22 @@ public class Counter extends Metric implements Cloneable {
 
 
 
+  /**
+   * @return The number of times the value was updated.
+   */
+  @Override
+  public long getUpdateCount() {
+    return _updates.sum();
+  }
+
+
+
+
   /**
    * @return Returns the current value of the counter.
    */
   public long getValue() {
-    synchronized( _name ) {
-      return _value;
-    }
+    return fold();
   }
 
 
@@ -157,17 +182,8 @@ public class Counter extends Metric implements Cloneable {
    * @return The final value of the counter after the operation.
    */
   public long increase( final long amt ) {
-    synchronized( _name ) {
-      _updateCount++;
-      _value += amt;
-      if ( _value < _minValue ) {
-        _minValue = _value;
-      }
-      if ( _value > _maxValue ) {
-        _maxValue = _value;
-      }
-      return _value;
-    }
+    add( amt );
+    return _value.sum();
   }
 
 
@@ -179,14 +195,8 @@ public class Counter extends Metric implements Cloneable {
    * @return The final value of the counter after the operation.
    */
   public long increment() {
-    synchronized( _name ) {
-      _updateCount++;
-      _value++;
-      if ( _value > _maxValue ) {
-        _maxValue = _value;
-      }
-      return _value;
-    }
+    add( 1 );
+    return _value.sum();
   }
 
 
@@ -199,17 +209,25 @@ public class Counter extends Metric implements Cloneable {
    * reset and is useful for applications that desire delta values. These delta
    * values are simply the return values of successive reset calls.
    *
+   * <p>Updates made by other threads while the reset is in progress are
+   * counted in either the returned copy or the reset counter, never lost.
+   *
    * @return a counter representing the state prior to the reset.
    */
   public Counter reset() {
     synchronized( _name ) {
-      final Counter retval = (Counter)clone();
-
-      _value = 0;
-      _minValue = 0;
-      _maxValue = 0;
-      _updateCount = 0;
-
+      final Counter retval = new Counter( _name );
+      retval._units = _units;
+      // subtract what we saw rather than zeroing the cells so concurrent
+      // updates are carried over instead of lost
+      final long value = _value.sum();
+      _value.add( -value );
+      final long updates = _updates.sum();
+      _updates.add( -updates );
+      retval._value.add( value );
+      retval._updates.add( updates );
+      retval._minValue.set( Math.min( _minValue.getAndSet( 0 ), value ) );
+      retval._maxValue.set( Math.max( _maxValue.getAndSet( 0 ), value ) );
       return retval;
     }
   }
@@ -223,9 +241,7 @@ public class Counter extends Metric implements Cloneable {
    * @param units The units to set.
    */
   public void setUnits( final String units ) {
-    synchronized( _name ) {
-      _units = units;
-    }
+    _units = units;
   }
 
 
@@ -236,20 +252,43 @@ public class Counter extends Metric implements Cloneable {
    */
   @Override
   public String toString() {
-    synchronized( _name ) {
-      final StringBuffer buff = new StringBuffer( _name );
-      buff.append( "=" );
-      buff.append( Long.toString( _value ) );
-      if ( _units != null ) {
-        buff.append( _units );
-      }
-      buff.append( "[min=" );
-      buff.append( Long.toString( _minValue ) );
-      buff.append( ":max=" );
-      buff.append( Long.toString( _maxValue ) );
-      buff.append( "]" );
-
-      return buff.toString();
+    final long value = fold();
+    final StringBuffer buff = new StringBuffer( _name );
+    buff.append( "=" );
+    buff.append( Long.toString( value ) );
+    if ( _units != null ) {
+      buff.append( _units );
+    }
+    buff.append( "[min=" );
+    buff.append( Long.toString( _minValue.get() ) );
+    buff.append( ":max=" );
+    buff.append( Long.toString( _maxValue.get() ) );
+    buff.append( "]" );
+
+    return buff.toString();
+  }
+
+
+
+
+  /**
+   * Compute the current value and fold it into the minimum and maximum.
+   *
+   * <p>This is only called by readers, never by the update methods, so the
+   * extremes are not a point of contention between updating threads.
+   *
+   * @return the current value of the counter
+   */
+  private long fold() {
+    final long value = _value.sum();
+    long current = _maxValue.get();
+    while ( value > current && !_maxValue.compareAndSet( current, value ) ) {
+      current = _maxValue.get();
+    }
+    current = _minValue.get();
+    while ( value < current && !_minValue.compareAndSet( current, value ) ) {
+      current = _minValue.get();
     }
+    return value;
   }
-}
+}
\ No newline at end of file
@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import coyote.dataframe.DataFrame;
+
+
+/**
+ * The DecayingReservoir class models a fixed-size, statistically
+ * representative sample of a stream of values which favors recent values.
+ *
+ * <p>This uses forward decay priority sampling (Cormode et al.): each value
+ * is given a priority which grows exponentially with the time it arrived,
+ * divided by a random number, and the reservoir keeps the values with the
+ * highest priorities. With the default decay factor the sample is heavily
+ * weighted toward the last five minutes. The priorities are periodically
+ * rescaled against a new landmark time by {@link #tick()} so they never
+ * overflow.
+ *
+ * <p>The sample is held in parallel arrays arranged as a min-heap on priority
+ * so an update allocates nothing and takes logarithmic time under a short
+ * lock.
+ */
+public class DecayingReservoir extends Metric {
+  public static final String CLASS_TAG = "Reservoir";
+
+  /** Default number of values retained */
+  public static final int DEFAULT_SIZE = 1028;
+
+  /** Default decay factor; a mean lifetime of about 5 minutes */
+  public static final double DEFAULT_ALPHA = 0.015;
+
+  /** How long the landmark is kept before priorities are rescaled */
+  private static final long RESCALE_THRESHOLD = TimeUnit.HOURS.toMillis( 1 );
+
+  public static final String NAME = "Name";
+  public static final String COUNT = "Count";
+  public static final String SIZE = "Size";
+  public static final String MIN = "Min";
+  public static final String MAX = "Max";
+  public static final String MEAN = "Mean";
+  public static final String P50 = "P50";
+  public static final String P75 = "P75";
+  public static final String P95 = "P95";
+  public static final String P99 = "P99";
+
+  private final double alpha;
+
+  // all guarded by this
+  private final double[] priorities;
+  private final double[] weights;
+  private final long[] values;
+  private int size = 0;
+  private long count = 0;
+  private long landmark = System.currentTimeMillis();
+
+
+
+
+  /**
+   * Create a reservoir with the default size and decay factor.
+   */
+  public DecayingReservoir( final String name ) {
+    this( name, DEFAULT_SIZE, DEFAULT_ALPHA );
+  }
+
+
+
+
+  /**
+   * Create a reservoir.
+   *
+   * @param name the name of the reservoir
+   * @param capacity the number of values to retain
+   * @param alpha the decay factor, larger values favor recent values more
+   */
+  public DecayingReservoir( final String name, final int capacity, final double alpha ) {
+    super( name );
+    if ( capacity < 1 ) {
+      throw new IllegalArgumentException( "Reservoir capacity must be positive" );
+    }
+    this.alpha = alpha;
+    priorities = new double[capacity];
+    weights = new double[capacity];
+    values = new long[capacity];
+  }
+
+
+
+
+  /**
+   * Add a value to the stream being sampled.
+   *
+   * @param value the value to sample
+   */
+  public void update( final long value ) {
+    final long now = System.currentTimeMillis();
+    final double random = 1.0 - ThreadLocalRandom.current().nextDouble(); // (0,1]
+    synchronized( this ) {
+      count++;
+      if ( now - landmark >= RESCALE_THRESHOLD ) {
+        rescale( now );
+      }
+      final double weight = Math.exp( alpha * ( ( now - landmark ) / 1000d ) );
+      final double priority = weight / random;
+      if ( size < priorities.length ) {
+        priorities[size] = priority;
+        weights[size] = weight;
+        values[size] = value;
+        siftUp( size++ );
+      } else if ( priority > priorities[0] ) {
+        priorities[0] = priority;
+        weights[0] = weight;
+        values[0] = value;
+        siftDown( 0 );
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Rescale the priorities against a new landmark if the current one is old
+   * enough that they could grow too large.
+   */
+  public synchronized void tick() {
+    final long now = System.currentTimeMillis();
+    if ( now - landmark >= RESCALE_THRESHOLD ) {
+      rescale( now );
+    }
+  }
+
+
+
+
+  /**
+   * Move the landmark to the given time, scaling the retained priorities and
+   * weights down to match. Updates call this too in case nothing is ticking.
+   */
+  private void rescale( final long now ) {
+    final double factor = Math.exp( -alpha * ( ( now - landmark ) / 1000d ) );
+    for ( int x = 0; x < size; x++ ) {
+      priorities[x] *= factor;
+      weights[x] *= factor;
+    }
+    landmark = now;
+  }
+
+
+
+
+  /**
+   * @return the number of values offered to the reservoir
+   */
+  public synchronized long getCount() {
+    return count;
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.Metric#getUpdateCount()
+   */
+  @Override
+  public long getUpdateCount() {
+    return getCount();
+  }
+
+
+
+
+  /**
+   * @return the number of values currently retained
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+
+
+
+  /**
+   * Remove all values from the reservoir.
+   */
+  public synchronized void reset() {
+    size = 0;
+    count = 0;
+    landmark = System.currentTimeMillis();
+  }
+
+
+
+
+  /**
+   * @return a weighted copy of the values currently retained
+   */
+  public Snapshot getSnapshot() {
+    final long[] sample;
+    final double[] weight;
+    synchronized( this ) {
+      sample = Arrays.copyOf( values, size );
+      weight = Arrays.copyOf( weights, size );
+    }
+    return new Snapshot( sample, weight );
+  }
+
+
+
+
+  /**
+   * @return a frame representing this reservoir
+   */
+  public DataFrame toFrame() {
+    final Snapshot snapshot = getSnapshot();
+    final DataFrame retval = new DataFrame();
+    retval.put( NAME, _name );
+    retval.put( COUNT, getCount() );
+    retval.put( SIZE, snapshot.size() );
+    retval.put( MIN, snapshot.getMin() );
+    retval.put( MAX, snapshot.getMax() );
+    retval.put( MEAN, snapshot.getMean() );
+    retval.put( P50, snapshot.getValue( 0.50 ) );
+    retval.put( P75, snapshot.getValue( 0.75 ) );
+    retval.put( P95, snapshot.getValue( 0.95 ) );
+    retval.put( P99, snapshot.getValue( 0.99 ) );
+    return retval;
+  }
+
+
+
+
+  private void siftUp( int index ) {
+    while ( index > 0 ) {
+      final int parent = ( index - 1 ) >>> 1;
+      if ( priorities[parent] <= priorities[index] ) {
+        break;
+      }
+      swap( parent, index );
+      index = parent;
+    }
+  }
+
+
+
+
+  private void siftDown( int index ) {
+    while ( true ) {
+      final int left = ( index << 1 ) + 1;
+      if ( left >= size ) {
+        break;
+      }
+      final int right = left + 1;
+      final int smallest = ( right < size && priorities[right] < priorities[left] ) ? right : left;
+      if ( priorities[index] <= priorities[smallest] ) {
+        break;
+      }
+      swap( index, smallest );
+      index = smallest;
+    }
+  }
+
+
+
+
+  private void swap( final int a, final int b ) {
+    final double priority = priorities[a];
+    priorities[a] = priorities[b];
+    priorities[b] = priority;
+    final double weight = weights[a];
+    weights[a] = weights[b];
+    weights[b] = weight;
+    final long value = values[a];
+    values[a] = values[b];
+    values[b] = value;
+  }
+
+
+
+
+  /**
+   * A sorted copy of the sampled values with their normalized weights.
+   */
+  public static class Snapshot {
+    private final long[] values;
+    private final double[] weights;
+
+    /** The normalized weight of all the values before each position */
+    private final double[] quantiles;
+
+
+
+
+    Snapshot( final long[] sample, final double[] weight ) {
+      // sort the values carrying their weights along
+      final Integer[] order = new Integer[sample.length];
+      for ( int x = 0; x < order.length; x++ ) {
+        order[x] = x;
+      }
+      Arrays.sort( order, new Comparator<Integer>() {
+        @Override
+        public int compare( final Integer a, final Integer b ) {
+          return Long.compare( sample[a], sample[b] );
+        }
+      } );
+
+      double total = 0;
+      for ( final double w : weight ) {
+        total += w;
+      }
+
+      values = new long[sample.length];
+      weights = new double[sample.length];
+      quantiles = new double[sample.length];
+      double sum = 0;
+      for ( int x = 0; x < order.length; x++ ) {
+        values[x] = sample[order[x]];
+        weights[x] = ( total > 0 ) ? weight[order[x]] / total : 0;
+        quantiles[x] = sum;
+        sum += weights[x];
+      }
+    }
+
+
+
+
+    /**
+     * @return the number of values in the snapshot
+     */
+    public int size() {
+      return values.length;
+    }
+
+
+
+
+    /**
+     * Return the value at the given quantile.
+     *
+     * @param quantile the quantile, between 0 and 1
+     *
+     * @return the value at the quantile, 0 if the snapshot is empty
+     */
+    public long getValue( final double quantile ) {
+      if ( values.length == 0 ) {
+        return 0;
+      }
+      int index = Arrays.binarySearch( quantiles, quantile );
+      if ( index < 0 ) {
+        index = -index - 2;
+      }
+      return values[Math.max( 0, Math.min( index, values.length - 1 ) )];
+    }
+
+
+
+
+    /**
+     * @return the smallest value in the snapshot
+     */
+    public long getMin() {
+      return ( values.length == 0 ) ? 0 : values[0];
+    }
+
+
+
+
+    /**
+     * @return the largest value in the snapshot
+     */
+    public long getMax() {
+      return ( values.length == 0 ) ? 0 : values[values.length - 1];
+    }
+
+
+
+
+    /**
+     * @return the weighted mean of the values in the snapshot
+     */
+    public double getMean() {
+      double retval = 0;
+      for ( int x = 0; x < values.length; x++ ) {
+        retval += values[x] * weights[x];
+      }
+      return retval;
+    }
+
+  }
+
+}
@@ -11,20 +11,44 @@
  */
 package coyote.i13n;
 
-import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 
 /**
- * The EventList class models a synchronized list of application events.
+ * The EventList class models a bounded, lock-free list of application
+ * events.
+ *
+ * <p>Events are kept in a ring of slots indexed directly by their sequence.
+ * Adding an event claims the next sequence with a single atomic increment and
+ * publishes the event into its slot, overwriting the oldest event once the
+ * list is full, so any number of threads may create events without waiting
+ * on each other. Looking up an event by its sequence is a single array read
+ * and the number of events is kept as they come and go, so neither depends on
+ * the size of the list.
+ *
+ * <p>Each slot also records the sequence of the event it holds, so readers can
+ * tell when a slot has not yet been published or has already been reused
+ * without taking a lock. {@link Cursor}s use this to tail the list as new
+ * events arrive.
  */
 public class EventList {
   /** The maximum number of events to keep in our Event list. */
-  private static int _maxEvents = 1000;
-  private final Object _lock = new Object();
+  private static volatile int _maxEvents = 1000;
+
+  /** Marks a slot which holds no event */
+  private static final long EMPTY = -1;
 
-  private volatile long _nextEventSequence = 0;
+  /** The sequence of a slot while a producer writes it */
+  private static final long BUSY = -2;
 
-  static LinkedList<AppEvent> _list = new LinkedList<AppEvent>();
+  /** The next sequence to be claimed */
+  private final AtomicLong _nextEventSequence = new AtomicLong();
+
+  /** The current ring; replaced only when the maximum number of events grows */
+  private volatile Ring _ring = new Ring( _maxEvents );
 
 
 
@@ -39,11 +63,105 @@ public class EventList {
 
 
 
-  public synchronized void add( final AppEvent event ) {
-    _list.add( event );
-    while ( _list.size() > _maxEvents ) {
-      _list.removeFirst();
+  /**
+   * Add an event to the list at its own sequence.
+   *
+   * <p>Events created by this list are added automatically; this is for
+   * events created elsewhere, such as those parsed from another runtime.
+   *
+   * <p>The event keeps its sequence. Sequences this list creates from then on
+   * follow the highest one added, so a cursor sees the event and then those
+   * created after it. An event with the sequence of one already in the list
+   * replaces it, and one older than any the list keeps is dropped. An event
+   * without a sequence, one less than zero, is given the next sequence.
+   *
+   * @param event the event to add
+   */
+  public void add( final AppEvent event ) {
+    if ( event == null ) {
+      return;
+    }
+
+    final long seq = event.getSequence();
+    if ( seq < 0 ) {
+      final long next = _nextEventSequence.getAndIncrement();
+      event.setSequence( next );
+      publish( next, event );
+      return;
+    }
+
+    // claim everything up to and including the sequence of the event
+    long next = _nextEventSequence.get();
+    while ( next <= seq && !_nextEventSequence.compareAndSet( next, seq + 1 ) ) {
+      next = _nextEventSequence.get();
+    }
+
+    // mark the sequences skipped over so cursors do not wait for them
+    for ( long gap = Math.max( next, seq - _maxEvents + 1 ); gap < seq; gap++ ) {
+      publish( gap, null );
+    }
+
+    if ( seq >= firstSequence() ) {
+      publish( seq, event );
+    }
+  }
+
+
+
+
+  /**
+   * Place the event in the slot for the given sequence.
+   */
+  private void publish( final long seq, final AppEvent event ) {
+    Ring ring = ring();
+    ring.put( seq, event );
+
+    // a resize may have copied the ring before we published; copy ourselves
+    Ring current = _ring;
+    while ( current != ring ) {
+      ring = current;
+      ring.put( seq, event );
+      current = _ring;
+    }
+  }
+
+
+
+
+  /**
+   * @return the current ring, replaced first if the maximum number of events
+   *         has grown beyond its capacity
+   */
+  private Ring ring() {
+    final Ring ring = _ring;
+    if ( ring.capacity() == _maxEvents ) {
+      return ring;
+    }
+    return resize();
+  }
+
+
+
+
+  /**
+   * Replace the ring with one holding the maximum number of events, copying
+   * the events of the old one which are still to be kept.
+   */
+  private synchronized Ring resize() {
+    final Ring old = _ring;
+    if ( old.capacity() == _maxEvents ) {
+      return old;
     }
+    final Ring ring = new Ring( _maxEvents );
+    final long last = _nextEventSequence.get() - 1;
+    for ( long seq = firstSequence(); seq <= last; seq++ ) {
+      final AppEvent event = old.get( seq );
+      if ( event != null ) {
+        ring.put( seq, event );
+      }
+    }
+    _ring = ring;
+    return ring;
   }
 
 
@@ -104,10 +222,10 @@ public class EventList {
    *
    * @return A sequenced event with the appropriate values filled-in.
    */
-  public synchronized AppEvent createEvent( final String appid, final String sysid, final String cmpid, final String msg, final int sv, final int maj, final int min, final String cat ) {
-
-    final AppEvent retval = new AppEvent( nextSequence(), appid, sysid, cmpid, msg, sv, maj, min, cat, this );
-    add( retval );
+  public AppEvent createEvent( final String appid, final String sysid, final String cmpid, final String msg, final int sv, final int maj, final int min, final String cat ) {
+    final long seq = _nextEventSequence.getAndIncrement();
+    final AppEvent retval = new AppEvent( seq, appid, sysid, cmpid, msg, sv, maj, min, cat, this );
+    publish( seq, retval );
     return retval;
   }
 
@@ -121,49 +239,55 @@ public class EventList {
    *
    * @return The event with the given sequence number or null if not found.
    */
-  public synchronized AppEvent get( final long seq ) {
-    // make sure the event exists
-    if ( ( _list.getFirst() ).getSequence() <= seq ) {
-      if ( ( ( _list.getLast() ) ).getSequence() >= seq ) {
-        // perform a binary search on the event list.
-        int indx = 0;
-        int size = _list.size() - 1;
-        while ( indx <= size ) {
-          final int i = ( indx + size ) >> 1;
-          final AppEvent retval = _list.get( i );
-          final long value = retval.getSequence();
-          if ( value < seq ) {
-            indx = i + 1;
-          } else if ( value > seq ) {
-            size = i - 1;
-          } else {
-            return _list.get( i );
-          }
-        }
-        return null;
-
-      } else {
-        // System.out.println( "Not created yet" );
-      }
-    } else {
-      // System.out.println( "Expired" );
+  public AppEvent get( final long seq ) {
+    if ( seq < firstSequence() || seq > lastSequence() ) {
+      return null; // expired or not created yet
     }
+    return _ring.get( seq );
+  }
 
-    return null;
+
+
+
+  /**
+   * @return the sequence of the oldest event the list may still contain
+   */
+  private long firstSequence() {
+    return Math.max( 0, _nextEventSequence.get() - _maxEvents );
   }
 
 
 
 
-  public synchronized AppEvent getFirst() {
-    return _list.getFirst();
+  /**
+   * @return the oldest event in the list or null if the list is empty
+   */
+  public AppEvent getFirst() {
+    final long last = lastSequence();
+    for ( long seq = firstSequence(); seq <= last; seq++ ) {
+      final AppEvent event = _ring.get( seq );
+      if ( event != null ) {
+        return event;
+      }
+    }
+    return null;
   }
 
 
 
 
-  public synchronized AppEvent getLast() {
-    return _list.getLast();
+  /**
+   * @return the newest event in the list or null if the list is empty
+   */
+  public AppEvent getLast() {
+    final long first = firstSequence();
+    for ( long seq = lastSequence(); seq >= first; seq-- ) {
+      final AppEvent event = _ring.get( seq );
+      if ( event != null ) {
+        return event;
+      }
+    }
+    return null;
   }
 
 
@@ -180,47 +304,88 @@ public class EventList {
 
 
   /**
-   * @return the number of entries currently in the list/
+   * Return the number of events currently in the list.
+   *
+   * <p>The count is kept as events are added and removed, so this does not
+   * visit the events. Until an event is added after the maximum number of
+   * events shrinks, the count is capped at the new maximum.
+   *
+   * @return the number of entries currently in the list
    */
   public int getSize() {
-    return _list.size();
+    return Math.min( _ring.size(), _maxEvents );
   }
 
 
 
 
   public long lastSequence() {
-    synchronized( _lock ) {
-      return _nextEventSequence - 1;
+    return _nextEventSequence.get() - 1;
+  }
+
+
+
+
+  /**
+   * Remove the given event from the list.
+   *
+   * @param event The event to remove from the list.
+   */
+  public void remove( final AppEvent event ) {
+    if ( event != null ) {
+      final long last = lastSequence();
+      for ( long seq = firstSequence(); seq <= last; seq++ ) {
+        if ( _ring.remove( seq, event ) ) {
+          return;
+        }
+      }
     }
   }
 
 
 
 
-  private long nextSequence() {
-    synchronized( _lock ) {
-      return _nextEventSequence++;
+  /**
+   * Remove the oldest event from the list.
+   *
+   * @return the event removed or null if the list is empty
+   */
+  public AppEvent removeFirst() {
+    final long last = lastSequence();
+    for ( long seq = firstSequence(); seq <= last; seq++ ) {
+      final AppEvent event = _ring.get( seq );
+      if ( event != null && _ring.remove( seq, event ) ) {
+        return event;
+      }
     }
+    return null;
   }
 
 
 
 
   /**
-   * Remove the given event from the list.
+   * Create a cursor which reads events as they are added, starting with the
+   * next event to be added.
    *
-   * @param event The event to remove from the list.
+   * @return a new cursor
    */
-  public synchronized void remove( final AppEvent event ) {
-    _list.remove( event );
+  public Cursor cursor() {
+    return new Cursor( _nextEventSequence.get() );
   }
 
 
 
 
-  public synchronized AppEvent removeFirst() {
-    return _list.removeFirst();
+  /**
+   * Create a cursor which reads events starting at the given sequence.
+   *
+   * @param seq the sequence of the first event to read
+   *
+   * @return a new cursor
+   */
+  public Cursor cursor( final long seq ) {
+    return new Cursor( seq );
   }
 
 
@@ -229,13 +394,201 @@ public class EventList {
   /**
    * Set the maximum number of events to keep in the list.
    *
+   * <p>Events beyond the new maximum are no longer visible immediately; the
+   * storage grows the next time an event is added.
+   *
    * @param max  The maximum number of events to keep.
    */
   public static void setMaxEvents( final int max ) {
+    if ( max < 1 ) {
+      throw new IllegalArgumentException( "Maximum events must be positive" );
+    }
     _maxEvents = max;
-    while ( _list.size() > _maxEvents ) {
-      _list.removeFirst();
+  }
+
+
+
+
+  /**
+   * A fixed array of slots, one for each event kept, the sequence published
+   * in each and the number of slots holding an event.
+   *
+   * <p>There are exactly as many slots as events to keep, so every event in
+   * the ring is one the list still holds.
+   */
+  private static final class Ring {
+    private final AtomicReferenceArray<AppEvent> events;
+    private final AtomicLongArray sequences;
+    private final AtomicInteger size = new AtomicInteger();
+    private final int capacity;
+
+
+
+
+    Ring( final int max ) {
+      capacity = max;
+      events = new AtomicReferenceArray<AppEvent>( capacity );
+      sequences = new AtomicLongArray( capacity );
+      for ( int x = 0; x < capacity; x++ ) {
+        sequences.set( x, EMPTY );
+      }
+    }
+
+
+
+
+    int capacity() {
+      return capacity;
+    }
+
+
+
+
+    int size() {
+      return size.get();
+    }
+
+
+
+
+    private int index( final long seq ) {
+      return (int)( seq % capacity );
+    }
+
+
+
+
+    /**
+     * Publish the event with the given sequence; a null event marks the
+     * sequence as passed without an event.
+     */
+    void put( final long seq, final AppEvent event ) {
+      final int index = index( seq );
+      // claim the slot from the older sequence holding it; the claim also
+      // hides the slot so readers never pair the old sequence with the new
+      // event
+      while ( true ) {
+        final long current = sequences.get( index );
+        if ( current == BUSY ) {
+          Thread.yield(); // another producer is writing the slot
+        } else if ( current > seq ) {
+          return; // a newer event already took the slot
+        } else if ( sequences.compareAndSet( index, current, BUSY ) ) {
+          break;
+        }
+      }
+      final AppEvent previous = events.getAndSet( index, event );
+      sequences.set( index, seq );
+      if ( previous == null && event != null ) {
+        size.incrementAndGet();
+      } else if ( previous != null && event == null ) {
+        size.decrementAndGet();
+      }
+    }
+
+
+
+
+    AppEvent get( final long seq ) {
+      final int index = index( seq );
+      if ( sequences.get( index ) != seq ) {
+        return null;
+      }
+      final AppEvent retval = events.get( index );
+      // make sure the slot was not reused while we read it
+      return ( sequences.get( index ) == seq ) ? retval : null;
+    }
+
+
+
+
+    /**
+     * @return true if the event with the given sequence has been published,
+     *         and may since have been removed or overwritten, false if it is
+     *         still to come
+     */
+    boolean isPast( final long seq ) {
+      return sequences.get( index( seq ) ) >= seq;
+    }
+
+
+
+
+    boolean remove( final long seq, final AppEvent event ) {
+      final int index = index( seq );
+      if ( sequences.get( index ) == seq && events.compareAndSet( index, event, null ) ) {
+        size.decrementAndGet();
+        return true;
+      }
+      return false;
+    }
+
+  }
+
+
+
+
+  /**
+   * Reads the events of the list in order as they are added.
+   *
+   * <p>A cursor is intended for a single reading thread. If the reader falls
+   * so far behind that events are overwritten before they are read, the
+   * cursor skips ahead to the oldest event still in the list.
+   */
+  public class Cursor {
+    private long next;
+
+
+
+
+    Cursor( final long seq ) {
+      next = seq;
+    }
+
+
+
+
+    /**
+     * @return the sequence of the next event this cursor will read
+     */
+    public long getSequence() {
+      return next;
     }
+
+
+
+
+    /**
+     * Return the next event, if one has been added.
+     *
+     * @return the next event or null if no more events have been added yet
+     */
+    public AppEvent next() {
+      while ( next <= lastSequence() ) {
+        if ( next < firstSequence() ) {
+          next = firstSequence();
+          continue;
+        }
+        final Ring ring = _ring;
+        final AppEvent event = ring.get( next );
+        if ( event != null ) {
+          next++;
+          return event;
+        }
+        if ( !ring.isPast( next ) ) {
+          return null; // claimed but not yet published
+        }
+        // it may have been published after we looked
+        final AppEvent published = ring.get( next );
+        next++;
+        if ( published != null ) {
+          return published;
+        }
+        // removed or overwritten
+      }
+      return null;
+    }
+
   }
 
 }
@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+/**
+ * The Ewma class models an exponentially weighted moving average of a rate.
+ *
+ * <p>The average is advanced by calling {@link #tick(long)} at a fixed
+ * interval with the number of events seen during that interval. Each tick
+ * moves the average toward the instantaneous rate by a fraction determined
+ * by the interval and the period being averaged, which gives the same
+ * smoothing as the Unix load averages.
+ *
+ * <p>Ticks are expected to come from a single thread; reading the rate is
+ * safe from any thread.
+ */
+public class Ewma {
+
+  private final double alpha;
+  private final double interval;
+  private volatile boolean initialized = false;
+  private volatile double rate = 0.0;
+
+
+
+
+  /**
+   * Create a moving average over the given number of minutes.
+   *
+   * @param minutes the period of the average in minutes
+   * @param tickMillis the interval between ticks in milliseconds
+   *
+   * @return a new moving average
+   */
+  public static Ewma minutes( final int minutes, final long tickMillis ) {
+    return new Ewma( 1 - Math.exp( -( tickMillis / 1000d ) / ( minutes * 60d ) ), tickMillis );
+  }
+
+
+
+
+  /**
+   * Create a moving average.
+   *
+   * @param alpha the smoothing constant, the weight given to each new tick
+   * @param tickMillis the interval between ticks in milliseconds
+   */
+  public Ewma( final double alpha, final long tickMillis ) {
+    if ( tickMillis < 1 ) {
+      throw new IllegalArgumentException( "Tick interval must be positive" );
+    }
+    this.alpha = alpha;
+    interval = tickMillis;
+  }
+
+
+
+
+  /**
+   * Advance the average by one interval.
+   *
+   * @param count the number of events which occurred during the interval
+   */
+  public void tick( final long count ) {
+    final double instantRate = count / interval;
+    if ( initialized ) {
+      rate += ( alpha * ( instantRate - rate ) );
+    } else {
+      rate = instantRate;
+      initialized = true;
+    }
+  }
+
+
+
+
+  /**
+   * @return the average number of events per second
+   */
+  public double getRate() {
+    return rate * 1000;
+  }
+
+
+
+
+  /**
+   * Return the average to its initial state.
+   */
+  public void reset() {
+    initialized = false;
+    rate = 0.0;
+  }
+
+}
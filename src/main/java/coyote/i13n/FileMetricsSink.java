@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Writes metrics payloads to a set of rolling, compressed files.
+ *
+ * <p>Payloads are appended to {@code <name>.0.gz}, each preceded by a
+ * {@code # <timestamp>} line. Once the current file has received the
+ * configured number of bytes it is closed and the files shift up one index
+ * ({@code .0} becomes {@code .1} and so on), the oldest falling off the end.
+ * The stream is flushed after each payload so a file is readable up to the
+ * last payload even while it is being written.
+ */
+public class FileMetricsSink extends MetricsSink {
+
+  /** The default number of uncompressed bytes written to a file before it rolls */
+  public static final long DEFAULT_FILE_SIZE = 8 * 1024 * 1024;
+
+  /** The default number of files kept */
+  public static final int DEFAULT_FILE_COUNT = 5;
+
+  private final File directory;
+  private final String baseName;
+  private final long fileSize;
+  private final int fileCount;
+
+  private OutputStream out = null;
+  private long written = 0;
+
+
+
+
+  /**
+   * Create a sink with the default file size and count.
+   *
+   * @param directory the directory to hold the files
+   * @param baseName the name of the files without the index
+   */
+  public FileMetricsSink( final File directory, final String baseName ) {
+    this( directory, baseName, DEFAULT_FILE_SIZE, DEFAULT_FILE_COUNT, DEFAULT_CAPACITY );
+  }
+
+
+
+
+  /**
+   * @param directory the directory to hold the files
+   * @param baseName the name of the files without the index
+   * @param fileSize the number of uncompressed bytes written to a file before it rolls
+   * @param fileCount the number of files to keep
+   * @param capacity the number of payloads to hold before dropping them
+   */
+  public FileMetricsSink( final File directory, final String baseName, final long fileSize, final int fileCount, final int capacity ) {
+    super( "MetricsFile-" + baseName, capacity );
+    if ( fileCount < 1 ) {
+      throw new IllegalArgumentException( "At least one file must be kept" );
+    }
+    this.directory = directory;
+    this.baseName = baseName;
+    this.fileSize = fileSize;
+    this.fileCount = fileCount;
+  }
+
+
+
+
+  /**
+   * @param index the index of the file
+   *
+   * @return the file with the given index, 0 being the current file
+   */
+  public File getFile( final int index ) {
+    return new File( directory, baseName + "." + index + ".gz" );
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.MetricsSink#write(long, byte[])
+   */
+  @Override
+  protected void write( final long timestamp, final byte[] payload ) throws IOException {
+    if ( out != null && written >= fileSize ) {
+      close();
+      roll();
+    }
+    if ( out == null ) {
+      directory.mkdirs();
+      out = new GZIPOutputStream( new FileOutputStream( getFile( 0 ), true ), 8192, true );
+      written = 0;
+    }
+
+    final byte[] header = ( "# " + timestamp + "\n" ).getBytes( StandardCharsets.UTF_8 );
+    out.write( header );
+    out.write( payload );
+    out.flush();
+    written += header.length + payload.length;
+  }
+
+
+
+
+  /**
+   * Shift each file up one index, removing the oldest.
+   */
+  private void roll() {
+    getFile( fileCount - 1 ).delete();
+    for ( int x = fileCount - 2; x >= 0; x-- ) {
+      final File file = getFile( x );
+      if ( file.exists() ) {
+        file.renameTo( getFile( x + 1 ) );
+      }
+    }
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.MetricsSink#close()
+   */
+  @Override
+  protected void close() {
+    if ( out != null ) {
+      try {
+        out.close();
+      } catch ( final IOException ignore ) {
+        // nothing more we can do
+      }
+      out = null;
+    }
+  }
+
+}
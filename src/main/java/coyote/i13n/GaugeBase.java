@@ -11,6 +11,10 @@
  */
 package coyote.i13n;
 
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
 import coyote.dataframe.DataFrame;
 
 
@@ -18,22 +22,16 @@ import coyote.dataframe.DataFrame;
  * The GaugeBase class allow for the creation of objects that track rates of
  * change in some performance.
  *
- * <p>A linked list of samples is managed to calculate the current rate per
- * second. This list will grow in size to accommodate the highest sampling rate
- * and will not shrink. The nodes will, however, be re-used as they expire,
- * allowing gauge to keep from creating and destroying temporary objects and
- * causing unnecessary garbage collection.
- *
- * <p>This class also uses a circular array of one-second samples to provide a
- * minute-based rate calculation.
+ * <p>Updates are accumulated in a fixed ring of 60 one-second buckets indexed
+ * by the epoch second modulo 60. Each bucket carries the epoch second it
+ * currently represents so stale buckets are recognized and recycled when the
+ * ring comes back around to them. Updates are atomic adds to the bucket and
+ * to the running totals; no locks are held and nothing is allocated.
  *
- * <p>Preliminary performance tests show gauges are quite a bit slower than
- * other metric structures:
- * <ul>
- *  <li>Null factory test: 1.5E-5 ms/c Avg (66,666,668 cps)</li>
- *  <li>Timing Gauge test: 7.621E-4 ms/c Avg (1,312,163 cps)</li>
- * </ul> Because of this, gauges should be used only in specialized situations
- * or updated only once, maybe twice, per second.
+ * <p>The first update in a new second completes the previously active second
+ * whose total then becomes the last value per second and is folded into the
+ * minimum and maximum values per second. Seconds without any updates do not
+ * participate in the minimum and maximum.
  */
 public class GaugeBase extends NullGauge {
   private static final String CLASS_TAG = "Gauge";
@@ -49,6 +47,12 @@ public class GaugeBase extends NullGauge {
   public static final String GAUGE = "Gauge";
   public static final String NAME = "Name";
 
+  /** The number of one-second buckets in the ring */
+  private static final int SECONDS = 60;
+
+  /** Marks a bucket being recycled for a new second */
+  private static final long RECYCLING = -1;
+
 
 
 
@@ -127,18 +131,21 @@ public class GaugeBase extends NullGauge {
 
   }
 
-  private long firstAccess;
-  private long lastAccess;
-  private long totalCount;
-  private final StringBuffer buffer = new StringBuffer();
-  private Node firstSample = null;
-  private Node lastSample = null;
-  private long maxvps = 0;
+  /** The sum of the values updated during the second each bucket represents */
+  private final AtomicLongArray buckets = new AtomicLongArray( SECONDS );
+
+  /** The epoch second each bucket represents */
+  private final AtomicLongArray seconds = new AtomicLongArray( SECONDS );
 
-  private long minvps = Long.MAX_VALUE;
+  /** The epoch second of the most recent update */
+  private final AtomicLong activeSecond = new AtomicLong();
 
-  /** Represents the last 1 second sample calculated from recent markings. */
-  private volatile Node lastMinuteNode = null;
+  private final AtomicLong firstAccess = new AtomicLong();
+  private volatile long lastAccess;
+  private final LongAdder totalCount = new LongAdder();
+  private volatile long lastvps = 0;
+  private final AtomicLong maxvps = new AtomicLong();
+  private final AtomicLong minvps = new AtomicLong( Long.MAX_VALUE );
 
 
 
@@ -155,17 +162,23 @@ public class GaugeBase extends NullGauge {
    */
   public GaugeBase( final String name ) {
     super( name );
+  }
+
+
 
-    // Prime the one minute sample array
-    final Node start = new Node( 0, 0, null );
-    lastMinuteNode = start;
-    for ( int x = 0; x < 59; x++ ) {
-      lastMinuteNode = new Node( 0, 0, lastMinuteNode );
-    }
 
-    // link the start and end nodes to complete the circle
-    start.prevNode = lastMinuteNode;
-    lastMinuteNode.nextNode = start;
+  /**
+   * Return the value of the bucket for the given epoch second.
+   *
+   * @param second the epoch second
+   *
+   * @return the sum of the values updated in that second, 0 if the bucket has
+   *         since been recycled or was never used for that second
+   */
+  private long valueOf( final long second ) {
+    final int index = (int)( second % SECONDS );
+    final long value = buckets.get( index );
+    return ( seconds.get( index ) == second ) ? value : 0;
   }
 
 
@@ -176,11 +189,13 @@ public class GaugeBase extends NullGauge {
    */
   @Override
   public float getAvgValuePerSecond() {
-    if ( ( lastAccess - firstAccess ) > 0 ) {
-      return (float)( totalCount / ( lastAccess - firstAccess ) ) * 1000;
+    final long elapsed = lastAccess - firstAccess.get();
+    final long total = totalCount.sum();
+    if ( elapsed > 0 ) {
+      return (float)( total / elapsed ) * 1000;
     }
 
-    return totalCount;
+    return total;
   }
 
 
@@ -191,8 +206,9 @@ public class GaugeBase extends NullGauge {
    */
   @Override
   public float getElapsedSeconds() {
-    if ( ( lastAccess - firstAccess ) > 0 ) {
-      return (float)( lastAccess - firstAccess ) / 1000;
+    final long elapsed = lastAccess - firstAccess.get();
+    if ( elapsed > 0 ) {
+      return (float)elapsed / 1000;
     }
     return 0.0F;
   }
@@ -204,7 +220,7 @@ public class GaugeBase extends NullGauge {
    * @return  Returns the firstAccess.
    */
   public long getFirstAccess() {
-    return firstAccess;
+    return firstAccess.get();
   }
 
 
@@ -225,10 +241,7 @@ public class GaugeBase extends NullGauge {
    */
   @Override
   public long getLastValuePerSecond() {
-    if ( lastMinuteNode.prevNode.timestamp > 0 ) {
-      return lastMinuteNode.prevNode.value;
-    }
-    return 0;
+    return lastvps;
   }
 
 
@@ -239,10 +252,7 @@ public class GaugeBase extends NullGauge {
    */
   @Override
   public long getMaxValuePerSecond() {
-    if ( maxvps == Long.MIN_VALUE ) {
-      return 0;
-    }
-    return maxvps;
+    return maxvps.get();
   }
 
 
@@ -253,16 +263,12 @@ public class GaugeBase extends NullGauge {
    */
   @Override
   public long getMinuteTotal() {
-    synchronized( buffer ) {
-      long retval = 0;
-      Node currNode = lastMinuteNode;
-      for ( int x = 0; x < 60; x++ ) {
-        retval += currNode.value;
-        currNode = currNode.prevNode;
-      }
-
-      return retval;
+    final long now = System.currentTimeMillis() / 1000;
+    long retval = 0;
+    for ( long second = now - SECONDS + 1; second <= now; second++ ) {
+      retval += valueOf( second );
     }
+    return retval;
   }
 
 
@@ -273,10 +279,11 @@ public class GaugeBase extends NullGauge {
    */
   @Override
   public long getMinValuePerSecond() {
-    if ( minvps == Long.MAX_VALUE ) {
+    final long retval = minvps.get();
+    if ( retval == Long.MAX_VALUE ) {
       return 0;
     }
-    return minvps;
+    return retval;
   }
 
 
@@ -287,7 +294,7 @@ public class GaugeBase extends NullGauge {
    */
   @Override
   public long getTotal() {
-    return totalCount;
+    return totalCount.sum();
   }
 
 
@@ -300,7 +307,7 @@ public class GaugeBase extends NullGauge {
   public float getValuePerMinute() {
     // TODO complete this
     final float retval = 0.0F;
-    if ( ( lastAccess - firstAccess ) < 60000 ) {
+    if ( ( lastAccess - firstAccess.get() ) < 60000 ) {
       // extrapolate vpm since we have not been running for a whole minute yet
     }
     return retval;
@@ -310,29 +317,18 @@ public class GaugeBase extends NullGauge {
 
 
   /**
+   * Return the current rate, measured over the previous whole second and the
+   * portion of the current second which has elapsed.
+   *
    * @see coyote.i13n.Gauge#getValuePerSecond()
    */
   @Override
   public float getValuePerSecond() {
-    if ( lastSample != null ) {
+    if ( lastAccess > 0 ) {
       final long now = System.currentTimeMillis();
-      long cntr = 0;
-
-      long endTime = lastMinuteNode.prevNode.timestamp;
-      if ( endTime == 0 ) {
-        endTime = firstSample.timestamp;
-      }
-
-      Node cNode = lastSample;
-      while ( cNode.timestamp >= endTime ) {
-        cntr += cNode.value;
-        cNode = cNode.prevNode;
-        if ( cNode == null ) {
-          break;
-        }
-      }
-
-      return ( (float)cntr / ( now - endTime ) ) * 1000;
+      final long second = now / 1000;
+      final long cntr = valueOf( second - 1 ) + valueOf( second );
+      return ( (float)cntr / ( 1000 + ( now % 1000 ) ) ) * 1000;
     }
 
     return 0.0F;
@@ -341,70 +337,37 @@ public class GaugeBase extends NullGauge {
 
 
 
-  public synchronized void removeNode( final Node node ) {
-    if ( node.prevNode == null ) {
-      firstSample = node.nextNode;
-    } else {
-      node.prevNode.nextNode = node.nextNode;
-    }
-
-    if ( node.nextNode == null ) {
-      lastSample = node.prevNode;
-    } else {
-      node.nextNode.prevNode = node.prevNode;
-    }
-  }
-
-
-
-
   /**
    * Reset all samples and counters effectively returning this gauge to a state
    * similar to that of a new gauge.
+   *
+   * <p>Updates made while the reset is in progress may or may not be
+   * reflected afterwards.
    */
   @Override
-  public void reset() {
-    synchronized( buffer ) {
-      // Clear out all the samples so they can be GC'd
-      Node cNode = firstSample;
-      while ( cNode != null ) {
-        cNode.prevNode = null; // remove back ref
-        final Node node = cNode.nextNode; // save forward ref
-        cNode.nextNode = null; // remove forward ref
-        cNode = node; // use old forward ref as current
-      }
-
-      // remove the reference to the last sample
-      lastSample = null;
-
-      // clear out minute samples
-      for ( int x = 0; x < 60; x++ ) {
-        lastMinuteNode.timestamp = lastMinuteNode.value = 0;
-      }
-
-      // reset totals
-      firstAccess = lastAccess = totalCount = 0;
-
-      maxvps = Long.MIN_VALUE;
-      minvps = Long.MAX_VALUE;
-
+  public synchronized void reset() {
+    for ( int x = 0; x < SECONDS; x++ ) {
+      seconds.set( x, 0 );
+      buckets.set( x, 0 );
     }
+    activeSecond.set( 0 );
+    firstAccess.set( 0 );
+    lastAccess = 0;
+    totalCount.reset();
+    lastvps = 0;
+    maxvps.set( 0 );
+    minvps.set( Long.MAX_VALUE );
   }
 
 
 
 
+  /**
+   * @return the sum of the values updated so far in the current second
+   */
   @Override
   public String toString() {
-    synchronized( buffer ) {
-      buffer.delete( 0, buffer.length() );
-
-      buffer.append( lastMinuteNode.value );
-
-      // return our string representation
-      return buffer.toString();
-    }
-
+    return Long.toString( valueOf( System.currentTimeMillis() / 1000 ) );
   }
 
 
@@ -415,139 +378,90 @@ public class GaugeBase extends NullGauge {
    *
    * <p>This method assumes it will be called at regular intervals during
    * periods of activity and not be called if there is nothing to measure. This
-   * implies that the value of any update call will only be applied to the last
-   * 1000 milliseconds of time. If this method was not called for 29 seconds
-   * and then called with a value of 60 in the 30th second, then the entire
-   * value of 60 will be applied to the last second of time, resulting in a
-   * rate of 60 events per second and not 2 events per second as would be the
-   * case of the activity was averaged out over the missing updates.
-   *
-   * <p>Last profiler metric: 0.001187 ms per call - 847,459cps
+   * implies that the value of any update call will only be applied to the
+   * second in which it is called. If this method was not called for 29
+   * seconds and then called with a value of 60 in the 30th second, then the
+   * entire value of 60 will be applied to the last second of time, resulting
+   * in a rate of 60 events per second and not 2 events per second as would be
+   * the case of the activity was averaged out over the missing updates.
    *
    * @param val the value of the last sample since the last update was called.
    */
   @Override
   public void update( final long val ) {
-    synchronized( buffer ) {
-      lastAccess = System.currentTimeMillis();
-      totalCount += val;
-
-      if ( lastSample == null ) {
-        // We have no samples in the current list, create a new first/last node
-        lastSample = new Node( lastAccess, val, null );
-        firstSample = lastSample;
-        firstAccess = lastAccess;
-      } else {
-        if ( lastSample.nextNode == null ) {
-          // We are at the end of our list of samples, create a new node
-          lastSample = new Node( lastAccess, val, lastSample );
-        } else {
-          // reuse the next node in the list
-          lastSample = lastSample.nextNode;
-
-          // set the timestamp
-          lastSample.timestamp = lastAccess;
-
-          // set the value
-          lastSample.value = val;
-        }
-      }
+    final long now = System.currentTimeMillis();
+    final long second = now / 1000;
+    final int index = (int)( second % SECONDS );
 
-      // make sure the last node has a timestamp; this will happen only once
-      if ( lastMinuteNode.timestamp == 0 ) {
-        lastMinuteNode.timestamp = lastSample.timestamp;
+    lastAccess = now;
+    if ( firstAccess.get() == 0 ) {
+      firstAccess.compareAndSet( 0, now );
+    }
+    totalCount.add( val );
+
+    // make sure the bucket represents this second before adding to it
+    long stamp = seconds.get( index );
+    while ( stamp != second ) {
+      if ( stamp == RECYCLING ) {
+        // another thread is clearing the bucket for this second
+        Thread.yield();
+      } else if ( stamp > second ) {
+        // we were delayed past an entire trip around the ring
+        return;
+      } else if ( seconds.compareAndSet( index, stamp, RECYCLING ) ) {
+        buckets.set( index, 0 );
+        seconds.set( index, second );
       }
+      stamp = seconds.get( index );
+    }
+    buckets.addAndGet( index, val );
 
-      // Now check to see if it is time to update the minute sample array with
-      // one or more seconds worth of data
-      if ( ( lastAccess - lastMinuteNode.timestamp ) >= 1000 ) {
-        // move to the next minute node
-        lastMinuteNode = lastMinuteNode.nextNode;
-        // update the timestamp
-        lastMinuteNode.timestamp = lastMinuteNode.prevNode.timestamp + 1000;
-
-        // Start posting samples to their proper nodes based on timestamps
-        Node currNode = lastMinuteNode;
-        while ( lastSample != null ) {
-          while ( lastSample.timestamp > currNode.prevNode.timestamp ) {
-            currNode.value += lastSample.value;
-            lastSample = lastSample.prevNode;
-            if ( lastSample == null ) {
-              break;
-            }
-          }
-          currNode = currNode.prevNode;
-        } // for all the samples
-
-        if ( lastMinuteNode.prevNode.value > maxvps ) {
-          maxvps = lastMinuteNode.prevNode.value;
-        }
-
-        if ( lastMinuteNode.prevNode.value < minvps ) {
-          minvps = lastMinuteNode.prevNode.value;
-        }
-
-      } // if more than 1000ms has passed
-
-    } // sync
+    // the first update in a new second completes the previously active one
+    final long previous = activeSecond.get();
+    if ( second > previous && activeSecond.compareAndSet( previous, second ) && previous > 0 ) {
+      complete( valueOf( previous ) );
+    }
   }
 
 
 
 
-  public DataFrame toFrame() {
-    synchronized( buffer ) {
-      final DataFrame retval = new DataFrame();
-      //retval.setType( GAUGE );
-        retval.put( NAME, name );
-        retval.put( AVG_VPS, getAvgValuePerSecond() );
-        retval.put( VPS, getValuePerSecond() );
-        retval.put( LAST_VPS, getLastValuePerSecond() );
-        retval.put( MAX_VPS, getMaxValuePerSecond() );
-        retval.put( MIN_VPS, getMinValuePerSecond() );
-        retval.put( ELAPSED, getElapsedSeconds() );
-        retval.put( TOTAL, getTotal() );
-        retval.put( FIRST_ACCESS, getFirstAccess() );
-        retval.put( LAST_ACCESS, getLastAccess() );
-      return retval;
-    }
-
-  }
-
   /**
-   * The NetworkService class models a time-stamped sampling of data.
+   * Fold the total of a completed second into the per-second statistics.
    *
-   * <p>This class is designed to be used in a linked list pattern, allowing
-   * for smooth movement from one node to the next without having to check
-   * array indexes for wraps in circular arrays.
+   * <p>Different seconds may be completed by different threads at once, so
+   * the extremes are only ever replaced by a more extreme value.
    */
-  private class Node {
-    long timestamp;
-    long value;
-    Node nextNode;
-    Node prevNode;
-
-
-
-
-    /**
-     * A sample of occurrences.
-     *
-     * @param time Time the node represents
-     * @param sample The number of occurrences in this node
-     * @param prev The previous node for linking
-     */
-    Node( final long time, final long sample, final Node prev ) {
-      timestamp = time;
-      value = sample;
-      prevNode = prev;
-
-      // create the forward link on the previous node
-      if ( prevNode != null ) {
-        prevNode.nextNode = this;
-      }
+  private void complete( final long value ) {
+    lastvps = value;
+    long current = maxvps.get();
+    while ( value > current && !maxvps.compareAndSet( current, value ) ) {
+      current = maxvps.get();
+    }
+    current = minvps.get();
+    while ( value < current && !minvps.compareAndSet( current, value ) ) {
+      current = minvps.get();
     }
+  }
+
+
+
 
-  } // NetworkService inner class
+  @Override
+  public DataFrame toFrame() {
+    final DataFrame retval = new DataFrame();
+    //retval.setType( GAUGE );
+    retval.put( NAME, name );
+    retval.put( AVG_VPS, getAvgValuePerSecond() );
+    retval.put( VPS, getValuePerSecond() );
+    retval.put( LAST_VPS, getLastValuePerSecond() );
+    retval.put( MAX_VPS, getMaxValuePerSecond() );
+    retval.put( MIN_VPS, getMinValuePerSecond() );
+    retval.put( ELAPSED, getElapsedSeconds() );
+    retval.put( TOTAL, getTotal() );
+    retval.put( FIRST_ACCESS, getFirstAccess() );
+    retval.put( LAST_ACCESS, getLastAccess() );
+    return retval;
+  }
 
 } // GaugeBase Class
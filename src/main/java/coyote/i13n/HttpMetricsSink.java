@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+
+/**
+ * POSTs metrics payloads to an HTTP endpoint.
+ *
+ * <p>Each payload is sent as the {@code text/plain} body of a single request
+ * with the time it was taken in the {@code X-Metrics-Timestamp} header. Any
+ * response other than 2xx counts as a failed write.
+ */
+public class HttpMetricsSink extends MetricsSink {
+
+  /** The default number of milliseconds to wait to connect or for a response */
+  public static final int DEFAULT_TIMEOUT = 5000;
+
+  private final URL url;
+  private volatile int timeout = DEFAULT_TIMEOUT;
+
+
+
+
+  /**
+   * @param url the endpoint to receive the payloads
+   */
+  public HttpMetricsSink( final URL url ) {
+    this( url, DEFAULT_CAPACITY );
+  }
+
+
+
+
+  /**
+   * @param url the endpoint to receive the payloads
+   * @param capacity the number of payloads to hold before dropping them
+   */
+  public HttpMetricsSink( final URL url, final int capacity ) {
+    super( "MetricsHttp-" + url.getHost(), capacity );
+    this.url = url;
+  }
+
+
+
+
+  /**
+   * @param millis the number of milliseconds to wait to connect or for a response
+   */
+  public void setTimeout( final int millis ) {
+    timeout = millis;
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.MetricsSink#write(long, byte[])
+   */
+  @Override
+  protected void write( final long timestamp, final byte[] payload ) throws IOException {
+    final HttpURLConnection conn = (HttpURLConnection)url.openConnection();
+    try {
+      conn.setRequestMethod( "POST" );
+      conn.setConnectTimeout( timeout );
+      conn.setReadTimeout( timeout );
+      conn.setDoOutput( true );
+      conn.setFixedLengthStreamingMode( payload.length );
+      conn.setRequestProperty( "Content-Type", "text/plain; charset=utf-8" );
+      conn.setRequestProperty( "X-Metrics-Timestamp", Long.toString( timestamp ) );
+      try (OutputStream out = conn.getOutputStream()) {
+        out.write( payload );
+      }
+
+      final int status = conn.getResponseCode();
+      // read the body so the connection can be kept alive
+      try (InputStream in = ( status < 400 ) ? conn.getInputStream() : conn.getErrorStream()) {
+        if ( in != null ) {
+          final byte[] buffer = new byte[512];
+          while ( in.read( buffer ) != -1 ) {}
+        }
+      }
+      if ( status < 200 || status > 299 ) {
+        throw new IOException( "Server responded " + status );
+      }
+    } catch ( final IOException e ) {
+      conn.disconnect();
+      throw e;
+    }
+  }
+
+}
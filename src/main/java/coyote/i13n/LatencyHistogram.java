@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * The LatencyHistogram class models a fixed-memory distribution of latencies
+ * recorded in nanoseconds.
+ *
+ * <p>Values are counted in log-linear buckets in the manner of HdrHistogram:
+ * every power of two is split into the same number of linear sub-buckets so
+ * the relative error of any reported value is bounded by the configured
+ * precision (the number of significant decimal digits) regardless of its
+ * magnitude. With the default precision of 2, every value is reported within
+ * 1% of what was recorded.
+ *
+ * <p>Recording never locks. The counts are held in a small, fixed number of
+ * stripes and each thread records into the stripe selected by its thread
+ * identifier, so concurrent threads rarely touch the same cache lines. Each
+ * update is a single atomic increment which allows {@link #rollover()} to
+ * take counts out of the histogram without losing any concurrent updates.
+ */
+public class LatencyHistogram {
+
+  /** The default number of significant decimal digits maintained */
+  public static final int DEFAULT_PRECISION = 2;
+
+  /** The default largest value tracked, larger values are counted at this value */
+  public static final long DEFAULT_HIGHEST_TRACKABLE = TimeUnit.HOURS.toNanos( 1 );
+
+  /** Number of stripes; a power of two so the thread id can simply be masked */
+  private static final int STRIPES;
+  static {
+    final int cpus = Math.min( Runtime.getRuntime().availableProcessors(), 8 );
+    STRIPES = Integer.highestOneBit( Math.max( cpus * 2 - 1, 1 ) );
+  }
+
+  private final int precision;
+  private final long highestTrackable;
+
+  /** log2 of half the number of sub-buckets in each power of two */
+  private final int halfMagnitude;
+  private final int halfCount;
+  private final int subBucketCount;
+
+  /** Number of buckets in each stripe, the slot after the last holds the sum */
+  private final int length;
+  private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+  private final AtomicLong min = new AtomicLong( Long.MAX_VALUE );
+  private final AtomicLong max = new AtomicLong( 0 );
+
+
+
+
+  /**
+   * Create a histogram with the default precision and range.
+   */
+  public LatencyHistogram() {
+    this( DEFAULT_PRECISION, DEFAULT_HIGHEST_TRACKABLE );
+  }
+
+
+
+
+  /**
+   * Create a histogram.
+   *
+   * @param precision the number of significant decimal digits to maintain, 1 to 3
+   * @param highestTrackable the largest value, in nanoseconds, to be tracked
+   */
+  public LatencyHistogram( final int precision, final long highestTrackable ) {
+    checkPrecision( precision );
+    if ( highestTrackable < 2 ) {
+      throw new IllegalArgumentException( "Highest trackable value must be at least 2" );
+    }
+    this.precision = precision;
+    this.highestTrackable = highestTrackable;
+
+    // enough linear sub-buckets that values up to 2 x 10^precision have unit resolution
+    final long singleUnitResolution = 2 * (long)Math.pow( 10, precision );
+    final int magnitude = 64 - Long.numberOfLeadingZeros( singleUnitResolution - 1 );
+    halfMagnitude = magnitude - 1;
+    halfCount = 1 << halfMagnitude;
+    subBucketCount = 1 << magnitude;
+
+    length = indexOf( highestTrackable ) + 1;
+    for ( int x = 0; x < STRIPES; x++ ) {
+      stripes[x] = new AtomicLongArray( length + 1 );
+    }
+  }
+
+
+
+
+  /**
+   * Make sure the given precision is supported.
+   *
+   * @param precision the number of significant decimal digits
+   *
+   * @throws IllegalArgumentException if the precision is not between 1 and 3
+   */
+  static void checkPrecision( final int precision ) {
+    if ( precision < 1 || precision > 3 ) {
+      throw new IllegalArgumentException( "Precision must be between 1 and 3 significant digits" );
+    }
+  }
+
+
+
+
+  /**
+   * @return the number of significant decimal digits maintained
+   */
+  public int getPrecision() {
+    return precision;
+  }
+
+
+
+
+  /**
+   * @return the largest value tracked
+   */
+  public long getHighestTrackable() {
+    return highestTrackable;
+  }
+
+
+
+
+  /**
+   * Record a latency.
+   *
+   * <p>Negative values are counted as zero and values beyond the highest
+   * trackable value are counted as the highest trackable value. The maximum
+   * is always recorded as given.
+   *
+   * @param nanos the latency in nanoseconds
+   */
+  public void record( final long nanos ) {
+    final long value = ( nanos < 0 ) ? 0 : nanos;
+    final AtomicLongArray stripe = stripes[(int)Thread.currentThread().getId() & ( STRIPES - 1 )];
+    stripe.incrementAndGet( indexOf( ( value < highestTrackable ) ? value : highestTrackable ) );
+    stripe.addAndGet( length, value );
+
+    // the extremes rarely change once the histogram has warmed up
+    long current = max.get();
+    while ( value > current && !max.compareAndSet( current, value ) ) {
+      current = max.get();
+    }
+    current = min.get();
+    while ( value < current && !min.compareAndSet( current, value ) ) {
+      current = min.get();
+    }
+  }
+
+
+
+
+  /**
+   * Take a snapshot of everything recorded since creation or the last
+   * rollover, leaving the histogram unchanged.
+   *
+   * @return a snapshot of the current distribution
+   */
+  public Snapshot getSnapshot() {
+    return collect( false );
+  }
+
+
+
+
+  /**
+   * Take a snapshot of everything recorded since creation or the last
+   * rollover and start a new interval.
+   *
+   * <p>Values recorded while the rollover is in progress are counted in
+   * exactly one of the two intervals.
+   *
+   * @return a snapshot of the interval which just ended
+   */
+  public Snapshot rollover() {
+    return collect( true );
+  }
+
+
+
+
+  private Snapshot collect( final boolean reset ) {
+    final long[] counts = new long[length];
+    long sum = 0;
+    for ( final AtomicLongArray stripe : stripes ) {
+      for ( int x = 0; x < length; x++ ) {
+        counts[x] += reset ? stripe.getAndSet( x, 0 ) : stripe.get( x );
+      }
+      sum += reset ? stripe.getAndSet( length, 0 ) : stripe.get( length );
+    }
+    final long low = reset ? min.getAndSet( Long.MAX_VALUE ) : min.get();
+    final long high = reset ? max.getAndSet( 0 ) : max.get();
+    return new Snapshot( this, counts, sum, low, high );
+  }
+
+
+
+
+  /**
+   * Determine the bucket for the given value.
+   */
+  private int indexOf( final long value ) {
+    if ( value < subBucketCount ) {
+      return (int)value;
+    }
+    final int shift = 63 - Long.numberOfLeadingZeros( value ) - halfMagnitude;
+    return ( shift * halfCount ) + (int)( value >>> shift );
+  }
+
+
+
+
+  /**
+   * Determine the largest value counted in the given bucket.
+   */
+  long highestEquivalent( final int index ) {
+    if ( index < subBucketCount ) {
+      return index;
+    }
+    final int shift = ( index >> halfMagnitude ) - 1;
+    final long sub = index - ( shift * halfCount );
+    return ( ( sub + 1 ) << shift ) - 1;
+  }
+
+
+
+
+  /**
+   * An immutable copy of the distribution at a point in time.
+   */
+  public static class Snapshot {
+    private final LatencyHistogram histogram;
+    private final long[] counts;
+    private final long count;
+    private final long sum;
+    private final long min;
+    private final long max;
+
+
+
+
+    Snapshot( final LatencyHistogram histogram, final long[] counts, final long sum, final long min, final long max ) {
+      this.histogram = histogram;
+      this.counts = counts;
+      long total = 0;
+      for ( final long bucket : counts ) {
+        total += bucket;
+      }
+      count = total;
+      this.sum = sum;
+      this.min = ( total > 0 ) ? min : 0;
+      this.max = ( total > 0 ) ? max : 0;
+    }
+
+
+
+
+    /**
+     * @return the number of values recorded
+     */
+    public long getCount() {
+      return count;
+    }
+
+
+
+
+    /**
+     * @return the smallest value recorded, 0 if nothing was recorded
+     */
+    public long getMin() {
+      return min;
+    }
+
+
+
+
+    /**
+     * @return the largest value recorded, 0 if nothing was recorded
+     */
+    public long getMax() {
+      return max;
+    }
+
+
+
+
+    /**
+     * @return the arithmetic mean of the values recorded
+     */
+    public double getMean() {
+      return ( count > 0 ) ? (double)sum / count : 0;
+    }
+
+
+
+
+    /**
+     * Return the value below which the given percentage of the recorded values
+     * fall.
+     *
+     * @param percentile the percentile, between 0 and 100
+     *
+     * @return the value at the percentile within the precision of the
+     *         histogram, 0 if nothing was recorded
+     */
+    public long getValueAtPercentile( final double percentile ) {
+      if ( count == 0 ) {
+        return 0;
+      }
+      final double pct = Math.min( Math.max( percentile, 0 ), 100 );
+      final long target = Math.max( 1, (long)Math.ceil( ( pct / 100 ) * count ) );
+      long seen = 0;
+      for ( int x = 0; x < counts.length; x++ ) {
+        seen += counts[x];
+        if ( seen >= target ) {
+          return Math.min( histogram.highestEquivalent( x ), max );
+        }
+      }
+      return max;
+    }
+
+  }
+
+}
@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import coyote.dataframe.DataFrame;
+
+
+/**
+ * The Meter class models the rate at which events occur as 1, 5 and 15
+ * minute exponentially weighted moving averages along with the mean rate.
+ *
+ * <p>Marking an event only adds to a striped counter. The moving averages are
+ * advanced every {@link #TICK_INTERVAL} milliseconds by {@link #tick()},
+ * normally called for all meters by a scheduled job (see
+ * {@link StatBoard#tick()}). Reading a rate also catches up on any ticks
+ * which are overdue so meters remain accurate when nothing is scheduled.
+ */
+public class Meter extends Metric {
+  public static final String CLASS_TAG = "Meter";
+
+  /** Milliseconds between ticks of the moving averages */
+  public static final long TICK_INTERVAL = 5000;
+
+  public static final String NAME = "Name";
+  public static final String COUNT = "Count";
+  public static final String MEAN_RATE = "MeanRate";
+  public static final String ONE_MINUTE_RATE = "M1Rate";
+  public static final String FIVE_MINUTE_RATE = "M5Rate";
+  public static final String FIFTEEN_MINUTE_RATE = "M15Rate";
+
+  private final LongAdder count = new LongAdder();
+  private final LongAdder uncounted = new LongAdder();
+  private final Ewma m1 = Ewma.minutes( 1, TICK_INTERVAL );
+  private final Ewma m5 = Ewma.minutes( 5, TICK_INTERVAL );
+  private final Ewma m15 = Ewma.minutes( 15, TICK_INTERVAL );
+  private volatile long startTime = System.currentTimeMillis();
+  private final AtomicLong lastTick = new AtomicLong( startTime );
+
+
+
+
+  /**
+   * Create a meter with a name.
+   */
+  public Meter( final String name ) {
+    super( name );
+  }
+
+
+
+
+  /**
+   * Mark the occurrence of an event.
+   */
+  public void mark() {
+    mark( 1 );
+  }
+
+
+
+
+  /**
+   * Mark the occurrence of a number of events.
+   *
+   * @param events the number of events which occurred
+   */
+  public void mark( final long events ) {
+    uncounted.add( events );
+    count.add( events );
+  }
+
+
+
+
+  /**
+   * Advance the moving averages for every tick interval which has elapsed
+   * since the last tick.
+   *
+   * <p>Calling this more often than the tick interval does nothing.
+   */
+  public void tick() {
+    final long previous = lastTick.get();
+    final long ticks = ( System.currentTimeMillis() - previous ) / TICK_INTERVAL;
+    if ( ticks > 0 && lastTick.compareAndSet( previous, previous + ( ticks * TICK_INTERVAL ) ) ) {
+      // subtract what we saw rather than reset so concurrent marks are kept
+      final long events = uncounted.sum();
+      uncounted.add( -events );
+      advance( events );
+      for ( long x = 1; x < ticks; x++ ) {
+        advance( 0 );
+      }
+    }
+  }
+
+
+
+
+  private void advance( final long events ) {
+    m1.tick( events );
+    m5.tick( events );
+    m15.tick( events );
+  }
+
+
+
+
+  /**
+   * @return the number of events marked
+   */
+  public long getCount() {
+    return count.sum();
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.Metric#getUpdateCount()
+   */
+  @Override
+  public long getUpdateCount() {
+    return count.sum();
+  }
+
+
+
+
+  /**
+   * @return the average number of events per second since the meter was created
+   */
+  public double getMeanRate() {
+    final long elapsed = System.currentTimeMillis() - startTime;
+    if ( elapsed <= 0 ) {
+      return 0.0;
+    }
+    return ( count.sum() * 1000d ) / elapsed;
+  }
+
+
+
+
+  /**
+   * @return the one-minute moving average of events per second
+   */
+  public double getOneMinuteRate() {
+    tick();
+    return m1.getRate();
+  }
+
+
+
+
+  /**
+   * @return the five-minute moving average of events per second
+   */
+  public double getFiveMinuteRate() {
+    tick();
+    return m5.getRate();
+  }
+
+
+
+
+  /**
+   * @return the fifteen-minute moving average of events per second
+   */
+  public double getFifteenMinuteRate() {
+    tick();
+    return m15.getRate();
+  }
+
+
+
+
+  /**
+   * Return the meter to the state of a new meter.
+   */
+  public synchronized void reset() {
+    count.reset();
+    uncounted.reset();
+    m1.reset();
+    m5.reset();
+    m15.reset();
+    startTime = System.currentTimeMillis();
+    lastTick.set( startTime );
+  }
+
+
+
+
+  /**
+   * @return a frame representing this meter
+   */
+  public DataFrame toFrame() {
+    tick();
+    final DataFrame retval = new DataFrame();
+    retval.put( NAME, _name );
+    retval.put( COUNT, getCount() );
+    retval.put( MEAN_RATE, getMeanRate() );
+    retval.put( ONE_MINUTE_RATE, m1.getRate() );
+    retval.put( FIVE_MINUTE_RATE, m5.getRate() );
+    retval.put( FIFTEEN_MINUTE_RATE, m15.getRate() );
+    return retval;
+  }
+
+
+
+
+  /**
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    tick();
+    final StringBuffer buff = new StringBuffer( _name );
+    buff.append( "=" );
+    buff.append( getCount() );
+    buff.append( " m1=" );
+    buff.append( String.format( "%.2f", m1.getRate() ) );
+    buff.append( " m5=" );
+    buff.append( String.format( "%.2f", m5.getRate() ) );
+    buff.append( " m15=" );
+    buff.append( String.format( "%.2f", m15.getRate() ) );
+    return buff.toString();
+  }
+
+}
@@ -0,0 +1,486 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import coyote.loader.cfg.Config;
+import coyote.loader.thread.ScheduledJob;
+import coyote.loader.thread.Scheduler;
+
+
+/**
+ * The MetricsExporter class periodically pushes the contents of a statboard
+ * to one or more {@link MetricsSink}s.
+ *
+ * <p>At each interval the exporter reads every metric once, encodes the
+ * changes since the previous export as a single payload and offers that same
+ * payload to every sink. Sinks queue payloads and write them in their own
+ * threads, so encoding happens once regardless of the number of sinks and a
+ * slow sink only ever drops its own payloads.
+ *
+ * <p>Payloads use the StatsD line protocol, one metric per line:<pre>
+ * requests:12|c
+ * db.query.p99_ms:4.2|g</pre>
+ *
+ * <p>Counters, gauge totals, meter counts, timer counts and ARM closures are
+ * sent as the change since the last export ({@code c}) so nothing is counted
+ * twice if a payload is replayed; states, percentiles and rates are sent as
+ * their current value ({@code g}). Gauge totals and meter counts carry a
+ * {@code .total} and {@code .marks} suffix so they do not add to a counter of
+ * the same name. StatsD reads a signed gauge value as a change to the gauge,
+ * so a negative value is sent as a gauge of zero followed by the value, and
+ * values which are not finite are left out.
+ *
+ * <p>An exporter can be configured from a section such as:<pre>
+ * "Metrics" : {
+ *   "Interval" : 10000, "Prefix" : "app.",
+ *   "StatsD" : { "Host" : "localhost", "Port" : 8125 },
+ *   "File" : { "Directory" : "/var/metrics", "Name" : "app" },
+ *   "Http" : { "URL" : "http://collector:8080/metrics" }
+ * }</pre>
+ * with any number of sink sections.
+ */
+public class MetricsExporter implements Runnable {
+
+  /** The default number of milliseconds between exports */
+  public static final long DEFAULT_INTERVAL = 10000;
+
+  /** Name ({@value}) of the attribute setting the milliseconds between exports */
+  public static final String INTERVAL_TAG = "Interval";
+
+  /** Name ({@value}) of the attribute setting the prefix of each metric name */
+  public static final String PREFIX_TAG = "Prefix";
+
+  /** Name ({@value}) of the sections configuring StatsD sinks */
+  public static final String STATSD_TAG = "StatsD";
+
+  /** Name ({@value}) of the sections configuring file sinks */
+  public static final String FILE_TAG = "File";
+
+  /** Name ({@value}) of the sections configuring HTTP sinks */
+  public static final String HTTP_TAG = "Http";
+
+  /** Name ({@value}) of the attribute holding the StatsD host */
+  public static final String HOST_TAG = "Host";
+
+  /** Name ({@value}) of the attribute holding the StatsD port */
+  public static final String PORT_TAG = "Port";
+
+  /** Name ({@value}) of the attribute holding the directory of the files */
+  public static final String DIRECTORY_TAG = "Directory";
+
+  /** Name ({@value}) of the attribute holding the base name of the files */
+  public static final String NAME_TAG = "Name";
+
+  /** Name ({@value}) of the attribute setting the size a file reaches before it rolls */
+  public static final String FILE_SIZE_TAG = "FileSize";
+
+  /** Name ({@value}) of the attribute setting the number of files kept */
+  public static final String FILE_COUNT_TAG = "FileCount";
+
+  /** Name ({@value}) of the attribute holding the HTTP endpoint */
+  public static final String URL_TAG = "URL";
+
+  /** Name ({@value}) of the attribute setting the payloads a sink holds */
+  public static final String CAPACITY_TAG = "Capacity";
+
+  /** The kinds of values kept for calculating changes, so equal names do not collide */
+  private static final char COUNTER = 'c';
+  private static final char GAUGE = 'g';
+  private static final char TIMER = 't';
+  private static final char ARM = 'a';
+  private static final char METER = 'm';
+
+  private final StatBoard board;
+  private final List<MetricsSink> sinks = new CopyOnWriteArrayList<MetricsSink>();
+
+  /** The values sent in the last export by kind and name, used to calculate the changes */
+  private Map<String, Long> previous = new HashMap<String, Long>();
+
+  /** The values of the export in progress, which replace the previous ones */
+  private Map<String, Long> current = new HashMap<String, Long>();
+
+  private volatile long interval = DEFAULT_INTERVAL;
+  private volatile String prefix = null;
+  private volatile ScheduledJob job = null;
+
+
+
+
+  /**
+   * @param board the statboard to export
+   */
+  public MetricsExporter( final StatBoard board ) {
+    if ( board == null ) {
+      throw new IllegalArgumentException( "StatBoard cannot be null" );
+    }
+    this.board = board;
+  }
+
+
+
+
+  /**
+   * Create an exporter configured with the given section.
+   *
+   * @param board the statboard to export
+   * @param config the interval, prefix and sinks of the exporter
+   *
+   * @throws IllegalArgumentException if the configuration is not valid
+   */
+  public MetricsExporter( final StatBoard board, final Config config ) throws IllegalArgumentException {
+    this( board );
+    config( config );
+  }
+
+
+
+
+  /**
+   * Configure the exporter with the given section, adding a sink for each of
+   * its {@code StatsD}, {@code File} and {@code Http} sections.
+   *
+   * @param cfg the configuration
+   *
+   * @throws IllegalArgumentException if a value or sink is not valid
+   */
+  public void config( final Config cfg ) throws IllegalArgumentException {
+    if ( cfg.getString( INTERVAL_TAG ) != null ) {
+      setInterval( getLong( cfg, INTERVAL_TAG ) );
+    }
+    if ( cfg.getString( PREFIX_TAG ) != null ) {
+      setPrefix( cfg.getString( PREFIX_TAG ) );
+    }
+
+    for ( final Config section : cfg.getSections( STATSD_TAG ) ) {
+      final String host = ( section.getString( HOST_TAG ) != null ) ? section.getString( HOST_TAG ) : "localhost";
+      final int port = ( section.getString( PORT_TAG ) != null ) ? (int)getLong( section, PORT_TAG ) : StatsdMetricsSink.DEFAULT_PORT;
+      addSink( new StatsdMetricsSink( new InetSocketAddress( host, port ), getCapacity( section ) ) );
+    }
+
+    for ( final Config section : cfg.getSections( FILE_TAG ) ) {
+      final String directory = section.getString( DIRECTORY_TAG );
+      if ( directory == null ) {
+        throw new IllegalArgumentException( "File metrics sink requires a " + DIRECTORY_TAG );
+      }
+      final String name = ( section.getString( NAME_TAG ) != null ) ? section.getString( NAME_TAG ) : "metrics";
+      final long size = ( section.getString( FILE_SIZE_TAG ) != null ) ? getLong( section, FILE_SIZE_TAG ) : FileMetricsSink.DEFAULT_FILE_SIZE;
+      final int count = ( section.getString( FILE_COUNT_TAG ) != null ) ? (int)getLong( section, FILE_COUNT_TAG ) : FileMetricsSink.DEFAULT_FILE_COUNT;
+      addSink( new FileMetricsSink( new File( directory ), name, size, count, getCapacity( section ) ) );
+    }
+
+    for ( final Config section : cfg.getSections( HTTP_TAG ) ) {
+      final String url = section.getString( URL_TAG );
+      if ( url == null ) {
+        throw new IllegalArgumentException( "HTTP metrics sink requires a " + URL_TAG );
+      }
+      try {
+        addSink( new HttpMetricsSink( new URL( url ), getCapacity( section ) ) );
+      } catch ( final MalformedURLException e ) {
+        throw new IllegalArgumentException( "Invalid metrics " + URL_TAG + " '" + url + "': " + e.getMessage(), e );
+      }
+    }
+  }
+
+
+
+
+  private static long getLong( final Config cfg, final String tag ) {
+    try {
+      return cfg.getLong( tag );
+    } catch ( final NumberFormatException e ) {
+      throw new IllegalArgumentException( "Invalid metrics " + tag + " '" + cfg.getString( tag ) + "'", e );
+    }
+  }
+
+
+
+
+  private static int getCapacity( final Config cfg ) {
+    return ( cfg.getString( CAPACITY_TAG ) != null ) ? (int)getLong( cfg, CAPACITY_TAG ) : MetricsSink.DEFAULT_CAPACITY;
+  }
+
+
+
+
+  /**
+   * @return the number of milliseconds between exports
+   */
+  public long getInterval() {
+    return interval;
+  }
+
+
+
+
+  /**
+   * Set how often the statboard is exported.
+   *
+   * <p>This takes effect the next time the exporter is started.
+   *
+   * @param millis the number of milliseconds between exports
+   */
+  public void setInterval( final long millis ) {
+    if ( millis < 1 ) {
+      throw new IllegalArgumentException( "Interval must be positive" );
+    }
+    interval = millis;
+  }
+
+
+
+
+  /**
+   * @return the prefix placed before each metric name, or null for none
+   */
+  public String getPrefix() {
+    return prefix;
+  }
+
+
+
+
+  /**
+   * @param prefix the prefix to place before each metric name, typically
+   *        ending with a period; null for none
+   */
+  public void setPrefix( final String prefix ) {
+    this.prefix = prefix;
+  }
+
+
+
+
+  /**
+   * Add a sink to receive the payloads.
+   *
+   * <p>Sinks added while the exporter is running are started immediately.
+   *
+   * @param sink the sink to add
+   */
+  public void addSink( final MetricsSink sink ) {
+    if ( sink != null ) {
+      sinks.add( sink );
+      if ( job != null ) {
+        sink.start();
+      }
+    }
+  }
+
+
+
+
+  /**
+   * @return the sinks receiving payloads
+   */
+  public List<MetricsSink> getSinks() {
+    return new ArrayList<MetricsSink>( sinks );
+  }
+
+
+
+
+  /**
+   * Start the sinks and schedule the exports.
+   *
+   * @param scheduler the scheduler which will run the exports
+   */
+  public synchronized void start( final Scheduler scheduler ) {
+    if ( job == null ) {
+      for ( final MetricsSink sink : sinks ) {
+        sink.start();
+      }
+      job = scheduler.schedule( this, System.currentTimeMillis() + interval, interval, 0, 0 );
+      job.setName( "MetricsExporter" );
+    }
+  }
+
+
+
+
+  /**
+   * Cancel the exports and stop the sinks once they have written what they
+   * have queued.
+   */
+  public synchronized void stop() {
+    if ( job != null ) {
+      job.setCancelled( true );
+      job = null;
+      for ( final MetricsSink sink : sinks ) {
+        sink.shutdown();
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Export the statboard; called by the scheduler.
+   *
+   * @see java.lang.Runnable#run()
+   */
+  @Override
+  public void run() {
+    final long timestamp = System.currentTimeMillis();
+    final byte[] payload = export();
+    if ( payload.length > 0 ) {
+      for ( final MetricsSink sink : sinks ) {
+        sink.offer( timestamp, payload );
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Encode the changes in the statboard since the last export.
+   *
+   * @return the encoded payload, empty if there was nothing to send
+   */
+  public synchronized byte[] export() {
+    final StringBuilder b = new StringBuilder( 1024 );
+    current.clear();
+
+    for ( final Iterator<Counter> it = board.getCounterIterator(); it.hasNext(); ) {
+      final Counter counter = it.next();
+      delta( b, COUNTER, counter.getName(), counter.getValue() );
+    }
+
+    for ( final Iterator<Gauge> it = board.getGaugeIterator(); it.hasNext(); ) {
+      final Gauge gauge = it.next();
+      delta( b, GAUGE, gauge.getName() + ".total", gauge.getTotal() );
+    }
+
+    for ( final Iterator<State> it = board.getStateIterator(); it.hasNext(); ) {
+      final State state = it.next();
+      final Object value = state.getValue();
+      if ( value instanceof Number ) {
+        gauge( b, state.getName(), ( (Number)value ).doubleValue() );
+      }
+    }
+
+    for ( final Iterator<TimingMaster> it = board.getTimerIterator(); it.hasNext(); ) {
+      final TimingMaster master = it.next();
+      final String name = master.getName();
+      delta( b, TIMER, name + ".count", master.getHits() - master.getCurrentActive() );
+      delta( b, TIMER, name + ".total_ms", master.getAccrued() );
+      final LatencyHistogram.Snapshot latency = master.getLatency();
+      if ( latency.getCount() > 0 ) {
+        gauge( b, name + ".p50_ms", latency.getValueAtPercentile( 50 ) / 1e6 );
+        gauge( b, name + ".p99_ms", latency.getValueAtPercentile( 99 ) / 1e6 );
+        gauge( b, name + ".max_ms", latency.getMax() / 1e6 );
+      }
+    }
+
+    for ( final Iterator<ArmMaster> it = board.getArmIterator(); it.hasNext(); ) {
+      final ArmMaster master = it.next();
+      final String name = master.getName();
+      delta( b, ARM, name + ".count", master.getClosures() );
+      delta( b, ARM, name + ".total_ms", master.getTotalNanos() / 1000000 );
+    }
+
+    for ( final Iterator<Meter> it = board.getMeterIterator(); it.hasNext(); ) {
+      final Meter meter = it.next();
+      delta( b, METER, meter.getName() + ".marks", meter.getCount() );
+      gauge( b, meter.getName() + ".m1_rate", meter.getOneMinuteRate() );
+    }
+
+    // forget the metrics which have been removed from the board
+    final Map<String, Long> last = previous;
+    previous = current;
+    current = last;
+
+    return b.toString().getBytes( StandardCharsets.UTF_8 );
+  }
+
+
+
+
+  /**
+   * Append the change in a value since the last export, if there was one.
+   *
+   * <p>Values are remembered by kind as well as name; a counter and a meter
+   * of the same name each have their own last value.
+   */
+  private void delta( final StringBuilder b, final char kind, final String name, final long value ) {
+    final String key = kind + name;
+    final Long last = previous.get( key );
+    current.put( key, value );
+    final long change = ( last == null ) ? value : value - last;
+    if ( change != 0 ) {
+      line( b, name ).append( change ).append( "|c\n" );
+    }
+  }
+
+
+
+
+  /**
+   * Append the current value of a gauge.
+   *
+   * <p>A negative value is preceded by a gauge of zero, as StatsD would
+   * otherwise take it as a decrement of the last value. NaN and infinite
+   * values cannot be sent and are skipped.
+   */
+  private void gauge( final StringBuilder b, final String name, final double value ) {
+    if ( Double.isNaN( value ) || Double.isInfinite( value ) ) {
+      return;
+    }
+    if ( value < 0 ) {
+      line( b, name ).append( "0|g\n" );
+    }
+    final StringBuilder line = line( b, name );
+    if ( value == Math.rint( value ) ) {
+      line.append( (long)value );
+    } else {
+      line.append( value );
+    }
+    line.append( "|g\n" );
+  }
+
+
+
+
+  /**
+   * Append the metric name, replacing the characters the line protocol
+   * reserves.
+   */
+  private StringBuilder line( final StringBuilder b, final String name ) {
+    final String pfx = prefix;
+    if ( pfx != null ) {
+      b.append( pfx );
+    }
+    for ( int x = 0; x < name.length(); x++ ) {
+      final char c = name.charAt( x );
+      if ( c == ':' || c == '|' || c == '@' || Character.isWhitespace( c ) ) {
+        b.append( '_' );
+      } else {
+        b.append( c );
+      }
+    }
+    return b.append( ':' );
+  }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import coyote.loader.log.Log;
+import coyote.loader.thread.ThreadJob;
+
+
+/**
+ * A MetricsSink is a destination for the payloads produced by a
+ * {@link MetricsExporter}.
+ *
+ * <p>Each sink runs in its own thread and reads payloads from a bounded
+ * queue. The exporter only ever offers payloads to that queue, so a sink
+ * which is slow or unreachable never holds up the exporter, the statboard or
+ * any other sink; when the queue is full the payload is dropped and counted
+ * instead.
+ */
+public abstract class MetricsSink extends ThreadJob {
+
+  /** The default number of payloads a sink will hold before dropping them */
+  public static final int DEFAULT_CAPACITY = 16;
+
+  /** How long the worker waits for a payload before checking for shutdown */
+  private static final long POLL_INTERVAL = 500;
+
+  private final String name;
+  private final BlockingQueue<Payload> queue;
+
+  private final AtomicLong sent = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicLong failed = new AtomicLong();
+
+
+
+
+  /**
+   * @param name the name of this sink, used for its thread and in the log
+   * @param capacity the number of payloads to hold before dropping them
+   */
+  protected MetricsSink( final String name, final int capacity ) {
+    this.name = name;
+    queue = new ArrayBlockingQueue<Payload>( capacity > 0 ? capacity : DEFAULT_CAPACITY );
+    setHyper( true ); // the queue does our waiting
+  }
+
+
+
+
+  /**
+   * @return the name of this sink
+   */
+  public String getName() {
+    return name;
+  }
+
+
+
+
+  /**
+   * Queue a payload for delivery without waiting.
+   *
+   * @param timestamp epoch time in milliseconds the payload was taken
+   * @param payload the encoded metrics; shared with other sinks so it must
+   *        not be modified
+   *
+   * @return true if the payload was queued, false if it was dropped
+   */
+  public boolean offer( final long timestamp, final byte[] payload ) {
+    if ( queue.offer( new Payload( timestamp, payload ) ) ) {
+      return true;
+    }
+    dropped.incrementAndGet();
+    return false;
+  }
+
+
+
+
+  /**
+   * Start delivering payloads in a daemon thread.
+   */
+  public void start() {
+    daemonize( name );
+  }
+
+
+
+
+  /**
+   * @see coyote.loader.thread.ThreadJob#doWork()
+   */
+  @Override
+  public void doWork() {
+    Payload next;
+    try {
+      next = queue.poll( POLL_INTERVAL, TimeUnit.MILLISECONDS );
+    } catch ( final InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      return;
+    }
+    if ( next != null ) {
+      deliver( next );
+    }
+  }
+
+
+
+
+  /**
+   * Deliver whatever is still queued before the thread ends.
+   *
+   * @see coyote.loader.thread.ThreadJob#terminate()
+   */
+  @Override
+  public void terminate() {
+    Thread.interrupted(); // clear the interrupt from shutdown so writes can complete
+    Payload next;
+    while ( ( next = queue.poll() ) != null ) {
+      deliver( next );
+    }
+    close();
+  }
+
+
+
+
+  private void deliver( final Payload payload ) {
+    try {
+      write( payload.timestamp, payload.data );
+      sent.incrementAndGet();
+    } catch ( final Exception e ) {
+      failed.incrementAndGet();
+      Log.debug( "Metrics sink '" + name + "' could not write: " + e.getMessage() );
+    }
+  }
+
+
+
+
+  /**
+   * Write a single payload to the destination.
+   *
+   * <p>This is only ever called from the sink thread.
+   *
+   * @param timestamp epoch time in milliseconds the payload was taken
+   * @param payload the encoded metrics, which must not be modified
+   *
+   * @throws Exception if the payload could not be written; it is counted as
+   *         failed and not retried
+   */
+  protected abstract void write( long timestamp, byte[] payload ) throws Exception;
+
+
+
+
+  /**
+   * Release any resources held by this sink; called from the sink thread once
+   * it has stopped.
+   */
+  protected void close() {}
+
+
+
+
+  /**
+   * @return the number of payloads written
+   */
+  public long getSent() {
+    return sent.get();
+  }
+
+
+
+
+  /**
+   * @return the number of payloads dropped because the queue was full
+   */
+  public long getDropped() {
+    return dropped.get();
+  }
+
+
+
+
+  /**
+   * @return the number of payloads which could not be written
+   */
+  public long getFailed() {
+    return failed.get();
+  }
+
+
+
+
+  /**
+   * @return the number of payloads waiting to be written
+   */
+  public int getPending() {
+    return queue.size();
+  }
+
+
+
+
+  private static final class Payload {
+    final long timestamp;
+    final byte[] data;
+
+
+
+
+    Payload( final long timestamp, final byte[] data ) {
+      this.timestamp = timestamp;
+      this.data = data;
+    }
+  }
+
+}
@@ -0,0 +1,596 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * The OpenMetrics class renders the contents of a statboard in the
+ * OpenMetrics (or the older Prometheus) text exposition format.
+ *
+ * <p>Rendering happens in two phases. {@link #snapshot(StatBoard)} reads
+ * every metric once, without taking any statboard-wide lock, and copies the
+ * numbers into compact arrays so the scrape reflects a single point in time.
+ * {@link Snapshot#openStream(boolean)} then renders those numbers a few
+ * kilobytes at a time as the stream is read, so the full text is never held
+ * in memory and a slow reader never holds up the metrics.
+ *
+ * <p>Each kind of metric is a single family with the metric name carried in
+ * the {@code name} label, which avoids any need to mangle metric names and
+ * any chance of two names colliding once mangled:<pre>
+ * # TYPE statboard_counter gauge
+ * statboard_counter{name="requests"} 1042</pre>
+ *
+ * <p>Counters may be decremented, so they are exposed as gauges.
+ */
+public class OpenMetrics {
+
+  /** Content type of the OpenMetrics format */
+  public static final String OPENMETRICS_CONTENT_TYPE = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+
+  /** Content type of the Prometheus text format */
+  public static final String TEXT_CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+  /** Prefix of all the family names */
+  private static final String PREFIX = "statboard_";
+
+  private static final double[] TIMER_QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+  private static final double[] RESERVOIR_QUANTILES = { 0.5, 0.75, 0.95, 0.99 };
+  private static final String[] METER_WINDOWS = { "1m", "5m", "15m" };
+
+  /** Render roughly this many characters per read of the stream */
+  private static final int CHUNK_SIZE = 8 * 1024;
+
+
+
+
+  private OpenMetrics() {}
+
+
+
+
+  /**
+   * Determine the format a client prefers from its Accept header.
+   *
+   * @param accept the value of the Accept header, may be null
+   *
+   * @return true if the client accepts OpenMetrics, false for the Prometheus
+   *         text format
+   */
+  public static boolean acceptsOpenMetrics( final String accept ) {
+    return accept != null && accept.indexOf( "application/openmetrics-text" ) >= 0;
+  }
+
+
+
+
+  /**
+   * Copy the current values of every metric in the statboard.
+   *
+   * @param board the statboard to read
+   *
+   * @return a snapshot ready to be rendered
+   */
+  public static Snapshot snapshot( final StatBoard board ) {
+    final List<Family> families = new ArrayList<Family>();
+
+    final List<Counter> counters = list( board.getCounterIterator() );
+    final String[] counterNames = new String[counters.size()];
+    final long[] counterValues = new long[counters.size()];
+    for ( int x = 0; x < counterNames.length; x++ ) {
+      counterNames[x] = counters.get( x ).getName();
+      counterValues[x] = counters.get( x ).getValue();
+    }
+    families.add( new Family( "counter", "gauge", null, "Counter values", counterNames ) {
+      @Override
+      void render( final int index, final StringBuilder out, final boolean om ) {
+        sample( out, "", index, null, null, counterValues[index] );
+      }
+    } );
+
+    final List<Gauge> gauges = list( board.getGaugeIterator() );
+    final String[] gaugeNames = new String[gauges.size()];
+    final long[] gaugeTotals = new long[gauges.size()];
+    final double[] gaugeRates = new double[gauges.size()];
+    final long[] gaugeLast = new long[gauges.size()];
+    final long[] gaugeMinute = new long[gauges.size()];
+    for ( int x = 0; x < gaugeNames.length; x++ ) {
+      final Gauge gauge = gauges.get( x );
+      gaugeNames[x] = gauge.getName();
+      gaugeTotals[x] = gauge.getTotal();
+      gaugeRates[x] = gauge.getValuePerSecond();
+      gaugeLast[x] = gauge.getLastValuePerSecond();
+      gaugeMinute[x] = gauge.getMinuteTotal();
+    }
+    families.add( new Family( "gauge", "counter", null, "Sum of all values updated to each gauge", gaugeNames ) {
+      @Override
+      void render( final int index, final StringBuilder out, final boolean om ) {
+        sample( out, "_total", index, null, null, gaugeTotals[index] );
+      }
+    } );
+    families.add( new Family( "gauge_rate", "gauge", null, "Current values per second of each gauge", gaugeNames ) {
+      @Override
+      void render( final int index, final StringBuilder out, final boolean om ) {
+        sample( out, "", index, null, null, gaugeRates[index] );
+      }
+    } );
+    families.add( new Family( "gauge_last_rate", "gauge", null, "Values in the last complete second of each gauge", gaugeNames ) {
+      @Override
+      void render( final int index, final StringBuilder out, final boolean om ) {
+        sample( out, "", index, null, null, gaugeLast[index] );
+      }
+    } );
+    families.add( new Family( "gauge_minute", "gauge", null, "Values in the last minute of each gauge", gaugeNames ) {
+      @Override
+      void render( final int index, final StringBuilder out, final boolean om ) {
+        sample( out, "", index, null, null, gaugeMinute[index] );
+      }
+    } );
+
+    final List<String> numericNames = new ArrayList<String>();
+    final List<Object> numericValues = new ArrayList<Object>();
+    final List<String> textNames = new ArrayList<String>();
+    final List<String> textValues = new ArrayList<String>();
+    for ( final Iterator<State> it = board.getStateIterator(); it.hasNext(); ) {
+      final State state = it.next();
+      final Object value = state.getValue();
+      if ( value instanceof Number ) {
+        numericNames.add( state.getName() );
+        numericValues.add( value );
+      } else if ( value != null ) {
+        textNames.add( state.getName() );
+        textValues.add( value.toString() );
+      }
+    }
+    families.add( new Family( "state", "gauge", null, "Numeric state values", numericNames.toArray( new String[numericNames.size()] ) ) {
+      @Override
+      void render( final int index, final StringBuilder out, final boolean om ) {
+        sample( out, "", index, null, null, ( (Number)numericValues.get( index ) ).doubleValue() );
+      }
+    } );
+    families.add( new Family( "state_value", "info", null, "Non-numeric state values", textNames.toArray( new String[textNames.size()] ) ) {
+      @Override
+      void render( final int index, final StringBuilder out, final boolean om ) {
+        sample( out, "_info", index, "value", textValues.get( index ), 1 );
+      }
+    } );
+
+    final List<TimingMaster> timers = list( board.getTimerIterator() );
+    final String[] timerNames = new String[timers.size()];
+    final long[] timerCounts = new long[timers.size()];
+    final double[] timerSums = new double[timers.size()];
+    final double[] timerMax = new double[timers.size()];
+    final double[][] timerQuantiles = new double[timers.size()][];
+    final long[] timerActive = new long[timers.size()];
+    for ( int x = 0; x < timerNames.length; x++ ) {
+      final TimingMaster timer = timers.get( x );
+      final LatencyHistogram.Snapshot latency = timer.getLatency();
+      timerNames[x] = timer.getName();
+      timerCounts[x] = latency.getCount();
+      timerSums[x] = ( latency.getMean() * latency.getCount() ) / 1e9;
+      timerMax[x] = latency.getMax() / 1e9;
+      timerQuantiles[x] = new double[TIMER_QUANTILES.length];
+      for ( int q = 0; q < TIMER_QUANTILES.length; q++ ) {
+        timerQuantiles[x][q] = latency.getValueAtPercentile( TIMER_QUANTILES[q] * 100 ) / 1e9;
+      }
+      timerActive[x] = timer.getCurrentActive();
+    }
+    families.add( new Family( "timer_seconds", "summary", "seconds", "Latency of the stopped timers", timerNames ) {
+      @Override
+      void render( final int index, final StringBuilder out, final boolean om ) {
+        for ( int q = 0; q < TIMER_QUANTILES.length; q++ ) {
+          sample( out, "", index, "quantile", Double.toString( TIMER_QUANTILES[q] ), timerQuantiles[index][q] );
+        }
+        sample( out, "_sum", index, null, null, timerSums[index] );
+        sample( out, "_count", index, null, null, timerCounts[index] );
+      }
+    } );
+    families.add( new Family( "timer_max_seconds", "gauge", "seconds", "Longest stopped timer", timerNames ) {
+      @Override
+      void render( final int index, final StringBuilder out, final boolean om ) {
+        sample( out, "", index, null, null, timerMax[index] );
+      }
+    } );
+    families.add( new Family( "timer_active", "gauge", null, "Timers currently running", timerNames ) {
+      @Override
+      void render( final int index, final StringBuilder out, final boolean om ) {
+        sample( out, "", index, null, null, timerActive[index] );
+      }
+    } );
+
+    final List<ArmMaster> arms = list( board.getArmIterator() );
+    final String[] armNames = new String[arms.size()];
+    final long[] armCalls = new long[arms.size()];
+    final double[] armSums = new double[arms.size()];
+    final long[] armActive = new long[arms.size()];
+    for ( int x = 0; x < armNames.length; x++ ) {
+      final ArmMaster arm = arms.get( x );
+      armNames[x] = arm.getName();
+      armActive[x] = arm.getCurrentActive();
+      armCalls[x] = arm.getClosures();
+      armSums[x] = arm.getTotalNanos() / 1e9;
+    }
+    families.add( new Family( "arm_seconds", "summary", "seconds", "Duration of the completed ARM transactions", armNames ) {
+      @Override
+      void render( final int index, final StringBuilder out, final boolean om ) {
+        sample( out, "_sum", index, null, null, armSums[index] );
+        sample( out, "_count", index, null, null, armCalls[index] );
+      }
+    } );
+    families.add( new Family( "arm_active", "gauge", null, "ARM transactions currently running", armNames ) {
+      @Override
+      void render( final int index, final StringBuilder out, final boolean om ) {
+        sample( out, "", index, null, null, armActive[index] );
+      }
+    } );
+
+    final List<Meter> meters = list( board.getMeterIterator() );
+    final String[] meterNames = new String[meters.size()];
+    final long[] meterCounts = new long[meters.size()];
+    final double[][] meterRates = new double[meters.size()][];
+    for ( int x = 0; x < meterNames.length; x++ ) {
+      final Meter meter = meters.get( x );
+      meterNames[x] = meter.getName();
+      meterCounts[x] = meter.getCount();
+      meterRates[x] = new double[] { meter.getOneMinuteRate(), meter.getFiveMinuteRate(), meter.getFifteenMinuteRate() };
+    }
+    families.add( new Family( "meter", "counter", null, "Events marked on each meter", meterNames ) {
+      @Override
+      void render( final int index, final StringBuilder out, final boolean om ) {
+        sample( out, "_total", index, null, null, meterCounts[index] );
+      }
+    } );
+    families.add( new Family( "meter_rate", "gauge", null, "Moving average of events per second", meterNames ) {
+      @Override
+      void render( final int index, final StringBuilder out, final boolean om ) {
+        for ( int w = 0; w < METER_WINDOWS.length; w++ ) {
+          sample( out, "", index, "window", METER_WINDOWS[w], meterRates[index][w] );
+        }
+      }
+    } );
+
+    final List<DecayingReservoir> reservoirs = list( board.getReservoirIterator() );
+    final String[] reservoirNames = new String[reservoirs.size()];
+    final long[] reservoirCounts = new long[reservoirs.size()];
+    final long[][] reservoirQuantiles = new long[reservoirs.size()][];
+    for ( int x = 0; x < reservoirNames.length; x++ ) {
+      final DecayingReservoir reservoir = reservoirs.get( x );
+      final DecayingReservoir.Snapshot sample = reservoir.getSnapshot();
+      reservoirNames[x] = reservoir.getName();
+      reservoirCounts[x] = reservoir.getCount();
+      reservoirQuantiles[x] = new long[RESERVOIR_QUANTILES.length];
+      for ( int q = 0; q < RESERVOIR_QUANTILES.length; q++ ) {
+        reservoirQuantiles[x][q] = sample.getValue( RESERVOIR_QUANTILES[q] );
+      }
+    }
+    families.add( new Family( "reservoir", "summary", null, "Recent values sampled by each reservoir", reservoirNames ) {
+      @Override
+      void render( final int index, final StringBuilder out, final boolean om ) {
+        for ( int q = 0; q < RESERVOIR_QUANTILES.length; q++ ) {
+          sample( out, "", index, "quantile", Double.toString( RESERVOIR_QUANTILES[q] ), reservoirQuantiles[index][q] );
+        }
+        sample( out, "_count", index, null, null, reservoirCounts[index] );
+      }
+    } );
+
+    return new Snapshot( families );
+  }
+
+
+
+
+  private static <T> List<T> list( final Iterator<T> it ) {
+    final List<T> retval = new ArrayList<T>();
+    while ( it.hasNext() ) {
+      retval.add( it.next() );
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * Append a label value, escaping as the exposition formats require.
+   */
+  static void escape( final StringBuilder out, final String value ) {
+    for ( int x = 0; x < value.length(); x++ ) {
+      final char c = value.charAt( x );
+      switch ( c ) {
+        case '\\':
+          out.append( "\\\\" );
+          break;
+        case '"':
+          out.append( "\\\"" );
+          break;
+        case '\n':
+          out.append( "\\n" );
+          break;
+        default:
+          out.append( c );
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Append a floating point value in a form both formats accept.
+   */
+  static void number( final StringBuilder out, final double value ) {
+    if ( Double.isNaN( value ) ) {
+      out.append( "NaN" );
+    } else if ( Double.isInfinite( value ) ) {
+      out.append( ( value > 0 ) ? "+Inf" : "-Inf" );
+    } else if ( value == Math.rint( value ) && Math.abs( value ) < 1e15 ) {
+      out.append( (long)value );
+    } else {
+      out.append( value );
+    }
+  }
+
+
+
+
+  /**
+   * The captured values of every metric of one kind.
+   */
+  private abstract static class Family {
+    private final String name;
+    private final String type;
+    private final String unit;
+    private final String help;
+    private final String[] names;
+
+
+
+
+    Family( final String name, final String type, final String unit, final String help, final String[] names ) {
+      this.name = PREFIX + name;
+      this.type = type;
+      this.unit = unit;
+      this.help = help;
+      this.names = names;
+    }
+
+
+
+
+    int size() {
+      return names.length;
+    }
+
+
+
+
+    void header( final StringBuilder out, final boolean om ) {
+      // the older format names counters and info by their sample name
+      String family = name;
+      String kind = type;
+      if ( !om ) {
+        if ( "counter".equals( type ) ) {
+          family = name + "_total";
+        } else if ( "info".equals( type ) ) {
+          family = name + "_info";
+          kind = "gauge";
+        }
+      }
+      out.append( "# TYPE " ).append( family ).append( ' ' ).append( kind ).append( '\n' );
+      if ( om && unit != null ) {
+        out.append( "# UNIT " ).append( family ).append( ' ' ).append( unit ).append( '\n' );
+      }
+      out.append( "# HELP " ).append( family ).append( ' ' ).append( help ).append( '\n' );
+    }
+
+
+
+
+    /**
+     * Append one sample line for the metric at the given index.
+     */
+    void sample( final StringBuilder out, final String suffix, final int index, final String label, final String value, final double number ) {
+      out.append( name ).append( suffix ).append( "{name=\"" );
+      escape( out, names[index] );
+      out.append( '"' );
+      if ( label != null ) {
+        out.append( ',' ).append( label ).append( "=\"" );
+        escape( out, value );
+        out.append( '"' );
+      }
+      out.append( "} " );
+      number( out, number );
+      out.append( '\n' );
+    }
+
+
+
+
+    /**
+     * Append all the sample lines for the metric at the given index.
+     */
+    abstract void render( int index, StringBuilder out, boolean om );
+
+  }
+
+
+
+
+  /**
+   * The values of all the metrics in a statboard at one point in time.
+   */
+  public static class Snapshot {
+    private final List<Family> families;
+
+
+
+
+    Snapshot( final List<Family> families ) {
+      this.families = families;
+    }
+
+
+
+
+    /**
+     * Open a stream which renders the snapshot as it is read.
+     *
+     * @param openMetrics true for the OpenMetrics format, false for the
+     *        Prometheus text format
+     *
+     * @return the rendered snapshot, encoded in UTF-8
+     */
+    public InputStream openStream( final boolean openMetrics ) {
+      return new RenderingStream( families, openMetrics );
+    }
+
+
+
+
+    /**
+     * Render the entire snapshot at once.
+     *
+     * @param openMetrics true for the OpenMetrics format, false for the
+     *        Prometheus text format
+     *
+     * @return the rendered snapshot
+     */
+    public String toString( final boolean openMetrics ) {
+      final StringBuilder out = new StringBuilder();
+      for ( final Family family : families ) {
+        if ( family.size() > 0 ) {
+          family.header( out, openMetrics );
+          for ( int x = 0; x < family.size(); x++ ) {
+            family.render( x, out, openMetrics );
+          }
+        }
+      }
+      if ( openMetrics ) {
+        out.append( "# EOF\n" );
+      }
+      return out.toString();
+    }
+
+
+
+
+    @Override
+    public String toString() {
+      return toString( true );
+    }
+
+  }
+
+
+
+
+  /**
+   * Renders the families a chunk at a time as the bytes are consumed.
+   */
+  private static class RenderingStream extends InputStream {
+    private final List<Family> families;
+    private final boolean openMetrics;
+    private final StringBuilder text = new StringBuilder( CHUNK_SIZE + 512 );
+    private int family = 0;
+    private int entry = 0;
+    private boolean finished = false;
+    private byte[] buffer = new byte[0];
+    private int position = 0;
+
+
+
+
+    RenderingStream( final List<Family> families, final boolean openMetrics ) {
+      this.families = families;
+      this.openMetrics = openMetrics;
+    }
+
+
+
+
+    /**
+     * Render the next chunk of text into the buffer.
+     *
+     * @return false if there is nothing left to render
+     */
+    private boolean fill() {
+      if ( finished ) {
+        return false;
+      }
+      text.setLength( 0 );
+      while ( text.length() < CHUNK_SIZE && family < families.size() ) {
+        final Family current = families.get( family );
+        if ( entry < current.size() ) {
+          if ( entry == 0 ) {
+            current.header( text, openMetrics );
+          }
+          current.render( entry++, text, openMetrics );
+        } else {
+          family++;
+          entry = 0;
+        }
+      }
+      if ( family >= families.size() ) {
+        if ( openMetrics ) {
+          text.append( "# EOF\n" );
+        }
+        finished = true;
+      }
+      buffer = text.toString().getBytes( StandardCharsets.UTF_8 );
+      position = 0;
+      return buffer.length > 0;
+    }
+
+
+
+
+    @Override
+    public int read() {
+      if ( position >= buffer.length && !fill() ) {
+        return -1;
+      }
+      return buffer[position++] & 0xFF;
+    }
+
+
+
+
+    @Override
+    public int read( final byte[] b, final int off, final int len ) {
+      if ( len == 0 ) {
+        return 0;
+      }
+      if ( position >= buffer.length && !fill() ) {
+        return -1;
+      }
+      final int count = Math.min( len, buffer.length - position );
+      System.arraycopy( buffer, position, b, off, count );
+      position += count;
+      return count;
+    }
+
+
+
+
+    @Override
+    public int available() {
+      return buffer.length - position;
+    }
+
+  }
+
+}
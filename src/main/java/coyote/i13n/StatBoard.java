@@ -16,6 +16,7 @@ import java.util.Iterator;
 import java.util.Map;
 
 import coyote.commons.Version;
+import coyote.loader.thread.Scheduler;
 
 
 /**
@@ -37,6 +38,8 @@ public interface StatBoard {
    * @param name The name of the counter to decrease.
    *
    * @return The final value of the counter after the operation.
+   *
+   * @throws IllegalArgumentException if the name is null
    */
   public long decrease( String name, long value );
 
@@ -53,6 +56,8 @@ public interface StatBoard {
    * @param name The name of the counter to decrement.
    *
    * @return The final value of the counter after the operation.
+   *
+   * @throws IllegalArgumentException if the name is null
    */
   public long decrement( String name );
 
@@ -154,6 +159,8 @@ public interface StatBoard {
    * @param name The name of the counter to return.
    *
    * @return The counter with the given name.
+   *
+   * @throws IllegalArgumentException if the name is null
    */
   public Counter getCounter( String name );
 
@@ -257,6 +264,8 @@ public interface StatBoard {
    * @param name The name of the state to return.
    *
    * @return The state with the given name.
+   *
+   * @throws IllegalArgumentException if the name is null
    */
   public State getState( String name );
 
@@ -334,6 +343,8 @@ public interface StatBoard {
    * @param name The name of the counter to increase.
    *
    * @return The final value of the counter after the operation.
+   *
+   * @throws IllegalArgumentException if the name is null
    */
   public long increase( String name, long value );
 
@@ -350,6 +361,8 @@ public interface StatBoard {
    * @param name The name of the counter to increment.
    *
    * @return The final value of the counter after the operation.
+   *
+   * @throws IllegalArgumentException if the name is null
    */
   public long increment( String name );
 
@@ -441,6 +454,34 @@ public interface StatBoard {
 
 
 
+  /**
+   * Set the number of significant decimal digits the timer latency
+   * histograms maintain.
+   *
+   * <p>This applies to all existing and future timers; changing the
+   * precision of an existing timer discards the latencies it recorded.
+   *
+   * @param digits the number of significant digits, 1 to 3
+   */
+  public void setTimerPrecision( int digits );
+
+
+
+
+  /**
+   * Set the interval over which timer latency percentiles are reported.
+   *
+   * <p>When set, each timer rolls its latency histogram over as the interval
+   * elapses and reports only the last completed interval. This applies to all
+   * existing and future timers.
+   *
+   * @param millis the interval in milliseconds, 0 to report cumulatively
+   */
+  public void setTimerInterval( long millis );
+
+
+
+
   /**
    * Set the named state to the given value.
    *
@@ -484,6 +525,11 @@ public interface StatBoard {
   /**
    * Start an Application Response Measurement transaction.
    *
+   * <p>The transaction is related to others through the correlation
+   * identifier of the current thread (see {@link Correlation}), if any. Call
+   * {@code destroy()} on the transaction once it is stopped and no longer
+   * needed to allow it to be reused.
+   *
    * @param name Grouping name.
    *
    * @return A transaction to collect ARM data.
@@ -533,6 +579,135 @@ public interface StatBoard {
 
 
 
+  /**
+   * Mark the occurrence of an event on the named meter.
+   *
+   * @param name The name of the meter to mark.
+   */
+  public void mark( String name );
+
+
+
+
+  /**
+   * Mark the occurrence of a number of events on the named meter.
+   *
+   * @param name The name of the meter to mark.
+   * @param events The number of events which occurred.
+   */
+  public void mark( String name, long events );
+
+
+
+
+  /**
+   * Return the meter with the given name, creating it if necessary.
+   *
+   * @param name The name of the meter to return.
+   *
+   * @return The meter with the given name.
+   *
+   * @throws IllegalArgumentException if the name is null
+   */
+  public Meter getMeter( String name );
+
+
+
+
+  /**
+   * Get a detached iterator over all the meters in the statboard.
+   */
+  public Iterator<Meter> getMeterIterator();
+
+
+
+
+  /**
+   * Remove the meter with the given name.
+   *
+   * @param name Name of the meter to remove.
+   *
+   * @return The removed meter or null if there was no meter by that name.
+   */
+  public Meter removeMeter( String name );
+
+
+
+
+  /**
+   * Add a value to the named time-decayed reservoir.
+   *
+   * @param name The name of the reservoir to update.
+   * @param value The value to sample.
+   */
+  public void updateReservoir( String name, long value );
+
+
+
+
+  /**
+   * Return the reservoir with the given name, creating it if necessary.
+   *
+   * @param name The name of the reservoir to return.
+   *
+   * @return The reservoir with the given name.
+   *
+   * @throws IllegalArgumentException if the name is null
+   */
+  public DecayingReservoir getReservoir( String name );
+
+
+
+
+  /**
+   * Get a detached iterator over all the reservoirs in the statboard.
+   */
+  public Iterator<DecayingReservoir> getReservoirIterator();
+
+
+
+
+  /**
+   * Remove the reservoir with the given name.
+   *
+   * @param name Name of the reservoir to remove.
+   *
+   * @return The removed reservoir or null if there was no reservoir by that
+   *         name.
+   */
+  public DecayingReservoir removeReservoir( String name );
+
+
+
+
+  /**
+   * Advance the moving averages of all the meters and rescale the reservoirs
+   * as necessary.
+   *
+   * <p>This is intended to be called every {@link Meter#TICK_INTERVAL}
+   * milliseconds by a single scheduled job rather than on every event. See
+   * {@link #setScheduler(Scheduler)}.
+   */
+  public void tick();
+
+
+
+
+  /**
+   * Use the given scheduler to call {@link #tick()} at the meter tick
+   * interval.
+   *
+   * <p>The job is scheduled once the first meter or reservoir is created.
+   * Passing null cancels any scheduled job; meters then catch up on their
+   * ticks as they are read.
+   *
+   * @param scheduler the scheduler to run the tick job, may be null
+   */
+  public void setScheduler( Scheduler scheduler );
+
+
+
+
   /**
    * Returns the maximum amount of memory that the virtual machine will attempt 
    * to use.
@@ -16,9 +16,13 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 
 import coyote.commons.DateUtil;
 import coyote.commons.Version;
+import coyote.loader.thread.ScheduledJob;
+import coyote.loader.thread.Scheduler;
 
 
 /**
@@ -41,6 +45,54 @@ public class StatBoardImpl implements StatBoard {
   /** Re-usable null gauge to save object creation and GC'n */
   private static final Gauge NULL_GAUGE = new NullGauge(null);
 
+  /** Creates counters for computeIfAbsent without allocating a lambda per call */
+  private static final Function<String, Counter> NEW_COUNTER = new Function<String, Counter>() {
+    @Override
+    public Counter apply(final String name) {
+      return new Counter(name);
+    }
+  };
+
+  /** Creates states for computeIfAbsent */
+  private static final Function<String, State> NEW_STATE = new Function<String, State>() {
+    @Override
+    public State apply(final String name) {
+      return new State(name);
+    }
+  };
+
+  /** Creates meters for computeIfAbsent */
+  private static final Function<String, Meter> NEW_METER = new Function<String, Meter>() {
+    @Override
+    public Meter apply(final String name) {
+      return new Meter(name);
+    }
+  };
+
+  /** Creates reservoirs for computeIfAbsent */
+  private static final Function<String, DecayingReservoir> NEW_RESERVOIR = new Function<String, DecayingReservoir>() {
+    @Override
+    public DecayingReservoir apply(final String name) {
+      return new DecayingReservoir(name);
+    }
+  };
+
+  /** Creates ARM masters for computeIfAbsent */
+  private static final Function<String, ArmMaster> NEW_ARM_MASTER = new Function<String, ArmMaster>() {
+    @Override
+    public ArmMaster apply(final String name) {
+      return new ArmMaster(name);
+    }
+  };
+
+  /** Creates gauges for computeIfAbsent */
+  private static final Function<String, Gauge> NEW_GAUGE = new Function<String, Gauge>() {
+    @Override
+    public Gauge apply(final String name) {
+      return new GaugeBase(name);
+    }
+  };
+
   private String BOARDID = UUID.randomUUID().toString().toLowerCase();
 
   /** The time this statboard was create/started. */
@@ -55,23 +107,41 @@ public class StatBoardImpl implements StatBoard {
   /** Gauges are disabled by default */
   private volatile boolean gaugesEnabled = false;
 
+  /** Significant digits kept by the timer latency histograms */
+  private volatile int timerPrecision = LatencyHistogram.DEFAULT_PRECISION;
+
+  /** Timer latency reporting interval in milliseconds, 0 for cumulative */
+  private volatile long timerInterval = 0;
+
   /** Map of master timers by their name */
   private final HashMap<String, TimingMaster> masterTimers = new HashMap<String, TimingMaster>();
 
   /** Map of counters by their name */
-  private final HashMap<String, Counter> counters = new HashMap<String, Counter>();
+  private final ConcurrentHashMap<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
 
   /** Map of ARM masters by their name */
-  private final HashMap<String, ArmMaster> armMasters = new HashMap<String, ArmMaster>();
+  private final ConcurrentHashMap<String, ArmMaster> armMasters = new ConcurrentHashMap<String, ArmMaster>();
 
   /** Map of states by their name */
-  private final HashMap<String, State> states = new HashMap<String, State>();
+  private final ConcurrentHashMap<String, State> states = new ConcurrentHashMap<String, State>();
 
   /** Map of component versions by their name */
   private final HashMap<String, Version> versions = new HashMap<String, Version>();
 
   /** Map of gauges by their name */
-  private final HashMap<String, Gauge> gauges = new HashMap<String, Gauge>();
+  private final ConcurrentHashMap<String, Gauge> gauges = new ConcurrentHashMap<String, Gauge>();
+
+  /** Map of meters by their name */
+  private final ConcurrentHashMap<String, Meter> meters = new ConcurrentHashMap<String, Meter>();
+
+  /** Map of time-decayed reservoirs by their name */
+  private final ConcurrentHashMap<String, DecayingReservoir> reservoirs = new ConcurrentHashMap<String, DecayingReservoir>();
+
+  /** The scheduler used to tick the meters and reservoirs */
+  private Scheduler scheduler = null;
+
+  /** The job ticking the meters and reservoirs, guarded by meters */
+  private ScheduledJob ticker = null;
 
 
 
@@ -127,15 +197,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public void disableArmClass(final String name) {
-    synchronized (armMasters) {
-      // get an existing master ARM or create a new one
-      ArmMaster master = armMasters.get(name);
-      if (master == null) {
-        master = new ArmMaster(name);
-        armMasters.put(name, master);
-      }
-      master.setEnabled(false);
-    }
+    getArmMaster(name).setEnabled(false);
   }
 
 
@@ -160,7 +222,7 @@ public class StatBoardImpl implements StatBoard {
       // get an existing master timer or create a new one
       TimingMaster master = masterTimers.get(name);
       if (master == null) {
-        master = new TimingMaster(name);
+        master = createTimerMaster(name);
         masterTimers.put(name, master);
       }
       master.setEnabled(false);
@@ -175,9 +237,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public void enableArm(final boolean flag) {
-    synchronized (armMasters) {
-      armEnabled = flag;
-    }
+    armEnabled = flag;
   }
 
 
@@ -189,15 +249,18 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public void enableArmClass(final String name) {
-    synchronized (armMasters) {
-      // get an existing master ARM or create a new one
-      ArmMaster master = armMasters.get(name);
-      if (master == null) {
-        master = new ArmMaster(name);
-        armMasters.put(name, master);
-      }
-      master.setEnabled(true);
-    }
+    getArmMaster(name).setEnabled(true);
+  }
+
+
+
+
+  /**
+   * Get an existing ARM master or create a new one.
+   */
+  private ArmMaster getArmMaster(final String name) {
+    final ArmMaster master = armMasters.get(name);
+    return (master != null) ? master : armMasters.computeIfAbsent(name, NEW_ARM_MASTER);
   }
 
 
@@ -208,9 +271,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public void enableGauges(final boolean flag) {
-    synchronized (gauges) {
-      gaugesEnabled = flag;
-    }
+    gaugesEnabled = flag;
   }
 
 
@@ -230,7 +291,7 @@ public class StatBoardImpl implements StatBoard {
       // get an existing master timer or create a new one
       TimingMaster master = masterTimers.get(name);
       if (master == null) {
-        master = new TimingMaster(name);
+        master = createTimerMaster(name);
         masterTimers.put(name, master);
       }
       master.setEnabled(true);
@@ -263,13 +324,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public Iterator<ArmMaster> getArmIterator() {
-    final ArrayList<ArmMaster> list = new ArrayList<ArmMaster>();
-    synchronized (armMasters) {
-      for (final Iterator<ArmMaster> it = armMasters.values().iterator(); it.hasNext(); list.add(it.next())) {
-        ;
-      }
-    }
-    return list.iterator();
+    return new ArrayList<ArmMaster>(armMasters.values()).iterator();
   }
 
 
@@ -281,21 +336,24 @@ public class StatBoardImpl implements StatBoard {
    * <p>If the counter does not exist, one will be created and added to the
    * static list of counters for later retrieval.
    *
+   * <p>The returned counter is a handle which remains valid until the counter
+   * is removed; code updating a counter often should retrieve it once and
+   * update it directly rather than going through the name each time.
+   *
    * @param name The name of the counter to return.
    *
    * @return The counter with the given name.
+   *
+   * @throws IllegalArgumentException if the name is null
    */
   @Override
   public Counter getCounter(final String name) {
-    Counter counter = null;
-    synchronized (counters) {
-      counter = counters.get(name);
-      if (counter == null) {
-        counter = new Counter(name);
-        counters.put(name, counter);
-      }
+    if (name == null) {
+      throw new IllegalArgumentException("Counter name is null");
     }
-    return counter;
+    // plain get first; computeIfAbsent locks the bin even when present
+    final Counter counter = counters.get(name);
+    return (counter != null) ? counter : counters.computeIfAbsent(name, NEW_COUNTER);
   }
 
 
@@ -325,11 +383,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public Iterator<Counter> getCounterIterator() {
-    final ArrayList<Counter> list = new ArrayList<Counter>();
-    for (final Iterator<Counter> it = counters.values().iterator(); it.hasNext(); list.add(it.next())) {
-      ;
-    }
-    return list.iterator();
+    return new ArrayList<Counter>(counters.values()).iterator();
   }
 
 
@@ -361,12 +415,9 @@ public class StatBoardImpl implements StatBoard {
 
     Gauge retval = null;
     if (gaugesEnabled) {
-      synchronized (gauges) {
-        retval = gauges.get(name);
-        if (retval == null) {
-          retval = new GaugeBase(name);
-          gauges.put(name, retval);
-        }
+      retval = gauges.get(name);
+      if (retval == null) {
+        retval = gauges.computeIfAbsent(name, NEW_GAUGE);
       }
     } else {
       // just return the do-nothing gauge
@@ -395,13 +446,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public Iterator<Gauge> getGaugeIterator() {
-    final ArrayList<Gauge> list = new ArrayList<Gauge>();
-    synchronized (gauges) {
-      for (final Iterator<Gauge> it = gauges.values().iterator(); it.hasNext(); list.add(it.next())) {
-        ;
-      }
-    }
-    return list.iterator();
+    return new ArrayList<Gauge>(gauges.values()).iterator();
   }
 
 
@@ -441,18 +486,16 @@ public class StatBoardImpl implements StatBoard {
    * @param name The name of the state to return.
    *
    * @return The state with the given name.
+   *
+   * @throws IllegalArgumentException if the name is null
    */
   @Override
   public State getState(final String name) {
-    State state = null;
-    synchronized (states) {
-      state = states.get(name);
-      if (state == null) {
-        state = new State(name);
-        states.put(name, state);
-      }
+    if (name == null) {
+      throw new IllegalArgumentException("State name is null");
     }
-    return state;
+    final State state = states.get(name);
+    return (state != null) ? state : states.computeIfAbsent(name, NEW_STATE);
   }
 
 
@@ -482,11 +525,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public Iterator<State> getStateIterator() {
-    final ArrayList<State> list = new ArrayList<State>();
-    for (final Iterator<State> it = states.values().iterator(); it.hasNext(); list.add(it.next())) {
-      ;
-    }
-    return list.iterator();
+    return new ArrayList<State>(states.values()).iterator();
   }
 
 
@@ -593,9 +632,10 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public Counter removeCounter(final String name) {
-    synchronized (counters) {
-      return counters.remove(name);
+    if (name == null) {
+      return null;
     }
+    return counters.remove(name);
   }
 
 
@@ -614,9 +654,7 @@ public class StatBoardImpl implements StatBoard {
       return null;
     }
 
-    synchronized (gauges) {
-      return gauges.remove(name);
-    }
+    return gauges.remove(name);
   }
 
 
@@ -635,9 +673,7 @@ public class StatBoardImpl implements StatBoard {
       return null;
     }
 
-    synchronized (states) {
-      return states.remove(name);
-    }
+    return states.remove(name);
   }
 
 
@@ -660,12 +696,7 @@ public class StatBoardImpl implements StatBoard {
    */
   @Override
   public Counter resetCounter(final String name) {
-    Counter retval = null;
-    synchronized (counters) {
-      retval = getCounter(name).reset();
-    }
-
-    return retval;
+    return getCounter(name).reset();
   }
 
 
@@ -713,6 +744,52 @@ public class StatBoardImpl implements StatBoard {
 
 
 
+  /**
+   * @see coyote.i13n.StatBoard#setTimerPrecision(int)
+   */
+  @Override
+  public void setTimerPrecision(final int digits) {
+    LatencyHistogram.checkPrecision(digits);
+    synchronized (masterTimers) {
+      timerPrecision = digits;
+      for (final TimingMaster master : masterTimers.values()) {
+        master.setPrecision(digits);
+      }
+    }
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.StatBoard#setTimerInterval(long)
+   */
+  @Override
+  public void setTimerInterval(final long millis) {
+    synchronized (masterTimers) {
+      timerInterval = millis;
+      for (final TimingMaster master : masterTimers.values()) {
+        master.setInterval(millis);
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Create a master timer configured with the current timer settings.
+   */
+  private TimingMaster createTimerMaster(final String name) {
+    final TimingMaster retval = new TimingMaster(name);
+    retval.setPrecision(timerPrecision);
+    retval.setInterval(timerInterval);
+    return retval;
+  }
+
+
+
+
   /**
    * Set the named state to the given value.
    *
@@ -784,6 +861,9 @@ public class StatBoardImpl implements StatBoard {
    * Start an Application Response Measurement transaction using a particular
    * correlation identifier.
    *
+   * <p>If no correlation identifier is given, the identifier of the current
+   * thread (see {@link Correlation}) is used.
+   *
    * @param name Grouping name.
    * @param crid correlation identifier
    *
@@ -793,20 +873,11 @@ public class StatBoardImpl implements StatBoard {
   public ArmTransaction startArm(final String name, final String crid) {
     ArmTransaction retval = null;
     if (armEnabled) {
-      synchronized (armMasters) {
-        // get an existing ARM master or create a new one
-        ArmMaster master = armMasters.get(name);
-        if (master == null) {
-          master = new ArmMaster(name);
-          armMasters.put(name, master);
-        }
-
-        // have the master ARM return a transaction instance
-        retval = master.createArm(name, crid);
+      // have the master ARM return a transaction instance
+      retval = getArmMaster(name).createArm(name, (crid != null) ? crid : Correlation.getId());
 
-        //start the ARM transaction
-        retval.start();
-      }
+      //start the ARM transaction
+      retval.start();
     } else {
       // just return the do-nothing timer
       retval = NULL_ARM;
@@ -836,7 +907,7 @@ public class StatBoardImpl implements StatBoard {
         // get an existing master timer or create a new one
         TimingMaster master = masterTimers.get(name);
         if (master == null) {
-          master = new TimingMaster(name);
+          master = createTimerMaster(name);
           masterTimers.put(name, master);
         }
 
@@ -874,6 +945,194 @@ public class StatBoardImpl implements StatBoard {
 
 
 
+  /**
+   * @see coyote.i13n.StatBoard#mark(java.lang.String)
+   */
+  @Override
+  public void mark(final String name) {
+    getMeter(name).mark();
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.StatBoard#mark(java.lang.String, long)
+   */
+  @Override
+  public void mark(final String name, final long events) {
+    getMeter(name).mark(events);
+  }
+
+
+
+
+  /**
+   * Return the meter with the given name.
+   *
+   * <p>If the meter does not exist, one will be created. As with counters,
+   * the returned meter may be held and marked directly.
+   *
+   * @param name The name of the meter to return.
+   *
+   * @return The meter with the given name.
+   *
+   * @throws IllegalArgumentException if the name is null
+   */
+  @Override
+  public Meter getMeter(final String name) {
+    if (name == null) {
+      throw new IllegalArgumentException("Meter name is null");
+    }
+    Meter meter = meters.get(name);
+    if (meter == null) {
+      meter = meters.computeIfAbsent(name, NEW_METER);
+      scheduleTicks();
+    }
+    return meter;
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.StatBoard#getMeterIterator()
+   */
+  @Override
+  public Iterator<Meter> getMeterIterator() {
+    return new ArrayList<Meter>(meters.values()).iterator();
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.StatBoard#removeMeter(java.lang.String)
+   */
+  @Override
+  public Meter removeMeter(final String name) {
+    if (name == null) {
+      return null;
+    }
+    return meters.remove(name);
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.StatBoard#updateReservoir(java.lang.String, long)
+   */
+  @Override
+  public void updateReservoir(final String name, final long value) {
+    getReservoir(name).update(value);
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.StatBoard#getReservoir(java.lang.String)
+   *
+   * @throws IllegalArgumentException if the name is null
+   */
+  @Override
+  public DecayingReservoir getReservoir(final String name) {
+    if (name == null) {
+      throw new IllegalArgumentException("Reservoir name is null");
+    }
+    DecayingReservoir reservoir = reservoirs.get(name);
+    if (reservoir == null) {
+      reservoir = reservoirs.computeIfAbsent(name, NEW_RESERVOIR);
+      scheduleTicks();
+    }
+    return reservoir;
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.StatBoard#getReservoirIterator()
+   */
+  @Override
+  public Iterator<DecayingReservoir> getReservoirIterator() {
+    return new ArrayList<DecayingReservoir>(reservoirs.values()).iterator();
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.StatBoard#removeReservoir(java.lang.String)
+   */
+  @Override
+  public DecayingReservoir removeReservoir(final String name) {
+    if (name == null) {
+      return null;
+    }
+    return reservoirs.remove(name);
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.StatBoard#tick()
+   */
+  @Override
+  public void tick() {
+    for (final Meter meter : meters.values()) {
+      meter.tick();
+    }
+    for (final DecayingReservoir reservoir : reservoirs.values()) {
+      reservoir.tick();
+    }
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.StatBoard#setScheduler(coyote.loader.thread.Scheduler)
+   */
+  @Override
+  public void setScheduler(final Scheduler scheduler) {
+    synchronized (meters) {
+      if (ticker != null) {
+        ticker.setCancelled(true);
+        ticker = null;
+      }
+      this.scheduler = scheduler;
+    }
+    if (meters.size() > 0 || reservoirs.size() > 0) {
+      scheduleTicks();
+    }
+  }
+
+
+
+
+  /**
+   * Place the tick job in the scheduler if there is one and it is not
+   * already there.
+   */
+  private void scheduleTicks() {
+    synchronized (meters) {
+      if (scheduler != null && ticker == null) {
+        ticker = scheduler.schedule(new Runnable() {
+          @Override
+          public void run() {
+            tick();
+          }
+        }, System.currentTimeMillis() + Meter.TICK_INTERVAL, Meter.TICK_INTERVAL, 0, 0);
+      }
+    }
+  }
+
+
+
+
   /**
    * Set the version of the given named component.
    * 
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+
+
+/**
+ * Sends metrics payloads to a StatsD server over UDP.
+ *
+ * <p>The payload is split at line boundaries into datagrams small enough to
+ * avoid fragmentation on a typical network, so a lost datagram only loses the
+ * lines it carried.
+ */
+public class StatsdMetricsSink extends MetricsSink {
+
+  /** The default StatsD port */
+  public static final int DEFAULT_PORT = 8125;
+
+  /** The largest datagram sent, leaving room for the headers in a 1500 byte MTU */
+  public static final int MAX_PACKET_SIZE = 1432;
+
+  private final InetSocketAddress address;
+  private DatagramSocket socket = null;
+
+
+
+
+  /**
+   * @param host the host running the StatsD server
+   * @param port the port on which the server listens
+   */
+  public StatsdMetricsSink( final String host, final int port ) {
+    this( new InetSocketAddress( host, port ), DEFAULT_CAPACITY );
+  }
+
+
+
+
+  /**
+   * @param address the address of the StatsD server
+   * @param capacity the number of payloads to hold before dropping them
+   */
+  public StatsdMetricsSink( final InetSocketAddress address, final int capacity ) {
+    super( "MetricsStatsd-" + address.getPort(), capacity );
+    this.address = address;
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.MetricsSink#write(long, byte[])
+   */
+  @Override
+  protected void write( final long timestamp, final byte[] payload ) throws IOException {
+    if ( socket == null ) {
+      socket = new DatagramSocket();
+    }
+
+    int start = 0;
+    while ( start < payload.length ) {
+      int end = Math.min( start + MAX_PACKET_SIZE, payload.length );
+      if ( end < payload.length ) {
+        // back up to the end of the last whole line
+        int x = end;
+        while ( x > start && payload[x - 1] != '\n' ) {
+          x--;
+        }
+        if ( x > start ) {
+          end = x;
+        }
+      }
+      socket.send( new DatagramPacket( payload, start, end - start, address ) );
+      start = end;
+    }
+  }
+
+
+
+
+  /**
+   * @see coyote.i13n.MetricsSink#close()
+   */
+  @Override
+  protected void close() {
+    if ( socket != null ) {
+      socket.close();
+      socket = null;
+    }
+  }
+
+}
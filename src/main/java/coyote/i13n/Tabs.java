@@ -5,13 +5,12 @@ package coyote.i13n;
 
 import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.URI;
 import java.util.ArrayList;
@@ -19,7 +18,6 @@ import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
@@ -83,6 +81,8 @@ public class Tabs {
   private static final HashMap counters = new HashMap();
   private static final HashMap states = new HashMap();
   private static final HashMap gauges = new HashMap();
+  private static final HashMap meters = new HashMap();
+  private static final HashMap reservoirs = new HashMap();
 
   /** For the zipFile method */
   private static final int STREAM_BUFFER_SIZE = 8 * 1024;
@@ -873,7 +873,8 @@ public class Tabs {
    * Access the last lines in the current log file.
    * 
    * <p>Will return the last portion of the log file in a manner similar to the 
-   * UNIX tail command.</p>
+   * UNIX tail command. The file is read backward from its end so only the 
+   * requested lines are read regardless of the size of the log.</p>
    * 
    * @param lines The number of lines to return. If the number is less than 
    *        one, then the default of 20 is used.
@@ -881,49 +882,40 @@ public class Tabs {
    * @return The tail portion of the current Tabs log file.
    */
   public static String getLogContents(final int lines) {
-    // TODO - perform file checks. What if the file is memory based?
-    final LinkedList entries = new LinkedList();
-    int limit = lines;
-
-    if (lines < 1) {
-      limit = 20;
-    }
-
     final File file = UriUtil.getFile(Tabs.getLogTarget());
-
-    if (file.exists() && file.canRead()) {
-      FileInputStream fin = null;
-      String logLine;
-
-      try {
-        fin = new FileInputStream(file);
-        final BufferedReader myInput = new BufferedReader(new InputStreamReader(fin));
-        while ((logLine = myInput.readLine()) != null) {
-          entries.add(logLine);
-          if (entries.size() > limit) {
-            entries.removeFirst();
-          }
-        }
-      } catch (final Exception e) {}
-      finally {
-        try {
-          if (fin != null) {
-            fin.close();
-          }
-        } catch (final Exception ignore) {}
+    if (file != null && file.exists() && file.canRead()) {
+      final String retval = FileUtil.tail(file, (lines < 1) ? 20 : lines);
+      if (retval != null) {
+        return retval;
       }
     }
+    return "";
+  }
 
-    final StringBuffer buffer = new StringBuffer();
 
-    while (entries.size() > 0) {
-      buffer.append((String)entries.removeFirst());
-      if (entries.size() > 0) {
-        buffer.append(Tabs.LF);
-      }
-    }
 
-    return buffer.toString();
+
+  /**
+   * Open a stream over the last lines in the current log file.
+   * 
+   * <p>The tail is read from the file as the stream is consumed so it can be 
+   * sent as a chunked HTTP response without being held in memory:<pre>
+   * Response.createChunkedResponse(Status.OK, MimeType.TEXT.getType(), Tabs.getLogStream(500));</pre>
+   * 
+   * @param lines The number of lines to return. If the number is less than 
+   *        one, then the default of 20 is used.
+   * 
+   * @return A stream of the tail portion of the current Tabs log file, which 
+   *         the caller must close.
+   * 
+   * @throws IOException if there is no readable log file
+   */
+  public static InputStream getLogStream(final int lines) throws IOException {
+    final File file = UriUtil.getFile(Tabs.getLogTarget());
+    if (file == null) {
+      throw new FileNotFoundException("No log file");
+    }
+    return FileUtil.tailStream(file, (lines < 1) ? 20 : lines);
   }
 
 
@@ -1252,6 +1244,147 @@ public class Tabs {
 
 
 
+  /**
+   * Mark the occurrence of an event on the meter with the given name.
+   * 
+   * @param tag The name of the meter to mark.
+   */
+  public static void mark(final String tag) {
+    Tabs.getMeter(tag).mark();
+  }
+
+
+
+
+  /**
+   * Mark the occurrence of a number of events on the meter with the given 
+   * name.
+   * 
+   * @param tag The name of the meter to mark.
+   * @param events The number of events which occurred.
+   */
+  public static void mark(final String tag, final long events) {
+    Tabs.getMeter(tag).mark(events);
+  }
+
+
+
+
+  /**
+   * Return the meter with the given name.
+   * 
+   * <p>If the meter does not exist, one will be created and added to the 
+   * static list of meters for later retrieval.</p>
+   * 
+   * <p>The fixture has no scheduler of its own so its meters catch up on 
+   * their ticks as they are read unless {@link #tick()} is scheduled.</p>
+   * 
+   * @param name The name of the meter to return.
+   * 
+   * @return The meter with the given name.
+   */
+  public static Meter getMeter(final String name) {
+    Meter meter = null;
+    synchronized (Tabs.meters) {
+      meter = (Meter)Tabs.meters.get(name);
+      if (meter == null) {
+        meter = new Meter(name);
+        Tabs.meters.put(name, meter);
+      }
+    }
+    return meter;
+  }
+
+
+
+
+  /**
+   * @return a detached iterator over the meters.
+   */
+  public static Iterator getMeterIterator() {
+    synchronized (Tabs.meters) {
+      return new ArrayList(Tabs.meters.values()).iterator();
+    }
+  }
+
+
+
+
+  /**
+   * @return All meters as frames keyed by their name.
+   */
+  public static DataFrame getMeterDataFrame() {
+    final DataFrame retval = new DataFrame();
+    synchronized (Tabs.meters) {
+      for (final Iterator it = Tabs.meters.values().iterator(); it.hasNext();) {
+        final Meter meter = (Meter)it.next();
+        retval.put(meter.getName(), meter.toFrame());
+      }
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * Return the time-decayed reservoir with the given name, creating it if 
+   * necessary.
+   * 
+   * @param name The name of the reservoir to return.
+   * 
+   * @return The reservoir with the given name.
+   */
+  public static DecayingReservoir getReservoir(final String name) {
+    DecayingReservoir reservoir = null;
+    synchronized (Tabs.reservoirs) {
+      reservoir = (DecayingReservoir)Tabs.reservoirs.get(name);
+      if (reservoir == null) {
+        reservoir = new DecayingReservoir(name);
+        Tabs.reservoirs.put(name, reservoir);
+      }
+    }
+    return reservoir;
+  }
+
+
+
+
+  /**
+   * Add a value to the time-decayed reservoir with the given name.
+   * 
+   * @param tag The name of the reservoir to update.
+   * @param value The value to sample.
+   */
+  public static void updateReservoir(final String tag, final long value) {
+    Tabs.getReservoir(tag).update(value);
+  }
+
+
+
+
+  /**
+   * Advance the moving averages of all the meters and rescale the reservoirs 
+   * as necessary.
+   * 
+   * <p>Schedule this every {@link Meter#TICK_INTERVAL} milliseconds.</p>
+   */
+  public static void tick() {
+    synchronized (Tabs.meters) {
+      for (final Iterator it = Tabs.meters.values().iterator(); it.hasNext(); ((Meter)it.next()).tick()) {
+        ;
+      }
+    }
+    synchronized (Tabs.reservoirs) {
+      for (final Iterator it = Tabs.reservoirs.values().iterator(); it.hasNext(); ((DecayingReservoir)it.next()).tick()) {
+        ;
+      }
+    }
+  }
+
+
+
+
   /**
    * Process the given exception in a uniform manner.
    * 
@@ -1673,7 +1806,7 @@ public class Tabs {
         }
 
         // have the master ARM return a transaction instance
-        retval = master.createArm(tag, crid);
+        retval = master.createArm(tag, (crid != null) ? crid : Correlation.getId());
 
         //start the ARM transaction
         retval.start();
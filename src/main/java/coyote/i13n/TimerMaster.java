@@ -28,6 +28,19 @@ public interface TimerMaster {
 
 
 
+  /**
+   * Record the duration of a single timed interval.
+   *
+   * <p>Masters which do not keep a latency distribution need not implement
+   * this; by default the interval is ignored.
+   *
+   * @param nanos the length of the interval in nanoseconds
+   */
+  public default void record( long nanos ) {}
+
+
+
+
   public void start( Timer mon );
 
 
@@ -18,15 +18,25 @@ import java.util.HashMap;
 /**
  * The TimingArm class models an Application Response Measurement transaction
  * that actually measures the transaction and updates the ARM Master.
+ *
+ * <p>Intervals are measured with the nanosecond timer. Once a transaction has
+ * been stopped and is no longer needed, {@link #destroy()} hands it back to
+ * its master to be reused so the transaction, its list of children and its
+ * counters are not allocated again for the next transaction.
  */
 public final class TimingArm extends NullArm {
-  /** Primary correlation identifier of this and all other related ARMs */
-  String _crid = null;
+  private static final long NANOS_PER_MILLI = 1000000L;
 
   volatile private long _startTime = 0;
   volatile private long _stopTime = 0;
+  volatile private long _startNanos = 0;
   volatile boolean _isRunningFlag = false;
+
+  /** Nanoseconds accrued by completed intervals */
   volatile long _accrued;
+
+  /** Set when the transaction has been returned to the pool of its master */
+  private volatile boolean _recycled = false;
   final ArrayList<ArmTransaction> children = new ArrayList<ArmTransaction>();
 
   /** Counters attached to this ARM */
@@ -74,12 +84,45 @@ public final class TimingArm extends NullArm {
 
 
 
-  /* (non-Javadoc)
+  /**
+   * Return this transaction to its master so it can be reused.
+   *
+   * <p>The transaction must not be used after it has been destroyed. Running
+   * transactions are not recycled.
+   *
    * @see coyote.i13n.ArmTransaction#destroy()
    */
   @Override
   public void destroy() {
-    // TODO Auto-generated method stub
+    if ( !_isRunningFlag && !_recycled && _master != null ) {
+      _recycled = true;
+      _master.release( this );
+    }
+  }
+
+
+
+
+  /**
+   * Prepare a recycled transaction to be used again.
+   *
+   * @param name the name of the transaction
+   * @param crid the correlation identifier of the transaction
+   */
+  void reuse( final String name, final String crid ) {
+    _name = ( name == null ) ? _master._name : name;
+    _crid = crid;
+    _parent = null;
+    _status = ArmTransaction.NEW;
+    _startTime = 0;
+    _stopTime = 0;
+    _startNanos = 0;
+    _accrued = 0;
+    children.clear();
+    synchronized( counters ) {
+      counters.clear();
+    }
+    _recycled = false;
   }
 
 
@@ -150,8 +193,21 @@ public final class TimingArm extends NullArm {
 
 
 
+  /**
+   * @return the total number of milliseconds this transaction has run
+   */
   @Override
   public long getTotalTime() {
+    return getTotalNanos() / NANOS_PER_MILLI;
+  }
+
+
+
+
+  /**
+   * @return the total number of nanoseconds this transaction has run
+   */
+  public long getTotalNanos() {
     return _accrued + timeElapsedSinceLastStart();
   }
 
@@ -187,7 +243,7 @@ public final class TimingArm extends NullArm {
    */
   public void increase( final long value ) {
     if ( _isRunningFlag ) {
-      _accrued += value;
+      _accrued += value * NANOS_PER_MILLI;
     }
   }
 
@@ -223,6 +279,7 @@ public final class TimingArm extends NullArm {
   public void start() {
     if ( !_isRunningFlag ) {
       _startTime = System.currentTimeMillis();
+      _startNanos = System.nanoTime();
       _isRunningFlag = true;
       if ( _master != null ) {
         _master.start( this );
@@ -250,8 +307,8 @@ public final class TimingArm extends NullArm {
    */
   @Override
   public ArmTransaction startArm( final String name, final String crid ) {
-    // create an arm
-    final ArmTransaction retval = new TimingArm( null, name, crid );
+    // create an arm, related to us unless told otherwise
+    final ArmTransaction retval = new TimingArm( null, name, ( crid != null ) ? crid : _crid, this );
 
     // start it
     retval.start();
@@ -273,9 +330,9 @@ public final class TimingArm extends NullArm {
   public long stop() {
     if ( _isRunningFlag ) {
       _stopTime = System.currentTimeMillis();
-      increase( timeElapsedSinceLastStart() );
+      _accrued += timeElapsedSinceLastStart();
       if ( _master != null ) {
-        _master.increase( _accrued );
+        _master.record( _accrued );
         _master.stop( this );
       }
       _isRunningFlag = false;
@@ -301,13 +358,13 @@ public final class TimingArm extends NullArm {
 
 
   /**
-   * Get a number of miliseconds since the last start.
+   * Get a number of nanoseconds since the last start.
    *
-   * @return the number of milliseconds since the last start.
+   * @return the number of nanoseconds since the last start.
    */
   private long timeElapsedSinceLastStart() {
     if ( _isRunningFlag ) {
-      return System.currentTimeMillis() - _startTime;
+      return System.nanoTime() - _startNanos;
     } else {
       return 0;
     }
@@ -15,6 +15,7 @@ import java.text.DateFormat;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
 
 import coyote.dataframe.DataFrame;
 
@@ -23,6 +24,12 @@ import coyote.dataframe.DataFrame;
  * The TimingMaster class models the master of all timers with a given name.
  *
  * <p>This class is used to summarize all the timers in its list.
+ *
+ * <p>In addition to the millisecond totals, each stopped interval is recorded
+ * in nanoseconds into a {@link LatencyHistogram} so sub-millisecond latencies
+ * can be reported as percentiles. The histogram may cover the entire life of
+ * the master or, when an interval is set, only the most recently completed
+ * interval.
  */
 public class TimingMaster implements TimerMaster {
   public static final String CLASS_TAG = "Timer";
@@ -50,6 +57,13 @@ public class TimingMaster implements TimerMaster {
   static private final String MAXACTIVE = "Max Active";
   static private final String FIRSTACCESS = "First Access";
   static private final String LASTACCESS = "Last Access";
+  static private final String NANOSECONDS = "ns";
+  static private final String P50 = "P50";
+  static private final String P90 = "P90";
+  static private final String P99 = "P99";
+  static private final String P999 = "P99.9";
+  static private final String MAX_LATENCY = "Max Latency";
+  static private final String SAMPLES = "Samples";
   public static final String NAME = "Name";
 
 
@@ -95,6 +109,15 @@ public class TimingMaster implements TimerMaster {
 
   private long sumOfSquares;
 
+  /** Nanosecond distribution of the stopped intervals */
+  private volatile LatencyHistogram histogram = new LatencyHistogram();
+  /** Length of the reporting interval in milliseconds, 0 to report cumulatively */
+  private volatile long interval = 0;
+  /** Nano time the current reporting interval began */
+  private final AtomicLong intervalStart = new AtomicLong( System.nanoTime() );
+  /** The distribution of the last completed interval */
+  private volatile LatencyHistogram.Snapshot lastInterval = null;
+
 
 
 
@@ -155,6 +178,16 @@ public class TimingMaster implements TimerMaster {
 
 
 
+  /**
+   * @return the number of timers created by this master
+   */
+  public long getHits() {
+    return hits;
+  }
+
+
+
+
   /**
    * @return the average time for all stopped timers for this master list.
    */
@@ -316,6 +349,121 @@ public class TimingMaster implements TimerMaster {
 
 
 
+  /**
+   * Record the duration of a single timed interval into the latency
+   * histogram.
+   *
+   * <p>This does not lock; it is called by the timers as they stop.
+   *
+   * @param nanos the length of the interval in nanoseconds
+   */
+  @Override
+  public void record( final long nanos ) {
+    histogram.record( nanos );
+    if ( interval > 0 ) {
+      rollIfDue();
+    }
+  }
+
+
+
+
+  /**
+   * Start a new reporting interval if the current one has elapsed.
+   */
+  private void rollIfDue() {
+    final long started = intervalStart.get();
+    final long now = System.nanoTime();
+    if ( ( now - started ) >= interval * 1000000L && intervalStart.compareAndSet( started, now ) ) {
+      lastInterval = histogram.rollover();
+    }
+  }
+
+
+
+
+  /**
+   * Access the latency distribution of the stopped timers.
+   *
+   * <p>If an interval has been set, this is the distribution of the most
+   * recently completed interval or, until the first interval completes, the
+   * interval in progress. Otherwise it covers everything recorded since the
+   * master was created or last reset.
+   *
+   * @return a snapshot of the latency distribution, in nanoseconds
+   */
+  public LatencyHistogram.Snapshot getLatency() {
+    if ( interval > 0 ) {
+      rollIfDue();
+      final LatencyHistogram.Snapshot retval = lastInterval;
+      if ( retval != null ) {
+        return retval;
+      }
+    }
+    return histogram.getSnapshot();
+  }
+
+
+
+
+  /**
+   * @return the number of significant decimal digits kept by the latency histogram
+   */
+  public int getPrecision() {
+    return histogram.getPrecision();
+  }
+
+
+
+
+  /**
+   * Set the number of significant decimal digits kept by the latency
+   * histogram.
+   *
+   * <p>Changing the precision discards the latencies recorded so far.
+   *
+   * @param digits the number of significant digits, 1 to 3
+   *
+   * @throws IllegalArgumentException if the precision is out of range
+   */
+  public void setPrecision( final int digits ) {
+    if ( digits != histogram.getPrecision() ) {
+      histogram = new LatencyHistogram( digits, LatencyHistogram.DEFAULT_HIGHEST_TRACKABLE );
+      lastInterval = null;
+    }
+  }
+
+
+
+
+  /**
+   * @return the length of the latency reporting interval in milliseconds, 0 if cumulative
+   */
+  public long getInterval() {
+    return interval;
+  }
+
+
+
+
+  /**
+   * Set the length of the latency reporting interval.
+   *
+   * <p>When set, the latency histogram is rolled over each time the interval
+   * elapses and the percentiles reflect only the last completed interval.
+   *
+   * @param millis the interval length in milliseconds, 0 or less to report
+   *        cumulatively
+   */
+  public void setInterval( final long millis ) {
+    interval = ( millis > 0 ) ? millis : 0;
+    intervalStart.set( System.nanoTime() );
+    lastInterval = null;
+  }
+
+
+
+
   /**
    * @return True if the timer set is enabled, false otherwise.
    */
@@ -337,6 +485,9 @@ public class TimingMaster implements TimerMaster {
     max = Long.MIN_VALUE;
     total = accrued = sumOfSquares = maxActive = totalActive = hits = 0;
     firstAccessTime = lastAccessTime = System.currentTimeMillis();
+    histogram.rollover();
+    intervalStart.set( System.nanoTime() );
+    lastInterval = null;
   }
 
 
@@ -419,6 +570,14 @@ public class TimingMaster implements TimerMaster {
       message.append( getDisplayString( TimingMaster.MIN, convertToString( min ), TimingMaster.MILLISECONDS ) );
       message.append( getDisplayString( TimingMaster.MAX, convertToString( max ), TimingMaster.MILLISECONDS ) );
     }
+    final LatencyHistogram.Snapshot latency = getLatency();
+    if ( latency.getCount() > 0 ) {
+      message.append( getDisplayString( TimingMaster.P50, convertToString( latency.getValueAtPercentile( 50 ) ), TimingMaster.NANOSECONDS ) );
+      message.append( getDisplayString( TimingMaster.P90, convertToString( latency.getValueAtPercentile( 90 ) ), TimingMaster.NANOSECONDS ) );
+      message.append( getDisplayString( TimingMaster.P99, convertToString( latency.getValueAtPercentile( 99 ) ), TimingMaster.NANOSECONDS ) );
+      message.append( getDisplayString( TimingMaster.P999, convertToString( latency.getValueAtPercentile( 99.9 ) ), TimingMaster.NANOSECONDS ) );
+      message.append( getDisplayString( TimingMaster.MAX_LATENCY, convertToString( latency.getMax() ), TimingMaster.NANOSECONDS ) );
+    }
     message.append( getDisplayString( TimingMaster.ACTIVE, convertToString( activeCounter ), TimingMaster.NONE ) );
     message.append( getDisplayString( TimingMaster.MAXACTIVE, convertToString( maxActive ), TimingMaster.NONE ) );
     message.append( getDisplayString( TimingMaster.AVGACTIVE, TimingMaster.convertToString( getAvgActive() ), TimingMaster.NONE ) );
@@ -445,6 +604,15 @@ public class TimingMaster implements TimerMaster {
     retval.put( AVGACTIVE, getAvgActive() );
     retval.put( FIRSTACCESS, new Date( firstAccessTime ) );
     retval.put( LASTACCESS, new Date( lastAccessTime ) );
+
+    // latencies are in nanoseconds
+    final LatencyHistogram.Snapshot latency = getLatency();
+    retval.put( SAMPLES, latency.getCount() );
+    retval.put( P50, latency.getValueAtPercentile( 50 ) );
+    retval.put( P90, latency.getValueAtPercentile( 90 ) );
+    retval.put( P99, latency.getValueAtPercentile( 99 ) );
+    retval.put( P999, latency.getValueAtPercentile( 99.9 ) );
+    retval.put( MAX_LATENCY, latency.getMax() );
     return retval;
   }
 
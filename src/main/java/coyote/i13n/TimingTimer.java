@@ -18,6 +18,8 @@ package coyote.i13n;
 public class TimingTimer extends TimerBase {
   volatile private long _startTime = 0;
 
+  volatile private long _startNanos = 0;
+
   volatile long _accrued;
 
 
@@ -75,6 +77,7 @@ public class TimingTimer extends TimerBase {
   public void start() {
     if ( !_isRunningFlag ) {
       _startTime = System.currentTimeMillis();
+      _startNanos = System.nanoTime();
       _isRunningFlag = true;
       _master.start( this );
     }
@@ -86,6 +89,7 @@ public class TimingTimer extends TimerBase {
   @Override
   public void stop() {
     if ( _isRunningFlag ) {
+      _master.record( System.nanoTime() - _startNanos );
       increase( timeElapsedSinceLastStart() );
       _master.increase( _accrued );
       _master.stop( this );
@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.i13n.platform;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import coyote.i13n.StatBoard;
+import coyote.loader.log.Log;
+import coyote.loader.thread.ScheduledJob;
+import coyote.loader.thread.Scheduler;
+
+
+/**
+ * The RuntimeTelemetry class samples the state of the JVM and publishes it to
+ * a statboard at a fixed cadence.
+ *
+ * <p>Each sample sets the following states, all prefixed with {@code jvm.}:
+ * <ul>
+ * <li>{@code gc.<collector>.count} and {@code gc.<collector>.time_ms} -
+ * collections and the time spent in them since the JVM started</li>
+ * <li>{@code gc.last_pause_ms} and {@code gc.max_pause_ms} - the duration of
+ * the most recent and the longest collection since the last sample, taken
+ * from collection notifications where the JVM supports them</li>
+ * <li>{@code alloc.bytes_per_sec} - the rate the live threads allocated heap
+ * during the last interval, where the JVM can report it</li>
+ * <li>{@code threads.count}, {@code threads.daemon}, {@code threads.peak} and
+ * {@code threads.<state>} - thread counts, including one for each
+ * {@link Thread.State}</li>
+ * <li>{@code jit.time_ms} - the time spent compiling</li>
+ * <li>{@code safepoint.count} and {@code safepoint.time_ms} - where the
+ * HotSpot runtime counters are accessible</li>
+ * <li>{@code buffers.<pool>.count}, {@code .used} and {@code .capacity} - the
+ * direct and mapped buffer pools</li>
+ * <li>{@code fd.open} and {@code fd.max} - file descriptors, on Unix</li>
+ * </ul>
+ *
+ * <p>The increase in each collector's count and time is also sent to the
+ * gauges of the same names, so with gauges enabled the board reports the
+ * collection rate per second alongside the totals.
+ *
+ * <p>Anything the running JVM does not expose is left out rather than
+ * reported as zero. Only the standard management interfaces are referenced
+ * directly; the vendor extensions are reached through the platform MBean
+ * server or reflection so this class loads on any JVM.
+ */
+public class RuntimeTelemetry implements Runnable {
+
+  /** The default number of milliseconds between samples */
+  public static final long DEFAULT_INTERVAL = 5000;
+
+  /** The prefix of all the published names */
+  public static final String PREFIX = "jvm.";
+
+  private static final String GC_NOTIFICATION = "com.sun.management.gc.notification";
+
+  private final StatBoard board;
+  private volatile long interval = DEFAULT_INTERVAL;
+  private volatile ScheduledJob job = null;
+
+  private final List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+  private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+  private final CompilationMXBean compiler = ManagementFactory.getCompilationMXBean();
+  private final List<BufferPoolMXBean> bufferPools = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class);
+  private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+  private final ObjectName operatingSystem;
+
+  /** getThreadAllocatedBytes(long[]) of the HotSpot thread bean, if present */
+  private final Method allocatedBytes;
+
+  /** The HotSpot runtime bean, if it can be reached */
+  private final Object hotspotRuntime;
+
+  /** The GC counts and times from the last sample */
+  private final Map<String, Long> previous = new HashMap<String, Long>();
+
+  private long lastAllocated = -1;
+  private long lastSampleNanos = 0;
+
+  private final AtomicLong lastPause = new AtomicLong(-1);
+  private final AtomicLong maxPause = new AtomicLong(-1);
+
+  private final NotificationListener gcListener = new NotificationListener() {
+    @Override
+    public void handleNotification(final Notification notification, final Object handback) {
+      if (GC_NOTIFICATION.equals(notification.getType()) && notification.getUserData() instanceof CompositeData) {
+        final CompositeData info = (CompositeData)notification.getUserData();
+        if (info.containsKey("gcInfo")) {
+          final CompositeData gcInfo = (CompositeData)info.get("gcInfo");
+          final long duration = ((Number)gcInfo.get("duration")).longValue();
+          lastPause.set(duration);
+          long max;
+          while (duration > (max = maxPause.get()) && !maxPause.compareAndSet(max, duration)) {}
+        }
+      }
+    }
+  };
+
+
+
+
+  /**
+   * @param board the statboard to receive the samples
+   */
+  public RuntimeTelemetry(final StatBoard board) {
+    if (board == null) {
+      throw new IllegalArgumentException("StatBoard cannot be null");
+    }
+    this.board = board;
+
+    ObjectName os = null;
+    try {
+      os = new ObjectName(ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME);
+    } catch (final Exception ignore) {}
+    operatingSystem = os;
+
+    Method method = null;
+    try {
+      final Class<?> hotspot = Class.forName("com.sun.management.ThreadMXBean");
+      if (hotspot.isInstance(threads)) {
+        method = hotspot.getMethod("getThreadAllocatedBytes", long[].class);
+      }
+    } catch (final Exception ignore) {}
+    allocatedBytes = method;
+
+    Object runtime = null;
+    try {
+      final Method getter = Class.forName("sun.management.ManagementFactoryHelper").getMethod("getHotspotRuntimeMBean");
+      runtime = getter.invoke(null);
+    } catch (final Throwable ignore) {
+      // not a HotSpot JVM or the internal packages are not open to us
+    }
+    hotspotRuntime = runtime;
+  }
+
+
+
+
+  /**
+   * @return the number of milliseconds between samples
+   */
+  public long getInterval() {
+    return interval;
+  }
+
+
+
+
+  /**
+   * Set how often the JVM is sampled.
+   *
+   * <p>This takes effect the next time the collector is started.
+   *
+   * @param millis the number of milliseconds between samples
+   */
+  public void setInterval(final long millis) {
+    if (millis < 1) {
+      throw new IllegalArgumentException("Interval must be positive");
+    }
+    interval = millis;
+  }
+
+
+
+
+  /**
+   * Start listening for collections and schedule the samples.
+   *
+   * @param scheduler the scheduler which will take the samples
+   */
+  public synchronized void start(final Scheduler scheduler) {
+    if (job == null) {
+      for (final GarbageCollectorMXBean collector : collectors) {
+        if (collector instanceof NotificationEmitter) {
+          ((NotificationEmitter)collector).addNotificationListener(gcListener, null, null);
+        }
+      }
+      sample();
+      job = scheduler.schedule(this, System.currentTimeMillis() + interval, interval, 0, 0);
+      job.setName("RuntimeTelemetry");
+    }
+  }
+
+
+
+
+  /**
+   * Cancel the samples and stop listening for collections.
+   */
+  public synchronized void stop() {
+    if (job != null) {
+      job.setCancelled(true);
+      job = null;
+      for (final GarbageCollectorMXBean collector : collectors) {
+        if (collector instanceof NotificationEmitter) {
+          try {
+            ((NotificationEmitter)collector).removeNotificationListener(gcListener);
+          } catch (final Exception ignore) {}
+        }
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Take a sample; called by the scheduler.
+   *
+   * @see java.lang.Runnable#run()
+   */
+  @Override
+  public void run() {
+    try {
+      sample();
+    } catch (final Exception e) {
+      Log.debug("Could not sample the runtime: " + e.getMessage());
+    }
+  }
+
+
+
+
+  /**
+   * Sample the JVM and publish the results to the statboard.
+   */
+  public synchronized void sample() {
+    sampleCollectors();
+    sampleAllocation();
+    sampleThreads();
+    sampleCompiler();
+    sampleBufferPools();
+    sampleDescriptors();
+  }
+
+
+
+
+  private void sampleCollectors() {
+    for (final GarbageCollectorMXBean collector : collectors) {
+      final String name = PREFIX + "gc." + clean(collector.getName());
+      publishTotal(name + ".count", collector.getCollectionCount());
+      publishTotal(name + ".time_ms", collector.getCollectionTime());
+    }
+
+    final long last = lastPause.get();
+    if (last >= 0) {
+      board.setState(PREFIX + "gc.last_pause_ms", last);
+      board.setState(PREFIX + "gc.max_pause_ms", maxPause.getAndSet(0));
+    }
+  }
+
+
+
+
+  /**
+   * Set the state to the total and send the increase to the gauge.
+   */
+  private void publishTotal(final String name, final long value) {
+    if (value < 0) {
+      return; // not supported by this collector
+    }
+    board.setState(name, value);
+    final Long last = previous.put(name, value);
+    if (last != null && value > last) {
+      board.updateGauge(name, value - last);
+    }
+  }
+
+
+
+
+  private void sampleAllocation() {
+    if (allocatedBytes == null) {
+      return;
+    }
+    long allocated = 0;
+    try {
+      for (final long bytes : (long[])allocatedBytes.invoke(threads, threads.getAllThreadIds())) {
+        if (bytes > 0) {
+          allocated += bytes;
+        }
+      }
+    } catch (final Exception e) {
+      return;
+    }
+
+    final long now = System.nanoTime();
+    // threads which ended take their counts with them so the total can drop
+    if (lastAllocated >= 0 && allocated >= lastAllocated) {
+      final double seconds = (now - lastSampleNanos) / 1e9;
+      if (seconds > 0) {
+        board.setState(PREFIX + "alloc.bytes_per_sec", (long)((allocated - lastAllocated) / seconds));
+      }
+    }
+    lastAllocated = allocated;
+    lastSampleNanos = now;
+  }
+
+
+
+
+  private void sampleThreads() {
+    board.setState(PREFIX + "threads.count", (long)threads.getThreadCount());
+    board.setState(PREFIX + "threads.daemon", (long)threads.getDaemonThreadCount());
+    board.setState(PREFIX + "threads.peak", (long)threads.getPeakThreadCount());
+
+    final long[] counts = new long[Thread.State.values().length];
+    for (final ThreadInfo info : threads.getThreadInfo(threads.getAllThreadIds(), 0)) {
+      if (info != null) {
+        counts[info.getThreadState().ordinal()]++;
+      }
+    }
+    for (final Thread.State state : Thread.State.values()) {
+      board.setState(PREFIX + "threads." + state.name().toLowerCase(Locale.US), counts[state.ordinal()]);
+    }
+  }
+
+
+
+
+  private void sampleCompiler() {
+    if (compiler != null && compiler.isCompilationTimeMonitoringSupported()) {
+      board.setState(PREFIX + "jit.time_ms", compiler.getTotalCompilationTime());
+    }
+    if (hotspotRuntime != null) {
+      try {
+        final Class<?> type = hotspotRuntime.getClass();
+        board.setState(PREFIX + "safepoint.count", ((Number)invoke(type, "getSafepointCount")).longValue());
+        board.setState(PREFIX + "safepoint.time_ms", ((Number)invoke(type, "getTotalSafepointTime")).longValue());
+      } catch (final Exception ignore) {}
+    }
+  }
+
+
+
+
+  private Object invoke(final Class<?> type, final String name) throws Exception {
+    final Method method = type.getMethod(name);
+    method.setAccessible(true);
+    return method.invoke(hotspotRuntime);
+  }
+
+
+
+
+  private void sampleBufferPools() {
+    for (final BufferPoolMXBean pool : bufferPools) {
+      final String name = PREFIX + "buffers." + clean(pool.getName());
+      board.setState(name + ".count", pool.getCount());
+      board.setState(name + ".used", pool.getMemoryUsed());
+      board.setState(name + ".capacity", pool.getTotalCapacity());
+    }
+  }
+
+
+
+
+  private void sampleDescriptors() {
+    if (operatingSystem == null) {
+      return;
+    }
+    try {
+      board.setState(PREFIX + "fd.open", ((Number)server.getAttribute(operatingSystem, "OpenFileDescriptorCount")).longValue());
+      board.setState(PREFIX + "fd.max", ((Number)server.getAttribute(operatingSystem, "MaxFileDescriptorCount")).longValue());
+    } catch (final Exception ignore) {
+      // not a Unix platform
+    }
+  }
+
+
+
+
+  /**
+   * Turn a pool or collector name into part of a metric name.
+   */
+  private static String clean(final String name) {
+    final StringBuilder b = new StringBuilder(name.length());
+    for (int x = 0; x < name.length(); x++) {
+      final char c = name.charAt(x);
+      if (Character.isLetterOrDigit(c)) {
+        b.append(Character.toLowerCase(c));
+      } else if (b.length() > 0 && b.charAt(b.length() - 1) != '_') {
+        b.append('_');
+      }
+    }
+    if (b.length() > 0 && b.charAt(b.length() - 1) == '_') {
+      b.setLength(b.length() - 1);
+    }
+    return b.toString();
+  }
+
+}
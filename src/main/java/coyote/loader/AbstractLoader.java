@@ -9,7 +9,6 @@ package coyote.loader;
 
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -17,7 +16,9 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import coyote.commons.FileUtil;
 import coyote.commons.GUID;
@@ -27,9 +28,12 @@ import coyote.commons.template.SymbolTable;
 import coyote.commons.template.Template;
 import coyote.dataframe.DataField;
 import coyote.dataframe.DataFrame;
+import coyote.i13n.MetricsExporter;
 import coyote.i13n.StatBoard;
 import coyote.i13n.StatBoardImpl;
+import coyote.i13n.platform.RuntimeTelemetry;
 import coyote.loader.cfg.Config;
+import coyote.loader.cfg.ConfigDiff;
 import coyote.loader.cfg.ConfigurationException;
 import coyote.loader.component.ManagedComponent;
 import coyote.loader.log.Log;
@@ -61,11 +65,39 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
   /** A map of all the component configurations keyed by their instance */
   protected final HashMap<Object, Config> components = new HashMap<Object, Config>();
 
-  /** A map of components to when they last checked in...helps detect hung components. */
-  protected final HashMap<Object, Long> checkin = new HashMap<Object, Long>();
+  /** Detects hung components and restarts failed ones */
+  final Supervisor supervisor = new Supervisor(this);
 
-  /** A map of components to the interval to when they should be considered hung and should be restarted. */
-  protected final HashMap<Object, Long> hangtime = new HashMap<Object, Long>();
+  /** Applies changes to the configuration once the components have started */
+  private volatile ConfigWatcher watcher = null;
+
+  /**
+   * A map of components to when they last checked in.
+   * 
+   * @deprecated components check in with {@link #checkIn(Object)}; this is
+   *             now a view of the supervisor's heartbeats
+   */
+  @Deprecated
+  protected final Map<Object, Long> checkin = supervisor.getCheckIns();
+
+  /**
+   * A map of components to how long they may go without checking in before
+   * they are considered hung and restarted.
+   * 
+   * @deprecated use {@link #setHangTime(long, Object, Config)}; this is now a
+   *             view of the supervisor's heartbeats
+   */
+  @Deprecated
+  protected final Map<Object, Long> hangtime = supervisor.getHangTimes();
+
+  /** How long components have to become active once loaded (12 seconds) */
+  protected static final int ACTIVATION_TIMEOUT = 12000;
+
+  /** Name of the counter of configuration reloads */
+  protected static final String RELOAD = "Reload";
+
+  /** How long components have to finish their work and stop (30 seconds) */
+  protected static final long DRAIN_TIMEOUT = 30000;
 
   /** The time to pause (sleep) between idle loop cycles (dflt=3000ms) */
   protected long parkTime = 3000;
@@ -78,11 +110,26 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
 
   protected Scheduler scheduler = null;
 
+  /** The thread pool configured for the scheduler, if any */
+  private ThreadPool schedulerPool = null;
+
   private final Context context = new LoaderContext();
 
   /** The component responsible for tracking operational statistics for all the components in this runtime */
   protected final StatBoard stats = new StatBoardImpl();
 
+  /** Exports our statboard, if configured */
+  protected MetricsExporter exporter = null;
+
+  /** Samples the JVM into our statboard, if configured */
+  protected RuntimeTelemetry telemetry = null;
+
+  /** Creates our components, caching their constructors */
+  protected final ComponentFactory factory = new ComponentFactory();
+
+  /** Where the time went loading and starting our components */
+  protected final StartupProfile profile = new StartupProfile();
+
   /** Logical identifier for this instance. May not be unique across the system.*/
   protected String instanceName = null;
 
@@ -246,6 +293,62 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
 
     // setup logging as soon as we can
     initLogging();
+
+    // tune the thread pools; ThreadMinWorkers, ThreadMaxWorkers, ThreadMode...
+    // a tuned pool reports its queue wait and rejections on our stat board
+    try {
+      Config section = cfg.getSection(ConfigTag.THREADPOOL);
+      if (section != null) {
+        section.setName(threadpool.getName());
+        threadpool.config(section);
+        threadpool.setStatBoard(stats);
+      }
+      section = cfg.getSection(ConfigTag.SCHEDULER);
+      if (section != null) {
+        section.setName(Scheduler.CLASS);
+        schedulerPool = new ThreadPool(section);
+      }
+
+      // export our statboard; Interval, Prefix, StatsD, File, Http...
+      section = cfg.getSection(ConfigTag.METRICS);
+      if (section != null) {
+        exporter = new MetricsExporter(stats, section);
+      }
+    } catch (IllegalArgumentException e) {
+      throw new ConfigurationException(e.getMessage(), e);
+    }
+
+    // sample GC, threads, buffers and the like; RuntimeTelemetry, TelemetryInterval
+    if (isRuntimeTelemetry()) {
+      telemetry = new RuntimeTelemetry(stats);
+      if (cfg.contains(ConfigTag.TELEMETRY_INTERVAL)) {
+        try {
+          telemetry.setInterval(cfg.getLong(ConfigTag.TELEMETRY_INTERVAL));
+        } catch (IllegalArgumentException e) {
+          Log.warn("Invalid " + ConfigTag.TELEMETRY_INTERVAL + " value: " + e.getMessage());
+        }
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Determine if the loader configuration asks for the JVM to be sampled.
+   * 
+   * @return the RuntimeTelemetry flag of the loader configuration, false if 
+   *         it is not set
+   */
+  protected boolean isRuntimeTelemetry() {
+    if (configuration != null && configuration.contains(ConfigTag.RUNTIME_TELEMETRY)) {
+      try {
+        return configuration.getBoolean(ConfigTag.RUNTIME_TELEMETRY);
+      } catch (NumberFormatException e) {
+        Log.warn("Invalid " + ConfigTag.RUNTIME_TELEMETRY + " flag: " + e.getMessage());
+      }
+    }
+    return false;
   }
 
 
@@ -442,9 +545,7 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
         String className = cfg.getAsString(ConfigTag.CLASS);
 
         try {
-          Class<?> clazz = Class.forName(className);
-          Constructor<?> ctor = clazz.getConstructor();
-          Object object = ctor.newInstance();
+          Object object = ComponentFactory.construct(Class.forName(className));
 
           if (object instanceof Logger) {
             retval = (Logger)object;
@@ -478,21 +579,315 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
    * and treat each section as a component configuration. This will of course 
    * require at least one attribute ({@code Class}) which defines the class of 
    * the object to load and configure.</p>
+   * 
+   * <p>Components are loaded and activated one after another in the order 
+   * they appear unless the {@code ParallelStartup} flag is set, in which case 
+   * they are started concurrently on the thread pool, each after the 
+   * components named in its {@code DependsOn} attribute are active. If the 
+   * dependencies cannot be satisfied, the error is logged and the components 
+   * are started in order.</p>
    */
   protected void initComponents() {
-    List<Config> sections = configuration.getSections(ConfigTag.COMPONENT);
+    startServices();
+
+    List<Config> configs = getComponentConfigs(configuration);
+
+    if (isParallelStartup() && configs.size() > 0) {
+      try {
+        List<String> failed = new StartupGraph(this, configs).start(ACTIVATION_TIMEOUT);
+        if (failed.size() > 0) {
+          Log.error("The following " + failed.size() + " components did not start: " + failed);
+        }
+        return;
+      } catch (IllegalArgumentException e) {
+        Log.error(e.getMessage() + "; starting components in order");
+      }
+    }
+
+    for (Config cfg : configs) {
+      activate(loadComponent(cfg), cfg);
+    }
+  }
+
+
+
+
+  /**
+   * Collect the component configurations from the {@code Component} sections 
+   * of the given loader configuration.
+   * 
+   * @param cfg the loader configuration
+   * 
+   * @return the component configurations in the order they appear
+   */
+  protected List<Config> getComponentConfigs(Config cfg) {
+    List<Config> sections = cfg.getSections(ConfigTag.COMPONENT);
     if (sections.size() == 0) {
       Log.debug(LogMsg.createMsg(MSG, "Loader.section_not_found", ConfigTag.COMPONENT));
     }
+    List<Config> retval = new ArrayList<Config>();
     for (Config section : sections) {
       if (section != null) {
-        for (Config cfg : section.getSections()) {
-          if (cfg != null && cfg.getFieldCount() > 0) {
-            activate(loadComponent(cfg), cfg);
+        for (Config config : section.getSections()) {
+          if (config != null && config.getFieldCount() > 0) {
+            retval.add(config);
           }
         }
       }
     }
+    return retval;
+  }
+
+
+
+
+  /**
+   * Apply a changed configuration to the running loader.
+   * 
+   * <p>The component configurations are matched to the running components by 
+   * their {@code Name}, {@code ID} or, lacking both, their {@code Class} and 
+   * position. Components whose configuration is unchanged keep running 
+   * untouched. A component whose configuration changed is asked to {@link 
+   * ManagedComponent#reconfigure(Config) reconfigure} itself and is replaced 
+   * with a new instance if it cannot. Components no longer configured are 
+   * removed and new ones are loaded and activated. Running components which 
+   * cannot be matched to the previous configuration, such as those loaded 
+   * outside of it, are kept if the new configuration holds a section exactly 
+   * like theirs and are otherwise removed, so the components running after 
+   * the reload are those the new configuration describes.</p>
+   * 
+   * <p>A component which cannot be loaded is logged and skipped; a running 
+   * component it would have replaced is kept. The previous configuration is 
+   * then kept as the one in effect, so the next reload tries the failed 
+   * changes again.</p>
+   * 
+   * <p>Changes outside the component sections, such as to logging or the 
+   * thread pools, are logged and take effect when the loader is next 
+   * started.</p>
+   * 
+   * @param cfg the new configuration of the loader
+   */
+  public void reload(Config cfg) {
+    if (cfg == null || isShutdown()) {
+      return;
+    }
+
+    final List<String> changes = ConfigDiff.compare(configuration, cfg);
+    if (changes.size() == 0) {
+      Log.debug("Reloaded configuration is unchanged");
+      return;
+    }
+    for (String path : changes) {
+      if (!path.toLowerCase().startsWith(ConfigTag.COMPONENT.toLowerCase())) {
+        Log.warn("Configuration change to " + path + " takes effect when the loader is restarted");
+      }
+    }
+
+    // the running components, by the key of their configuration
+    final Map<String, Object> running = new HashMap<String, Object>();
+    final Map<Object, Config> current = new HashMap<Object, Config>();
+    synchronized (components) {
+      current.putAll(components);
+    }
+    final Map<Object, Config> unclaimed = new HashMap<Object, Config>(current);
+    final Map<String, Config> previous = keyComponentConfigs(configuration != null ? getComponentConfigs(configuration) : new ArrayList<Config>());
+    for (Map.Entry<String, Config> entry : previous.entrySet()) {
+      for (final Iterator<Map.Entry<Object, Config>> it = unclaimed.entrySet().iterator(); it.hasNext();) {
+        final Map.Entry<Object, Config> candidate = it.next();
+        if (ConfigDiff.isSame(candidate.getValue(), entry.getValue())) {
+          running.put(entry.getKey(), candidate.getKey());
+          it.remove();
+          break;
+        }
+      }
+    }
+
+    int added = 0, removed = 0, reconfigured = 0, restarted = 0, unchanged = 0, failed = 0;
+    final Map<String, Config> wanted = keyComponentConfigs(getComponentConfigs(cfg));
+    for (Map.Entry<String, Config> entry : wanted.entrySet()) {
+      if (running.containsKey(entry.getKey())) {
+        continue;
+      }
+      for (final Iterator<Map.Entry<Object, Config>> it = unclaimed.entrySet().iterator(); it.hasNext();) {
+        final Map.Entry<Object, Config> candidate = it.next();
+        if (ConfigDiff.isSame(candidate.getValue(), entry.getValue())) {
+          running.put(entry.getKey(), candidate.getKey());
+          it.remove();
+          break;
+        }
+      }
+    }
+    for (Object component : unclaimed.keySet()) {
+      Log.info("Removing component " + component + " not in the configuration");
+      removeComponent(component);
+      removed++;
+    }
+    for (Map.Entry<String, Object> entry : running.entrySet()) {
+      if (!wanted.containsKey(entry.getKey())) {
+        Log.info("Removing component " + entry.getKey() + " no longer in the configuration");
+        removeComponent(entry.getValue());
+        removed++;
+      }
+    }
+    for (Map.Entry<String, Config> entry : wanted.entrySet()) {
+      final Config config = entry.getValue();
+      final Object component = running.get(entry.getKey());
+      if (component == null) {
+        Log.info("Adding component " + entry.getKey());
+        final Object loaded = loadComponent(config, false);
+        if (loaded != null) {
+          activate(loaded, config);
+          added++;
+        } else {
+          failed++;
+        }
+      } else if (ConfigDiff.isSame(current.get(component), config)) {
+        unchanged++;
+      } else if (component instanceof ManagedComponent && ((ManagedComponent)component).reconfigure(config)) {
+        synchronized (components) {
+          components.put(component, config);
+        }
+        reconfigured++;
+      } else {
+        Log.info("Restarting component " + entry.getKey() + " to apply its changed configuration");
+        final Object replacement = loadComponent(config, true);
+        if (replacement != null) {
+          removeComponent(component);
+          activate(replacement, config);
+          restarted++;
+        } else {
+          Log.error("Keeping component " + entry.getKey() + " running with its previous configuration");
+          failed++;
+        }
+      }
+    }
+
+    // keep the previous configuration so the failed changes are retried
+    if (failed > 0) {
+      Log.error(failed + " components could not be loaded from the reloaded configuration");
+    } else {
+      configuration = cfg;
+    }
+    stats.increment(RELOAD);
+    Log.info("Reloaded configuration: " + added + " added, " + removed + " removed, " + reconfigured + " reconfigured, " + restarted + " restarted, " + unchanged + " unchanged, " + failed + " failed");
+  }
+
+
+
+
+  /**
+   * Key the component configurations by their name, ID or class and 
+   * position, so the same component can be found in another version of the 
+   * configuration.
+   */
+  private static Map<String, Config> keyComponentConfigs(List<Config> configs) {
+    final Map<String, Config> retval = new LinkedHashMap<String, Config>();
+    for (Config config : configs) {
+      String key = config.getString(ConfigTag.NAME);
+      if (StringUtil.isBlank(key)) {
+        key = config.getString(ConfigTag.ID);
+      }
+      if (StringUtil.isBlank(key)) {
+        key = config.getString(ConfigTag.CLASS);
+      }
+      String unique = key;
+      for (int count = 1; retval.containsKey(unique); count++) {
+        unique = key + "#" + count;
+      }
+      retval.put(unique, config);
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * Determine if the component configuration asks for a standby instance.
+   * 
+   * @param config the component configuration, may be null
+   * 
+   * @return true if the configuration sets the standby flag
+   */
+  protected boolean isStandby(Config config) {
+    if (config != null && config.contains(ConfigTag.STANDBY)) {
+      try {
+        return config.getBoolean(ConfigTag.STANDBY);
+      } catch (NumberFormatException e) {
+        Log.warn("Invalid " + ConfigTag.STANDBY + " flag: " + e.getMessage());
+      }
+    }
+    return false;
+  }
+
+
+
+
+  /**
+   * Set the watcher which reloads the configuration as it changes.
+   * 
+   * <p>The watcher is started once the components have started and are 
+   * active, so a reload never runs part way through startup, and is stopped 
+   * before the components are terminated.</p>
+   * 
+   * @param watcher the watcher whose listener reloads this loader
+   */
+  public void setConfigWatcher(ConfigWatcher watcher) {
+    this.watcher = watcher;
+  }
+
+
+
+
+  /**
+   * Determine what the spare of a component is kept under.
+   * 
+   * <p>Components are told apart by their name or ID. Those with neither 
+   * share the spares of their class, which are interchangeable as spares 
+   * are not yet configured.</p>
+   * 
+   * @param config the component configuration
+   * 
+   * @return the name, ID or class of the component
+   */
+  protected String getStandbyKey(Config config) {
+    String retval = config.getString(ConfigTag.NAME);
+    if (StringUtil.isBlank(retval)) {
+      retval = config.getString(ConfigTag.ID);
+    }
+    if (StringUtil.isBlank(retval)) {
+      retval = config.getString(ConfigTag.CLASS);
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @return the time spent loading, constructing, configuring, initializing 
+   *         and activating each component, one frame per component
+   */
+  public DataFrame getStartupProfile() {
+    return profile.toFrame();
+  }
+
+
+
+
+  /**
+   * @return true if the configuration asks for components to be started 
+   *         concurrently
+   */
+  protected boolean isParallelStartup() {
+    if (configuration != null && configuration.contains(ConfigTag.PARALLEL_STARTUP)) {
+      try {
+        return configuration.getBoolean(ConfigTag.PARALLEL_STARTUP);
+      } catch (NumberFormatException e) {
+        Log.warn("Invalid " + ConfigTag.PARALLEL_STARTUP + " flag: " + e.getMessage());
+      }
+    }
+    return false;
   }
 
 
@@ -505,6 +900,16 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
    * (from {@link #initComponents()}) and in the {@link #watchdog()} method 
    * which will shutdown an inactive / hung component and restart a fresh one 
    * in its place.</p>
+   * 
+   * <p>Components are created through the loader's factory so their classes 
+   * and constructors are resolved once. If the configuration sets the 
+   * {@code Standby} flag, a spare instance is constructed once the component 
+   * is loaded so a replacement can be created without waiting on the 
+   * constructor. The time spent in each step is recorded in the startup 
+   * profile.</p>
+   * 
+   * <p>This is for starting the loader: if the component class cannot be 
+   * loaded or constructed, the error is reported and the process exits.</p>
    *   
    * @param config The configuration of the component to load
    * 
@@ -512,48 +917,106 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
    *         configuration
    */
   protected Object loadComponent(Config config) {
+    try {
+      return createComponent(config, false);
+    } catch (ReflectiveOperationException | SecurityException | IllegalArgumentException e) {
+      System.err.println(LogMsg.createMsg(MSG, "Loader.component_instantiation_error", config.getString(ConfigTag.CLASS), e.getClass().getName(), e.getMessage()));
+      System.exit(8);
+      return null;
+    }
+  }
+
+
+
+
+  /**
+   * Load and configure a component while the loader is running, as when a 
+   * component is restarted or the configuration is reloaded.
+   * 
+   * <p>Only a replacement is taken from the spare prepared for its 
+   * configuration; a component loaded for the first time is always 
+   * constructed, so it cannot take the spare of another. If the component 
+   * class cannot be loaded or constructed, the error is logged and null is 
+   * returned so the running components are left as they are.</p>
+   * 
+   * @param config The configuration of the component to load
+   * @param replacing true if the component replaces one with the same 
+   *        configuration
+   * 
+   * @return the loaded managed component or null if it could not be loaded
+   */
+  protected Object loadComponent(Config config, boolean replacing) {
+    try {
+      return createComponent(config, replacing);
+    } catch (ReflectiveOperationException | SecurityException | IllegalArgumentException e) {
+      Log.error(LogMsg.createMsg(MSG, "Loader.component_instantiation_error", config.getString(ConfigTag.CLASS), e.getClass().getName(), e.getMessage()));
+      return null;
+    }
+  }
+
+
+
+
+  /**
+   * Create, configure and record the component described by the 
+   * configuration.
+   */
+  private Object createComponent(Config config, boolean replacing) throws ReflectiveOperationException {
     Object retval = null;
     String className = config.getString(ConfigTag.CLASS);
 
     // Create the component
     if (StringUtil.isNotBlank(className)) {
+      final long began = System.nanoTime();
+      Object object = replacing ? factory.takeStandby(getStandbyKey(config), className) : null;
+      final boolean standby = object != null;
+      long loaded = began;
+      if (object == null) {
+        Class<?> clazz = factory.loadClass(className);
+        loaded = System.nanoTime();
+        object = ComponentFactory.construct(clazz);
+      }
+      final long constructed = System.nanoTime();
 
-      try {
-        Class<?> clazz = Class.forName(className);
-        Constructor<?> ctor = clazz.getConstructor();
-        Object object = ctor.newInstance();
+      if (object instanceof ManagedComponent) {
+        ManagedComponent cmpnt = (ManagedComponent)object;
 
-        if (object instanceof ManagedComponent) {
-          ManagedComponent cmpnt = (ManagedComponent)object;
+        // set the shared operational context all component use to share data
+        cmpnt.setContext(getContext());
 
-          // set the shared operational context all component use to share data
-          cmpnt.setContext(getContext());
+        // Set this loader as the watchdog if the component is interested 
+        cmpnt.setLoader(this);
 
-          // Set this loader as the watchdog if the component is interested 
-          cmpnt.setLoader(this);
+        // configure the component
+        cmpnt.setConfiguration(config);
 
-          // configure the component
-          cmpnt.setConfiguration(config);
+        // return the component
+        retval = cmpnt;
+      } else if (object instanceof Runnable) {
+        retval = (Runnable)object;
+      } else if (object instanceof Loader) {
+        ((Loader)object).setLoader(this);
+        retval = object;
+      } else {
+        System.err.println(LogMsg.createMsg(MSG, "Loader.class_is_not_logic_component", className));
+      }
 
-          // Add it to the components map
-          synchronized (components) {
-            components.put(object, config);
-          }
+      if (retval != null) {
+        // Add it to the components map so it can be found on reload
+        synchronized (components) {
+          components.put(object, config);
+        }
 
-          // return the component
-          retval = cmpnt;
-        } else if (object instanceof Runnable) {
-          retval = (Runnable)object;
-        } else if (object instanceof Loader) {
-          ((Loader)object).setLoader(this);
-          retval = object;
-        } else {
-          System.err.println(LogMsg.createMsg(MSG, "Loader.class_is_not_logic_component", className));
+        String name = config.getString(ConfigTag.NAME);
+        if (StringUtil.isBlank(name)) {
+          name = object.getClass().getSimpleName();
         }
+        profile.loaded(retval, name, className, loaded - began, constructed - loaded, System.nanoTime() - constructed, standby);
 
-      } catch (ClassNotFoundException | NoSuchMethodException | SecurityException | InstantiationException | IllegalAccessException | IllegalArgumentException | InvocationTargetException e) {
-        System.err.println(LogMsg.createMsg(MSG, "Loader.component_instantiation_error", className, e.getClass().getName(), e.getMessage()));
-        System.exit(8);
+        // have a spare ready for when this one must be replaced
+        if (isStandby(config)) {
+          factory.prepareStandby(getStandbyKey(config), className);
+        }
       }
     } else {
       Log.warn(LogMsg.createMsg(MSG, "Loader.no_class_specified"));
@@ -588,14 +1051,20 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
    */
   protected void activate(Object component, Config config) {
     if (component != null) {
+      profile.activated(component);
       if (component instanceof ScheduledJob) {
         Log.trace("Loading " + component.getClass().getName() + " in the scheduler");
         getScheduler().schedule((ScheduledJob)component);
         Thread.yield(); // allow component to run
+      } else if (component instanceof ThreadJob && isVirtual(config)) {
+        Log.trace("Loading " + component.getClass().getName() + " in a virtual thread");
+        ((ThreadJob)component).setVirtual(true);
+        ((ThreadJob)component).daemonize(component.getClass().getSimpleName());
       } else if (component instanceof ThreadJob) {
         try {
           Log.trace("Loading " + component.getClass().getName() + " in the threadpool");
-          getThreadPool().handle((ThreadJob)component);
+          // components are waited on and run long, keep them off worker deques
+          getThreadPool().handle((ThreadJob)component, true);
           Thread.yield(); // allow component to run
         } catch (InterruptedException e) {
           Log.error(LogMsg.createMsg(MSG, "Loader.activation_threadjob_error", e.getMessage()));
@@ -626,12 +1095,14 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
   protected void removeComponent(Object component) {
     if (component != null) {
       Log.trace("Removing " + component.getClass().getName() + " from loader");
+      supervisor.forget(component);
 
       DataFrame frame = new DataFrame();
       frame.put("Message", "Managed Removal");
       if (component instanceof ManagedComponent) {
         safeShutdown((ManagedComponent)component, frame);
-      } else if (component instanceof ThreadJob) {
+      }
+      if (component instanceof ThreadJob) {
         ((ThreadJob)component).shutdown(); // May not work as expected
       }
       synchronized (components) {
@@ -648,23 +1119,50 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
 
 
   /**
+   * Drain and shut down all the components.
    * 
+   * <p>Components are quiesced and given until the drain timeout to finish 
+   * the work they have in flight and stop, those depending on others being 
+   * stopped first. The components lock is not held while they stop.</p>
    */
   protected void terminateComponents() {
-    DataFrame frame = new DataFrame();
-    frame.put("Message", "Normal termination");
+    if (watcher != null) {
+      watcher.shutdown();
+    }
+    supervisor.stop();
 
+    final Map<Object, Config> snapshot;
     synchronized (components) {
-      for (final Iterator<Object> it = components.keySet().iterator(); it.hasNext();) {
-        final Object cmpnt = it.next();
-        if (cmpnt instanceof ManagedComponent) {
-          safeShutdown((ManagedComponent)cmpnt, frame);
-        } else if (cmpnt instanceof ThreadJob) {
-          ((ThreadJob)cmpnt).shutdown(); // May not work as expected
-        }
+      snapshot = new HashMap<Object, Config>(components);
+    }
+
+    final List<String> stuck = new Drain(this, snapshot).run(getDrainTimeout());
+    if (stuck.size() > 0) {
+      Log.error("The following " + stuck.size() + " components did not stop within the drain timeout: " + stuck);
+    }
+
+    synchronized (components) {
+      components.keySet().removeAll(snapshot.keySet());
+    }
+
+    stopServices();
+  }
+
 
-        // remove the component
-        it.remove();
+
+
+  /**
+   * Start the services configured for the loader itself, such as the export
+   * of the statboard, before any components are loaded.
+   * 
+   * <p>The runtime telemetry starts along with the scheduler.</p>
+   */
+  protected void startServices() {
+    if (exporter != null || telemetry != null) {
+      if (getScheduler() == null) {
+        Log.error("No scheduler to run the loader services");
+      } else if (exporter != null) {
+        exporter.start(scheduler);
       }
     }
   }
@@ -672,6 +1170,45 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
 
 
 
+  /**
+   * Stop the services of the loader once the components have stopped.
+   * 
+   * <p>The statboard is exported once more so the final changes are 
+   * sent.</p>
+   */
+  protected void stopServices() {
+    if (telemetry != null) {
+      telemetry.stop();
+    }
+    if (exporter != null) {
+      exporter.run();
+      exporter.stop();
+    }
+  }
+
+
+
+
+  /**
+   * Determine how long components have to finish their work and stop.
+   * 
+   * @return the DrainTimeout of the loader configuration in milliseconds, 
+   *         or the default of 30 seconds
+   */
+  protected long getDrainTimeout() {
+    if (configuration != null && configuration.contains(ConfigTag.DRAIN_TIMEOUT)) {
+      try {
+        return configuration.getLong(ConfigTag.DRAIN_TIMEOUT);
+      } catch (NumberFormatException e) {
+        Log.warn("Invalid " + ConfigTag.DRAIN_TIMEOUT + " value: " + e.getMessage());
+      }
+    }
+    return DRAIN_TIMEOUT;
+  }
+
+
+
+
   /**
    * @return the parkTime
    */
@@ -728,68 +1265,47 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
    * <p>This is where the thread spends its time monitoring components it has 
    * loaded and performing housekeeping operations.</p>
    * 
-   * <p>While it is called a watchdog, this does not detect when a component is 
-   * hung. The exact API for components to "pet the dog" is still in the 
-   * works.</p>
+   * <p>Components which are no longer active are restarted. Components which
+   * have set a hang time are watched by the supervisor and restarted if they
+   * stop checking in. Restarts are made on the thread pool, outside the lock 
+   * on the components, with an increasing delay between repeated restarts of
+   * the same component.</p>
    */
   protected void watchdog() {
     setActiveFlag(true);
 
     stats.setState(LOADER, WAIT_FOR_ACTIVE);
-    List<String> failedToInit = waitForActive(12000);
+    List<String> failedToInit = waitForActive(ACTIVATION_TIMEOUT);
+
+    if (profile.size() > 0) {
+      Log.info("Startup profile:" + System.getProperty("line.separator") + profile);
+    }
 
     if (failedToInit.size() == 0) {
       Log.info(LogMsg.createMsg(MSG, "Loader.operational"));
       stats.setState(LOADER, RUNNING);
 
+      // only now may changes to the configuration be applied
+      if (watcher != null) {
+        watcher.setBaseline(configuration);
+        watcher.daemonize("ConfigWatcher");
+      }
+
       while (!isShutdown()) {
 
-        // Make sure that all this loaders are active, otherwise remove the
-        // reference to them and allow GC to remove them from memory
+        // Make sure that all this loaders are active, otherwise restart them
+        final Map<Object, Config> inactive = new HashMap<Object, Config>();
         synchronized (components) {
           for (final Iterator<Object> it = components.keySet().iterator(); it.hasNext();) {
             final Object cmpnt = it.next();
-            if (cmpnt instanceof ManagedComponent) {
 
-              // Don't shut down scheduled jobs...they are inactive while they 
-              // are waiting in the scheduler for their next execution.
-
-              if (!(cmpnt instanceof ScheduledJob) && !((ManagedComponent)cmpnt).isActive()) {
-                Log.info(LogMsg.createMsg(MSG, "Loader.removing_inactive_cmpnt", cmpnt.toString()));
-
-                // get a reference to the components configuration
-                final Config config = components.get(cmpnt);
-
-                // communicate the reason for the shutdown
-                DataFrame frame = new DataFrame();
-                frame.put("Message", "Terminating due to inactivity");
-
-                // try to shut it down properly
-                safeShutdown((ManagedComponent)cmpnt, frame);
-
-                // remove the component
-                it.remove();
-
-                // re-load the component
-                Object newCmpnt = loadComponent(config);
-
-                // activate it
-                if (newCmpnt != null) {
-                  activate(newCmpnt, config);
-                }
-              }
+            // Don't restart scheduled jobs...they are inactive while they 
+            // are waiting in the scheduler for their next execution.
+            if (cmpnt instanceof ManagedComponent && !(cmpnt instanceof ScheduledJob) && !((ManagedComponent)cmpnt).isActive()) {
+              inactive.put(cmpnt, components.get(cmpnt));
             }
           }
 
-          // TODO cycle through all the hangtime objects and check their last 
-          // check-in time. If expired, log the event and restart them like the 
-          // above active check
-
-          // Monitor check-in map size; if it is too large, we have a problem
-          if (checkin.size() > components.size()) {
-            Log.fatal(LogMsg.createMsg(MSG, "Loader.check_in_map_size", checkin.size(), components.size()));
-          }
-
           // If we have no components which are active, there is not need for this
           // loader to remain running
           if (components.size() == 0) {
@@ -799,6 +1315,11 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
 
         } // synchronized
 
+        for (Map.Entry<Object, Config> entry : inactive.entrySet()) {
+          Log.info(LogMsg.createMsg(MSG, "Loader.removing_inactive_cmpnt", entry.getKey().toString()));
+          supervisor.restart(entry.getKey(), entry.getValue(), "Terminating due to inactivity");
+        }
+
         // Yield to other threads and sleep(wait) for a time
         park(parkTime);
 
@@ -852,7 +1373,7 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
    */
   @Override
   public void checkIn(Object component) {
-    checkin.put(component, new Long(System.currentTimeMillis()));
+    supervisor.checkIn(component);
   }
 
 
@@ -863,7 +1384,13 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
    */
   @Override
   public void setHangTime(long millis, Object component, Config cfg) {
-    // TODO Auto-generated method stub
+    Config config = cfg;
+    if (config == null) {
+      synchronized (components) {
+        config = components.get(component);
+      }
+    }
+    supervisor.watch(component, millis, config);
   }
 
 
@@ -888,7 +1415,18 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
     if (scheduler == null) {
       try {
         scheduler = new Scheduler();
+        if (schedulerPool != null) {
+          scheduler.setThreadpool(schedulerPool);
+        }
         scheduler.daemonize(Scheduler.CLASS);
+
+        // let the statboard tick its meters with our scheduler
+        stats.setScheduler(scheduler);
+
+        // and sample the JVM into it, if asked
+        if (telemetry != null) {
+          telemetry.start(scheduler);
+        }
       } catch (Exception e) {
         Log.append(Log.WARN, LogMsg.createMsg(MSG, "Loader.scheduler_creation_error", e.getClass().getName(), e.getMessage()));
         scheduler = null;
@@ -913,6 +1451,33 @@ public abstract class AbstractLoader extends ThreadJob implements Loader, Runnab
 
 
 
+  /**
+   * Determine if the component configuration asks for a virtual thread.
+   * 
+   * <p>Components which spend most of their time idle can be run each in its
+   * own virtual thread rather than occupying a worker of the thread pool by
+   * setting {@code "Virtual" : true} in their configuration. On runtimes
+   * without virtual threads this gives the component its own platform 
+   * thread.</p>
+   * 
+   * @param config the component configuration, may be null
+   * 
+   * @return true if the configuration sets the virtual flag
+   */
+  protected boolean isVirtual(Config config) {
+    if (config != null && config.contains(ConfigTag.VIRTUAL)) {
+      try {
+        return config.getBoolean(ConfigTag.VIRTUAL);
+      } catch (NumberFormatException e) {
+        Log.warn("Invalid " + ConfigTag.VIRTUAL + " flag: " + e.getMessage());
+      }
+    }
+    return false;
+  }
+
+
+
+
   /**
    * @see coyote.loader.Loader#getThreadPool()
    */
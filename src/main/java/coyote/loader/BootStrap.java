@@ -356,6 +356,9 @@ public class BootStrap extends AbstractLoader {
         loader.setName(getNameFromUri(cfgUri));
       }
 
+      // Apply changes to the configuration as they are made, if asked
+      watchConfig(loader);
+
       // Start the loader running in the current thread
       try {
         loader.start();
@@ -376,6 +379,53 @@ public class BootStrap extends AbstractLoader {
 
 
 
+  /**
+   * Start watching the configuration for changes if the configuration sets 
+   * the {@code WatchConfig} flag.
+   * 
+   * <p>Each changed configuration is handed to the loader to reload, which 
+   * restarts or reconfigures only the components whose sections changed. 
+   * The loader starts the watcher once its components have started.</p>
+   * 
+   * @param loader the loader to which changes are applied
+   */
+  private static void watchConfig(final Loader loader) {
+    boolean watch = false;
+    try {
+      watch = configuration.contains(ConfigTag.WATCH_CONFIG) && configuration.getBoolean(ConfigTag.WATCH_CONFIG);
+    } catch (NumberFormatException e) {
+      Log.warn("Invalid " + ConfigTag.WATCH_CONFIG + " flag: " + e.getMessage());
+    }
+    if (!watch) {
+      return;
+    }
+    if (!(loader instanceof AbstractLoader)) {
+      Log.warn(loader.getClass().getName() + " cannot reload its configuration");
+      return;
+    }
+
+    final ConfigWatcher watcher = new ConfigWatcher(cfgUri, new ConfigWatcher.Listener() {
+      @Override
+      public void configChanged(Config config) {
+        if (StringUtil.isBlank(config.getName())) {
+          config.setName(UriUtil.getBase(cfgUri));
+        }
+        ((AbstractLoader)loader).reload(config);
+      }
+    });
+    try {
+      if (configuration.contains(ConfigTag.WATCH_INTERVAL)) {
+        watcher.setInterval(configuration.getLong(ConfigTag.WATCH_INTERVAL));
+      }
+    } catch (NumberFormatException e) {
+      Log.warn("Invalid " + ConfigTag.WATCH_INTERVAL + " value: " + e.getMessage());
+    }
+    ((AbstractLoader)loader).setConfigWatcher(watcher);
+  }
+
+
+
+
   /**
    * Return a name from the given URI
    * @param uri the URI to query
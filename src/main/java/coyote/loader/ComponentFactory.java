@@ -0,0 +1,211 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.loader;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import coyote.loader.log.Log;
+
+
+/**
+ * Creates components, loggers and responders from their class names.
+ *
+ * <p>Class lookups and the public no-argument constructor of each class are
+ * resolved once. Constructors are kept as method handles, which the JIT can
+ * inline, so creating another instance of a class costs little more than
+ * {@code new}. The handles are shared by all factories and released with
+ * their classes.</p>
+ *
+ * <p>The factory can also keep warm standby instances: spare instances of a
+ * class constructed ahead of time so a component which must be replaced, as
+ * when the watchdog restarts a hung component, can be swapped in without
+ * waiting on its constructor. Spares are kept for a key, such as the name of
+ * the component they will replace, so a spare prepared for one component is
+ * never taken by another of the same class. Only use standby instances for
+ * classes whose constructors do no more than set up the object.</p>
+ */
+public class ComponentFactory {
+
+  /** The public no-argument constructor of each class, null if it has none */
+  private static final ClassValue<MethodHandle> CONSTRUCTORS = new ClassValue<MethodHandle>() {
+    @Override
+    protected MethodHandle computeValue(final Class<?> type) {
+      try {
+        return MethodHandles.publicLookup().findConstructor(type, MethodType.methodType(void.class)).asType(MethodType.methodType(Object.class));
+      } catch (NoSuchMethodException | IllegalAccessException e) {
+        return null;
+      }
+    }
+  };
+
+  /** Classes already loaded, by name */
+  private final ConcurrentHashMap<String, Class<?>> classes = new ConcurrentHashMap<String, Class<?>>();
+
+  /** Spare instances, by the key of the component they will replace */
+  private final ConcurrentHashMap<String, ConcurrentLinkedQueue<Object>> standby = new ConcurrentHashMap<String, ConcurrentLinkedQueue<Object>>();
+
+
+
+
+  /**
+   * Create a new instance of the given class with its public no-argument
+   * constructor.
+   *
+   * @param type the class to instantiate
+   *
+   * @return a new instance of the class
+   *
+   * @throws NoSuchMethodException if there is no public no-argument constructor
+   * @throws IllegalAccessException if the class or constructor is not accessible
+   * @throws InstantiationException if the class is abstract
+   * @throws InvocationTargetException if the constructor threw an exception
+   */
+  public static Object construct(final Class<?> type) throws NoSuchMethodException, IllegalAccessException, InstantiationException, InvocationTargetException {
+    final MethodHandle constructor = CONSTRUCTORS.get(type);
+    if (constructor == null) {
+      // let reflection report why in the usual way
+      return type.getConstructor().newInstance();
+    }
+    try {
+      return (Object)constructor.invokeExact();
+    } catch (InstantiationException | Error e) {
+      throw e;
+    } catch (Throwable t) {
+      throw new InvocationTargetException(t);
+    }
+  }
+
+
+
+
+  /**
+   * Load the named class, once.
+   *
+   * @param className the fully qualified name of the class
+   *
+   * @return the class
+   *
+   * @throws ClassNotFoundException if the class could not be found
+   */
+  public Class<?> loadClass(final String className) throws ClassNotFoundException {
+    Class<?> retval = classes.get(className);
+    if (retval == null) {
+      retval = Class.forName(className);
+      classes.put(className, retval);
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * Create an instance of the named class.
+   *
+   * @param className the fully qualified name of the class
+   *
+   * @return a new instance of the class
+   *
+   * @throws ClassNotFoundException if the class could not be found
+   * @throws NoSuchMethodException if there is no public no-argument constructor
+   * @throws IllegalAccessException if the class or constructor is not accessible
+   * @throws InstantiationException if the class is abstract
+   * @throws InvocationTargetException if the constructor threw an exception
+   */
+  public Object newInstance(final String className) throws ClassNotFoundException, NoSuchMethodException, IllegalAccessException, InstantiationException, InvocationTargetException {
+    return construct(loadClass(className));
+  }
+
+
+
+
+  /**
+   * Construct a standby instance of the named class for the given key, if
+   * there is not one ready already.
+   *
+   * @param key what the spare is for, such as the name of a component
+   * @param className the fully qualified name of the class
+   *
+   * @return true if a standby instance is ready
+   */
+  public boolean prepareStandby(final String key, final String className) {
+    ConcurrentLinkedQueue<Object> spares = standby.get(key);
+    if (spares == null) {
+      standby.putIfAbsent(key, new ConcurrentLinkedQueue<Object>());
+      spares = standby.get(key);
+    }
+    // a spare of a class the component no longer uses is no good to it
+    for (final Object spare : spares) {
+      if (!spare.getClass().getName().equals(className)) {
+        spares.remove(spare);
+      }
+    }
+    if (spares.isEmpty()) {
+      try {
+        spares.offer(construct(loadClass(className)));
+      } catch (final Exception e) {
+        Log.warn("Could not prepare a standby " + className + ": " + e.getClass().getSimpleName() + " - " + e.getMessage());
+        return false;
+      }
+    }
+    return true;
+  }
+
+
+
+
+  /**
+   * @param key what the spare was prepared for
+   * @param className the fully qualified name of the class wanted
+   *
+   * @return a standby instance of the named class prepared for the key or
+   *         null if none is ready
+   */
+  public Object takeStandby(final String key, final String className) {
+    final ConcurrentLinkedQueue<Object> spares = standby.get(key);
+    if (spares != null) {
+      Object spare;
+      while ((spare = spares.poll()) != null) {
+        if (spare.getClass().getName().equals(className)) {
+          return spare;
+        }
+      }
+    }
+    return null;
+  }
+
+
+
+
+  /**
+   * @param key what the spares were prepared for
+   *
+   * @return the number of standby instances ready for the key
+   */
+  public int getStandbyCount(final String key) {
+    final ConcurrentLinkedQueue<Object> spares = standby.get(key);
+    return (spares != null) ? spares.size() : 0;
+  }
+
+
+
+
+  /**
+   * Discard all the standby instances and loaded classes.
+   */
+  public void clear() {
+    standby.clear();
+    classes.clear();
+  }
+
+}
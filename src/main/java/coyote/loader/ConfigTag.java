@@ -62,6 +62,42 @@ public class ConfigTag {
   /** Flag ({@value}) indicating the loader should continually repeat its execution. */
   public static final String REPEAT = "Repeat";
 
+  /** Name ({@value}) of the configuration section specifying the thread pool which runs the components. */
+  public static final String THREADPOOL = "ThreadPool";
+
+  /** Name ({@value}) of the configuration section specifying the thread pool which runs the scheduled jobs. */
+  public static final String SCHEDULER = "Scheduler";
+
+  /** Flag ({@value}) indicating a component should run in its own virtual thread. */
+  public static final String VIRTUAL = "Virtual";
+
+  /** Name ({@value}) of the configuration attribute listing the components a component needs started first. */
+  public static final String DEPENDS_ON = "DependsOn";
+
+  /** Flag ({@value}) indicating the loader should start its components concurrently. */
+  public static final String PARALLEL_STARTUP = "ParallelStartup";
+
+  /** Flag ({@value}) indicating a spare instance of a component should be kept ready for restarts. */
+  public static final String STANDBY = "Standby";
+
+  /** Name ({@value}) of the configuration attribute setting how long the loader waits for its components to finish their work and stop. */
+  public static final String DRAIN_TIMEOUT = "DrainTimeout";
+
+  /** Flag ({@value}) indicating the configuration should be watched and changes applied while running. */
+  public static final String WATCH_CONFIG = "WatchConfig";
+
+  /** Name ({@value}) of the configuration attribute setting how often a configuration which cannot be watched is polled, in milliseconds. */
+  public static final String WATCH_INTERVAL = "WatchInterval";
+
+  /** Name ({@value}) of the configuration section specifying how the statboard is exported. */
+  public static final String METRICS = "Metrics";
+
+  /** Flag ({@value}) indicating the state of the JVM should be sampled into the statboard. */
+  public static final String RUNTIME_TELEMETRY = "RuntimeTelemetry";
+
+  /** Name ({@value}) of the configuration attribute setting how often the JVM is sampled, in milliseconds. */
+  public static final String TELEMETRY_INTERVAL = "TelemetryInterval";
+
   // These tags are legacy configuration elements -- may be deprecated
   public static final String LOG_TAG = "Log";
   public static final String ENABLED_TAG = "Enabled";
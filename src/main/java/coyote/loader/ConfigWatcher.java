@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.loader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URLConnection;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+import coyote.commons.StringUtil;
+import coyote.commons.UriUtil;
+import coyote.loader.cfg.Config;
+import coyote.loader.cfg.ConfigDiff;
+import coyote.loader.cfg.ConfigurationException;
+import coyote.loader.log.Log;
+import coyote.loader.thread.ThreadJob;
+
+
+/**
+ * Watches a configuration for changes and hands each changed version to a
+ * listener.
+ *
+ * <p>A file is watched with the file system's watch service, so a change is
+ * noticed as soon as it is written without polling the file. An HTTP or
+ * HTTPS location is polled at the interval with a conditional request using
+ * the {@code ETag} and {@code Last-Modified} values of the last response, so
+ * an unchanged configuration costs the server a {@code 304 Not Modified} and
+ * no parsing here. Any other location is read and compared at each
+ * interval.</p>
+ *
+ * <p>The listener is only called when the configuration read differs from
+ * the last one, attribute for attribute; rewriting a file with the same
+ * content is ignored. A configuration which cannot be read or parsed, such
+ * as one caught part way through being written, is logged and skipped.</p>
+ *
+ * <p>Changes are found by comparing with the baseline, normally the
+ * configuration the loader started with. The configuration is read when the
+ * watcher starts and passed to the listener if it already differs from the
+ * baseline, so changes made before the watcher started are not lost. With no
+ * baseline, the configuration first read becomes the baseline.</p>
+ */
+public class ConfigWatcher extends ThreadJob {
+
+  /** The default time between polls in milliseconds */
+  public static final long DEFAULT_INTERVAL = 5000;
+
+  /** How long a changed file is left to settle before it is read */
+  private static final long SETTLE_TIME = 100;
+
+  /** How long to wait on a configuration server */
+  private static final int HTTP_TIMEOUT = 10000;
+
+  private final URI uri;
+
+  private final Listener listener;
+
+  private volatile long interval = DEFAULT_INTERVAL;
+
+  /** The last configuration read */
+  private Config current = null;
+
+  private volatile WatchService watcher = null;
+
+  /** The file being watched, if the configuration is a file */
+  private File file = null;
+
+  private String etag = null;
+
+  private long modified = 0;
+
+
+
+
+  /**
+   * Receives configurations which have changed.
+   */
+  public interface Listener {
+
+    /**
+     * Called in the watcher's thread with each changed configuration.
+     *
+     * @param config the new configuration
+     */
+    public void configChanged(Config config);
+
+  }
+
+
+
+
+  /**
+   * @param uri the location of the configuration
+   * @param listener what to give the changed configurations
+   */
+  public ConfigWatcher(final URI uri, final Listener listener) {
+    if (uri == null || listener == null) {
+      throw new IllegalArgumentException("Location and listener are required");
+    }
+    this.uri = uri;
+    this.listener = listener;
+
+    // we do our own waiting on the watch service or the poll interval
+    setHyper(true);
+  }
+
+
+
+
+  /**
+   * @return the time between polls in milliseconds
+   */
+  public long getInterval() {
+    return interval;
+  }
+
+
+
+
+  /**
+   * @param millis the time between polls of locations which cannot be
+   *        watched
+   */
+  public void setInterval(final long millis) {
+    interval = (millis > 0) ? millis : DEFAULT_INTERVAL;
+  }
+
+
+
+
+  /**
+   * Set the configuration changes are found against.
+   *
+   * @param config the configuration in effect, normally the one the loader
+   *        started with; null to use the configuration first read
+   */
+  public void setBaseline(final Config config) {
+    current = (config != null) ? config.copy() : null;
+  }
+
+
+
+
+  /**
+   * Register the file with the watch service and read the configuration,
+   * passing it on if it differs from the baseline.
+   */
+  @Override
+  public void initialize() {
+    if (StringUtil.isBlank(uri.getScheme()) || UriUtil.isFile(uri)) {
+      file = StringUtil.isBlank(uri.getScheme()) ? new File(uri.toString()) : UriUtil.getFile(uri);
+      try {
+        final Path dir = file.getAbsoluteFile().getParentFile().toPath();
+        watcher = FileSystems.getDefault().newWatchService();
+        dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+      } catch (IOException | RuntimeException e) {
+        Log.warn("Cannot watch " + file + ", polling it instead: " + e.getMessage());
+        close();
+      }
+    }
+
+    try {
+      final Config config = read();
+      if (current == null) {
+        current = config;
+      } else {
+        changed(config);
+      }
+    } catch (IOException | ConfigurationException | RuntimeException e) {
+      Log.warn("Could not read configuration " + uri + ": " + e.getMessage());
+    }
+  }
+
+
+
+
+  /**
+   * Wait for the configuration to change and pass it on if it has.
+   */
+  @Override
+  public void doWork() {
+    final WatchService service = watcher;
+    if (service != null) {
+      if (!awaitFileChange(service)) {
+        return;
+      }
+    } else {
+      park(interval);
+      if (isShutdown()) {
+        return;
+      }
+    }
+
+    final Config config;
+    try {
+      config = read();
+    } catch (IOException | ConfigurationException | RuntimeException e) {
+      Log.warn("Could not read changed configuration " + uri + ": " + e.getMessage());
+      return;
+    }
+
+    changed(config);
+  }
+
+
+
+
+  /**
+   * Pass the configuration to the listener if it differs from the last one.
+   */
+  private void changed(final Config config) {
+    if (config != null && !ConfigDiff.isSame(current, config)) {
+      current = config;
+      Log.info("Configuration " + uri + " has changed");
+      try {
+        listener.configChanged(config.copy());
+      } catch (RuntimeException e) {
+        Log.error("Could not apply the changed configuration: " + e.toString());
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Wait for the watch service to report a change to our file.
+   *
+   * @return true if the file changed
+   */
+  private boolean awaitFileChange(final WatchService service) {
+    try {
+      final WatchKey key = service.poll(interval, TimeUnit.MILLISECONDS);
+      if (key == null) {
+        return false;
+      }
+      boolean changed = false;
+      for (final WatchEvent<?> event : key.pollEvents()) {
+        if (event.kind() == StandardWatchEventKinds.OVERFLOW || file.getName().equals(String.valueOf(event.context()))) {
+          changed = true;
+        }
+      }
+      key.reset();
+
+      if (changed) {
+        // let the writer finish, then drop the events it made meanwhile
+        Thread.sleep(SETTLE_TIME);
+        WatchKey more;
+        while ((more = service.poll()) != null) {
+          more.pollEvents();
+          more.reset();
+        }
+      }
+      return changed;
+    } catch (InterruptedException | ClosedWatchServiceException e) {
+      return false;
+    }
+  }
+
+
+
+
+  /**
+   * Read the configuration.
+   *
+   * @return the configuration or null if it has not changed since the last
+   *         conditional request
+   */
+  private Config read() throws IOException, ConfigurationException {
+    final URLConnection connection = (file != null) ? null : uri.toURL().openConnection();
+    if (connection instanceof HttpURLConnection) {
+      return readHttp((HttpURLConnection)connection);
+    }
+    try (InputStream in = (file != null) ? new FileInputStream(file) : connection.getInputStream()) {
+      return Config.read(in);
+    }
+  }
+
+
+
+
+  /**
+   * Make a conditional request for the configuration.
+   */
+  private Config readHttp(final HttpURLConnection connection) throws IOException, ConfigurationException {
+    connection.setConnectTimeout(HTTP_TIMEOUT);
+    connection.setReadTimeout(HTTP_TIMEOUT);
+    connection.setUseCaches(false);
+    if (etag != null) {
+      connection.setRequestProperty("If-None-Match", etag);
+    }
+    if (modified > 0) {
+      connection.setIfModifiedSince(modified);
+    }
+    try {
+      final int status = connection.getResponseCode();
+      if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+        return null;
+      }
+      if (status != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Server responded " + status + " " + connection.getResponseMessage());
+      }
+      final Config retval;
+      try (InputStream in = connection.getInputStream()) {
+        retval = Config.read(in);
+      }
+      etag = connection.getHeaderField("ETag");
+      modified = connection.getLastModified();
+      return retval;
+    } finally {
+      connection.disconnect();
+    }
+  }
+
+
+
+
+  /**
+   * Wake the watcher so it notices the shutdown.
+   */
+  @Override
+  public void shutdown() {
+    super.shutdown();
+    close();
+  }
+
+
+
+
+  /**
+   * Release the watch service.
+   */
+  @Override
+  public void terminate() {
+    close();
+  }
+
+
+
+
+  private synchronized void close() {
+    if (watcher != null) {
+      try {
+        watcher.close();
+      } catch (IOException ignore) {
+        // nothing we can do
+      }
+      watcher = null;
+    }
+  }
+
+}
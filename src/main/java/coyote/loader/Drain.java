@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.loader;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import coyote.dataframe.DataFrame;
+import coyote.loader.cfg.Config;
+import coyote.loader.component.ManagedComponent;
+import coyote.loader.log.Log;
+import coyote.loader.thread.ThreadJob;
+import coyote.loader.thread.ThreadPool;
+
+
+/**
+ * Shuts down the components of a loader without dropping the work they have
+ * in flight.
+ *
+ * <p>All the managed components are quiesced first, so they stop accepting
+ * new work, and the drain waits for each one's in-flight count to reach zero.
+ * The components are then shut down in the reverse of their start order: a
+ * component is only shut down once every component depending on it has
+ * stopped. The components of each level are shut down concurrently on a
+ * small pool of its own, so a component which is slow to stop delays only
+ * its level. Everything, draining and shutting down, must finish within one
+ * deadline; components still running at the deadline are reported and
+ * abandoned.</p>
+ *
+ * <p>The time each component took to drain is recorded in the loader's
+ * StatBoard as a {@code Drain.<name>} state and the time it took to stop as
+ * a {@code Terminate.<name>} state, both in milliseconds, with the time for
+ * the whole drain as the {@code Drain} state.</p>
+ */
+final class Drain {
+
+  /** Name of the drain timing states */
+  static final String DRAIN = "Drain";
+
+  /** Name of the termination timing states */
+  static final String TERMINATE = "Terminate";
+
+  /** The most components shut down at once */
+  static final int MAX_THREADS = 8;
+
+  /** How often in-flight counts are checked, in milliseconds */
+  private static final long POLL_INTERVAL = 10;
+
+  private final AbstractLoader loader;
+
+  /** The components to shut down and their configurations */
+  private final Map<Object, Config> components;
+
+  /** Components which had not stopped by the deadline */
+  private final Map<Object, Boolean> stuck = new ConcurrentHashMap<Object, Boolean>();
+
+  private long deadline;
+
+
+
+
+  /**
+   * @param loader the loader whose components are being shut down
+   * @param components the components to shut down and their configurations
+   */
+  Drain(AbstractLoader loader, Map<Object, Config> components) {
+    this.loader = loader;
+    this.components = new LinkedHashMap<Object, Config>(components);
+  }
+
+
+
+
+  /**
+   * Drain and shut down all the components.
+   *
+   * @param millis how long the whole drain may take
+   *
+   * @return the names of the components which did not stop in time
+   */
+  List<String> run(long millis) {
+    final long began = System.currentTimeMillis();
+    deadline = began + millis;
+
+    quiesce();
+    awaitDrained(began);
+
+    final List<List<Object>> levels = getLevels();
+    final ThreadPool pool = new ThreadPool(DRAIN);
+    pool.setMaxThreadCount(Math.max(1, Math.min(MAX_THREADS, components.size())));
+    try {
+      for (int i = levels.size() - 1; i >= 0; i--) {
+        terminate(pool, levels.get(i));
+      }
+    } finally {
+      pool.stop();
+    }
+
+    final long elapsed = System.currentTimeMillis() - began;
+    loader.getStats().setState(DRAIN, elapsed);
+
+    final List<String> retval = new ArrayList<String>();
+    for (Object component : stuck.keySet()) {
+      retval.add(getName(component));
+    }
+    Log.info("Drained and stopped " + (components.size() - retval.size()) + " of " + components.size() + " components in " + elapsed + "ms");
+    return retval;
+  }
+
+
+
+
+  /**
+   * Ask every managed component to stop accepting work.
+   */
+  private void quiesce() {
+    for (Object component : components.keySet()) {
+      if (component instanceof ManagedComponent) {
+        try {
+          ((ManagedComponent)component).quiesce();
+        } catch (RuntimeException e) {
+          Log.error("Component '" + getName(component) + "' failed to quiesce: " + e.toString());
+        }
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Wait for the in-flight work of every managed component to finish, or the
+   * deadline.
+   */
+  private void awaitDrained(long began) {
+    final List<ManagedComponent> pending = new ArrayList<ManagedComponent>();
+    for (Object component : components.keySet()) {
+      if (component instanceof ManagedComponent) {
+        pending.add((ManagedComponent)component);
+      }
+    }
+
+    while (true) {
+      for (final Iterator<ManagedComponent> it = pending.iterator(); it.hasNext();) {
+        final ManagedComponent component = it.next();
+        if (component.getInFlight() <= 0) {
+          loader.getStats().setState(DRAIN + "." + getName(component), System.currentTimeMillis() - began);
+          it.remove();
+        }
+      }
+      if (pending.size() == 0 || System.currentTimeMillis() >= deadline) {
+        break;
+      }
+      try {
+        Thread.sleep(POLL_INTERVAL);
+      } catch (InterruptedException e) {
+        Log.warn("Interrupted waiting for components to drain");
+        break;
+      }
+    }
+
+    for (ManagedComponent component : pending) {
+      loader.getStats().setState(DRAIN + "." + getName(component), System.currentTimeMillis() - began);
+      Log.warn("Component '" + getName(component) + "' still had " + component.getInFlight() + " units of work in flight at the drain deadline");
+    }
+  }
+
+
+
+
+  /**
+   * Group the components by the level they were started in. Components the
+   * start order does not cover, or all of them if the dependencies cannot be
+   * resolved, share the first level.
+   */
+  private List<List<Object>> getLevels() {
+    final Map<Config, Integer> level = new IdentityHashMap<Config, Integer>();
+    final List<Config> configs = new ArrayList<Config>();
+    for (Config config : components.values()) {
+      if (config != null && !level.containsKey(config)) {
+        level.put(config, 0);
+        configs.add(config);
+      }
+    }
+
+    try {
+      final List<List<Config>> graph = new StartupGraph(loader, configs).getLevels();
+      for (int i = 0; i < graph.size(); i++) {
+        for (Config config : graph.get(i)) {
+          level.put(config, i);
+        }
+      }
+    } catch (IllegalArgumentException e) {
+      Log.warn(e.getMessage() + "; stopping components together");
+    }
+
+    final List<List<Object>> retval = new ArrayList<List<Object>>();
+    for (Map.Entry<Object, Config> entry : components.entrySet()) {
+      final Integer index = (entry.getValue() != null) ? level.get(entry.getValue()) : null;
+      final int i = (index != null) ? index : 0;
+      while (retval.size() <= i) {
+        retval.add(new ArrayList<Object>());
+      }
+      retval.get(i).add(entry.getKey());
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * Shut down the components of one level concurrently and wait for them to
+   * stop, or the deadline.
+   */
+  private void terminate(ThreadPool pool, List<Object> level) {
+    if (level.size() == 0) {
+      return;
+    }
+    final CountDownLatch stopped = new CountDownLatch(level.size());
+    for (final Object component : level) {
+      stuck.put(component, Boolean.TRUE);
+      pool.run(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            terminate(component);
+          } finally {
+            stopped.countDown();
+          }
+        }
+      });
+    }
+
+    try {
+      if (!stopped.await(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS)) {
+        Log.error("Timed out waiting for " + stopped.getCount() + " components to stop");
+      }
+    } catch (InterruptedException e) {
+      Log.warn("Interrupted waiting for components to stop");
+    }
+  }
+
+
+
+
+  /**
+   * Shut the component down and wait for it to stop running, or the
+   * deadline.
+   */
+  private void terminate(Object component) {
+    final String name = getName(component);
+    final long began = System.currentTimeMillis();
+    final DataFrame frame = new DataFrame();
+    frame.put("Message", "Normal termination");
+    try {
+      if (component instanceof ManagedComponent) {
+        ((ManagedComponent)component).shutdown(frame);
+      }
+      if (component instanceof ThreadJob) {
+        final ThreadJob job = (ThreadJob)component;
+        job.shutdown();
+        while (job.isActive() && System.currentTimeMillis() < deadline) {
+          Thread.sleep(POLL_INTERVAL);
+        }
+        if (job.isActive()) {
+          Log.error("Component '" + name + "' did not stop by the drain deadline");
+          return;
+        }
+      }
+      stuck.remove(component);
+    } catch (InterruptedException e) {
+      Log.warn("Interrupted waiting for '" + name + "' to stop");
+    } catch (RuntimeException e) {
+      Log.error("Component '" + name + "' failed to shut down: " + e.toString());
+      stuck.remove(component);
+    } finally {
+      loader.getStats().setState(TERMINATE + "." + name, System.currentTimeMillis() - began);
+    }
+  }
+
+
+
+
+  /**
+   * @return the name the component is known by in the timings
+   */
+  private String getName(Object component) {
+    return Supervisor.getName(component, components.get(component));
+  }
+
+}
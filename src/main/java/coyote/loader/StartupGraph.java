@@ -0,0 +1,348 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.loader;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import coyote.commons.StringUtil;
+import coyote.loader.cfg.Config;
+import coyote.loader.component.ManagedComponent;
+import coyote.loader.log.Log;
+import coyote.loader.thread.ScheduledJob;
+
+
+/**
+ * Starts the components of a loader concurrently, each one only after the
+ * components it depends upon are active.
+ *
+ * <p>A component configuration names the components it needs in its
+ * {@code DependsOn} attribute, as an array or a comma-separated list of their
+ * {@code Name} (or, lacking a name, {@code ID}) values. Components with
+ * nothing to wait for are loaded and activated straight away; as each one
+ * becomes active, the components which were waiting only on it are started in
+ * turn. No thread ever blocks waiting on a dependency. A component which does
+ * not become active within the timeout is reported and the components
+ * depending on it are not started.</p>
+ *
+ * <p>Each component is loaded and waited upon in a thread of its own rather
+ * than on the loader's thread pool, as the components themselves run on the
+ * pool; waiting there would hold the workers they need, and with few enough
+ * workers no component could start.</p>
+ *
+ * <p>The time each component took to load and become active is recorded in
+ * the loader's StatBoard as a {@code Startup.<name>} state in milliseconds,
+ * and the time for all of them as the {@code Startup} state.</p>
+ */
+final class StartupGraph {
+
+  /** Name of the startup timing states */
+  static final String STARTUP = "Startup";
+
+  private final AbstractLoader loader;
+
+  private final List<Node> nodes = new ArrayList<Node>();
+
+  /** Length of the longest chain of dependencies */
+  private int depth = 0;
+
+  /** The configurations in the order they can be started, level by level */
+  private final List<List<Config>> levels = new ArrayList<List<Config>>();
+
+  private CountDownLatch finished;
+
+  private long timeout;
+
+
+
+
+  /**
+   * A component and its place in the graph.
+   */
+  private static class Node {
+    final Config config;
+    final String name;
+    final List<Node> dependents = new ArrayList<Node>();
+    final List<String> dependencies = new ArrayList<String>();
+    final AtomicInteger pending = new AtomicInteger();
+    volatile boolean blocked = false;
+    volatile boolean started = false;
+
+
+
+
+    Node(Config config, String name) {
+      this.config = config;
+      this.name = name;
+    }
+  }
+
+
+
+
+  /**
+   * Build the graph of the given component configurations.
+   *
+   * @param loader the loader whose components are being started
+   * @param configs the component configurations in the order they appear
+   *
+   * @throws IllegalArgumentException if a component depends on one which
+   *         is not configured or the dependencies form a cycle
+   */
+  StartupGraph(AbstractLoader loader, List<Config> configs) throws IllegalArgumentException {
+    this.loader = loader;
+
+    final Map<String, Node> named = new HashMap<String, Node>();
+    for (Config config : configs) {
+      String name = config.getString(ConfigTag.NAME);
+      if (StringUtil.isBlank(name)) {
+        name = config.getString(ConfigTag.ID);
+      }
+      if (StringUtil.isBlank(name)) {
+        name = "Component" + nodes.size();
+      }
+      final Node node = new Node(config, name);
+      if (named.put(name, node) != null) {
+        throw new IllegalArgumentException("More than one component is named '" + name + "'");
+      }
+      readDependencies(node);
+      nodes.add(node);
+    }
+
+    for (Node node : nodes) {
+      for (String dependency : node.dependencies) {
+        final Node target = named.get(dependency);
+        if (target == null) {
+          throw new IllegalArgumentException("Component '" + node.name + "' depends on '" + dependency + "' which is not configured");
+        }
+        target.dependents.add(node);
+        node.pending.incrementAndGet();
+      }
+    }
+
+    checkForCycles();
+  }
+
+
+
+
+  /**
+   * Read the names of the components the node depends upon.
+   */
+  private static void readDependencies(Node node) {
+    final Object value = node.config.getObject(ConfigTag.DEPENDS_ON);
+    if (value instanceof Object[]) {
+      for (Object element : (Object[])value) {
+        if (element != null && StringUtil.isNotBlank(element.toString())) {
+          node.dependencies.add(element.toString().trim());
+        }
+      }
+    } else if (value != null) {
+      for (String token : value.toString().split(",")) {
+        if (StringUtil.isNotBlank(token)) {
+          node.dependencies.add(token.trim());
+        }
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Walk the graph as the start will, level by level, to make sure every
+   * component can be reached and to find the longest chain of dependencies.
+   */
+  private void checkForCycles() {
+    final Map<Node, Integer> remaining = new HashMap<Node, Integer>();
+    List<Node> level = new ArrayList<Node>();
+    for (Node node : nodes) {
+      remaining.put(node, node.dependencies.size());
+      if (node.dependencies.size() == 0) {
+        level.add(node);
+      }
+    }
+
+    int reached = 0;
+    while (level.size() > 0) {
+      depth++;
+      reached += level.size();
+      final List<Config> configs = new ArrayList<Config>();
+      final List<Node> next = new ArrayList<Node>();
+      for (Node node : level) {
+        configs.add(node.config);
+        for (Node dependent : node.dependents) {
+          final int count = remaining.get(dependent) - 1;
+          remaining.put(dependent, count);
+          if (count == 0) {
+            next.add(dependent);
+          }
+        }
+      }
+      levels.add(configs);
+      level = next;
+    }
+
+    if (reached < nodes.size()) {
+      final StringBuffer b = new StringBuffer("Component dependencies form a cycle between:");
+      for (Node node : nodes) {
+        if (remaining.get(node) > 0) {
+          b.append(" ");
+          b.append(node.name);
+        }
+      }
+      throw new IllegalArgumentException(b.toString());
+    }
+  }
+
+
+
+
+  /**
+   * @return the component configurations level by level; each level depends
+   *         only on the levels before it
+   */
+  List<List<Config>> getLevels() {
+    return levels;
+  }
+
+
+
+
+  /**
+   * Start all the components and wait for them to become active.
+   *
+   * @param millis how long each component has to become active
+   *
+   * @return the names of the components which did not start
+   */
+  List<String> start(long millis) {
+    timeout = millis;
+    finished = new CountDownLatch(nodes.size());
+    final long began = System.currentTimeMillis();
+
+    for (Node node : nodes) {
+      if (node.pending.get() == 0) {
+        submit(node);
+      }
+    }
+
+    try {
+      // every component gets its timeout, one level after another
+      if (!finished.await(timeout * depth + timeout, TimeUnit.MILLISECONDS)) {
+        Log.error("Timed out waiting for " + finished.getCount() + " components to start");
+      }
+    } catch (InterruptedException e) {
+      Log.warn("Interrupted waiting for components to start");
+    }
+
+    final long elapsed = System.currentTimeMillis() - began;
+    loader.getStats().setState(STARTUP, elapsed);
+
+    final List<String> retval = new ArrayList<String>();
+    for (Node node : nodes) {
+      if (!node.started) {
+        retval.add(node.name);
+      }
+    }
+    Log.info("Started " + (nodes.size() - retval.size()) + " of " + nodes.size() + " components in " + elapsed + "ms");
+    return retval;
+  }
+
+
+
+
+  /**
+   * Start the component in a thread of its own, outside the thread pool the
+   * component will run on.
+   */
+  private void submit(final Node node) {
+    final Thread thread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        startNode(node);
+      }
+    }, STARTUP + "-" + node.name);
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+
+
+
+  /**
+   * Load and activate the component, wait for it to become active and
+   * release the components depending on it.
+   */
+  private void startNode(Node node) {
+    final long began = System.currentTimeMillis();
+    boolean active = false;
+    try {
+      final Object component = loader.loadComponent(node.config);
+      loader.activate(component, node.config);
+      active = (component != null) && awaitActive(component);
+    } catch (RuntimeException e) {
+      Log.error("Component '" + node.name + "' failed to start: " + e.toString());
+    }
+
+    final long elapsed = System.currentTimeMillis() - began;
+    loader.getStats().setState(STARTUP + "." + node.name, elapsed);
+    if (active) {
+      Log.debug("Component '" + node.name + "' started in " + elapsed + "ms");
+    } else {
+      Log.error("Component '" + node.name + "' did not become active within " + timeout + "ms");
+    }
+    finish(node, active);
+  }
+
+
+
+
+  /**
+   * @return true if the component is active or does not report its activity
+   */
+  private boolean awaitActive(Object component) {
+    if (component instanceof ManagedComponent && !(component instanceof ScheduledJob)) {
+      final ManagedComponent cmpnt = (ManagedComponent)component;
+      cmpnt.waitForActive(timeout);
+      return cmpnt.isActive();
+    }
+    return true;
+  }
+
+
+
+
+  /**
+   * Record the outcome of starting a component and start any dependents
+   * which have nothing left to wait for.
+   */
+  private void finish(Node node, boolean started) {
+    node.started = started;
+    for (Node dependent : node.dependents) {
+      if (!started) {
+        dependent.blocked = true;
+      }
+      if (dependent.pending.decrementAndGet() == 0) {
+        if (dependent.blocked) {
+          Log.error("Component '" + dependent.name + "' not started as a component it depends upon did not start");
+          finish(dependent, false);
+        } else {
+          submit(dependent);
+        }
+      }
+    }
+    finished.countDown();
+  }
+
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.loader;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+
+import coyote.dataframe.DataFrame;
+import coyote.loader.thread.ThreadJob;
+
+
+/**
+ * Records where the time goes as a loader creates and starts its components.
+ *
+ * <p>For each component the profile holds the time taken to load its class,
+ * construct it, configure it and, for components which are ThreadJobs, run
+ * its {@code initialize()} method and become active after being handed to
+ * the scheduler, thread pool or its own thread. All times are reported in
+ * milliseconds. A component replaced by the watchdog is profiled again as a
+ * new entry.</p>
+ *
+ * <p>The profile keeps the name and class of each component, not the
+ * component itself. A ThreadJob is only weakly referenced until it becomes
+ * active and its timings are copied, so a profile of replaced components
+ * does not keep them from being collected.</p>
+ */
+public class StartupProfile {
+
+  public static final String NAME = "Name";
+  public static final String CLASS = "Class";
+  public static final String CLASS_LOAD = "ClassLoad";
+  public static final String CONSTRUCT = "Construct";
+  public static final String CONFIGURE = "Configure";
+  public static final String INITIALIZE = "Initialize";
+  public static final String FIRST_ACTIVE = "FirstActive";
+  public static final String STANDBY = "Standby";
+
+  /** The most entries kept; the oldest are dropped as components are replaced */
+  private static final int MAX_ENTRIES = 1024;
+
+  /** The entries, oldest first; guarded by itself */
+  private final List<Entry> entries = new ArrayList<Entry>();
+
+
+
+
+  /**
+   * The timings of one component.
+   */
+  private static class Entry {
+    WeakReference<ThreadJob> component;
+    String name;
+    String className;
+    long classLoad;
+    long construct;
+    long configure;
+    boolean standby;
+    long activated = 0;
+    long initialize = -1;
+    long firstActive = -1;
+  }
+
+
+
+
+  /**
+   * Record the creation of a component.
+   *
+   * @param component the component created
+   * @param name the name of the component
+   * @param className the name of its class
+   * @param classLoad nanoseconds spent loading the class
+   * @param construct nanoseconds spent constructing the instance
+   * @param configure nanoseconds spent configuring it
+   * @param standby true if a standby instance was used
+   */
+  public void loaded(Object component, String name, String className, long classLoad, long construct, long configure, boolean standby) {
+    final Entry entry = new Entry();
+    if (component instanceof ThreadJob) {
+      entry.component = new WeakReference<ThreadJob>((ThreadJob)component);
+    }
+    entry.name = name;
+    entry.className = className;
+    entry.classLoad = classLoad;
+    entry.construct = construct;
+    entry.configure = configure;
+    entry.standby = standby;
+    synchronized (entries) {
+      if (entries.size() >= MAX_ENTRIES) {
+        entries.remove(0);
+      }
+      entries.add(entry);
+    }
+  }
+
+
+
+
+  /**
+   * Record the moment a component was activated.
+   *
+   * @param component the component being activated
+   */
+  public void activated(Object component) {
+    final long now = System.nanoTime();
+    synchronized (entries) {
+      for (int x = entries.size() - 1; x >= 0; x--) {
+        final Entry entry = entries.get(x);
+        if (entry.component != null && entry.component.get() == component) {
+          entry.activated = now;
+          return;
+        }
+      }
+    }
+  }
+
+
+
+
+  /**
+   * @return the number of components profiled
+   */
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+
+
+
+  /**
+   * @return the profile as an array of frames, one for each component
+   */
+  public DataFrame toFrame() {
+    final DataFrame retval = new DataFrame();
+    for (Entry entry : snapshot()) {
+      final DataFrame frame = new DataFrame();
+      frame.put(NAME, entry.name);
+      frame.put(CLASS, entry.className);
+      frame.put(CLASS_LOAD, millis(entry.classLoad));
+      frame.put(CONSTRUCT, millis(entry.construct));
+      frame.put(CONFIGURE, millis(entry.configure));
+      if (entry.initialize >= 0) {
+        frame.put(INITIALIZE, millis(entry.initialize));
+      }
+      if (entry.firstActive >= 0) {
+        frame.put(FIRST_ACTIVE, millis(entry.firstActive));
+      }
+      frame.put(STANDBY, entry.standby);
+      retval.add(frame);
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @return the profile as a table, one line for each component
+   */
+  @Override
+  public String toString() {
+    final StringBuilder b = new StringBuilder();
+    b.append(String.format("%-24s %10s %10s %10s %10s %12s", NAME, CLASS_LOAD, CONSTRUCT, CONFIGURE, INITIALIZE, FIRST_ACTIVE));
+    for (Entry entry : snapshot()) {
+      b.append(System.getProperty("line.separator"));
+      b.append(String.format("%-24s %10s %10s %10s %10s %12s", entry.standby ? entry.name + " (standby)" : entry.name, format(entry.classLoad), format(entry.construct), format(entry.configure), format(entry.initialize), format(entry.firstActive)));
+    }
+    return b.toString();
+  }
+
+
+
+
+  /**
+   * @return a copy of the entries with the timings of their components
+   */
+  private List<Entry> snapshot() {
+    synchronized (entries) {
+      for (Entry entry : entries) {
+        capture(entry);
+      }
+      return new ArrayList<Entry>(entries);
+    }
+  }
+
+
+
+
+  /**
+   * Copy the timings of an active component into its entry and let go of the
+   * component.
+   */
+  private static void capture(Entry entry) {
+    if (entry.component == null) {
+      return;
+    }
+    final ThreadJob job = entry.component.get();
+    if (job == null) {
+      entry.component = null;
+    } else if (job.getActiveNanos() != 0) {
+      entry.initialize = job.getInitializeNanos();
+      if (entry.activated != 0) {
+        entry.firstActive = Math.max(0, job.getActiveNanos() - entry.activated);
+      }
+      entry.component = null;
+    }
+  }
+
+
+
+
+  private static double millis(long nanos) {
+    return Math.round(nanos / 1000.0) / 1000.0;
+  }
+
+
+
+
+  private static String format(long nanos) {
+    return (nanos < 0) ? "-" : String.format("%.3fms", nanos / 1e6);
+  }
+
+}
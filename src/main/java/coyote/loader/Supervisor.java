@@ -0,0 +1,545 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.loader;
+
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import coyote.commons.StringUtil;
+import coyote.dataframe.DataFrame;
+import coyote.i13n.StatBoard;
+import coyote.loader.cfg.Config;
+import coyote.loader.component.ManagedComponent;
+import coyote.loader.log.Log;
+import coyote.loader.thread.ThreadJob;
+import coyote.loader.thread.TimerWheel;
+
+
+/**
+ * Detects hung components and restarts failed ones for a loader.
+ *
+ * <p>Components which register a hang time get a heartbeat slot. Checking in
+ * is a single volatile write to that slot, so components can check in as
+ * often as they like. Each slot has one timeout on a timer wheel set for its
+ * deadline; when it expires the slot is checked and, if the component
+ * checked in since, the timeout is simply set again for the new deadline.
+ * Hangs are therefore noticed within a tick of the deadline without anything
+ * polling the components.</p>
+ *
+ * <p>Restarts are made on the loader's thread pool, never while the
+ * component map is locked. Repeated restarts of the same component are
+ * delayed with exponential backoff, from immediately up to a maximum delay,
+ * and the backoff is forgotten once the component has stayed up for the
+ * maximum delay. The restart history belongs to the component instance and
+ * is handed to its replacement, so components of the same class or name
+ * never share a backoff. Hangs and restarts are counted in the loader's StatBoard as
+ * {@code Watchdog.hangs}, {@code Watchdog.restarts} and
+ * {@code Watchdog.<name>.restarts} with the current delay in the
+ * {@code Watchdog.<name>.backoff_ms} state.</p>
+ */
+final class Supervisor {
+
+  /** Prefix of the watchdog metrics */
+  static final String WATCHDOG = "Watchdog";
+
+  /** Delay before the second restart of a component in a row */
+  static final long DEFAULT_BACKOFF = 1000;
+
+  /** The longest delay before restarting a component */
+  static final long DEFAULT_MAX_BACKOFF = 60000;
+
+  private final AbstractLoader loader;
+
+  private TimerWheel wheel = null;
+
+  private volatile long backoff = DEFAULT_BACKOFF;
+
+  private volatile long max_backoff = DEFAULT_MAX_BACKOFF;
+
+  /** Heartbeat slot of each component with a hang time */
+  private final Map<Object, Heartbeat> heartbeats = new ConcurrentHashMap<Object, Heartbeat>();
+
+  /** Restart history of each component, passed on to its replacement */
+  private final Map<Object, Restarts> restarts = new ConcurrentHashMap<Object, Restarts>();
+
+  /** Components being replaced */
+  private final Map<Object, Boolean> restarting = new ConcurrentHashMap<Object, Boolean>();
+
+
+
+
+  /**
+   * A component's heartbeat slot.
+   */
+  private static class Heartbeat {
+    final Object component;
+    final Config config;
+    final long hang_nanos;
+    volatile long beat = System.nanoTime();
+
+
+
+
+    Heartbeat(Object component, Config config, long millis) {
+      this.component = component;
+      this.config = config;
+      this.hang_nanos = millis * 1000000;
+    }
+  }
+
+
+
+
+  /**
+   * The restart history of a component.
+   */
+  private static class Restarts {
+    long count = 0;
+    long consecutive = 0;
+    long last = 0;
+  }
+
+
+
+
+  /**
+   * A view of the heartbeat slots as a map of each watched component to a
+   * value of its slot, for subclasses of the loader written against the maps
+   * it once kept. Every change goes through {@link #put(Object, Long)}, which
+   * is unsupported unless a subclass documents otherwise; iterating the view
+   * iterates a copy which cannot be changed.
+   */
+  private abstract class HeartbeatView extends AbstractMap<Object, Long> {
+
+    abstract Long valueOf(Heartbeat heartbeat);
+
+
+
+
+    @Override
+    public Long get(Object key) {
+      final Heartbeat heartbeat = (key != null) ? heartbeats.get(key) : null;
+      return (heartbeat != null) ? valueOf(heartbeat) : null;
+    }
+
+
+
+
+    @Override
+    public boolean containsKey(Object key) {
+      return key != null && heartbeats.containsKey(key);
+    }
+
+
+
+
+    @Override
+    public int size() {
+      return heartbeats.size();
+    }
+
+
+
+
+    @Override
+    public Set<Map.Entry<Object, Long>> entrySet() {
+      final Map<Object, Long> retval = new HashMap<Object, Long>();
+      for (Heartbeat heartbeat : heartbeats.values()) {
+        retval.put(heartbeat.component, valueOf(heartbeat));
+      }
+      return Collections.unmodifiableMap(retval).entrySet();
+    }
+  }
+
+
+
+
+  /**
+   * When each watched component last checked in, in epoch milliseconds.
+   * Putting a component checks it in; removing one has no effect as the
+   * slot stays until the component stops being watched.
+   */
+  private class CheckIns extends HeartbeatView {
+
+    @Override
+    Long valueOf(Heartbeat heartbeat) {
+      return System.currentTimeMillis() - (System.nanoTime() - heartbeat.beat) / 1000000;
+    }
+
+
+
+
+    @Override
+    public Long put(Object key, Long value) {
+      final Long retval = get(key);
+      checkIn(key);
+      return retval;
+    }
+
+
+
+
+    @Override
+    public Long remove(Object key) {
+      return get(key);
+    }
+
+
+
+
+    @Override
+    public void clear() {}
+  }
+
+
+
+
+  /**
+   * How long each watched component may go without checking in, in
+   * milliseconds. Putting a component watches it, removing it stops
+   * watching it.
+   */
+  private class HangTimes extends HeartbeatView {
+
+    @Override
+    Long valueOf(Heartbeat heartbeat) {
+      return heartbeat.hang_nanos / 1000000;
+    }
+
+
+
+
+    @Override
+    public Long put(Object key, Long value) {
+      final Heartbeat previous = heartbeats.get(key);
+      Config config = (previous != null) ? previous.config : null;
+      if (config == null) {
+        synchronized (loader.components) {
+          config = loader.components.get(key);
+        }
+      }
+      watch(key, (value != null) ? value : 0, config);
+      return (previous != null) ? valueOf(previous) : null;
+    }
+
+
+
+
+    @Override
+    public Long remove(Object key) {
+      final Heartbeat previous = (key != null) ? heartbeats.remove(key) : null;
+      return (previous != null) ? valueOf(previous) : null;
+    }
+
+
+
+
+    @Override
+    public void clear() {
+      heartbeats.clear();
+    }
+  }
+
+
+
+
+  Supervisor(AbstractLoader loader) {
+    this.loader = loader;
+  }
+
+
+
+
+  /**
+   * @return a live view of when each watched component last checked in
+   */
+  Map<Object, Long> getCheckIns() {
+    return new CheckIns();
+  }
+
+
+
+
+  /**
+   * @return a live view of the hang time of each watched component
+   */
+  Map<Object, Long> getHangTimes() {
+    return new HangTimes();
+  }
+
+
+
+
+  /**
+   * Set how restarts back off; mostly for testing.
+   *
+   * @param millis delay before the second restart in a row
+   * @param max the longest delay
+   */
+  void setBackoff(long millis, long max) {
+    backoff = millis;
+    max_backoff = max;
+  }
+
+
+
+
+  /**
+   * Give the component a heartbeat slot which must be checked in within the
+   * given time, or remove its slot.
+   *
+   * @param component the component to watch
+   * @param millis how long the component may go without checking in, zero
+   *        or less to stop watching it
+   * @param config the configuration used to replace the component
+   */
+  void watch(Object component, long millis, Config config) {
+    if (component == null) {
+      return;
+    }
+    if (millis <= 0) {
+      heartbeats.remove(component);
+      return;
+    }
+    final Heartbeat heartbeat = new Heartbeat(component, config, millis);
+    heartbeats.put(component, heartbeat);
+    arm(heartbeat, millis);
+  }
+
+
+
+
+  /**
+   * Stop watching the component and forget its restart history, as when it
+   * is removed from the loader.
+   *
+   * @param component the component removed
+   */
+  void forget(Object component) {
+    if (component != null) {
+      heartbeats.remove(component);
+      restarts.remove(component);
+    }
+  }
+
+
+
+
+  /**
+   * Record that the component is alive.
+   *
+   * @param component the component checking in
+   */
+  void checkIn(Object component) {
+    final Heartbeat heartbeat = heartbeats.get(component);
+    if (heartbeat != null) {
+      heartbeat.beat = System.nanoTime();
+    }
+  }
+
+
+
+
+  /**
+   * @return the number of components with heartbeat slots
+   */
+  int size() {
+    return heartbeats.size();
+  }
+
+
+
+
+  /**
+   * Set a timeout for the heartbeat's deadline.
+   */
+  private void arm(final Heartbeat heartbeat, long millis) {
+    getWheel().schedule(new Runnable() {
+      @Override
+      public void run() {
+        expired(heartbeat);
+      }
+    }, millis);
+  }
+
+
+
+
+  /**
+   * Called by the wheel when a heartbeat's deadline may have passed.
+   */
+  private void expired(Heartbeat heartbeat) {
+    if (heartbeats.get(heartbeat.component) != heartbeat) {
+      return; // replaced or no longer watched
+    }
+    final long remaining = heartbeat.beat + heartbeat.hang_nanos - System.nanoTime();
+    if (remaining > 0) {
+      arm(heartbeat, (remaining + 999999) / 1000000);
+      return;
+    }
+
+    heartbeats.remove(heartbeat.component);
+    loader.getStats().increment(WATCHDOG + ".hangs");
+    Log.warn("Component " + heartbeat.component + " has not checked in for " + (heartbeat.hang_nanos / 1000000) + "ms; restarting");
+    restart(heartbeat.component, heartbeat.config, "Terminating due to hang");
+  }
+
+
+
+
+  /**
+   * Replace the component with a new instance, after the backoff delay.
+   *
+   * @param component the component to replace
+   * @param config the configuration of the replacement
+   * @param reason why the component is being replaced
+   */
+  void restart(final Object component, final Config config, final String reason) {
+    if (restarting.putIfAbsent(component, Boolean.TRUE) != null) {
+      return; // already in hand
+    }
+    heartbeats.remove(component);
+
+    final String name = getName(component, config);
+    final long delay;
+    final long count;
+    Restarts history = restarts.get(component);
+    if (history == null) {
+      final Restarts created = new Restarts();
+      history = restarts.putIfAbsent(component, created);
+      if (history == null) {
+        history = created;
+      }
+    }
+    synchronized (history) {
+      final long now = System.currentTimeMillis();
+      if (history.last > 0 && now - history.last > max_backoff) {
+        history.consecutive = 0;
+      }
+      delay = (history.consecutive == 0) ? 0 : Math.min(max_backoff, backoff << Math.min(history.consecutive - 1, 30));
+      history.consecutive++;
+      history.count++;
+      history.last = now + delay;
+      count = history.count;
+    }
+
+    final StatBoard stats = loader.getStats();
+    stats.increment(WATCHDOG + ".restarts");
+    stats.increment(WATCHDOG + "." + name + ".restarts");
+    stats.setState(WATCHDOG + "." + name + ".backoff_ms", delay);
+    Log.info("Restarting " + name + " (restart " + count + ") in " + delay + "ms: " + reason);
+
+    final Runnable replace = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          replace(component, config, reason);
+        } finally {
+          restarting.remove(component);
+        }
+      }
+    };
+    if (delay > 0) {
+      getWheel().schedule(new Runnable() {
+        @Override
+        public void run() {
+          loader.getThreadPool().run(replace);
+        }
+      }, delay);
+    } else {
+      loader.getThreadPool().run(replace);
+    }
+  }
+
+
+
+
+  /**
+   * Load the replacement, shut the component down and activate the
+   * replacement in its place.
+   */
+  private void replace(Object component, Config config, String reason) {
+    final Object replacement = (config != null) ? loader.loadComponent(config, true) : null;
+
+    final DataFrame frame = new DataFrame();
+    frame.put("Message", reason);
+    if (component instanceof ManagedComponent) {
+      loader.safeShutdown((ManagedComponent)component, frame);
+    }
+    if (component instanceof ThreadJob) {
+      ((ThreadJob)component).shutdown();
+    }
+
+    // the replacement carries on the backoff of the component it replaces
+    final Restarts history = restarts.remove(component);
+    if (replacement != null && history != null) {
+      restarts.put(replacement, history);
+    }
+
+    // activate before removing so the loader never sees itself empty
+    if (replacement != null) {
+      loader.activate(replacement, config);
+    } else {
+      Log.error("Could not replace " + component + ((config == null) ? ": no configuration to load it from" : ": the replacement could not be loaded"));
+    }
+    synchronized (loader.components) {
+      loader.components.remove(component);
+    }
+  }
+
+
+
+
+  /**
+   * @return the name the component is known by in the metrics
+   */
+  static String getName(Object component, Config config) {
+    String retval = null;
+    if (config != null) {
+      retval = config.getString(ConfigTag.NAME);
+      if (StringUtil.isBlank(retval)) {
+        retval = config.getString(ConfigTag.CLASS);
+      }
+    }
+    return StringUtil.isBlank(retval) ? component.getClass().getName() : retval;
+  }
+
+
+
+
+  /**
+   * @return the timer wheel, started on first use
+   */
+  private synchronized TimerWheel getWheel() {
+    if (wheel == null) {
+      wheel = new TimerWheel();
+      wheel.daemonize(WATCHDOG);
+    }
+    return wheel;
+  }
+
+
+
+
+  /**
+   * Stop watching and restarting components.
+   */
+  synchronized void stop() {
+    heartbeats.clear();
+    restarts.clear();
+    if (wheel != null) {
+      wheel.shutdown();
+      wheel = null;
+    }
+  }
+
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.loader.cfg;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import coyote.commons.StringUtil;
+import coyote.dataframe.DataField;
+import coyote.dataframe.DataFrame;
+
+
+/**
+ * An immutable, indexed view of a configuration for components which read
+ * their configuration repeatedly, as in a {@code doWork()} loop.
+ *
+ * <p>A {@link Config} finds a value by scanning its fields and builds a new
+ * Config for every section it returns. A compiled configuration indexes its
+ * attributes by name once, compiles its sections once and parses each typed
+ * value the first time it is asked for, so every later lookup is a hash
+ * lookup. The lookups follow the same rules as those of Config: names are
+ * matched without regard to case, the first field with a name wins and the
+ * same exceptions are thrown for missing or unparsable values.</p>
+ *
+ * <p>The view is a snapshot; later changes to the configuration it was
+ * compiled from are not seen. Create one with {@link Config#compile()}. It is
+ * safe to share between threads.</p>
+ */
+public final class CompiledConfig {
+
+  /** The configuration compiled from nothing */
+  private static final CompiledConfig EMPTY = new CompiledConfig(new Config());
+
+  /** The fields in their original order */
+  private final Entry[] entries;
+
+  /** The first entry of each name, by exact name, where no earlier name differs only in case */
+  private final Map<String, Entry> index = new HashMap<String, Entry>();
+
+  /** The first entry of each name, by lower case name */
+  private final Map<String, Entry> folded = new HashMap<String, Entry>();
+
+  /** The first entry of each name, by exact name */
+  private final Map<String, Entry> exact = new HashMap<String, Entry>();
+
+  /** All the sections, in order */
+  private final List<CompiledConfig> sections;
+
+  /** The sections of each name, by lower case name */
+  private final Map<String, List<CompiledConfig>> named = new HashMap<String, List<CompiledConfig>>();
+
+  /** A copy of the configuration this was compiled from */
+  private final Config source;
+
+
+
+
+  /**
+   * One field and its typed values, parsed when first needed.
+   */
+  private static final class Entry {
+    final Object value;
+    final String string;
+    volatile Integer intValue = null;
+    volatile Long longValue = null;
+    volatile Double doubleValue = null;
+    volatile Boolean booleanValue = null;
+
+
+
+
+    Entry(Object value, String string) {
+      this.value = value;
+      this.string = string;
+    }
+  }
+
+
+
+
+  /**
+   * Compile the given configuration.
+   *
+   * @param config the configuration to compile; it is copied
+   */
+  CompiledConfig(final Config config) {
+    source = config.copy();
+
+    final List<DataField> fields = source.getFields();
+    entries = new Entry[fields.size()];
+    final List<CompiledConfig> all = new ArrayList<CompiledConfig>();
+    for (int i = 0; i < entries.length; i++) {
+      final DataField field = fields.get(i);
+      final String name = field.getName();
+
+      CompiledConfig section = null;
+      if (field.isFrame()) {
+        section = field.isNotNull() ? new CompiledConfig(new Config((DataFrame)field.getObjectValue())) : EMPTY;
+        all.add(section);
+      }
+      // only the first field of a name can be looked up by it
+      Object value = field.getObjectValue();
+      if (name != null && !exact.containsKey(name)) {
+        value = source.getObject(name);
+      }
+      if (section != null && !(value != null && value.getClass().isArray())) {
+        value = section;
+      }
+      entries[i] = new Entry(value, field.getStringValue());
+
+      if (name != null) {
+        final String key = fold(name);
+        if (!folded.containsKey(key)) {
+          folded.put(key, entries[i]);
+          index.put(name, entries[i]);
+        }
+        if (!exact.containsKey(name)) {
+          exact.put(name, entries[i]);
+        }
+        if (section != null && field.isNotNull()) {
+          List<CompiledConfig> list = named.get(key);
+          if (list == null) {
+            list = new ArrayList<CompiledConfig>();
+            named.put(key, list);
+          }
+          list.add(section);
+        }
+      }
+    }
+    sections = Collections.unmodifiableList(all);
+    for (Map.Entry<String, List<CompiledConfig>> entry : named.entrySet()) {
+      entry.setValue(Collections.unmodifiableList(entry.getValue()));
+    }
+  }
+
+
+
+
+  private static String fold(final String name) {
+    return name.toLowerCase(Locale.ENGLISH);
+  }
+
+
+
+
+  /**
+   * Find the first field with the given name, ignoring case.
+   */
+  private Entry find(final String tag) {
+    final Entry retval = index.get(tag);
+    return (retval != null) ? retval : folded.get(fold(tag));
+  }
+
+
+
+
+  /**
+   * Find the first field with the given name, ignoring case, which must be
+   * present to be converted.
+   */
+  private Entry require(final String tag) throws NumberFormatException {
+    final Entry retval = StringUtil.isNotBlank(tag) ? find(tag) : null;
+    if (retval == null || retval.string == null) {
+      throw new NumberFormatException("Tag not found, cannot convert null");
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @param tag the name of the attribute
+   *
+   * @return true if a field has exactly the given name
+   */
+  public boolean contains(final String tag) {
+    return tag != null && exact.containsKey(tag);
+  }
+
+
+
+
+  /**
+   * @param tag the name of the attribute
+   *
+   * @return true if a field has the given name, ignoring case
+   */
+  public boolean containsIgnoreCase(final String tag) {
+    return StringUtil.isNotBlank(tag) && find(tag) != null;
+  }
+
+
+
+
+  /**
+   * @return the number of fields in this configuration
+   */
+  public int getElementCount() {
+    return entries.length;
+  }
+
+
+
+
+  /**
+   * @see Config#getString(String)
+   */
+  public String getString(final String tag) {
+    if (StringUtil.isNotBlank(tag)) {
+      final Entry entry = find(tag);
+      if (entry != null) {
+        return entry.string;
+      }
+    }
+    return null;
+  }
+
+
+
+
+  /**
+   * @see Config#getString(String, boolean)
+   */
+  public String getString(final String tag, final boolean ignoreCase) {
+    if (ignoreCase) {
+      return getString(tag);
+    }
+    if (StringUtil.isNotBlank(tag)) {
+      final Entry entry = exact.get(tag);
+      if (entry != null) {
+        return entry.string;
+      }
+    }
+    return null;
+  }
+
+
+
+
+  /**
+   * @see Config#getInt(String)
+   */
+  public int getInt(final String tag) throws NumberFormatException {
+    final Entry entry = require(tag);
+    Integer retval = entry.intValue;
+    if (retval == null) {
+      retval = Integer.valueOf(entry.string);
+      entry.intValue = retval;
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @see Config#getLong(String)
+   */
+  public long getLong(final String tag) throws NumberFormatException {
+    final Entry entry = require(tag);
+    Long retval = entry.longValue;
+    if (retval == null) {
+      retval = Long.valueOf(entry.string);
+      entry.longValue = retval;
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @see Config#getDouble(String)
+   */
+  public double getDouble(final String tag) throws NumberFormatException {
+    final Entry entry = require(tag);
+    Double retval = entry.doubleValue;
+    if (retval == null) {
+      retval = Double.valueOf(entry.string);
+      entry.doubleValue = retval;
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @see Config#getFloat(String)
+   */
+  public float getFloat(final String tag) throws NumberFormatException {
+    return Float.parseFloat(require(tag).string);
+  }
+
+
+
+
+  /**
+   * @see Config#getShort(String)
+   */
+  public short getShort(final String tag) throws NumberFormatException {
+    return Short.parseShort(require(tag).string);
+  }
+
+
+
+
+  /**
+   * @see Config#getBoolean(String)
+   */
+  public boolean getBoolean(final String tag) throws NumberFormatException {
+    if (StringUtil.isEmpty(tag)) {
+      throw new IllegalArgumentException("Tag argument is null or empty");
+    }
+    final Entry entry = find(tag);
+    if (entry == null) {
+      throw new NumberFormatException("Tag not found, cannot convert null to boolean");
+    }
+    Boolean retval = entry.booleanValue;
+    if (retval == null) {
+      retval = Config.toBoolean(entry.value);
+      entry.booleanValue = retval;
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * Return the value of the first field with exactly the given name.
+   *
+   * <p>Arrays are returned as arrays of their element type, as from
+   * {@link Config#getObject(String)}, and sections as compiled
+   * configurations.</p>
+   *
+   * @param name the name of the field
+   *
+   * @return the value or null if there is no field with the given name
+   */
+  public Object getObject(final String name) {
+    final Entry entry = exact.get(name);
+    if (entry == null) {
+      return null;
+    }
+    if (entry.value != null && entry.value.getClass().isArray()) {
+      // a copy, so the view cannot be changed through it
+      final int length = Array.getLength(entry.value);
+      final Object retval = Array.newInstance(entry.value.getClass().getComponentType(), length);
+      System.arraycopy(entry.value, 0, retval, 0, length);
+      return retval;
+    }
+    return entry.value;
+  }
+
+
+
+
+  /**
+   * @see Config#getSection(String)
+   */
+  public CompiledConfig getSection(final String tag) {
+    if (StringUtil.isNotBlank(tag)) {
+      final List<CompiledConfig> list = named.get(fold(tag));
+      if (list != null) {
+        return list.get(0);
+      }
+    }
+    return null;
+  }
+
+
+
+
+  /**
+   * @see Config#getSections()
+   *
+   * @return the sections, which may not be modified
+   */
+  public List<CompiledConfig> getSections() {
+    return sections;
+  }
+
+
+
+
+  /**
+   * @see Config#getSections(String)
+   *
+   * @return the sections, which may not be modified
+   */
+  public List<CompiledConfig> getSections(final String tag) {
+    if (StringUtil.isNotBlank(tag)) {
+      final List<CompiledConfig> list = named.get(fold(tag));
+      if (list != null) {
+        return list;
+      }
+    }
+    return Collections.emptyList();
+  }
+
+
+
+
+  /**
+   * @return the value of the class tag, if present
+   */
+  public String getClassName() {
+    return getString(Config.CLASS_TAG);
+  }
+
+
+
+
+  /**
+   * @return the name of this config
+   */
+  public String getName() {
+    return getString(Config.NAME_TAG);
+  }
+
+
+
+
+  /**
+   * @return the id of this config
+   */
+  public String getId() {
+    return getString(Config.ID_TAG);
+  }
+
+
+
+
+  /**
+   * @return a new, modifiable copy of the configuration this was compiled
+   *         from
+   */
+  public Config toConfig() {
+    return source.copy();
+  }
+
+
+
+
+  /**
+   * @see java.lang.Object#toString()
+   */
+  @Override
+  public String toString() {
+    return source.toString();
+  }
+
+}
@@ -273,11 +273,7 @@ public class Config extends DataFrame implements Cloneable, Serializable {
     if (StringUtil.isNotEmpty(tag)) {
       for (final DataField field : getFields()) {
         if (tag.equalsIgnoreCase(field.getName())) {
-          try {
-            return asBoolean(field.getObjectValue());
-          } catch (final DataFrameException e) {
-            throw new NumberFormatException(e.getMessage());
-          }
+          return toBoolean(field.getObjectValue());
         }
       }
       throw new NumberFormatException("Tag not found, cannot convert null to boolean");
@@ -288,6 +284,44 @@ public class Config extends DataFrame implements Cloneable, Serializable {
 
 
 
+  /**
+   * Convert a value to a boolean the way configuration values are.
+   *
+   * @param value the value to convert
+   *
+   * @return the value as a boolean
+   *
+   * @throws NumberFormatException if the value could not be converted
+   */
+  static boolean toBoolean(final Object value) throws NumberFormatException {
+    try {
+      return asBoolean(value);
+    } catch (final DataFrameException e) {
+      throw new NumberFormatException(e.getMessage());
+    }
+  }
+
+
+
+
+  /**
+   * Create an immutable, indexed view of this configuration for code which
+   * reads it repeatedly.
+   *
+   * <p>Lookups in the view cost a hash lookup instead of a scan of the
+   * fields, sections are not rebuilt on each request and numeric and boolean
+   * values are parsed only once. The view does not see later changes to this
+   * configuration; compile it again after changing it.</p>
+   *
+   * @return a compiled snapshot of this configuration
+   */
+  public CompiledConfig compile() {
+    return new CompiledConfig(this);
+  }
+
+
+
+
   /**
    * @return the value of the class tag, if present
    */
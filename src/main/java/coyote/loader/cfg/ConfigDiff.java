@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.loader.cfg;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import coyote.dataframe.DataField;
+import coyote.dataframe.DataFrame;
+
+
+/**
+ * Finds the differences between two configuration trees.
+ *
+ * <p>Fields are matched by name, sections are compared field by field and
+ * the result is the path of every attribute added, removed or changed, such
+ * as {@code Component.Listener.Port}. A name used more than once in a section
+ * is told apart by its occurrence, as in {@code Logging.File[1]}, and unnamed
+ * fields, such as array elements, by their position, as in
+ * {@code Hosts.[2]}.</p>
+ */
+public final class ConfigDiff {
+
+  /** Separates the names in a path */
+  public static final String SEPARATOR = ".";
+
+
+
+
+  private ConfigDiff() {}
+
+
+
+
+  /**
+   * Compare two configurations.
+   *
+   * @param older the configuration before, may be null
+   * @param newer the configuration after, may be null
+   *
+   * @return the paths of the attributes which differ, in the order they
+   *         appear; empty if the configurations are the same
+   */
+  public static List<String> compare(final DataFrame older, final DataFrame newer) {
+    final List<String> retval = new ArrayList<String>();
+    compare(null, older, newer, retval);
+    return retval;
+  }
+
+
+
+
+  /**
+   * @return true if the two configurations hold the same attributes
+   */
+  public static boolean isSame(final DataFrame older, final DataFrame newer) {
+    return compare(older, newer).size() == 0;
+  }
+
+
+
+
+  private static void compare(final String path, final DataFrame older, final DataFrame newer, final List<String> changes) {
+    final Map<String, DataField> before = label(older);
+    final Map<String, DataField> after = label(newer);
+
+    for (final Map.Entry<String, DataField> entry : before.entrySet()) {
+      if (!after.containsKey(entry.getKey())) {
+        changes.add(join(path, entry.getKey()));
+      }
+    }
+
+    for (final Map.Entry<String, DataField> entry : after.entrySet()) {
+      final String name = join(path, entry.getKey());
+      final DataField field = entry.getValue();
+      final DataField previous = before.get(entry.getKey());
+      if (previous == null) {
+        changes.add(name);
+      } else if (previous.isFrame() && field.isFrame()) {
+        compare(name, (DataFrame)previous.getObjectValue(), (DataFrame)field.getObjectValue(), changes);
+      } else if (previous.getType() != field.getType() || !Objects.deepEquals(previous.getObjectValue(), field.getObjectValue())) {
+        changes.add(name);
+      }
+    }
+  }
+
+
+
+
+  /**
+   * @return the fields of the frame keyed by the label used in their paths
+   */
+  private static Map<String, DataField> label(final DataFrame frame) {
+    final Map<String, DataField> retval = new LinkedHashMap<String, DataField>();
+    if (frame != null) {
+      final Map<String, Integer> occurrences = new HashMap<String, Integer>();
+      final List<DataField> fields = frame.getFields();
+      for (int i = 0; i < fields.size(); i++) {
+        final DataField field = fields.get(i);
+        final String name = field.getName();
+        if (name == null) {
+          retval.put("[" + i + "]", field);
+        } else {
+          final Integer count = occurrences.get(name);
+          occurrences.put(name, (count == null) ? 1 : count + 1);
+          retval.put((count == null) ? name : name + "[" + count + "]", field);
+        }
+      }
+    }
+    return retval;
+  }
+
+
+
+
+  private static String join(final String path, final String name) {
+    return (path == null) ? name : path + SEPARATOR + name;
+  }
+
+}
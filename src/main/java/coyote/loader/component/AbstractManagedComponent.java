@@ -37,6 +37,7 @@ public abstract class AbstractManagedComponent extends ThreadJob implements Mana
   protected String componentName = AbstractManagedComponent.CLASS;
   protected Loader loader = null;
   protected Context context = null;
+  private final WorkTracker work = new WorkTracker();
 
 
 
@@ -274,10 +275,66 @@ public abstract class AbstractManagedComponent extends ThreadJob implements Mana
 
 
   /**
+   * Stop accepting new work.
+   * 
+   * <p>Subclasses which override this should call this method so 
+   * {@link #beginWork()} refuses new work.</p>
+   * 
    * @see coyote.loader.component.ManagedComponent#quiesce()
    */
   @Override
-  public void quiesce() {}
+  public void quiesce() {
+    work.quiesce();
+  }
+
+
+
+
+  /**
+   * @see coyote.loader.component.ManagedComponent#isQuiesced()
+   */
+  @Override
+  public boolean isQuiesced() {
+    return work.isQuiesced();
+  }
+
+
+
+
+  /**
+   * @see coyote.loader.component.ManagedComponent#getInFlight()
+   */
+  @Override
+  public int getInFlight() {
+    return work.getInFlight();
+  }
+
+
+
+
+  /**
+   * Mark the start of a unit of work, such as a request or a message, which 
+   * must be allowed to finish before the component is shut down.
+   * 
+   * <p>Every call which returns true must be matched by a call to 
+   * {@link #endWork()}, normally in a finally block.</p>
+   * 
+   * @return true if the work may proceed, false if the component has been 
+   *         quiesced and the work should be refused
+   */
+  protected boolean beginWork() {
+    return work.begin();
+  }
+
+
+
+
+  /**
+   * Mark the end of a unit of work started with {@link #beginWork()}.
+   */
+  protected void endWork() {
+    work.end();
+  }
 
 
 
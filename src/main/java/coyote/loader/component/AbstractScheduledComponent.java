@@ -46,6 +46,7 @@ public class AbstractScheduledComponent extends ScheduledJob implements ManagedC
   protected Loader loader = null;
   protected CronEntry cronentry = null;
   protected Context context = null;
+  private final WorkTracker work = new WorkTracker();
 
 
 
@@ -345,10 +346,90 @@ public class AbstractScheduledComponent extends ScheduledJob implements ManagedC
 
 
   /**
+   * Stop accepting new work.
+   * 
+   * <p>Subclasses which override this should call this method so 
+   * {@link #beginWork()} refuses new work.</p>
+   * 
    * @see coyote.loader.component.ManagedComponent#quiesce()
    */
   @Override
-  public void quiesce() {}
+  public void quiesce() {
+    work.quiesce();
+  }
+
+
+
+
+  /**
+   * @see coyote.loader.component.ManagedComponent#isQuiesced()
+   */
+  @Override
+  public boolean isQuiesced() {
+    return work.isQuiesced();
+  }
+
+
+
+
+  /**
+   * @see coyote.loader.component.ManagedComponent#getInFlight()
+   */
+  @Override
+  public int getInFlight() {
+    return work.getInFlight();
+  }
+
+
+
+
+  /**
+   * Mark the start of a unit of work, such as a request or a message, which 
+   * must be allowed to finish before the component is shut down.
+   * 
+   * <p>Each scheduled run is already one unit of work; this is for work 
+   * handed to the component by other threads.</p>
+   * 
+   * <p>Every call which returns true must be matched by a call to 
+   * {@link #endWork()}, normally in a finally block.</p>
+   * 
+   * @return true if the work may proceed, false if the component has been 
+   *         quiesced and the work should be refused
+   */
+  protected boolean beginWork() {
+    return work.begin();
+  }
+
+
+
+
+  /**
+   * Mark the end of a unit of work started with {@link #beginWork()}.
+   */
+  protected void endWork() {
+    work.end();
+  }
+
+
+
+
+  /**
+   * Run the component as one unit of work, so the loader waits for the run 
+   * to finish before shutting the component down. Once the component has 
+   * been quiesced, scheduled runs are skipped.
+   * 
+   * @see coyote.loader.thread.ThreadJob#run()
+   */
+  @Override
+  public void run() {
+    if (beginWork()) {
+      try {
+        super.run();
+      } finally {
+        endWork();
+      }
+    }
+  }
 
 
 
@@ -88,12 +88,59 @@ public interface ManagedComponent extends Component {
    * Inform the component to enter a quiescent state, possibly saving 
    * operational state information as the component will be restarted 
    * presently.
+   * 
+   * <p>A quiesced component accepts no new work but finishes what it has in 
+   * flight. The loader waits for {@link #getInFlight()} to reach zero before 
+   * shutting the component down.</p>
    */
   public void quiesce();
 
 
 
 
+  /**
+   * Apply a changed configuration to the running component.
+   * 
+   * <p>This is called when the configuration of the loader is reloaded and 
+   * the section for this component has changed. A component which can apply 
+   * the changes without stopping should do so and return true; one which 
+   * returns false is replaced with a new instance created from the new 
+   * configuration.</p>
+   * 
+   * @param config the new configuration of the component
+   * 
+   * @return true if the configuration was applied, false if the component 
+   *         must be restarted to apply it
+   */
+  public default boolean reconfigure(Config config) {
+    return false;
+  }
+
+
+
+
+  /**
+   * @return true if the component has been quiesced and is accepting no new 
+   *         work; false unless the component tracks its work
+   */
+  public default boolean isQuiesced() {
+    return false;
+  }
+
+
+
+
+  /**
+   * @return the number of units of work the component has started but not 
+   *         yet finished; zero unless the component tracks its work
+   */
+  public default int getInFlight() {
+    return 0;
+  }
+
+
+
+
   /**
    * Sets the enabled status of the component.
    * 
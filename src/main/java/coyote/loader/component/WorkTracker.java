@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ * 
+ * This program and the accompanying materials are made available under the 
+ * terms of the MIT License which accompanies this distribution, and is 
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.loader.component;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Counts the units of work a component has in flight and refuses new work 
+ * once the component has been quiesced.
+ * 
+ * <p>This holds the state behind {@link ManagedComponent#quiesce()}, 
+ * {@link ManagedComponent#isQuiesced()} and 
+ * {@link ManagedComponent#getInFlight()} so components need only delegate 
+ * to it.</p>
+ */
+public final class WorkTracker {
+
+  private volatile boolean quiesced = false;
+
+  private final AtomicInteger inFlight = new AtomicInteger();
+
+
+
+
+  /**
+   * Mark the start of a unit of work.
+   * 
+   * <p>Every call which returns true must be matched by a call to 
+   * {@link #end()}, normally in a finally block.</p>
+   * 
+   * @return true if the work may proceed, false if the component has been 
+   *         quiesced and the work should be refused
+   */
+  public boolean begin() {
+    inFlight.incrementAndGet();
+    if (quiesced) {
+      inFlight.decrementAndGet();
+      return false;
+    }
+    return true;
+  }
+
+
+
+
+  /**
+   * Mark the end of a unit of work started with {@link #begin()}.
+   */
+  public void end() {
+    inFlight.decrementAndGet();
+  }
+
+
+
+
+  /**
+   * Refuse all new work.
+   */
+  public void quiesce() {
+    quiesced = true;
+  }
+
+
+
+
+  /**
+   * @return true if new work is refused
+   */
+  public boolean isQuiesced() {
+    return quiesced;
+  }
+
+
+
+
+  /**
+   * @return the number of units of work started but not yet ended
+   */
+  public int getInFlight() {
+    return inFlight.get();
+  }
+
+}
@@ -12,8 +12,10 @@ package coyote.loader.thread;
  *
  * <p>Implemented as circular buffer in an array of objects. Synchronized on 
  * the array to avoid double synchronization.</p>
+ *
+ * @see RingQueue
  */
-public class BlockingQueue {
+public class BlockingQueue implements JobQueue {
 
   /** The array we used to store the object references */
   private Object[] slots;
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.loader.thread;
+
+/**
+ * A bounded queue of objects which blocks producers when it is full and
+ * consumers when it is empty.
+ *
+ * <p>This is the contract the ThreadPool uses to feed its workers, so the
+ * queue implementation can be changed without the pool or its jobs
+ * noticing.</p>
+ */
+public interface JobQueue {
+
+  /**
+   * @return the number of objects currently in the queue
+   */
+  public int size();
+
+
+
+
+  /**
+   * @return the number of objects which can be added before the queue is full
+   */
+  public int space();
+
+
+
+
+  /**
+   * @return the maximum number of objects the queue can hold
+   */
+  public int capacity();
+
+
+
+
+  /**
+   * Remove all the objects from the queue.
+   */
+  public void clear();
+
+
+
+
+  /**
+   * Put an object in the queue, waiting as long as necessary for space.
+   *
+   * @param o the object to place in the queue
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void put(Object o) throws InterruptedException;
+
+
+
+
+  /**
+   * Put an object in the queue, waiting for space if necessary.
+   *
+   * @param o the object to place in the queue
+   * @param timeout the number of milliseconds to wait for space, 0 to wait
+   *        as long as necessary
+   *
+   * @throws InterruptedException if interrupted or the time-out expired
+   *         before there was space
+   */
+  public void put(Object o, int timeout) throws InterruptedException;
+
+
+
+
+  /**
+   * Get the next object from the queue, waiting as long as necessary for one.
+   *
+   * @return the next object in the queue
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public Object get() throws InterruptedException;
+
+
+
+
+  /**
+   * Get the next object from the queue, waiting for one if necessary.
+   *
+   * @param millis the number of milliseconds to wait, 0 to wait as long as
+   *        necessary
+   *
+   * @return the next object in the queue or null if the time-out expired
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public Object get(long millis) throws InterruptedException;
+
+}
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.loader.thread;
+
+/**
+ * Notified of jobs a ThreadPool could not queue.
+ *
+ * <p>The pool calls this in the thread which handed it the job when its
+ * rejection policy is REJECT_POLICY and the queue is full, or with the job
+ * which was discarded to make room when the policy is DROP_OLDEST_POLICY. The
+ * handler may retry the job later, run it elsewhere or record the loss.</p>
+ */
+public interface RejectionHandler {
+
+  /**
+   * Called for each job the pool did not run.
+   *
+   * @param job the job which was rejected or discarded
+   * @param pool the pool which rejected it
+   */
+  public void rejected(ThreadJob job, ThreadPool pool);
+
+}
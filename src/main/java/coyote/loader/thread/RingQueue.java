@@ -0,0 +1,583 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.loader.thread;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * A bounded, lock-free queue for any number of producers and consumers.
+ *
+ * <p>Objects are held in a ring of slots, each carrying a sequence number
+ * which tells producers and consumers whether it is free or full for the lap
+ * they are on. Producers claim the next slot with a single compare-and-set
+ * on the tail and consumers do the same on the head, so the two sides never
+ * contend with each other and a put or get which does not have to wait never
+ * takes a lock.</p>
+ *
+ * <p>When a thread does have to wait it first spins, then yields, and only
+ * then parks on a condition. The lock behind the conditions is taken only by
+ * parked threads and by those waking them, and waking is skipped entirely
+ * while nobody is parked.</p>
+ *
+ * <p>The batch methods claim a run of slots with one compare-and-set, which
+ * keeps the per-object cost of moving many objects well below that of
+ * individual puts and gets.</p>
+ *
+ * <p>The capacity is rounded up to the next power of two.</p>
+ */
+public class RingQueue implements JobQueue {
+
+  /** The default number of times a waiting thread spins before yielding */
+  public static final int DEFAULT_SPINS = 100;
+
+  /** The number of times a waiting thread yields before parking */
+  private static final int YIELDS = 10;
+
+  private final AtomicReferenceArray<Object> slots;
+
+  /** The position each slot is ready for; its own index to put, index+1 to get */
+  private final AtomicLongArray sequences;
+
+  private final int mask;
+
+  /** The position of the next put */
+  private final Position tail = new Position();
+
+  /** The position of the next get */
+  private final Position head = new Position();
+
+  /** The number of times to spin before yielding */
+  private volatile int spins = DEFAULT_SPINS;
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final Condition notFull = lock.newCondition();
+  private final AtomicInteger waitingConsumers = new AtomicInteger();
+  private final AtomicInteger waitingProducers = new AtomicInteger();
+
+
+
+
+  /**
+   * Constructor.
+   *
+   * @param size the minimum capacity of the queue, 0 for the default of 256
+   */
+  public RingQueue(final int size) {
+    int capacity = 1;
+    final int wanted = (size > 0) ? size : 256;
+    while (capacity < wanted) {
+      capacity <<= 1;
+    }
+
+    slots = new AtomicReferenceArray<Object>(capacity);
+    sequences = new AtomicLongArray(capacity);
+    for (int i = 0; i < capacity; i++) {
+      sequences.set(i, i);
+    }
+    mask = capacity - 1;
+  }
+
+
+
+
+  /**
+   * @see coyote.loader.thread.JobQueue#size()
+   */
+  @Override
+  public int size() {
+    // read the head first so a concurrent get can only make us over-count
+    final long h = head.get();
+    final long size = tail.get() - h;
+    return (int)Math.max(0, Math.min(size, capacity()));
+  }
+
+
+
+
+  /**
+   * @see coyote.loader.thread.JobQueue#space()
+   */
+  @Override
+  public int space() {
+    return capacity() - size();
+  }
+
+
+
+
+  /**
+   * @return the current load of the queue as a fraction of its capacity
+   */
+  public float load() {
+    return (float)size() / (float)capacity();
+  }
+
+
+
+
+  /**
+   * @return true if there is nothing to get
+   */
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+
+
+
+  /**
+   * @see coyote.loader.thread.JobQueue#capacity()
+   */
+  @Override
+  public int capacity() {
+    return mask + 1;
+  }
+
+
+
+
+  /**
+   * @return the number of times a waiting thread spins before yielding
+   */
+  public int getSpins() {
+    return spins;
+  }
+
+
+
+
+  /**
+   * Set how long a waiting thread spins before it yields and then parks.
+   *
+   * <p>Spinning gives the lowest latency when the other side keeps up, but
+   * burns a processor while it lasts. Use 0 when there are more threads than
+   * processors.</p>
+   *
+   * @param count the number of times to retry before yielding
+   */
+  public void setSpins(final int count) {
+    spins = Math.max(0, count);
+  }
+
+
+
+
+  /**
+   * @see coyote.loader.thread.JobQueue#clear()
+   */
+  @Override
+  public void clear() {
+    while (poll() != null) {}
+  }
+
+
+
+
+  /**
+   * Place an object in the queue if there is space, without waiting.
+   *
+   * @param o the object to place in the queue
+   *
+   * @return true if the object was placed, false if the queue was full
+   */
+  public boolean offer(final Object o) {
+    if (o == null) {
+      throw new NullPointerException();
+    }
+
+    long pos = tail.get();
+    for (;;) {
+      final int index = (int)pos & mask;
+      final long seq = sequences.get(index);
+      if (seq == pos) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          slots.lazySet(index, o);
+          sequences.set(index, pos + 1); // publish to consumers
+          signalConsumers(false);
+          return true;
+        }
+        pos = tail.get();
+      } else if (seq < pos) {
+        return false; // a lap behind; still holds an object not yet taken
+      } else {
+        pos = tail.get(); // another producer beat us to it
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Take the next object from the queue if there is one, without waiting.
+   *
+   * @return the next object or null if the queue was empty
+   */
+  public Object poll() {
+    long pos = head.get();
+    for (;;) {
+      final int index = (int)pos & mask;
+      final long seq = sequences.get(index);
+      if (seq == pos + 1) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          final Object retval = slots.get(index);
+          slots.lazySet(index, null);
+          sequences.set(index, pos + mask + 1); // free for the next lap
+          signalProducers(false);
+          return retval;
+        }
+        pos = head.get();
+      } else if (seq < pos + 1) {
+        return null; // not yet published
+      } else {
+        pos = head.get(); // another consumer beat us to it
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Place as many of the given objects in the queue as there is space for,
+   * without waiting.
+   *
+   * @param items the objects to place, in order
+   * @param offset the index of the first object to place
+   * @param length the number of objects to place
+   *
+   * @return the number of objects placed, starting from the offset
+   */
+  public int offerAll(final Object[] items, final int offset, final int length) {
+    for (int i = offset; i < offset + length; i++) {
+      if (items[i] == null) {
+        throw new NullPointerException();
+      }
+    }
+
+    for (;;) {
+      final long pos = tail.get();
+      int count = 0;
+      while (count < length && sequences.get((int)(pos + count) & mask) == pos + count) {
+        count++;
+      }
+      if (count == 0) {
+        if (sequences.get((int)pos & mask) < pos) {
+          return 0; // full
+        }
+        continue; // lost a race; try again
+      }
+      if (tail.compareAndSet(pos, pos + count)) {
+        for (int i = 0; i < count; i++) {
+          final int index = (int)(pos + i) & mask;
+          slots.lazySet(index, items[offset + i]);
+          sequences.set(index, pos + i + 1);
+        }
+        signalConsumers(count > 1);
+        return count;
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Place all of the given objects in the queue, waiting for space as
+   * necessary.
+   *
+   * @param items the objects to place, in order
+   *
+   * @throws InterruptedException if interrupted while waiting; some of the
+   *         objects may already have been placed
+   */
+  public void putAll(final Object[] items) throws InterruptedException {
+    int done = 0;
+    while (done < items.length) {
+      final int placed = offerAll(items, done, items.length - done);
+      if (placed == 0) {
+        awaitSpace(0);
+      }
+      done += placed;
+    }
+  }
+
+
+
+
+  /**
+   * Take up to the given number of objects from the queue, without waiting.
+   *
+   * @param dest where to place the objects, in order
+   * @param max the most objects to take
+   *
+   * @return the number of objects taken
+   */
+  public int drainTo(final Collection<Object> dest, final int max) {
+    for (;;) {
+      final long pos = head.get();
+      int count = 0;
+      while (count < max && sequences.get((int)(pos + count) & mask) == pos + count + 1) {
+        count++;
+      }
+      if (count == 0) {
+        if (sequences.get((int)pos & mask) < pos + 1) {
+          return 0; // empty
+        }
+        continue; // lost a race; try again
+      }
+      if (head.compareAndSet(pos, pos + count)) {
+        for (int i = 0; i < count; i++) {
+          final int index = (int)(pos + i) & mask;
+          dest.add(slots.get(index));
+          slots.lazySet(index, null);
+          sequences.set(index, pos + i + mask + 1);
+        }
+        signalProducers(count > 1);
+        return count;
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Take up to the given number of objects from the queue, waiting as long as
+   * necessary for at least one.
+   *
+   * @param dest where to place the objects, in order
+   * @param max the most objects to take
+   * @param millis the number of milliseconds to wait, 0 to wait as long as
+   *        necessary
+   *
+   * @return the number of objects taken, 0 if the time-out expired
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public int drainTo(final Collection<Object> dest, final int max, final long millis) throws InterruptedException {
+    final long deadline = (millis > 0) ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis) : 0;
+    for (;;) {
+      final int count = drainTo(dest, max);
+      if (count > 0 || !awaitObject(deadline)) {
+        return count;
+      }
+    }
+  }
+
+
+
+
+  /**
+   * @see coyote.loader.thread.JobQueue#put(java.lang.Object)
+   */
+  @Override
+  public void put(final Object o) throws InterruptedException {
+    while (!offer(o)) {
+      awaitSpace(0);
+    }
+  }
+
+
+
+
+  /**
+   * @see coyote.loader.thread.JobQueue#put(java.lang.Object, int)
+   */
+  @Override
+  public void put(final Object o, final int timeout) throws InterruptedException {
+    final long deadline = (timeout > 0) ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+    while (!offer(o)) {
+      if (!awaitSpace(deadline)) {
+        throw new InterruptedException("Timed out");
+      }
+    }
+  }
+
+
+
+
+  /**
+   * @see coyote.loader.thread.JobQueue#get()
+   */
+  @Override
+  public Object get() throws InterruptedException {
+    Object retval;
+    while ((retval = poll()) == null) {
+      awaitObject(0);
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @see coyote.loader.thread.JobQueue#get(long)
+   */
+  @Override
+  public Object get(final long millis) throws InterruptedException {
+    final long deadline = (millis > 0) ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis) : 0;
+    Object retval;
+    while ((retval = poll()) == null) {
+      if (!awaitObject(deadline)) {
+        return null;
+      }
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * Wait until there may be an object to get.
+   *
+   * @param deadline the nano time to give up, 0 for never
+   *
+   * @return false if the deadline passed
+   */
+  private boolean awaitObject(final long deadline) throws InterruptedException {
+    final int limit = spins;
+    for (int i = 0; i < limit + YIELDS; i++) {
+      if (sequences.get((int)head.get() & mask) == head.get() + 1) {
+        return true;
+      }
+      if (i >= limit) {
+        Thread.yield();
+      }
+    }
+
+    lock.lockInterruptibly();
+    try {
+      waitingConsumers.incrementAndGet();
+      try {
+        // check again now producers can see we are waiting
+        while (isEmpty()) {
+          if (deadline == 0) {
+            notEmpty.await();
+          } else {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+              return false;
+            }
+            notEmpty.awaitNanos(remaining);
+          }
+        }
+        return true;
+      } finally {
+        waitingConsumers.decrementAndGet();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+
+
+
+  /**
+   * Wait until there may be space to put an object.
+   *
+   * @param deadline the nano time to give up, 0 for never
+   *
+   * @return false if the deadline passed
+   */
+  private boolean awaitSpace(final long deadline) throws InterruptedException {
+    final int limit = spins;
+    for (int i = 0; i < limit + YIELDS; i++) {
+      if (sequences.get((int)tail.get() & mask) == tail.get()) {
+        return true;
+      }
+      if (i >= limit) {
+        Thread.yield();
+      }
+    }
+
+    lock.lockInterruptibly();
+    try {
+      waitingProducers.incrementAndGet();
+      try {
+        while (space() == 0) {
+          if (deadline == 0) {
+            notFull.await();
+          } else {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+              return false;
+            }
+            notFull.awaitNanos(remaining);
+          }
+        }
+        return true;
+      } finally {
+        waitingProducers.decrementAndGet();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+
+
+
+  private void signalConsumers(final boolean all) {
+    if (waitingConsumers.get() > 0) {
+      lock.lock();
+      try {
+        if (all) {
+          notEmpty.signalAll();
+        } else {
+          notEmpty.signal();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+
+
+
+  private void signalProducers(final boolean all) {
+    if (waitingProducers.get() > 0) {
+      lock.lock();
+      try {
+        if (all) {
+          notFull.signalAll();
+        } else {
+          notFull.signal();
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+  }
+
+
+
+
+  /**
+   * A position counter padded so the head and tail do not share a cache line.
+   */
+  @SuppressWarnings("unused")
+  private static final class Position extends AtomicLong {
+    private static final long serialVersionUID = 1L;
+    private long p1, p2, p3, p4, p5, p6, p7;
+  }
+
+}
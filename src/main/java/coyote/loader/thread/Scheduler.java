@@ -487,4 +487,19 @@ public class Scheduler extends ThreadJob {
     return threadpool;
   }
 
-}
\ No newline at end of file
+
+
+
+  /**
+   * Set the threadpool this scheduler uses to run its jobs.
+   *
+   * <p>This must be called before the scheduler is started; otherwise the
+   * scheduler creates a default pool of its own.</p>
+   *
+   * @param pool the threadpool to use
+   */
+  public void setThreadpool(ThreadPool pool) {
+    threadpool = pool;
+  }
+
+}
\ No newline at end of file
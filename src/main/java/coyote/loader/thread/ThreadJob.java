@@ -7,6 +7,8 @@
  */
 package coyote.loader.thread;
 
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * A class designed to be run in a ThreadPool of worker threads.
  *
@@ -68,6 +70,24 @@ public class ThreadJob implements Runnable {
   /** Flag indicating park should use sleep() instead of wait() */
   protected volatile boolean parkSleep = false;
 
+  /** The correlation identifier of the work which submitted this job */
+  protected volatile String crid = null;
+
+  /** Flag indicating daemonize() should run us in a virtual thread */
+  protected volatile boolean virtual = false;
+
+  /** Flag indicating we are running in a virtual thread and park without a monitor */
+  private volatile boolean parkVirtual = false;
+
+  /** When a ThreadPool queued this job, in nanoseconds; used to measure queue wait */
+  volatile long queued_time = 0l;
+
+  /** How long initialize() took the last time we ran, in nanoseconds */
+  private volatile long initialize_nanos = 0l;
+
+  /** When we last became active, from System.nanoTime(); zero until we do */
+  private volatile long active_nanos = 0l;
+
 
 
 
@@ -126,10 +146,14 @@ public class ThreadJob implements Runnable {
    * @return the thread in which this job is running.
    */
   public Thread daemonize(final String name) {
-    final Thread newthread = new Thread(this);
+    Thread newthread = virtual ? VirtualThreads.newThread(this, name) : null;
+
+    if (newthread == null) {
+      newthread = new Thread(this);
 
-    if ((name != null) && (name.length() > 0)) {
-      newthread.setName(name);
+      if ((name != null) && (name.length() > 0)) {
+        newthread.setName(name);
+      }
     }
 
     return daemonize(newthread);
@@ -154,8 +178,10 @@ public class ThreadJob implements Runnable {
   public Thread daemonize(final Thread thread) {
     current_thread = thread;
 
-    // only user threads keep the JVM running
-    current_thread.setDaemon(false);
+    // only user threads keep the JVM running; virtual threads never do
+    if (!VirtualThreads.isVirtual(current_thread)) {
+      current_thread.setDaemon(false);
+    }
 
     // start it
     current_thread.start();
@@ -270,6 +296,28 @@ public class ThreadJob implements Runnable {
 
 
 
+  /**
+   * @return how long initialize() took the last time this job ran, in
+   *         nanoseconds
+   */
+  public long getInitializeNanos() {
+    return initialize_nanos;
+  }
+
+
+
+
+  /**
+   * @return when this job last became active, as a System.nanoTime() value,
+   *         or zero if it has not yet
+   */
+  public long getActiveNanos() {
+    return active_nanos;
+  }
+
+
+
+
   /**
    * Request this object to shutdown.
    *
@@ -387,6 +435,10 @@ public class ThreadJob implements Runnable {
 
       mutex.notifyAll();
     }
+
+    if (parkVirtual) {
+      LockSupport.unpark(current_thread);
+    }
   }
 
 
@@ -441,6 +493,11 @@ public class ThreadJob implements Runnable {
    * @param timeout The number of milliseconds to wait.
    */
   protected void park(final long timeout) {
+    if (parkVirtual) {
+      parkWithoutMonitor(timeout);
+      return;
+    }
+
     synchronized (mutex) {
       if (isShutdown()) {
         // Cannot suspend if shutdown is pending
@@ -470,6 +527,32 @@ public class ThreadJob implements Runnable {
 
 
 
+  /**
+   * Park a virtual thread.
+   *
+   * <p>A virtual thread waiting on a monitor holds on to its carrier thread,
+   * so virtual threads park through {@code LockSupport} instead. The
+   * semantics are those of {@code wait()}: {@code resume()} wakes us, and
+   * shutdown and restart interrupt us.</p>
+   *
+   * @param timeout The number of milliseconds to wait, 0 for no limit.
+   */
+  private void parkWithoutMonitor(final long timeout) {
+    if (isShutdown()) {
+      // Cannot suspend if shutdown is pending
+      if (isSuspended()) {
+        resume();
+      }
+    } else if (timeout == 0) {
+      LockSupport.park(this);
+    } else {
+      LockSupport.parkNanos(this, timeout * 1000000L);
+    }
+  }
+
+
+
+
   /**
    * Parks the thread for the preset idle_wait_time interval.
    */
@@ -480,6 +563,37 @@ public class ThreadJob implements Runnable {
 
 
 
+  /**
+   * Set whether {@code daemonize()} runs this job in a virtual thread.
+   *
+   * <p>A virtual thread costs far less than a platform thread while it is
+   * parked or blocked, which suits jobs which spend most of their time idle.
+   * Virtual threads do not keep the JVM running, so something else, such as
+   * the loader, must. If the runtime does not support virtual threads, a
+   * platform thread is used as before.</p>
+   *
+   * @param flag true to run in a virtual thread where supported
+   *
+   * @see VirtualThreads#isSupported()
+   */
+  public void setVirtual(final boolean flag) {
+    virtual = flag;
+  }
+
+
+
+
+  /**
+   * @return true if {@code daemonize()} will run this job in a virtual thread
+   *         where supported
+   */
+  public boolean isVirtual() {
+    return virtual;
+  }
+
+
+
+
   /**
    * Sets the current thread to never idle, or run at full speed constantly.
    *
@@ -585,6 +699,33 @@ public class ThreadJob implements Runnable {
 
 
 
+  /**
+   * @return the correlation identifier this job runs under, or null if there
+   *         is none
+   */
+  public String getCorrelationId() {
+    return crid;
+  }
+
+
+
+
+  /**
+   * Set the correlation identifier this job is to run under.
+   *
+   * <p>If this is not set, the thread pool sets it to the identifier of the
+   * thread handing it the job so ARM transactions started by the job relate
+   * to those of the caller.
+   *
+   * @param crid the correlation identifier
+   */
+  public void setCorrelationId(final String crid) {
+    this.crid = crid;
+  }
+
+
+
+
   /**
    * Return the reference to the current thread.
    *
@@ -669,13 +810,17 @@ public class ThreadJob implements Runnable {
    */
   public void run() {
     current_thread = Thread.currentThread();
+    parkVirtual = VirtualThreads.isVirtual(current_thread);
 
     do {
       // perform our own initialization
       init();
 
       // Setup everything we need to run
+      final long began = System.nanoTime();
       initialize();
+      active_nanos = System.nanoTime();
+      initialize_nanos = active_nanos - began;
 
       // set the active flag true only after we have initialized, so others can
       // use waitForActive to wait for us to initialize
@@ -862,4 +1007,4 @@ public class ThreadJob implements Runnable {
     parkSleep = b;
   }
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -10,8 +10,15 @@ package coyote.loader.thread;
 import java.io.InterruptedIOException;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import coyote.dataframe.DataFrameException;
+import coyote.i13n.Correlation;
+import coyote.i13n.LatencyHistogram;
+import coyote.i13n.StatBoard;
 import coyote.loader.cfg.Config;
 import coyote.loader.log.Log;
 
@@ -36,6 +43,28 @@ import coyote.loader.log.Log;
  * may specialize getJob(timeout) to obtain jobs from other sources without
  * queing overheads.</p>
  *
+ * <p>In the work-stealing mode each worker also keeps a deque of its own.
+ * Jobs handled from within a worker thread are pushed onto that worker's
+ * deque while all the workers are busy, and a worker which runs out of work
+ * takes jobs from the shared queue and then steals from the far end of its
+ * peers' deques. This keeps short jobs spawned by other jobs off the shared
+ * queue and out of the pool's bookkeeping; select it with
+ * {@link #setMode(String)} or the {@code ThreadMode} configuration
+ * attribute. Jobs waiting on a deque count toward the load, so the pool
+ * still grows to run them, and a deque holds a limited number of jobs,
+ * beyond which they go to the shared queue and its rejection policy. A job
+ * the caller is going to wait for should be handled with
+ * {@link #handle(ThreadJob, boolean)} so it is never left on the deque of
+ * the worker which is waiting for it.</p>
+ *
+ * <p>When a target latency is set the pool sizes itself. Each job's time in
+ * the queue and time running are measured, and at every control interval the
+ * pool adds workers in proportion to how far the queue wait exceeds the
+ * target and retires idle workers while it is comfortably below it. What
+ * happens to a job when the queue is full is decided by the rejection policy:
+ * the caller can block (the default), run the job itself, discard the oldest
+ * queued job or have the job rejected to a {@link RejectionHandler}.</p>
+ *
  * TODO Rethink "job_wait_time: specifically all threads and and below the
  *       minimum should have a job_wait_time of 0 while the rest should have a
  *       time-out so they can shutdown if necessary.
@@ -61,7 +90,7 @@ public class ThreadPool {
   private volatile boolean active = false;
 
   /** This is the blocking job queue we used to feed the workers */
-  private BlockingQueue jobqueue;
+  private RingQueue jobqueue;
 
   /** This holds the references to threads that are idle */
   private HashSet<Thread> idle_set = new HashSet<Thread>();
@@ -69,6 +98,9 @@ public class ThreadPool {
   /** This holds the references to threads that are participating in the pool */
   private HashSet<ThreadWorker> worker_set;
 
+  /** Workers created but not yet in the worker set */
+  private final AtomicInteger starting = new AtomicInteger();
+
   /** The time when we start idling due to inactivity */
   protected long idle_timeout = 30000;
 
@@ -86,6 +118,93 @@ public class ThreadPool {
   public static final String STOPWAIT_TAG = "ThreadStopWait";
   public static final String MINWORKERS_TAG = "ThreadMinWorkers";
   public static final String MAXWORKERS_TAG = "ThreadMaxWorkers";
+  public static final String MODE_TAG = "ThreadMode";
+  public static final String VIRTUAL_TAG = "ThreadVirtual";
+  public static final String QUEUESIZE_TAG = "ThreadQueueSize";
+  public static final String REJECTION_TAG = "ThreadRejection";
+  public static final String LATENCY_TAG = "ThreadTargetLatency";
+
+  /** All workers take jobs from the one shared queue; the default */
+  public static final String SHARED_MODE = "Shared";
+
+  /** Workers keep their own deques of jobs and steal from each other */
+  public static final String STEALING_MODE = "Stealing";
+
+  /** The longest an idle stealing worker waits before checking its peers */
+  private static final int STEAL_WAIT = 50;
+
+  /** The most jobs a stealing worker keeps on its deque before using the shared queue */
+  static final int DEQUE_CAPACITY = 256;
+
+  /** Flag indicating the work-stealing mode */
+  private volatile boolean stealing = false;
+
+  /** The workers which may be stolen from, in the work-stealing mode */
+  private volatile ThreadWorker[] stealable = new ThreadWorker[0];
+
+  /** The worker running in the current thread, in the work-stealing mode */
+  private final ThreadLocal<ThreadWorker> local_worker = new ThreadLocal<ThreadWorker>();
+
+  /** Number of workers waiting on the shared queue, in the work-stealing mode */
+  private final AtomicInteger waiting = new AtomicInteger();
+
+  /** Flag indicating workers run in virtual threads where supported */
+  private volatile boolean virtual_workers = false;
+
+  /** Guards changes to the stealable workers */
+  private final Object steal_lock = new Object();
+
+  /** Callers wait up to 5 seconds for space in the queue; the default */
+  public static final String BLOCK_POLICY = "Block";
+
+  /** Callers run the job themselves when the queue is full */
+  public static final String CALLER_RUNS_POLICY = "CallerRuns";
+
+  /** The oldest job in the queue is discarded to make room */
+  public static final String DROP_OLDEST_POLICY = "DropOldest";
+
+  /** The job is passed to the rejection handler when the queue is full */
+  public static final String REJECT_POLICY = "Reject";
+
+  /** How long callers wait for space in the queue under the block policy */
+  private static final int BLOCK_WAIT = 5000;
+
+  /** How often the controller checks queue wait and publishes statistics */
+  private static final int CONTROL_INTERVAL = 250;
+
+  /** Queue capacity, zero for five jobs per worker */
+  private int queue_size = 0;
+
+  /** One of the rejection policies */
+  private volatile String rejection_policy = BLOCK_POLICY;
+
+  /** Who is told of rejected and discarded jobs */
+  private volatile RejectionHandler rejection_handler = null;
+
+  /** Queue wait the controller aims for in nanoseconds, zero for fixed sizing */
+  private volatile long target_latency = 0;
+
+  /** Where we publish our statistics, if anywhere */
+  private volatile StatBoard stat_board = null;
+
+  /** Time spent in the queue this control interval, created when needed */
+  private volatile LatencyHistogram queue_wait = null;
+
+  /** Time spent running this control interval, created when needed */
+  private volatile LatencyHistogram service_time = null;
+
+  /** The distributions of the last complete control interval */
+  private volatile LatencyHistogram.Snapshot last_wait = null;
+  private volatile LatencyHistogram.Snapshot last_service = null;
+
+  /** When the controller next runs, in milliseconds */
+  private final AtomicLong next_control = new AtomicLong();
+
+  /** Number of idle workers the controller has asked to retire */
+  private final AtomicInteger retire = new AtomicInteger();
+
+  /** Jobs rejected, run by their callers or discarded since the pool was created */
+  private final AtomicLong rejected = new AtomicLong();
 
 
 
@@ -173,6 +292,340 @@ public class ThreadPool {
         setMinWorkerCount(cfg.getAsInt(MINWORKERS_TAG));
       } catch (DataFrameException e) {}
     }
+
+    // Set how the workers share jobs
+    if (cfg.contains(MODE_TAG)) {
+      setMode(cfg.getString(MODE_TAG));
+    }
+
+    // Set if the workers are to be virtual threads
+    if (cfg.contains(VIRTUAL_TAG)) {
+      try {
+        setVirtual(cfg.getBoolean(VIRTUAL_TAG));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid " + VIRTUAL_TAG + " value: " + e.getMessage());
+      }
+    }
+
+    // Set how many jobs may wait in the queue
+    if (cfg.contains(QUEUESIZE_TAG)) {
+      try {
+        setQueueSize(cfg.getAsInt(QUEUESIZE_TAG));
+      } catch (DataFrameException e) {
+        throw new IllegalArgumentException("Invalid " + QUEUESIZE_TAG + " value: " + e.getMessage());
+      }
+    }
+
+    // Set what happens to jobs when the queue is full
+    if (cfg.contains(REJECTION_TAG)) {
+      setRejectionPolicy(cfg.getString(REJECTION_TAG));
+    }
+
+    // Set the queue wait the pool sizes itself to meet
+    if (cfg.contains(LATENCY_TAG)) {
+      try {
+        setTargetLatency(cfg.getAsLong(LATENCY_TAG));
+      } catch (DataFrameException e) {
+        throw new IllegalArgumentException("Invalid " + LATENCY_TAG + " value: " + e.getMessage());
+      }
+    }
+  }
+
+
+
+
+  /**
+   * @return the capacity of the job queue, zero meaning five jobs per worker
+   */
+  public int getQueueSize() {
+    return queue_size;
+  }
+
+
+
+
+  /**
+   * Set how many jobs may wait in the queue.
+   *
+   * <p>The capacity is rounded up to a power of two when the pool starts. A
+   * value of zero, the default, allows five queued jobs per worker.</p>
+   *
+   * @param size the capacity of the job queue, zero for the default
+   *
+   * @throws IllegalArgumentException if the size is negative
+   * @throws IllegalStateException if the pool is running
+   */
+  public void setQueueSize(int size) {
+    if (size < 0) {
+      throw new IllegalArgumentException("Queue size cannot be negative");
+    }
+    if (isRunning()) {
+      throw new IllegalStateException("Cannot resize the queue of a running pool");
+    }
+    configuration.put(QUEUESIZE_TAG, Integer.toString(size));
+    queue_size = size;
+  }
+
+
+
+
+  /**
+   * @return what happens to jobs when the queue is full
+   */
+  public String getRejectionPolicy() {
+    return rejection_policy;
+  }
+
+
+
+
+  /**
+   * Set what happens to jobs handled while the queue is full.
+   *
+   * <ul>
+   * <li>BLOCK_POLICY - the caller waits up to 5 seconds for space, after which
+   * the job is logged and rejected; the default</li>
+   * <li>CALLER_RUNS_POLICY - the caller runs the job itself, which slows
+   * producers down to the rate the pool can sustain</li>
+   * <li>DROP_OLDEST_POLICY - the job which has waited longest is discarded to
+   * make room, favouring fresh work</li>
+   * <li>REJECT_POLICY - the job is not run and is passed to the rejection
+   * handler immediately</li>
+   * </ul>
+   *
+   * <p>Every job not run as normal is counted and passed to the rejection
+   * handler, if one is set, except under the caller-runs policy where the job
+   * is still run.</p>
+   *
+   * @param policy one of the policy names; case is ignored
+   *
+   * @throws IllegalArgumentException if the policy is not recognized
+   */
+  public void setRejectionPolicy(String policy) {
+    final String[] policies = {BLOCK_POLICY, CALLER_RUNS_POLICY, DROP_OLDEST_POLICY, REJECT_POLICY};
+    for (int i = 0; i < policies.length; i++) {
+      if (policies[i].equalsIgnoreCase(policy)) {
+        configuration.put(REJECTION_TAG, policies[i]);
+        rejection_policy = policies[i];
+        return;
+      }
+    }
+    throw new IllegalArgumentException("Unknown rejection policy '" + policy + "'");
+  }
+
+
+
+
+  /**
+   * @return who is told of rejected and discarded jobs, may be null
+   */
+  public RejectionHandler getRejectionHandler() {
+    return rejection_handler;
+  }
+
+
+
+
+  /**
+   * @param handler who to tell of rejected and discarded jobs, may be null
+   */
+  public void setRejectionHandler(RejectionHandler handler) {
+    rejection_handler = handler;
+  }
+
+
+
+
+  /**
+   * @return the queue wait the pool sizes itself to meet in milliseconds,
+   *         zero if the pool is sized only by its load
+   */
+  public long getTargetLatency() {
+    return target_latency / 1000000;
+  }
+
+
+
+
+  /**
+   * Set the queue wait the pool sizes itself to meet.
+   *
+   * <p>Every control interval the pool compares the 90th percentile of the
+   * time jobs spent in the queue, or the time the jobs still queued can be
+   * expected to wait if that is longer, against this target. Above the
+   * target, workers are added in proportion to the excess, up to the maximum
+   * worker count. Below half the target, idle workers are retired one at a
+   * time down to the minimum worker count; the job-wait time is not used to
+   * retire workers while a target is set.</p>
+   *
+   * @param millis the target queue wait in milliseconds, zero to size the
+   *        pool only by its load
+   */
+  public void setTargetLatency(long millis) {
+    if (millis < 0) {
+      throw new IllegalArgumentException("Target latency cannot be negative");
+    }
+    configuration.put(LATENCY_TAG, Long.toString(millis));
+    target_latency = millis * 1000000;
+    if (millis > 0) {
+      createHistograms();
+    }
+  }
+
+
+
+
+  /**
+   * @return the board we publish our statistics to, may be null
+   */
+  public StatBoard getStatBoard() {
+    return stat_board;
+  }
+
+
+
+
+  /**
+   * Publish the pool's statistics to the given board.
+   *
+   * <p>Every control interval the board receives the number of workers, idle
+   * workers and queued jobs along with the percentiles of the queue wait and
+   * service time of the jobs taken from the queue in that interval, all as
+   * states named after the pool. Rejected jobs are counted in the
+   * {@code <pool>.rejected} counter as they occur.</p>
+   *
+   * @param board the board to publish to, null to stop publishing
+   */
+  public void setStatBoard(StatBoard board) {
+    stat_board = board;
+    if (board != null) {
+      createHistograms();
+    }
+  }
+
+
+
+
+  /**
+   * @return the number of jobs rejected, run by their callers or discarded
+   *         since the pool was created
+   */
+  public long getRejectedCount() {
+    return rejected.get();
+  }
+
+
+
+
+  /**
+   * @return the queue wait of the jobs taken from the queue in the last
+   *         control interval, or null if they are not being measured
+   */
+  public LatencyHistogram.Snapshot getQueueWait() {
+    return last_wait;
+  }
+
+
+
+
+  /**
+   * @return the service time of the jobs run in the last control interval,
+   *         or null if they are not being measured
+   */
+  public LatencyHistogram.Snapshot getServiceTime() {
+    return last_service;
+  }
+
+
+
+
+  /**
+   * Start measuring queue wait and service time.
+   */
+  private synchronized void createHistograms() {
+    if (queue_wait == null) {
+      service_time = new LatencyHistogram();
+      queue_wait = new LatencyHistogram();
+    }
+  }
+
+
+
+
+  /**
+   * @return true if workers should wake each control interval
+   */
+  private boolean isControlled() {
+    return target_latency > 0 || stat_board != null;
+  }
+
+
+
+
+  /**
+   * @return true if new workers run in virtual threads where supported
+   */
+  public boolean isVirtual() {
+    return virtual_workers;
+  }
+
+
+
+
+  /**
+   * Set whether new workers run in virtual threads.
+   *
+   * <p>Virtual workers keep the same job lifecycle as platform workers, but
+   * a worker blocked waiting for a job, or a job parked between units of
+   * work, costs a little heap rather than an operating system thread. This
+   * suits pools running many long-lived, mostly idle jobs. The maximum worker
+   * count still applies, so raise it accordingly. If the runtime does not
+   * support virtual threads, platform threads are used.</p>
+   *
+   * @param flag true to run new workers in virtual threads
+   */
+  public void setVirtual(boolean flag) {
+    configuration.put(VIRTUAL_TAG, Boolean.toString(flag));
+    virtual_workers = flag;
+  }
+
+
+
+
+  /**
+   * @return how the workers share jobs, either SHARED_MODE or STEALING_MODE
+   */
+  public String getMode() {
+    return stealing ? STEALING_MODE : SHARED_MODE;
+  }
+
+
+
+
+  /**
+   * Set how the workers share jobs.
+   *
+   * @param mode SHARED_MODE for one shared queue or STEALING_MODE for
+   *        per-worker deques with work-stealing; case is ignored
+   *
+   * @throws IllegalArgumentException if the mode is not recognized
+   * @throws IllegalStateException if the pool is running
+   */
+  public void setMode(String mode) {
+    final boolean flag;
+    if (STEALING_MODE.equalsIgnoreCase(mode)) {
+      flag = true;
+    } else if (mode == null || SHARED_MODE.equalsIgnoreCase(mode)) {
+      flag = false;
+    } else {
+      throw new IllegalArgumentException("Unknown thread pool mode '" + mode + "'");
+    }
+
+    if (flag != stealing && isRunning()) {
+      throw new IllegalStateException("Cannot change the mode of a running pool");
+    }
+    configuration.put(MODE_TAG, flag ? STEALING_MODE : SHARED_MODE);
+    stealing = flag;
   }
 
 
@@ -453,9 +906,9 @@ public class ThreadPool {
 
       Log.append(THREAD, "ThreadPool.start() Starting '" + pool_name + "' pool");
 
-      // Create a job queue with enough space for all our workers to have 5
-      // queued jobs each
-      jobqueue = new BlockingQueue(maximum_workers * 5);
+      // Create a job queue of the configured size or with enough space for
+      // all our workers to have 5 queued jobs each
+      jobqueue = new RingQueue((queue_size > 0) ? queue_size : maximum_workers * 5);
 
       // Create a set large enough to hold the maximum number of workers/2 +5
       worker_set = new HashSet<ThreadWorker>(maximum_workers + maximum_workers / 2 + 5);
@@ -500,17 +953,22 @@ public class ThreadPool {
     }
 
     if (jobqueue != null) {
+      if (isControlled()) {
+        control();
+      }
+
       if (isRunning() &&
-          worker_set.size() < maximum_workers && // room to grow
+          target_latency == 0 && // not sized by the controller
+          worker_set.size() + starting.get() < maximum_workers && // room to grow
           idle_set.size() == 0 && // all workers busy
-          jobqueue.size() > 0 // jobs to process 
+          (jobqueue.size() > 0 || hasDequeJobs()) // jobs to process 
           ) {
         if (Log.isLogging(THREAD)) {
           Log.append(THREAD, "CheckLoad: Creating a new worker - JobQueue=" + jobqueue.size() + " Workers=" + worker_set.size() + " (max=" + maximum_workers + ") idle workers=" + idle_set.size());
         }
 
         // ...create a new worker for this pool
-        newWorker();
+        growWorker();
       }
 
       return jobqueue.size();
@@ -588,9 +1046,11 @@ public class ThreadPool {
    * Start a new ThreadWorker.
    */
   private synchronized void newWorker() {
+    starting.incrementAndGet();
     try {
       new ThreadWorker(pool_name + ".wkr." + (thread_identifier++));
     } catch (Exception e) {
+      starting.decrementAndGet();
       if (Log.isLogging(THREAD)) {
         Log.append(THREAD, "ThreadPool.newWorker() exception: " + e.toString());
       }
@@ -600,6 +1060,23 @@ public class ThreadPool {
 
 
 
+  /**
+   * Create a new worker if there is still room for one once the workers
+   * already starting are counted.
+   *
+   * <p>Workers join the worker set in their own threads, so without counting
+   * those still starting, a burst of jobs would create workers beyond the
+   * maximum.</p>
+   */
+  private synchronized void growWorker() {
+    if (worker_set != null && worker_set.size() + starting.get() < maximum_workers) {
+      newWorker();
+    }
+  }
+
+
+
+
   /**
    * Join the ThreadPool.
    *
@@ -633,7 +1110,7 @@ public class ThreadPool {
    * <p>This method is called by the ThreadWorkers to get jobs. The call blocks
    * until a job is available.</p>
    *
-   * <p>The default implementation removes jobs from the BlockingQueue used by
+   * <p>The default implementation removes jobs from the RingQueue used by
    * the run() method. Derived implementations of ThreadPool may specialize this
    * method to obtain jobs from other sources.</p>
    *
@@ -654,17 +1131,42 @@ public class ThreadPool {
   /**
    * Handle the job by placing it in the pool (hope it doesn't get too wet).
    *
-   * <p>The job is passed via a BlockingQueue with the same capacity as the
-   * ThreadPool.</p>
+   * <p>The job is passed via a lock-free RingQueue with room for five jobs
+   * per worker.</p>
    *
    * <p>If the ThreadPool is not running when this method is called, then this
    * method starts the pool running.</p>
    *
+   * <p>The correlation identifier of the calling thread is passed along with
+   * the job so the work is related to that of the caller, unless the job
+   * already has one of its own.</p>
+   *
    * @param job A ThreadJob object to run.
    *
    * @throws InterruptedException
    */
   public void handle(ThreadJob job) throws InterruptedException {
+    handle(job, false);
+  }
+
+
+
+
+  /**
+   * Handle a job which the caller may be going to wait for.
+   *
+   * <p>In the work-stealing mode a job handled from a worker thread is kept
+   * on that worker's deque, where it may not run until the worker is free.
+   * A caller which is going to block until the job is active or done, as
+   * the loader does when starting its components, must pass true so the job
+   * goes to the shared queue instead.</p>
+   *
+   * @param job A ThreadJob object to run.
+   * @param awaited true if the calling thread will wait on the job
+   *
+   * @throws InterruptedException
+   */
+  public void handle(ThreadJob job, boolean awaited) throws InterruptedException {
     if (!isRunning()) {
       start();
     }
@@ -672,16 +1174,24 @@ public class ThreadPool {
     if (job == null) {
       Log.warn("ThreadPool.handle() received a null job");
     } else {
-      try {
-        jobqueue.put(job, 5000);
-        Log.append(THREAD, "ThreadPool.handle(ThreadJob) placed job " + job + " in queue - JobQueue size:" + jobqueue.size() + " capacity:" + jobqueue.capacity() + " Workers=" + worker_set.size() + " (max=" + maximum_workers + ") idle workers=" + idle_set.size());
-      } catch (InterruptedException e) {
-        if (jobqueue.size() == jobqueue.capacity()) {
-          Log.error("Could not place job in queue: Queue Full");
-          Log.append(THREAD, "ThreadPool.handle(ThreadJob) JobQueue is Full - size:" + jobqueue.size() + " capacity:" + jobqueue.capacity() + " Workers=" + worker_set.size() + " (max=" + maximum_workers + ") idle workers=" + idle_set.size() + " exception: " + e.toString());
+      inheritCorrelation(job);
+
+      job.queued_time = System.nanoTime();
+
+      // jobs from a busy worker stay with that worker unless a peer is idle
+      if (stealing && !awaited && waiting.get() == 0) {
+        final ThreadWorker worker = local_worker.get();
+        if (worker != null && worker.push(job)) {
+          // make sure there is a worker to steal it while we are busy
+          checkLoad();
+          return;
         }
       }
 
+      if (enqueue(job) && Log.isLogging(THREAD)) {
+        Log.append(THREAD, "ThreadPool.handle(ThreadJob) placed job " + job + " in queue - JobQueue size:" + jobqueue.size() + " capacity:" + jobqueue.capacity() + " Workers=" + worker_set.size() + " (max=" + maximum_workers + ") idle workers=" + idle_set.size());
+      }
+
       // make sure we have the threads to handle it.
       checkLoad();
     }
@@ -691,20 +1201,370 @@ public class ThreadPool {
 
 
   /**
-   * Place a runnable object inside a ThreadJob and place the ThreadJob in the
-   * pool.
+   * Place the job in the queue, applying the rejection policy if it is full.
    *
-   * @param runnable - the runnable object
+   * @param job the job to queue
+   *
+   * @return true if the job was queued, false if it was run or rejected
+   *
+   * @throws InterruptedException if interrupted while waiting for space
    */
-  public void run(Runnable runnable) {
-    ThreadJob job = new ThreadJob(runnable);
-
-    try {
-      handle(job);
-    } catch (InterruptedException ie) {}
-  }
-
-
+  private boolean enqueue(ThreadJob job) throws InterruptedException {
+    final String policy = rejection_policy;
+
+    if (BLOCK_POLICY.equals(policy)) {
+      try {
+        jobqueue.put(job, BLOCK_WAIT);
+        return true;
+      } catch (InterruptedException e) {
+        if (jobqueue.size() == jobqueue.capacity()) {
+          Log.error("Could not place job in queue: Queue Full");
+          Log.append(THREAD, "ThreadPool.handle(ThreadJob) JobQueue is Full - size:" + jobqueue.size() + " capacity:" + jobqueue.capacity() + " Workers=" + worker_set.size() + " (max=" + maximum_workers + ") idle workers=" + idle_set.size() + " exception: " + e.toString());
+          reject(job);
+        }
+        return false;
+      }
+    }
+
+    if (jobqueue.offer(job)) {
+      return true;
+    }
+
+    if (CALLER_RUNS_POLICY.equals(policy)) {
+      rejected.incrementAndGet();
+      countRejection();
+      job.run();
+    } else if (DROP_OLDEST_POLICY.equals(policy)) {
+      do {
+        final ThreadJob oldest = (ThreadJob)jobqueue.poll();
+        if (oldest != null) {
+          reject(oldest);
+        }
+      }
+      while (!jobqueue.offer(job));
+      return true;
+    } else {
+      reject(job);
+    }
+    return false;
+  }
+
+
+
+
+  /**
+   * Return a job taken by a worker which is leaving to the shared queue,
+   * applying the rejection policy if it is full.
+   *
+   * <p>The leaving worker is usually interrupted, so its interrupt status is
+   * cleared while the policy runs and restored afterwards.</p>
+   *
+   * @param job the job to return
+   */
+  private void requeue(ThreadJob job) {
+    if (jobqueue.offer(job)) {
+      return;
+    }
+
+    final boolean interrupted = Thread.interrupted();
+    try {
+      enqueue(job);
+    } catch (InterruptedException e) {
+      Log.error("Could not return job to queue: Queue Full");
+      reject(job);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Count a job which will not be run and tell the handler about it.
+   */
+  private void reject(ThreadJob job) {
+    rejected.incrementAndGet();
+    countRejection();
+    final RejectionHandler handler = rejection_handler;
+    if (handler != null) {
+      try {
+        handler.rejected(job, this);
+      } catch (Exception e) {
+        Log.error("ThreadPool rejection handler threw " + e.toString());
+      }
+    } else if (Log.isLogging(THREAD)) {
+      Log.append(THREAD, "ThreadPool '" + pool_name + "' rejected " + job);
+    }
+  }
+
+
+
+
+  /**
+   * Update the rejection counter on the stat board, if there is one.
+   */
+  private void countRejection() {
+    final StatBoard board = stat_board;
+    if (board != null) {
+      board.increment(pool_name + ".rejected");
+    }
+  }
+
+
+
+
+  /**
+   * Give the job the correlation identifier of the submitting thread, unless
+   * the job was given one of its own.
+   */
+  private static void inheritCorrelation(ThreadJob job) {
+    if (job.getCorrelationId() == null) {
+      final String crid = Correlation.getId();
+      if (crid != null) {
+        job.setCorrelationId(crid);
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Grow or shrink the pool toward the target latency and publish the
+   * statistics of the interval which just ended.
+   *
+   * <p>This runs at most once per control interval, in whichever thread
+   * first finds the interval has passed: a caller handling a job or a worker
+   * waking from an idle wait.</p>
+   */
+  private void control() {
+    final long now = System.currentTimeMillis();
+    final long next = next_control.get();
+    if (now < next || !next_control.compareAndSet(next, now + CONTROL_INTERVAL)) {
+      return;
+    }
+    final LatencyHistogram waits = queue_wait;
+    final LatencyHistogram services = service_time;
+    if (waits == null || worker_set == null || !isRunning()) {
+      return;
+    }
+
+    final LatencyHistogram.Snapshot wait = waits.rollover();
+    final LatencyHistogram.Snapshot service = services.rollover();
+    last_wait = wait;
+    last_service = service;
+
+    // workers still starting count, so a burst of intervals cannot overshoot
+    final int workers = worker_set.size() + starting.get();
+    final int idle = idle_set.size();
+    final int queued = jobqueue.size();
+    final long target = target_latency;
+    if (target > 0) {
+      // jobs still queued will wait about as long as it takes the workers to
+      // get through those ahead of them
+      long expected = (wait.getCount() > 0) ? wait.getValueAtPercentile(90.0) : 0;
+      if (service.getCount() > 0 && workers > 0) {
+        expected = Math.max(expected, (long)(queued * service.getMean() / workers));
+      } else if (queued > 0 && idle == 0) {
+        // nothing finished this interval; everyone is stuck on long jobs
+        expected = Math.max(expected, target + 1);
+      }
+
+      if (expected > target && workers < maximum_workers) {
+        final int grow = Math.min(maximum_workers - workers, Math.max(1, (int)Math.ceil(workers * (double)(expected - target) / expected)));
+        if (Log.isLogging(THREAD)) {
+          Log.append(THREAD, "ThreadPool.control() '" + pool_name + "' queue wait " + (expected / 1000) + "us over target, adding " + grow + " workers to " + workers);
+        }
+        retire.set(0);
+        for (int i = 0; i < grow; i++) {
+          growWorker();
+        }
+      } else if (expected < target / 2 && idle > 0 && workers > minimum_workers) {
+        retire.compareAndSet(0, 1);
+      }
+    }
+
+    final StatBoard board = stat_board;
+    if (board != null) {
+      board.setState(pool_name + ".workers", (long)workers);
+      board.setState(pool_name + ".idle", (long)idle);
+      board.setState(pool_name + ".queued", (long)queued);
+      publish(board, pool_name + ".queue_wait", wait);
+      publish(board, pool_name + ".service", service);
+    }
+  }
+
+
+
+
+  /**
+   * Publish the count and percentiles of a distribution in microseconds.
+   */
+  private static void publish(StatBoard board, String name, LatencyHistogram.Snapshot snapshot) {
+    board.setState(name + ".count", snapshot.getCount());
+    board.setState(name + ".p50_us", snapshot.getValueAtPercentile(50.0) / 1000);
+    board.setState(name + ".p90_us", snapshot.getValueAtPercentile(90.0) / 1000);
+    board.setState(name + ".p99_us", snapshot.getValueAtPercentile(99.0) / 1000);
+    board.setState(name + ".max_us", snapshot.getMax() / 1000);
+  }
+
+
+
+
+  /**
+   * Take one of the retirements the controller asked for.
+   *
+   * @return true if the calling idle worker should shut down
+   */
+  private boolean retireIdle() {
+    int count;
+    while ((count = retire.get()) > 0) {
+      if (retire.compareAndSet(count, count - 1)) {
+        return worker_set != null && worker_set.size() > minimum_workers;
+      }
+    }
+    return false;
+  }
+
+
+
+
+  /**
+   * Record how long a job waited in the queue, if we are measuring it.
+   */
+  private void recordWait(ThreadJob job) {
+    final LatencyHistogram waits = queue_wait;
+    if (waits != null && job.queued_time != 0) {
+      waits.record(System.nanoTime() - job.queued_time);
+    }
+  }
+
+
+
+
+  /**
+   * Record how long a job ran, if we are measuring it.
+   *
+   * @param began when the job started running in nanoseconds
+   */
+  private void recordService(long began) {
+    final LatencyHistogram services = service_time;
+    if (services != null) {
+      services.record(System.nanoTime() - began);
+    }
+  }
+
+
+
+
+  /**
+   * Handle a number of jobs at once.
+   *
+   * <p>The jobs are placed in the queue in as few operations as space allows,
+   * which costs far less per job than handling each one separately.</p>
+   *
+   * @param jobs the ThreadJobs to run
+   *
+   * @throws InterruptedException if interrupted while waiting for space in
+   *         the queue; some of the jobs may already have been queued
+   */
+  public void handle(ThreadJob[] jobs) throws InterruptedException {
+    if (!isRunning()) {
+      start();
+    }
+
+    final long now = System.nanoTime();
+    for (int i = 0; i < jobs.length; i++) {
+      if (jobs[i] == null) {
+        throw new IllegalArgumentException("ThreadPool.handle() received a null job");
+      }
+      inheritCorrelation(jobs[i]);
+      jobs[i].queued_time = now;
+    }
+
+    jobqueue.putAll(jobs);
+    if (Log.isLogging(THREAD)) {
+      Log.append(THREAD, "ThreadPool.handle(ThreadJob[]) placed " + jobs.length + " jobs in queue - JobQueue size:" + jobqueue.size() + " capacity:" + jobqueue.capacity());
+    }
+
+    // make sure we have the threads to handle them.
+    checkLoad();
+  }
+
+
+
+
+  /**
+   * Place a runnable object inside a ThreadJob and place the ThreadJob in the
+   * pool.
+   *
+   * @param runnable - the runnable object
+   */
+  public void run(Runnable runnable) {
+    ThreadJob job = new ThreadJob(runnable);
+
+    try {
+      handle(job);
+    } catch (InterruptedException ie) {}
+  }
+
+
+
+
+  /**
+   * @return true if any worker has jobs waiting on its deque
+   */
+  private boolean hasDequeJobs() {
+    if (stealing) {
+      for (final ThreadWorker worker : stealable) {
+        if (worker.queued.get() > 0) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+
+
+
+  /**
+   * Add a worker to those which may be stolen from.
+   */
+  private void addStealable(ThreadWorker worker) {
+    synchronized (steal_lock) {
+      final ThreadWorker[] peers = new ThreadWorker[stealable.length + 1];
+      System.arraycopy(stealable, 0, peers, 0, stealable.length);
+      peers[stealable.length] = worker;
+      stealable = peers;
+    }
+  }
+
+
+
+
+  /**
+   * Remove a worker from those which may be stolen from.
+   */
+  private void removeStealable(ThreadWorker worker) {
+    synchronized (steal_lock) {
+      final ThreadWorker[] peers = stealable;
+      for (int i = 0; i < peers.length; i++) {
+        if (peers[i] == worker) {
+          final ThreadWorker[] retval = new ThreadWorker[peers.length - 1];
+          System.arraycopy(peers, 0, retval, 0, i);
+          System.arraycopy(peers, i + 1, retval, i, peers.length - i - 1);
+          stealable = retval;
+          return;
+        }
+      }
+    }
+  }
+
+
 
 
   /**
@@ -745,6 +1605,15 @@ public class ThreadPool {
     /** The number of times this thread has run */
     private int runs = 0;
 
+    /** Jobs handled from this worker's thread, in the work-stealing mode */
+    private final ConcurrentLinkedDeque<ThreadJob> deque = new ConcurrentLinkedDeque<ThreadJob>();
+
+    /** The number of jobs on our deque */
+    final AtomicInteger queued = new AtomicInteger();
+
+    /** When we last finished a job or started, in milliseconds */
+    private long idle_since = System.currentTimeMillis();
+
 
 
 
@@ -757,8 +1626,13 @@ public class ThreadPool {
       if (Log.isLogging(THREAD)) {
         Log.append(THREAD, "Creating new thread worker '" + name + "'");
       }
-      current_thread = new Thread(this);
-      current_thread.setName(name);
+      if (virtual_workers) {
+        current_thread = VirtualThreads.newThread(this, name);
+      }
+      if (current_thread == null) {
+        current_thread = new Thread(this);
+        current_thread.setName(name);
+      }
       current_thread.start();
       if (Log.isLogging(THREAD)) {
         Log.append(THREAD, "Thread worker '" + current_thread.getName() + "' has started.");
@@ -806,7 +1680,15 @@ public class ThreadPool {
      */
     public void initialize() {
       super.initialize();
-      worker_set.add(this);
+      synchronized (worker_set) {
+        worker_set.add(this);
+      }
+      starting.decrementAndGet();
+
+      if (stealing) {
+        local_worker.set(this);
+        addStealable(this);
+      }
 
       if (Log.isLogging(THREAD)) {
         Log.append(THREAD, "[O] " + current_thread.getName() + " is initialized.");
@@ -832,6 +1714,17 @@ public class ThreadPool {
         }
       }
 
+      if (stealing) {
+        removeStealable(this);
+        local_worker.remove();
+
+        // hand any jobs we did not get to back to the pool
+        ThreadJob job;
+        while ((job = pollFirst()) != null) {
+          requeue(job);
+        }
+      }
+
       if (Log.isLogging(THREAD)) {
         if (current_thread != null && worker_set != null && idle_set != null) {
           Log.append(THREAD, "[X] " + current_thread.getName() + " is terminated normally after running " + runs + " jobs. - Remaining workers=" + worker_set.size() + "  of which " + idle_set.size() + " are idle.");
@@ -873,15 +1766,34 @@ public class ThreadPool {
      * <p>If it gets a job, then it runs that job. Duh!</p>
      */
     public void doWork() {
+      if (stealing) {
+        doStealingWork();
+        return;
+      }
+
       ThreadJob job = null;
 
       // Try to get a job from the queue
       try {
-        // Call getJob(timeout) and wait for a job to arrive
-        job = getJob(job_wait_time);
+        // Call getJob(timeout) and wait for a job to arrive, waking each
+        // control interval if the pool is being measured
+        final boolean controlled = isControlled();
+        job = getJob((controlled && (job_wait_time == 0 || job_wait_time > CONTROL_INTERVAL)) ? CONTROL_INTERVAL : job_wait_time);
 
-        // If no job, it means we timed out before a job arrived in the queue
-        if (job == null && isRunning()) {
+        if (job == null && controlled && isRunning()) {
+          control();
+        }
+
+        if (job == null && isRunning() && target_latency > 0) {
+          // the controller decides when idle workers retire
+          if (retireIdle()) {
+            if (Log.isLogging(THREAD)) {
+              Log.append(THREAD, "Retired: " + current_thread.getName());
+            }
+            this.shutdown();
+          }
+        } else if (job == null && isRunning() && (!controlled || (job_wait_time > 0 && System.currentTimeMillis() - idle_since >= job_wait_time))) {
+          // If no job, it means we timed out before a job arrived in the queue
           if (Log.isLogging(THREAD)) {
             Log.append(THREAD, "No threadjob available for execution. Total workers=" + worker_set.size() + "  Minimum=" + minimum_workers + "  Idle workers=" + idle_set.size() + " jobqueue=" + jobqueue.size() + "/" + jobqueue.capacity() + " jobs waiting");
           }
@@ -910,9 +1822,12 @@ public class ThreadPool {
         synchronized (idle_set) {
           idle_set.remove(current_thread);
         } // sync
+        recordWait(job);
 
         try {
-          Log.append(THREAD, this.getThread().getName() + " handling " + job + " - total number of jobs executed in this thread = " + runs);
+          if (Log.isLogging(THREAD)) {
+            Log.append(THREAD, this.getThread().getName() + " handling " + job + " - total number of jobs executed in this thread = " + runs);
+          }
 
           // If we got a job to do...
           if (job != null) {
@@ -922,7 +1837,15 @@ public class ThreadPool {
             }
 
             // It all comes down to this: "Run the current job in this thread"
-            current_job.run();
+            // under the correlation identifier of whoever handed us the job
+            Correlation.setId(job.getCorrelationId());
+            final long began = System.nanoTime();
+            try {
+              current_job.run();
+            } finally {
+              Correlation.setId(null);
+              recordService(began);
+            }
 
             // Now that we are done, remove the job from the global reference
             synchronized (current_job) {
@@ -941,13 +1864,16 @@ public class ThreadPool {
           t.printStackTrace(new java.io.PrintWriter(out, true));
           Log.error("\"" + current_thread.getName() + "\" ThreadWorker.run() threw an excption during run() call " + t.toString() + ":" + t.getMessage() + System.getProperty("line.separator") + out.toString());
         } finally {
-          Log.append(THREAD, this.getThread().getName() + " finished handling " + job + ", going idle");
+          if (Log.isLogging(THREAD)) {
+            Log.append(THREAD, this.getThread().getName() + " finished handling " + job + ", going idle");
+          }
 
           // Reset any inturrpted state before moving on to the next job
           Thread.interrupted();
 
           // de-reference job
           job = null;
+          idle_since = System.currentTimeMillis();
 
           // set this thread in the idle/waiting set
           synchronized (idle_set) {
@@ -958,6 +1884,190 @@ public class ThreadPool {
 
     } // End of doWork()
 
+
+
+
+    /**
+     * Push a job handled from our thread onto our deque.
+     *
+     * @return true if the job was pushed, false if our deque is full
+     */
+    boolean push(ThreadJob job) {
+      // only we push, so the count cannot grow past the check
+      if (queued.get() >= DEQUE_CAPACITY) {
+        return false;
+      }
+      deque.offerFirst(job);
+      queued.incrementAndGet();
+      return true;
+    }
+
+
+
+
+    /**
+     * @return the newest job on our deque, or null if it is empty
+     */
+    private ThreadJob pollFirst() {
+      final ThreadJob retval = deque.pollFirst();
+      if (retval != null) {
+        queued.decrementAndGet();
+      }
+      return retval;
+    }
+
+
+
+
+    /**
+     * @return the oldest job on our deque, for a peer to steal, or null if it
+     *         is empty
+     */
+    ThreadJob pollLast() {
+      final ThreadJob retval = deque.pollLast();
+      if (retval != null) {
+        queued.decrementAndGet();
+      }
+      return retval;
+    }
+
+
+
+
+    /**
+     * Find a job and run it, in the work-stealing mode.
+     *
+     * <p>Jobs come first from our own deque, newest first, then from the
+     * shared queue and then from the oldest end of our peers' deques. Only
+     * when there is no work anywhere do we register as idle and wait on the
+     * shared queue, checking our peers between waits since their jobs do not
+     * wake us. A job found without waiting is run without touching any of the
+     * pool's locks.</p>
+     */
+    private void doStealingWork() {
+      ThreadJob job = pollFirst();
+      if (job == null) {
+        job = (ThreadJob)jobqueue.poll();
+      }
+      if (job == null) {
+        job = steal();
+      }
+      if (job == null) {
+        job = awaitJob();
+      }
+
+      if (job != null && isShutdown()) {
+        // we were told to stop after taking the job, let another worker run it
+        requeue(job);
+      } else if (job != null) {
+        recordWait(job);
+        current_job = job;
+        Correlation.setId(job.getCorrelationId());
+        final long began = System.nanoTime();
+        try {
+          job.run();
+        } catch (Throwable t) {
+          java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+          t.printStackTrace(new java.io.PrintWriter(out, true));
+          Log.error("\"" + current_thread.getName() + "\" ThreadWorker.run() exception during run() call " + t.toString() + ":" + t.getMessage() + System.getProperty("line.separator") + out.toString());
+        } finally {
+          Correlation.setId(null);
+          recordService(began);
+          current_job = null;
+
+          // Reset any inturrpted state before moving on to the next job
+          Thread.interrupted();
+          runs++;
+        }
+      }
+    }
+
+
+
+
+    /**
+     * Wait for a job as an idle worker, shutting down if none arrives within
+     * the job-wait time and there are more workers than the minimum.
+     *
+     * @return the job or null if none arrived
+     */
+    private ThreadJob awaitJob() {
+      ThreadJob job = null;
+      boolean retired = false;
+      waiting.incrementAndGet();
+      synchronized (idle_set) {
+        idle_set.add(current_thread);
+      }
+      try {
+        // the controller decides when idle workers retire if there is a target
+        final long deadline = (job_wait_time > 0 && target_latency == 0) ? System.currentTimeMillis() + job_wait_time : 0;
+        while (job == null && !isShutdown()) {
+          int slice = STEAL_WAIT;
+          if (deadline > 0) {
+            final long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+              break;
+            }
+            slice = (int)Math.min(slice, remaining);
+          }
+          job = getJob(slice);
+          if (job == null) {
+            job = steal();
+          }
+          if (job == null && isControlled()) {
+            control();
+            if (target_latency > 0 && retireIdle()) {
+              retired = true;
+              break;
+            }
+          }
+        }
+      } catch (InterruptedException ignore) {
+        // this is expected
+      } catch (InterruptedIOException e) {
+        if (Log.isLogging(THREAD)) {
+          Log.append(THREAD, "\"" + current_thread.getName() + "\" ThreadWorker.awaitJob() exception " + e.toString() + " shutdown=" + isShutdown());
+        }
+      } finally {
+        waiting.decrementAndGet();
+        synchronized (idle_set) {
+          idle_set.remove(current_thread);
+        }
+      }
+
+      if (job == null && isRunning() && !isShutdown() && (retired || target_latency == 0) && worker_set.size() > minimum_workers) {
+        if (Log.isLogging(THREAD)) {
+          Log.append(THREAD, "Idle death: " + current_thread.getName());
+        }
+        this.shutdown();
+      }
+      return job;
+    }
+
+
+
+
+    /**
+     * @return the oldest job of a peer, starting with a random one, or null
+     *         if none of them have any
+     */
+    private ThreadJob steal() {
+      final ThreadWorker[] peers = stealable;
+      if (peers.length > 1) {
+        final int start = ThreadLocalRandom.current().nextInt(peers.length);
+        for (int i = 0; i < peers.length; i++) {
+          final ThreadWorker peer = peers[(start + i) % peers.length];
+          if (peer != this) {
+            final ThreadJob job = peer.pollLast();
+            if (job != null) {
+              return job;
+            }
+          }
+        }
+      }
+      return null;
+    }
+
   } // End of inner class
 
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.loader.thread;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import coyote.loader.log.Log;
+
+
+/**
+ * A hashed timer wheel for large numbers of short, frequently replaced
+ * timeouts.
+ *
+ * <p>Time is divided into ticks and each timeout is placed in the bucket for
+ * the tick in which it expires, so scheduling and cancelling cost the same
+ * however many timeouts are outstanding, and the wheel's thread only looks
+ * at the timeouts which are due. Timeouts are never run early and are
+ * normally run within one tick of their deadline.</p>
+ *
+ * <p>Scheduling and cancelling are lock-free and may be done from any
+ * thread. Expired tasks are run in the wheel's thread, so they should be
+ * brief; hand any real work to a thread pool. The wheel parks while it has
+ * no timeouts.</p>
+ */
+public class TimerWheel extends ThreadJob {
+
+  /** The default length of a tick in milliseconds */
+  public static final long DEFAULT_TICK = 10;
+
+  /** The default number of buckets */
+  public static final int DEFAULT_SIZE = 512;
+
+  private final long tick_nanos;
+
+  private final ArrayList<Timeout>[] buckets;
+
+  private final int mask;
+
+  /** When the wheel was created; ticks are counted from here */
+  private final long start = System.nanoTime();
+
+  /** The last tick processed */
+  private long current_tick = 0;
+
+  /** Timeouts scheduled but not yet placed in a bucket */
+  private final ConcurrentLinkedQueue<Timeout> pending = new ConcurrentLinkedQueue<Timeout>();
+
+  /** Timeouts scheduled but not yet expired or removed */
+  private final AtomicInteger outstanding = new AtomicInteger();
+
+
+
+
+  /**
+   * A task scheduled to run at a given tick.
+   */
+  public static final class Timeout {
+    private final Runnable task;
+    private final long deadline;
+    private volatile boolean cancelled = false;
+
+
+
+
+    Timeout(final Runnable task, final long deadline) {
+      this.task = task;
+      this.deadline = deadline;
+    }
+
+
+
+
+    /**
+     * Prevent the task from running, if it has not already.
+     */
+    public void cancel() {
+      cancelled = true;
+    }
+
+
+
+
+    /**
+     * @return true if the timeout was cancelled
+     */
+    public boolean isCancelled() {
+      return cancelled;
+    }
+  }
+
+
+
+
+  /**
+   * Create a wheel with the default tick and size.
+   */
+  public TimerWheel() {
+    this(DEFAULT_TICK, DEFAULT_SIZE);
+  }
+
+
+
+
+  /**
+   * Create a wheel.
+   *
+   * @param tickMillis the length of a tick in milliseconds, the resolution of
+   *        the timeouts
+   * @param size the number of buckets, rounded up to a power of two; timeouts
+   *        further than this many ticks out share buckets with nearer ones
+   */
+  @SuppressWarnings("unchecked")
+  public TimerWheel(final long tickMillis, final int size) {
+    if (tickMillis < 1) {
+      throw new IllegalArgumentException("Tick must be at least one millisecond");
+    }
+    if (size < 1) {
+      throw new IllegalArgumentException("Wheel must have at least one bucket");
+    }
+    tick_nanos = tickMillis * 1000000;
+    int length = Integer.highestOneBit(size);
+    if (length < size) {
+      length <<= 1;
+    }
+    buckets = new ArrayList[length];
+    for (int i = 0; i < length; i++) {
+      buckets[i] = new ArrayList<Timeout>();
+    }
+    mask = length - 1;
+
+    // ticks must be serviced on time, never idled
+    setHyper(true);
+  }
+
+
+
+
+  /**
+   * Schedule a task.
+   *
+   * @param task what to run when the timeout expires
+   * @param delayMillis how long from now the timeout expires
+   *
+   * @return the timeout, which may be cancelled
+   */
+  public Timeout schedule(final Runnable task, final long delayMillis) {
+    if (task == null) {
+      throw new IllegalArgumentException("Task cannot be null");
+    }
+    final long elapsed = System.nanoTime() - start + Math.max(0, delayMillis) * 1000000;
+    final Timeout retval = new Timeout(task, (elapsed + tick_nanos - 1) / tick_nanos);
+    pending.offer(retval);
+    if (outstanding.getAndIncrement() == 0 && current_thread != null) {
+      LockSupport.unpark(current_thread);
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @return the number of timeouts scheduled which have not yet expired,
+   *         including any cancelled ones not yet removed
+   */
+  public int size() {
+    return outstanding.get();
+  }
+
+
+
+
+  /**
+   * Wait for the next tick and expire the timeouts which are due.
+   */
+  @Override
+  public void doWork() {
+    if (outstanding.get() == 0) {
+      LockSupport.park(this);
+      return;
+    }
+
+    final long elapsed = System.nanoTime() - start;
+    final long now = elapsed / tick_nanos;
+    if (now <= current_tick) {
+      LockSupport.parkNanos(this, (current_tick + 1) * tick_nanos - elapsed);
+      return;
+    }
+
+    Timeout timeout;
+    while ((timeout = pending.poll()) != null) {
+      buckets[(int)(Math.max(timeout.deadline, current_tick + 1) & mask)].add(timeout);
+    }
+
+    // every bucket between the last tick and this one; if we fell behind by
+    // more than a lap, each bucket once
+    final long last = Math.min(now, current_tick + buckets.length);
+    for (long t = current_tick + 1; t <= last; t++) {
+      expire(buckets[(int)(t & mask)], now);
+    }
+    current_tick = now;
+  }
+
+
+
+
+  /**
+   * Run the timeouts in the bucket which are due and drop the cancelled ones.
+   */
+  private void expire(final ArrayList<Timeout> bucket, final long now) {
+    if (bucket.isEmpty()) {
+      return;
+    }
+    for (final Iterator<Timeout> it = bucket.iterator(); it.hasNext();) {
+      final Timeout timeout = it.next();
+      if (timeout.cancelled) {
+        it.remove();
+        outstanding.decrementAndGet();
+      } else if (timeout.deadline <= now) {
+        it.remove();
+        outstanding.decrementAndGet();
+        try {
+          timeout.task.run();
+        } catch (final Throwable t) {
+          Log.error("TimerWheel task " + timeout.task + " threw " + t.toString());
+        }
+      }
+    }
+  }
+
+
+
+
+  /**
+   * Wake the wheel so it notices the shutdown.
+   */
+  @Override
+  public void shutdown() {
+    super.shutdown();
+    if (current_thread != null) {
+      LockSupport.unpark(current_thread);
+    }
+  }
+
+
+
+
+  /**
+   * Discard any remaining timeouts.
+   */
+  @Override
+  public void terminate() {
+    pending.clear();
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i].clear();
+    }
+    outstanding.set(0);
+  }
+
+}
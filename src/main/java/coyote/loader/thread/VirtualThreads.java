@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.loader.thread;
+
+import java.lang.reflect.Method;
+
+
+/**
+ * Creates virtual threads on runtimes which support them.
+ *
+ * <p>Virtual threads are scheduled by the JVM onto a small number of carrier
+ * threads, so a blocked or parked virtual thread costs a little heap rather
+ * than an operating system thread and its stack. This makes them a good fit
+ * for the many mostly-idle jobs a loader may run.</p>
+ *
+ * <p>The library is built for older runtimes, so the virtual thread API is
+ * reached through reflection. On a runtime without virtual threads
+ * {@link #isSupported()} returns false and callers fall back to platform
+ * threads.</p>
+ */
+public final class VirtualThreads {
+
+  /** Thread.ofVirtual() */
+  private static final Method OF_VIRTUAL;
+
+  /** Thread.Builder.name(String) */
+  private static final Method NAME;
+
+  /** Thread.Builder.unstarted(Runnable) */
+  private static final Method UNSTARTED;
+
+  /** Thread.isVirtual() */
+  private static final Method IS_VIRTUAL;
+
+  static {
+    Method ofVirtual = null;
+    Method name = null;
+    Method unstarted = null;
+    Method isVirtual = null;
+    try {
+      final Class<?> builder = Class.forName("java.lang.Thread$Builder");
+      ofVirtual = Thread.class.getMethod("ofVirtual");
+      name = builder.getMethod("name", String.class);
+      unstarted = builder.getMethod("unstarted", Runnable.class);
+      isVirtual = Thread.class.getMethod("isVirtual");
+
+      // make sure they are usable and not a preview we cannot enable
+      unstarted.invoke(ofVirtual.invoke(null), new Runnable() {
+        @Override
+        public void run() {}
+      });
+    } catch (final Throwable t) {
+      ofVirtual = null;
+    }
+    OF_VIRTUAL = ofVirtual;
+    NAME = name;
+    UNSTARTED = unstarted;
+    IS_VIRTUAL = isVirtual;
+  }
+
+
+
+
+  private VirtualThreads() {}
+
+
+
+
+  /**
+   * @return true if this runtime can create virtual threads
+   */
+  public static boolean isSupported() {
+    return OF_VIRTUAL != null;
+  }
+
+
+
+
+  /**
+   * Create an unstarted virtual thread.
+   *
+   * @param task what the thread is to run
+   * @param name the name of the thread, may be null
+   *
+   * @return a new unstarted virtual thread or null if this runtime does not
+   *         support them
+   */
+  public static Thread newThread(final Runnable task, final String name) {
+    if (OF_VIRTUAL == null) {
+      return null;
+    }
+    try {
+      Object builder = OF_VIRTUAL.invoke(null);
+      if (name != null && name.length() > 0) {
+        builder = NAME.invoke(builder, name);
+      }
+      return (Thread)UNSTARTED.invoke(builder, task);
+    } catch (final Exception e) {
+      return null;
+    }
+  }
+
+
+
+
+  /**
+   * @param thread the thread to check
+   *
+   * @return true if the thread is a virtual thread
+   */
+  public static boolean isVirtual(final Thread thread) {
+    if (OF_VIRTUAL == null || thread == null) {
+      return false;
+    }
+    try {
+      return (Boolean)IS_VIRTUAL.invoke(thread);
+    } catch (final Exception e) {
+      return false;
+    }
+  }
+
+}
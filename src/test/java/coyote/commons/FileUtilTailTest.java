@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.commons;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class FileUtilTailTest {
+  private static File testFile = null;
+
+  /** More lines than fit in one block so the tail spans blocks */
+  private static final int LINES = 5000;
+
+
+
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    testFile = File.createTempFile( "tail", ".log" );
+    StringBuilder b = new StringBuilder();
+    for ( int x = 0; x < LINES; x++ ) {
+      b.append( "line " ).append( x ).append( '\n' );
+    }
+    try (FileOutputStream out = new FileOutputStream( testFile )) {
+      out.write( b.toString().getBytes( "US-ASCII" ) );
+    }
+  }
+
+
+
+
+  @AfterClass
+  public static void tearDownAfterClass() throws Exception {
+    testFile.delete();
+  }
+
+
+
+
+  @Test
+  public void testTail() throws Exception {
+    assertEquals( "line 4999", FileUtil.tail( testFile, 1 ) );
+    assertEquals( "line 4997\nline 4998\nline 4999", FileUtil.tail( testFile, 3 ) );
+
+    // spans several blocks
+    String tail = FileUtil.tail( testFile, 2000 );
+    assertEquals( 2000, tail.split( "\n" ).length );
+    assertEquals( "line 3000", tail.substring( 0, tail.indexOf( '\n' ) ) );
+
+    // more lines than the file holds returns the whole file
+    assertEquals( LINES, FileUtil.tail( testFile, LINES * 2 ).split( "\n" ).length );
+  }
+
+
+
+
+  @Test
+  public void testTailWithoutTrailingNewline() throws Exception {
+    File file = File.createTempFile( "tail", ".log" );
+    try {
+      try (FileOutputStream out = new FileOutputStream( file )) {
+        out.write( "one\r\ntwo\r\nthree".getBytes( "US-ASCII" ) );
+      }
+      // line endings are normalized to newlines
+      assertEquals( "two\nthree", FileUtil.tail( file, 2 ) );
+      assertEquals( "one\ntwo\nthree", FileUtil.tail( file, 3 ) );
+    } finally {
+      file.delete();
+    }
+  }
+
+
+
+
+  @Test
+  public void testTailCharset() throws Exception {
+    File file = File.createTempFile( "tail", ".log" );
+    try {
+      try (FileOutputStream out = new FileOutputStream( file )) {
+        out.write( "caf\u00e9\n\n\u00fcber\n".getBytes( "UTF-8" ) );
+      }
+      assertEquals( "caf\u00e9\n\n\u00fcber", FileUtil.tail( file, 3, StandardCharsets.UTF_8 ) );
+      assertEquals( "\n\u00fcber", FileUtil.tail( file, 2, StandardCharsets.UTF_8 ) );
+    } finally {
+      file.delete();
+    }
+  }
+
+
+
+
+  @Test
+  public void testTailStream() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = FileUtil.tailStream( testFile, 2 )) {
+      byte[] buffer = new byte[16];
+      int count;
+      while ( ( count = in.read( buffer ) ) != -1 ) {
+        out.write( buffer, 0, count );
+      }
+    }
+    assertEquals( "line 4998\nline 4999\n", out.toString( "US-ASCII" ) );
+  }
+
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class MultipartParserTest {
+
+  private static final String BOUNDARY = "----coyote7MA4YWxkTrZu0gW";
+
+
+
+
+  private static byte[] build(final String preamble, final Object[][] parts) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    out.write(preamble.getBytes("US-ASCII"));
+    for (final Object[] part : parts) {
+      out.write(("--" + BOUNDARY + "\r\n").getBytes("US-ASCII"));
+      out.write(((String)part[0]).getBytes("US-ASCII"));
+      out.write("\r\n".getBytes("US-ASCII"));
+      out.write((byte[])part[1]);
+      out.write("\r\n".getBytes("US-ASCII"));
+    }
+    out.write(("--" + BOUNDARY + "--\r\nepilogue").getBytes("US-ASCII"));
+    return out.toByteArray();
+  }
+
+
+
+
+  private static byte[] pattern(final int size) {
+    final byte[] retval = new byte[size];
+    for (int x = 0; x < size; x++) {
+      // include CR, LF and dashes to tease the delimiter scan
+      retval[x] = (byte)("\r\n--" + BOUNDARY.substring(0, 8) + "abc").charAt(x % 15);
+    }
+    return retval;
+  }
+
+
+
+
+  @Test
+  public void fieldsAndFile() throws Exception {
+    final byte[] file = pattern(100000);
+    final byte[] body = build("", new Object[][]{{"Content-Disposition: form-data; name=\"caption\"\r\n", "Summer vacation".getBytes("US-ASCII")}, {"Content-Disposition: form-data; name=\"upload\"; filename=\"data.bin\"\r\nContent-Type: application/octet-stream\r\n", file}});
+
+    final MultipartParser parser = new MultipartParser(new ByteArrayInputStream(body), BOUNDARY, body.length, "UTF-8", 64);
+    MultipartParser.Part part = parser.next();
+    assertNotNull(part);
+    assertEquals("caption", part.getName());
+    assertNull(part.getFileName());
+    assertNull(part.getContentType());
+    assertEquals("Summer vacation", part.getString());
+
+    part = parser.next();
+    assertNotNull(part);
+    assertEquals("upload", part.getName());
+    assertEquals("data.bin", part.getFileName());
+    assertEquals("application/octet-stream", part.getContentType());
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    assertEquals(file.length, part.transferTo(out));
+    assertArrayEquals(file, out.toByteArray());
+
+    assertNull(parser.next());
+    assertTrue(parser.isFinished());
+    parser.close();
+  }
+
+
+
+
+  @Test
+  public void callbackWithPreambleAndSkippedParts() throws Exception {
+    final byte[] body = build("This is the preamble\r\n", new Object[][]{{"Content-Disposition: form-data; name=\"one\"\r\n", pattern(5000)}, {"Content-Disposition: form-data; name=\"two\"\r\n", "second".getBytes("US-ASCII")}, {"Content-Disposition: form-data; name=\"three\"\r\n", new byte[0]}});
+
+    final List<String> names = new ArrayList<String>();
+    final List<String> values = new ArrayList<String>();
+    final MultipartParser parser = new MultipartParser(new ByteArrayInputStream(body), BOUNDARY, -1, "UTF-8", 128);
+    final int count = parser.parse(new MultipartParser.PartHandler() {
+      @Override
+      public void handle(final MultipartParser.Part part) throws IOException {
+        names.add(part.getName());
+        // leave the first part unread; the parser must skip it
+        if (!"one".equals(part.getName())) {
+          values.add(part.getString());
+        }
+      }
+    });
+
+    assertEquals(3, count);
+    assertEquals("one", names.get(0));
+    assertEquals("two", names.get(1));
+    assertEquals("three", names.get(2));
+    assertEquals("second", values.get(0));
+    assertEquals("", values.get(1));
+  }
+
+
+
+
+  @Test
+  public void readsOnlyContentLength() throws Exception {
+    final byte[] body = build("", new Object[][]{{"Content-Disposition: form-data; name=\"field\"\r\n", "value".getBytes("US-ASCII")}});
+    final byte[] trailing = "GET / HTTP/1.1\r\n".getBytes("US-ASCII");
+    final byte[] stream = new byte[body.length + trailing.length];
+    System.arraycopy(body, 0, stream, 0, body.length);
+    System.arraycopy(trailing, 0, stream, body.length, trailing.length);
+
+    final InputStream in = new ByteArrayInputStream(stream);
+    final MultipartParser parser = new MultipartParser(in, BOUNDARY, body.length, "UTF-8");
+    assertEquals("value", parser.next().getString());
+    assertNull(parser.next());
+    parser.close();
+
+    // the next request on the connection must be untouched
+    final byte[] next = new byte[trailing.length];
+    assertEquals(trailing.length, in.read(next));
+    assertArrayEquals(trailing, next);
+  }
+
+
+
+
+  @Test
+  public void missingBoundary() throws Exception {
+    final byte[] body = "no boundaries in here".getBytes("US-ASCII");
+    final MultipartParser parser = new MultipartParser(new ByteArrayInputStream(body), BOUNDARY, body.length, "UTF-8");
+    try {
+      parser.next();
+      fail("Should not find a part");
+    } catch (final ResponseException e) {
+      assertEquals(Status.BAD_REQUEST, e.getStatus());
+    }
+  }
+
+
+
+
+  @Test
+  public void truncatedPart() throws Exception {
+    final byte[] body = ("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"field\"\r\n\r\nnever ends").getBytes("US-ASCII");
+    final MultipartParser parser = new MultipartParser(new ByteArrayInputStream(body), BOUNDARY, body.length, "UTF-8");
+    final MultipartParser.Part part = parser.next();
+    assertNotNull(part);
+    try {
+      part.getString();
+      fail("Should not read a part without a closing boundary");
+    } catch (final IOException e) {
+      // expected
+    }
+  }
+
+}
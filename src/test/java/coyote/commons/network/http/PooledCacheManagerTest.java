@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import coyote.commons.FileUtil;
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
+
+
+/**
+ *
+ */
+public class PooledCacheManagerTest {
+
+  private CachePool pool;
+
+
+
+
+  @Before
+  public void setUp() {
+    pool = new CachePool(1024, 2, 10 * 1024, 1, null);
+  }
+
+
+
+
+  @After
+  public void tearDown() {
+    pool.close();
+  }
+
+
+
+
+  private static byte[] data(final int size) {
+    final byte[] retval = new byte[size];
+    for (int x = 0; x < size; x++) {
+      retval[x] = (byte)x;
+    }
+    return retval;
+  }
+
+
+
+
+  @Test
+  public void smallBodyStaysInMemory() throws Exception {
+    final PooledCacheManager manager = new PooledCacheManager(pool);
+    final PooledCacheFile file = (PooledCacheFile)manager.createCacheFile(null);
+    final byte[] expected = data(1000);
+    file.open().write(expected);
+
+    assertTrue(file.isInMemory());
+    assertEquals(1000, file.getSize());
+    final ByteBuffer buffer = file.getBuffer();
+    final byte[] actual = new byte[buffer.remaining()];
+    buffer.get(actual);
+    assertArrayEquals(expected, actual);
+    assertEquals(1024, pool.getMemoryUsed());
+    assertEquals(0, pool.getDiskUsed());
+    assertEquals(0, pool.getSpillCount());
+
+    manager.clear();
+    assertEquals(0, pool.getMemoryUsed());
+    assertEquals(1024, pool.getMemoryAllocated());
+  }
+
+
+
+
+  @Test
+  public void largeBodySpillsAndScratchIsReused() throws Exception {
+    final PooledCacheManager manager = new PooledCacheManager(pool);
+    final PooledCacheFile file = (PooledCacheFile)manager.createCacheFile(null);
+    final byte[] expected = data(5000);
+    final OutputStream out = file.open();
+    out.write(expected, 0, 600);
+    assertTrue(file.isInMemory());
+    out.write(expected, 600, 4400);
+    assertFalse(file.isInMemory());
+
+    final String name = file.getName();
+    assertArrayEquals(expected, FileUtil.read(new File(name)));
+    assertEquals(5000, pool.getDiskUsed());
+    assertEquals(0, pool.getMemoryUsed());
+    assertEquals(1, pool.getScratchFilesInUse());
+
+    manager.clear();
+    assertEquals(0, pool.getDiskUsed());
+    assertEquals(0, pool.getScratchFilesInUse());
+    assertEquals(0, new File(name).length());
+
+    // the same scratch file should be handed out again
+    final PooledCacheFile next = (PooledCacheFile)manager.createCacheFile(null);
+    next.open().write(data(2000));
+    assertEquals(name, next.getName());
+    assertEquals(1, pool.getScratchFileCount());
+    manager.clear();
+  }
+
+
+
+
+  @Test
+  public void mappedScratchIsNotReused() throws Exception {
+    final PooledCacheManager manager = new PooledCacheManager(pool);
+    final PooledCacheFile file = (PooledCacheFile)manager.createCacheFile(null);
+    final byte[] expected = data(5000);
+    file.open().write(expected);
+    final ByteBuffer mapped = file.map();
+    final String name = file.getName();
+    assertEquals(5000, mapped.remaining());
+
+    manager.clear();
+    assertFalse(new File(name).exists());
+    assertEquals(0, pool.getScratchFileCount());
+    assertEquals(0, pool.getScratchFilesInUse());
+
+    // the mapping must still be readable after the cache file is gone
+    final byte[] actual = new byte[mapped.remaining()];
+    mapped.get(actual);
+    assertArrayEquals(expected, actual);
+
+    final PooledCacheFile next = (PooledCacheFile)manager.createCacheFile(null);
+    next.open().write(data(2000));
+    assertFalse(name.equals(next.getName()));
+    assertEquals(1, pool.getScratchFileCount());
+    manager.clear();
+  }
+
+
+
+
+  @Test
+  public void usageIsPublished() throws Exception {
+    final StatBoard board = new StatBoardImpl();
+    final PooledCacheManager manager = new PooledCacheManager(pool);
+    manager.createCacheFile(null).open().write(data(2000));
+    pool.publish(board);
+    assertEquals(2000L, board.getState(CachePool.METRIC_PREFIX + "disk_used").getValue());
+    assertEquals(1L, board.getState(CachePool.METRIC_PREFIX + "spills").getValue());
+    assertEquals(1L, board.getState(CachePool.METRIC_PREFIX + "scratch_in_use").getValue());
+    manager.clear();
+    pool.publish(board);
+    assertEquals(0L, board.getState(CachePool.METRIC_PREFIX + "disk_used").getValue());
+  }
+
+
+
+
+  @Test
+  public void diskQuotaIsGlobal() throws Exception {
+    final PooledCacheManager first = new PooledCacheManager(pool);
+    final PooledCacheManager second = new PooledCacheManager(pool);
+    first.createCacheFile(null).open().write(data(8 * 1024));
+    try {
+      second.createCacheFile(null).open().write(data(4 * 1024));
+      fail("Disk quota should have been exceeded");
+    } catch (final IOException e) {
+      // expected
+    }
+    assertEquals(1, pool.getDiskDenials());
+    first.clear();
+    second.clear();
+    assertEquals(0, pool.getDiskUsed());
+  }
+
+
+
+
+  @Test
+  public void memoryQuotaGoesStraightToDisk() throws Exception {
+    final PooledCacheManager manager = new PooledCacheManager(pool);
+    final PooledCacheFile one = (PooledCacheFile)manager.createCacheFile(null);
+    final PooledCacheFile two = (PooledCacheFile)manager.createCacheFile(null);
+    final PooledCacheFile three = (PooledCacheFile)manager.createCacheFile(null);
+    three.open().write(data(10));
+    assertTrue(one.isInMemory());
+    assertTrue(two.isInMemory());
+    assertFalse(three.isInMemory());
+    assertEquals(1, pool.getMemoryDenials());
+    assertEquals(10, new File(three.getName()).length());
+    manager.clear();
+    assertEquals(0, pool.getMemoryUsed());
+  }
+
+
+
+
+  @Test
+  public void vanishedScratchFileIsReplaced() throws Exception {
+    assertEquals(1, pool.getScratchFileCount());
+    final File pooled = pool.acquireScratchFile();
+    pool.releaseScratchFile(pooled);
+    assertTrue(pooled.delete());
+
+    // the replacement takes the place of the missing file in the count
+    final File replacement = pool.acquireScratchFile();
+    assertTrue(replacement.exists());
+    assertEquals(1, pool.getScratchFileCount());
+    pool.releaseScratchFile(replacement);
+  }
+
+
+
+
+  @Test
+  public void multipartUploadIsAlwaysAFile() throws Exception {
+    final PooledCacheManager manager = new PooledCacheManager(pool) {
+      @Override
+      public void clear() {
+        // keep the entities around for inspection
+      }
+    };
+    final HttpServerTest.TestServer server = new HttpServerTest.TestServer();
+    final String divider = UUID.randomUUID().toString();
+    final String content = "--" + divider + "\r\nContent-Disposition: form-data; name=\"photo\"; filename=\"a.txt\"\r\nContent-Type: text/plain\r\n\r\nSmall upload\r\n--" + divider + "--\r\n";
+    final String request = "POST /upload HTTP/1.1\r\nContent-Type: multipart/form-data; boundary=" + divider + "\r\nContent-Length: " + content.length() + "\r\n\r\n" + content;
+
+    final HTTPSessionImpl session = server.createSession(manager, new ByteArrayInputStream(request.getBytes("US-ASCII")), new ByteArrayOutputStream());
+    session.execute();
+
+    assertNotNull(server.body);
+    // even an upload which would fit in memory
+    assertTrue(server.body.get("photo") instanceof File);
+    assertEquals("Small upload", server.body.getAsString("photo"));
+    assertEquals("a.txt", server.parms.get("photo"));
+  }
+
+}
@@ -0,0 +1,370 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http.wsd;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+import coyote.commons.network.http.MockSession;
+import coyote.commons.network.http.wsd.WebSocketFrame.CloseCode;
+
+
+/**
+ *
+ */
+public class BroadcastHubTest {
+
+  private BroadcastHub hub;
+
+
+
+
+  @After
+  public void tearDown() {
+    if (hub != null) {
+      hub.shutdown();
+    }
+  }
+
+
+
+
+  private static String text(final EncodedFrame frame) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    frame.write(out);
+    return WebSocketFrame.read(new ByteArrayInputStream(out.toByteArray())).getTextPayload();
+  }
+
+
+
+
+  private static void waitFor(final TestSocket socket, final int count) throws InterruptedException {
+    final long end = System.currentTimeMillis() + 5000;
+    synchronized (socket.frames) {
+      while (socket.frames.size() < count) {
+        final long wait = end - System.currentTimeMillis();
+        if (wait <= 0) {
+          fail("Expected " + count + " frames, received " + socket.frames.size());
+        }
+        socket.frames.wait(wait);
+      }
+    }
+  }
+
+
+
+
+  @Test
+  public void encodeOnceFanOut() throws Exception {
+    hub = new BroadcastHub();
+    final TestSocket[] sockets = {new TestSocket(), new TestSocket(), new TestSocket()};
+    for (final TestSocket socket : sockets) {
+      hub.subscribe("metrics", socket);
+    }
+    assertEquals(3, hub.getSubscriberCount("metrics"));
+    assertEquals(3, hub.publish("metrics", "{\"cpu\":42}"));
+    assertEquals(0, hub.publish("nobody", "ignored"));
+
+    for (final TestSocket socket : sockets) {
+      waitFor(socket, 1);
+    }
+    assertSame(sockets[0].frames.get(0), sockets[1].frames.get(0));
+    assertSame(sockets[0].frames.get(0), sockets[2].frames.get(0));
+    assertEquals("{\"cpu\":42}", text(sockets[0].frames.get(0)));
+    assertEquals(2, hub.getPublishedCount());
+  }
+
+
+
+
+  @Test
+  public void dropWhenFull() throws Exception {
+    hub = new BroadcastHub(2, SlowConsumerPolicy.DROP, 1);
+    final TestSocket socket = new TestSocket();
+    socket.block();
+    hub.subscribe("feed", socket);
+    hub.publish("feed", "0");
+    socket.awaitBlocked();
+
+    for (int x = 1; x < 5; x++) {
+      hub.publish("feed", Integer.toString(x));
+    }
+    assertEquals(2, hub.getQueueDepth(socket));
+    assertEquals(2, hub.getDroppedCount());
+
+    socket.release();
+    waitFor(socket, 3);
+    assertEquals("0", text(socket.frames.get(0)));
+    assertEquals("1", text(socket.frames.get(1)));
+    assertEquals("2", text(socket.frames.get(2)));
+  }
+
+
+
+
+  @Test
+  public void coalesceByTopic() throws Exception {
+    hub = new BroadcastHub(2, SlowConsumerPolicy.COALESCE, 1);
+    final TestSocket socket = new TestSocket();
+    socket.block();
+    hub.subscribe("a", socket);
+    hub.subscribe("b", socket);
+    hub.subscribe("c", socket);
+    hub.publish("a", "a0");
+    socket.awaitBlocked();
+
+    hub.publish("a", "a1");
+    hub.publish("a", "a2");
+    hub.publish("a", "a3");
+    hub.publish("b", "b1");
+    assertEquals(2, hub.getQueueDepth(socket));
+    assertEquals(2, hub.getCoalescedCount());
+
+    // no room and nothing to merge with, the oldest gives way
+    hub.publish("c", "c1");
+    assertEquals(1, hub.getDroppedCount());
+
+    socket.release();
+    waitFor(socket, 3);
+    assertEquals("a0", text(socket.frames.get(0)));
+    assertEquals("b1", text(socket.frames.get(1)));
+    assertEquals("c1", text(socket.frames.get(2)));
+  }
+
+
+
+
+  @Test
+  public void disconnectWhenFull() throws Exception {
+    hub = new BroadcastHub(1, SlowConsumerPolicy.DROP, 1);
+    final TestSocket slow = new TestSocket();
+    final TestSocket fast = new TestSocket();
+    slow.block();
+    hub.subscribe("feed", slow, SlowConsumerPolicy.DISCONNECT);
+    hub.publish("feed", "0");
+    slow.awaitBlocked();
+
+    hub.publish("feed", "1");
+    hub.subscribe("feed", fast);
+    assertEquals(1, hub.publish("feed", "2"));
+
+    assertEquals(CloseCode.PolicyViolation, slow.closeCode);
+    assertEquals(1, hub.getDisconnectedCount());
+    assertEquals(1, hub.getConnectionCount());
+
+    slow.release();
+    waitFor(fast, 1);
+    assertEquals("2", text(fast.frames.get(0)));
+    assertEquals(1, slow.frames.size());
+  }
+
+
+
+
+  @Test
+  public void stalledWriterIsReplaced() throws Exception {
+    hub = new BroadcastHub(2, SlowConsumerPolicy.DROP, 1);
+    hub.setWriteTimeout(50);
+    final TestSocket slow = new TestSocket();
+    final TestSocket fast = new TestSocket();
+    slow.block();
+    hub.subscribe("feed", slow);
+    hub.subscribe("feed", fast);
+    hub.publish("feed", "0");
+    slow.awaitBlocked();
+
+    // the only writer is stuck on the slow socket, yet the fast one is served
+    waitFor(fast, 1);
+    assertEquals(1, hub.getStalledCount());
+    assertTrue(slow.isOpen());
+
+    // the stalled connection keeps its queue and its policy
+    for (int x = 1; x < 5; x++) {
+      hub.publish("feed", Integer.toString(x));
+      waitFor(fast, x + 1);
+    }
+    assertEquals(2, hub.getQueueDepth(slow));
+    assertEquals(2, hub.getDroppedCount());
+
+    slow.release();
+    waitFor(slow, 3);
+    assertEquals("0", text(slow.frames.get(0)));
+    assertEquals("1", text(slow.frames.get(1)));
+    assertEquals("2", text(slow.frames.get(2)));
+    assertEquals(8, hub.getWrittenCount());
+  }
+
+
+
+
+  @Test
+  public void stalledWriteDisconnects() throws Exception {
+    hub = new BroadcastHub(4, SlowConsumerPolicy.DROP, 1);
+    hub.setWriteTimeout(50);
+    final TestSocket slow = new TestSocket();
+    final TestSocket fast = new TestSocket();
+    slow.block();
+    hub.subscribe("feed", slow, SlowConsumerPolicy.DISCONNECT);
+    hub.subscribe("feed", fast);
+    hub.publish("feed", "0");
+    slow.awaitBlocked();
+
+    waitFor(fast, 1);
+    assertEquals(CloseCode.PolicyViolation, slow.closeCode);
+    assertEquals(1, hub.getDisconnectedCount());
+    assertEquals(1, hub.getConnectionCount());
+    assertEquals(1, hub.publish("feed", "1"));
+    waitFor(fast, 2);
+    slow.release();
+  }
+
+
+
+
+  @Test
+  public void failedWriteRemovesSocket() throws Exception {
+    hub = new BroadcastHub();
+    final TestSocket broken = new TestSocket();
+    broken.broken = true;
+    hub.subscribe("feed", broken);
+    hub.publish("feed", "0");
+
+    final long end = System.currentTimeMillis() + 5000;
+    while (hub.getConnectionCount() > 0 && System.currentTimeMillis() < end) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, hub.getConnectionCount());
+    assertFalse(hub.hasSubscribers("feed"));
+    assertEquals(CloseCode.AbnormalClosure, broken.closeCode);
+  }
+
+  /**
+   * A socket which records the frames sent to it and can be made to stall.
+   */
+  static class TestSocket extends WebSocket {
+    final List<EncodedFrame> frames = new ArrayList<EncodedFrame>();
+    volatile boolean open = true;
+    volatile boolean broken = false;
+    volatile CloseCode closeCode = null;
+    private boolean blocked = false;
+    private boolean waiting = false;
+
+
+
+
+    TestSocket() {
+      super(new MockSession());
+    }
+
+
+
+
+    synchronized void block() {
+      blocked = true;
+    }
+
+
+
+
+    synchronized void release() {
+      blocked = false;
+      notifyAll();
+    }
+
+
+
+
+    synchronized void awaitBlocked() throws InterruptedException {
+      final long end = System.currentTimeMillis() + 5000;
+      while (!waiting && System.currentTimeMillis() < end) {
+        wait(100);
+      }
+      assertTrue("Writer never reached the socket", waiting);
+    }
+
+
+
+
+    @Override
+    public boolean isOpen() {
+      return open;
+    }
+
+
+
+
+    @Override
+    public void sendFrame(final EncodedFrame frame) throws IOException {
+      if (broken) {
+        throw new IOException("Connection reset");
+      }
+      synchronized (this) {
+        waiting = true;
+        notifyAll();
+        while (blocked) {
+          try {
+            wait();
+          } catch (final InterruptedException e) {
+            throw new IOException(e);
+          }
+        }
+        waiting = false;
+      }
+      synchronized (frames) {
+        frames.add(frame);
+        frames.notifyAll();
+      }
+    }
+
+
+
+
+    @Override
+    protected void onClose(final CloseCode code, final String reason, final boolean initiatedByRemote) {
+      open = false;
+      closeCode = code;
+    }
+
+
+
+
+    @Override
+    protected void onException(final IOException exception) {}
+
+
+
+
+    @Override
+    protected void onMessage(final WebSocketFrame message) {}
+
+
+
+
+    @Override
+    protected void onOpen() {}
+
+
+
+
+    @Override
+    protected void onPong(final WebSocketFrame pong) {}
+  }
+
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http.wsd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import coyote.commons.network.http.wsd.WebSocketFrame.OpCode;
+
+
+/**
+ *
+ */
+public class PerMessageDeflateTest {
+
+  private static final String JSON = "{\"name\":\"requests\",\"value\":1234,\"min\":1,\"max\":5678,\"avg\":42.5,\"samples\":[1,2,3,4,5,6,7,8,9,10]}";
+
+
+
+
+  @Test
+  public void negotiate() {
+    final PerMessageDeflate policy = new PerMessageDeflate();
+    assertEquals("permessage-deflate", policy.negotiate("permessage-deflate; client_max_window_bits").getResponseHeader());
+    assertEquals("permessage-deflate; server_no_context_takeover; client_no_context_takeover", policy.negotiate("permessage-deflate; server_no_context_takeover; client_no_context_takeover").getResponseHeader());
+    assertEquals("permessage-deflate; server_max_window_bits=15", policy.negotiate("permessage-deflate; server_max_window_bits=\"15\"").getResponseHeader());
+
+    // a smaller server window can not be honoured, the fallback offer can
+    assertEquals("permessage-deflate", policy.negotiate("permessage-deflate; server_max_window_bits=10, permessage-deflate").getResponseHeader());
+
+    assertNull(policy.negotiate("x-webkit-deflate-frame"));
+    assertNull(policy.negotiate("permessage-deflate; unknown_param"));
+    assertNull(policy.negotiate("permessage-deflate; client_no_context_takeover; client_no_context_takeover"));
+    assertNull(policy.negotiate("permessage-deflate; client_max_window_bits=99"));
+    assertNull(policy.negotiate(null));
+  }
+
+
+
+
+  @Test
+  public void serverPreferences() {
+    final PerMessageDeflate policy = new PerMessageDeflate();
+    policy.setServerNoContextTakeover(true);
+    policy.setClientNoContextTakeover(true);
+    policy.setThreshold(1024);
+    final PerMessageDeflate extension = policy.negotiate("permessage-deflate");
+    assertEquals("permessage-deflate; server_no_context_takeover; client_no_context_takeover", extension.getResponseHeader());
+    assertTrue(extension.isServerNoContextTakeover());
+    assertEquals(1024, extension.getThreshold());
+    assertFalse(extension.shouldCompress(new WebSocketFrame(OpCode.Binary, true, new byte[1023])));
+    assertTrue(extension.shouldCompress(new WebSocketFrame(OpCode.Binary, true, new byte[1024])));
+    assertFalse(extension.shouldCompress(new WebSocketFrame(OpCode.Binary, false, new byte[1024])));
+    assertFalse(extension.shouldCompress(new WebSocketFrame(OpCode.Ping, true, new byte[1024])));
+  }
+
+
+
+
+  @Test
+  public void inflateRfcExamples() throws Exception {
+    final PerMessageDeflate extension = new PerMessageDeflate().negotiate("permessage-deflate");
+
+    // RFC 7692 section 7.2.3.1, "Hello" as a single compressed message
+    final WebSocketFrame first = new WebSocketFrame(OpCode.Text, true, new byte[]{(byte)0xf2, 0x48, (byte)0xcd, (byte)0xc9, (byte)0xc9, 0x07, 0x00});
+    first.setCompressed(true);
+    extension.decompress(first);
+    assertFalse(first.isCompressed());
+    assertEquals("Hello", first.getTextPayload());
+
+    // section 7.2.3.2, the second "Hello" referring back into the shared window
+    final WebSocketFrame second = new WebSocketFrame(OpCode.Text, true, new byte[]{(byte)0xf2, 0x00, 0x11, 0x00, 0x00});
+    second.setCompressed(true);
+    extension.decompress(second);
+    assertEquals("Hello", second.getTextPayload());
+    extension.end();
+  }
+
+
+
+
+  @Test
+  public void contextTakeover() throws Exception {
+    final PerMessageDeflate server = new PerMessageDeflate().negotiate("permessage-deflate");
+    final PerMessageDeflate client = new PerMessageDeflate().negotiate("permessage-deflate");
+
+    final WebSocketFrame first = server.compress(new WebSocketFrame(OpCode.Text, true, JSON));
+    final WebSocketFrame second = server.compress(new WebSocketFrame(OpCode.Text, true, JSON));
+    assertTrue(first.isCompressed());
+    assertTrue(first.getBinaryPayload().length < JSON.length());
+    // the second copy is mostly a back reference to the first
+    assertTrue(second.getBinaryPayload().length < first.getBinaryPayload().length / 2);
+
+    client.decompress(first);
+    client.decompress(second);
+    assertEquals(JSON, first.getTextPayload());
+    assertEquals(JSON, second.getTextPayload());
+    server.end();
+    client.end();
+  }
+
+
+
+
+  @Test
+  public void noContextTakeover() throws Exception {
+    final String offer = "permessage-deflate; server_no_context_takeover; client_no_context_takeover";
+    final PerMessageDeflate server = new PerMessageDeflate().negotiate(offer);
+    final PerMessageDeflate client = new PerMessageDeflate().negotiate(offer);
+
+    final WebSocketFrame first = server.compress(new WebSocketFrame(OpCode.Text, true, JSON));
+    final WebSocketFrame second = server.compress(new WebSocketFrame(OpCode.Text, true, JSON));
+    assertArrayEquals(first.getBinaryPayload(), second.getBinaryPayload());
+
+    // each message stands alone so they can be inflated in any order
+    client.decompress(second);
+    client.decompress(first);
+    assertEquals(JSON, first.getTextPayload());
+    assertEquals(JSON, second.getTextPayload());
+  }
+
+
+
+
+  @Test
+  public void compressedFramesOnTheWire() throws Exception {
+    final PerMessageDeflate server = new PerMessageDeflate().negotiate("permessage-deflate");
+    final PerMessageDeflate client = new PerMessageDeflate().negotiate("permessage-deflate");
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    server.compress(new WebSocketFrame(OpCode.Text, true, JSON)).write(out);
+
+    try {
+      WebSocketFrame.read(new ByteArrayInputStream(out.toByteArray()));
+      fail("RSV1 must be rejected without the extension");
+    } catch (final WebSocketException e) {
+      // expected
+    }
+
+    final WebSocketFrame frame = WebSocketFrame.read(new ByteArrayInputStream(out.toByteArray()), true);
+    assertNotNull(frame);
+    assertTrue(frame.isCompressed());
+    client.decompress(frame);
+    assertEquals(JSON, frame.getTextPayload());
+  }
+
+
+
+
+  @Test
+  public void reservedBitsReported() throws Exception {
+    // FIN, RSV1 and RSV2 on an empty text frame
+    final byte[] wire = {(byte)0xE1, 0x00};
+    try {
+      WebSocketFrame.read(new ByteArrayInputStream(wire), true);
+      fail("RSV2 must be rejected");
+    } catch (final WebSocketException e) {
+      // RSV1 is allowed with the extension, so only RSV2 is reported
+      assertTrue(e.getReason(), e.getReason().contains("(100000)"));
+    }
+    try {
+      WebSocketFrame.read(new ByteArrayInputStream(wire), false);
+      fail("RSV1 and RSV2 must be rejected");
+    } catch (final WebSocketException e) {
+      assertTrue(e.getReason(), e.getReason().contains("(1100000)"));
+    }
+  }
+
+
+
+
+  @Test
+  public void inflationLimit() throws Exception {
+    final PerMessageDeflate server = new PerMessageDeflate().negotiate("permessage-deflate");
+    final PerMessageDeflate policy = new PerMessageDeflate();
+    policy.setMaxMessageSize(10000);
+    final PerMessageDeflate client = policy.negotiate("permessage-deflate");
+
+    final WebSocketFrame bomb = server.compress(new WebSocketFrame(OpCode.Binary, true, new byte[100000]));
+    assertTrue(bomb.getBinaryPayload().length < 1000);
+    try {
+      client.decompress(bomb);
+      fail("Should not inflate past the limit");
+    } catch (final WebSocketException e) {
+      assertEquals(WebSocketFrame.CloseCode.MessageTooBig, e.getCode());
+    }
+  }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http.wsd;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import coyote.commons.network.http.wsd.WebSocketFrame.OpCode;
+
+
+/**
+ * Throughput of the frame codec for small, medium and large messages.
+ *
+ * <p>Each size is measured writing masked (client) frames, writing unmasked
+ * (server) frames and reading masked frames. The byte-at-a-time writer the
+ * codec replaced is measured alongside for comparison.
+ */
+public class WebSocketFramePerfTest {
+
+  private static final int[] SIZES = {100, 4 * 1024, 1024 * 1024};
+  private static final byte[] KEY = {(byte)0x37, (byte)0xFA, (byte)0x21, (byte)0x3D};
+  private static final long RUN_MILLIS = 3000;
+
+  /** Discards everything; we are measuring the codec, not the stream */
+  private static final OutputStream NULL = new OutputStream() {
+    @Override
+    public void write(final int b) {}
+
+
+
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) {}
+  };
+
+  private static volatile long sink = 0;
+
+
+
+
+  /**
+   * The original writer: one call per header byte and per masked payload byte.
+   */
+  private static void legacyWrite(final WebSocketFrame frame, final OutputStream out) throws IOException {
+    final byte[] payload = frame.getBinaryPayload();
+    final byte[] key = frame.getMaskingKey();
+    out.write(0x80 | frame.getOpCode().getValue());
+    final int length = payload.length;
+    if (length <= 125) {
+      out.write(0x80 | length);
+    } else if (length <= 0xFFFF) {
+      out.write(0xFE);
+      out.write(length >>> 8);
+      out.write(length);
+    } else {
+      out.write(0xFF);
+      for (int shift = 56; shift >= 0; shift -= 8) {
+        out.write((int)((long)length >>> shift));
+      }
+    }
+    out.write(key);
+    for (int i = 0; i < length; i++) {
+      out.write(payload[i] ^ key[i % 4]);
+    }
+    out.flush();
+  }
+
+
+
+
+  private static void report(final String name, final int size, final long count, final long elapsed) {
+    final double seconds = elapsed / 1000d;
+    final double messages = count / seconds;
+    final double megabytes = (messages * size) / (1024d * 1024d);
+    System.out.println(String.format("%-16s %8d B %14.0f msg/s %10.1f MB/s", name, size, messages, megabytes));
+  }
+
+
+
+
+  public static void main(final String[] args) throws Exception {
+    for (final int size : SIZES) {
+      final byte[] payload = new byte[size];
+      for (int x = 0; x < size; x++) {
+        payload[x] = (byte)x;
+      }
+      final WebSocketFrame masked = new WebSocketFrame(OpCode.Binary, true, payload, KEY);
+      final WebSocketFrame unmasked = new WebSocketFrame(OpCode.Binary, true, payload);
+      final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+      masked.write(encoded);
+      final byte[] wire = encoded.toByteArray();
+
+      // warm up all the paths before measuring any of them
+      for (int x = 0; x < 20000000 / (size + 100); x++) {
+        legacyWrite(masked, NULL);
+        masked.write(NULL);
+        unmasked.write(NULL);
+        sink += WebSocketFrame.read(new ByteArrayInputStream(wire)).getBinaryPayload().length;
+      }
+
+      long count = 0;
+      long started = System.currentTimeMillis();
+      long end = started + RUN_MILLIS;
+      while (System.currentTimeMillis() < end) {
+        legacyWrite(masked, NULL);
+        count++;
+      }
+      report("legacy masked", size, count, System.currentTimeMillis() - started);
+
+      count = 0;
+      started = System.currentTimeMillis();
+      end = started + RUN_MILLIS;
+      while (System.currentTimeMillis() < end) {
+        masked.write(NULL);
+        count++;
+      }
+      report("write masked", size, count, System.currentTimeMillis() - started);
+
+      count = 0;
+      started = System.currentTimeMillis();
+      end = started + RUN_MILLIS;
+      while (System.currentTimeMillis() < end) {
+        unmasked.write(NULL);
+        count++;
+      }
+      report("write unmasked", size, count, System.currentTimeMillis() - started);
+
+      count = 0;
+      started = System.currentTimeMillis();
+      end = started + RUN_MILLIS;
+      while (System.currentTimeMillis() < end) {
+        sink += WebSocketFrame.read(new ByteArrayInputStream(wire)).getBinaryPayload().length;
+        count++;
+      }
+      report("read masked", size, count, System.currentTimeMillis() - started);
+      System.out.println();
+    }
+  }
+
+}
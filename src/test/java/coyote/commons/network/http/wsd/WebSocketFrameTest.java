@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.commons.network.http.wsd;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import org.junit.Test;
+
+import coyote.commons.network.http.wsd.WebSocketFrame.OpCode;
+
+
+/**
+ *
+ */
+public class WebSocketFrameTest {
+
+  private static final int[] SIZES = {0, 1, 7, 8, 9, 15, 125, 126, 127, 4096, 65535, 65536, 70001};
+  private static final byte[] KEY = {(byte)0x37, (byte)0xFA, (byte)0x21, (byte)0x3D};
+
+
+
+
+  private static byte[] data(final int size) {
+    final byte[] retval = new byte[size];
+    for (int x = 0; x < size; x++) {
+      retval[x] = (byte)(x * 31);
+    }
+    return retval;
+  }
+
+
+
+
+  @Test
+  public void maskedRoundTrip() throws Exception {
+    for (final int size : SIZES) {
+      final byte[] payload = data(size);
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new WebSocketFrame(OpCode.Binary, true, payload, KEY).write(out);
+
+      final WebSocketFrame frame = WebSocketFrame.read(new ByteArrayInputStream(out.toByteArray()));
+      assertTrue(frame.isMasked());
+      assertTrue(frame.isFin());
+      assertEquals(OpCode.Binary, frame.getOpCode());
+      assertArrayEquals("size " + size, payload, frame.getBinaryPayload());
+    }
+  }
+
+
+
+
+  @Test
+  public void unmaskedRoundTrip() throws Exception {
+    for (final int size : SIZES) {
+      final byte[] payload = data(size);
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      new WebSocketFrame(OpCode.Binary, false, payload).write(out);
+
+      final WebSocketFrame frame = WebSocketFrame.read(new ByteArrayInputStream(out.toByteArray()));
+      assertFalse(frame.isMasked());
+      assertFalse(frame.isFin());
+      assertArrayEquals("size " + size, payload, frame.getBinaryPayload());
+    }
+  }
+
+
+
+
+  @Test
+  public void wordMaskMatchesByteMask() {
+    for (final int size : SIZES) {
+      for (int offset = 0; offset < 3; offset++) {
+        final byte[] expected = data(size + offset);
+        final byte[] actual = data(size + offset);
+        for (int x = 0; x < size; x++) {
+          expected[offset + x] ^= KEY[x % 4];
+        }
+        WebSocketFrame.mask(actual, offset, size, KEY);
+        assertArrayEquals("size " + size + " offset " + offset, expected, actual);
+      }
+    }
+  }
+
+
+
+
+  @Test
+  public void encodeMatchesWrite() throws Exception {
+    for (final int size : SIZES) {
+      final WebSocketFrame frame = new WebSocketFrame(OpCode.Binary, true, data(size), KEY);
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      frame.write(out);
+      assertArrayEquals(out.toByteArray(), frame.encode());
+    }
+  }
+
+
+
+
+  @Test
+  public void outboundBuffersArePooled() throws Exception {
+    final FrameBufferPool original = WebSocketFrame.getBufferPool();
+    final FrameBufferPool pool = new FrameBufferPool(1024, 2);
+    WebSocketFrame.setBufferPool(pool);
+    try {
+      final ByteArrayOutputStream out = new ByteArrayOutputStream();
+      for (int x = 0; x < 10; x++) {
+        new WebSocketFrame(OpCode.Text, true, "message " + x).write(out);
+      }
+      assertEquals(9, pool.getHitCount());
+      assertEquals(1, pool.getMissCount());
+      assertEquals(1, pool.getIdleCount());
+
+      // too large to pool, written straight from the payload
+      new WebSocketFrame(OpCode.Binary, true, data(5000)).write(out);
+      assertEquals(1, pool.getMissCount());
+    } finally {
+      WebSocketFrame.setBufferPool(original);
+    }
+  }
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class ArmMasterTest {
+
+  @Test
+  public void testRecycling() throws Exception {
+    final ArmMaster master = new ArmMaster( "testRecycling" );
+    final ArmTransaction first = master.createArm( null, "one" );
+    first.start();
+    Thread.sleep( 5 );
+    first.stop();
+    assertTrue( first.getTotalTime() >= 4 );
+    first.destroy();
+
+    // the stopped transaction is handed out again, reset
+    final ArmTransaction second = master.createArm( "second", "two" );
+    assertSame( first, second );
+    assertEquals( "second", second.getName() );
+    assertEquals( "two", second.getCRID() );
+    assertEquals( ArmTransaction.NEW, second.getStatus() );
+    assertEquals( 0, second.getTotalTime() );
+
+    // running transactions are not recycled
+    second.start();
+    second.destroy();
+    assertNotSame( second, master.createArm( null, null ) );
+    second.stop();
+
+    assertEquals( 3, master.getHits() );
+    assertEquals( 2, master.getClosures() );
+    assertEquals( 0, master.getCurrentActive() );
+  }
+
+
+
+
+  @Test
+  public void testConcurrentTransactions() throws Exception {
+    final int THREADS = 8;
+    final int LIMIT = 20000;
+    final ArmMaster master = new ArmMaster( "testConcurrentTransactions" );
+
+    Thread[] threads = new Thread[THREADS];
+    for ( int x = 0; x < THREADS; x++ ) {
+      threads[x] = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          for ( int i = 0; i < LIMIT; i++ ) {
+            final ArmTransaction arm = master.createArm( null, null );
+            arm.start();
+            arm.stop();
+            arm.destroy();
+          }
+        }
+      } );
+      threads[x].start();
+    }
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+
+    assertEquals( THREADS * LIMIT, master.getHits() );
+    assertEquals( THREADS * LIMIT, master.getClosures() );
+    assertEquals( 0, master.getCurrentActive() );
+    assertTrue( master.getTotalNanos() > 0 );
+  }
+
+
+
+
+  @Test
+  public void testCorrelation() {
+    final StatBoard board = new StatBoardImpl();
+    board.enableArm( true );
+
+    assertNull( board.startArm( "none" ).getCRID() );
+
+    final String previous = Correlation.setId( "abc" );
+    try {
+      final ArmTransaction arm = board.startArm( "request" );
+      assertEquals( "abc", arm.getCRID() );
+
+      // children carry the parent identifier
+      assertEquals( "abc", arm.startArm( "child" ).getCRID() );
+
+      // an explicit identifier wins
+      assertEquals( "xyz", board.startArm( "other", "xyz" ).getCRID() );
+    } finally {
+      Correlation.setId( previous );
+    }
+    assertNull( Correlation.getId() );
+  }
+
+}
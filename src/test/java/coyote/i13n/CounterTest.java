@@ -11,6 +11,7 @@
  */
 package coyote.i13n;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import org.junit.AfterClass;
@@ -112,4 +113,37 @@ public class CounterTest {
 
   }
 
+
+
+
+  /**
+   * Test method for {@link coyote.i13n.Counter#add(long)} from many threads.
+   */
+  @Test
+  public void testConcurrentAdd() throws Exception {
+    final int THREADS = 8;
+    final int LIMIT = 100000;
+    final Counter counter = new StatBoardImpl().getCounter( "testConcurrentAdd" );
+
+    Thread[] threads = new Thread[THREADS];
+    for ( int x = 0; x < THREADS; x++ ) {
+      threads[x] = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          for ( int i = 0; i < LIMIT; i++ ) {
+            counter.add( 1 );
+          }
+        }
+      } );
+      threads[x].start();
+    }
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+
+    assertEquals( THREADS * LIMIT, counter.getValue() );
+    assertEquals( THREADS * LIMIT, counter.getUpdateCount() );
+    assertEquals( THREADS * LIMIT, counter.getMaxValue() );
+  }
+
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class DecayingReservoirTest {
+
+  @Test
+  public void testEmpty() {
+    DecayingReservoir.Snapshot snapshot = new DecayingReservoir( "testEmpty" ).getSnapshot();
+    assertEquals( 0, snapshot.size() );
+    assertEquals( 0, snapshot.getValue( 0.5 ) );
+    assertEquals( 0, snapshot.getMax() );
+    assertEquals( 0.0, snapshot.getMean(), 0 );
+  }
+
+
+
+
+  @Test
+  public void testSmallSample() {
+    DecayingReservoir reservoir = new DecayingReservoir( "testSmallSample" );
+    for ( int x = 1; x <= 100; x++ ) {
+      reservoir.update( x );
+    }
+
+    // everything fits so every value is retained
+    DecayingReservoir.Snapshot snapshot = reservoir.getSnapshot();
+    assertEquals( 100, reservoir.getCount() );
+    assertEquals( 100, snapshot.size() );
+    assertEquals( 1, snapshot.getMin() );
+    assertEquals( 100, snapshot.getMax() );
+    assertEquals( 50.5, snapshot.getMean(), 1 );
+    assertEquals( 50, snapshot.getValue( 0.5 ), 2 );
+    assertEquals( 99, snapshot.getValue( 0.99 ), 2 );
+  }
+
+
+
+
+  @Test
+  public void testCapacity() {
+    DecayingReservoir reservoir = new DecayingReservoir( "testCapacity", 100, DecayingReservoir.DEFAULT_ALPHA );
+    for ( int x = 0; x < 10000; x++ ) {
+      reservoir.update( x % 1000 );
+    }
+
+    DecayingReservoir.Snapshot snapshot = reservoir.getSnapshot();
+    assertEquals( 10000, reservoir.getCount() );
+    assertEquals( 100, snapshot.size() );
+    assertTrue( snapshot.getMin() >= 0 );
+    assertTrue( snapshot.getMax() < 1000 );
+
+    // a representative sample of a uniform distribution
+    assertEquals( 500, snapshot.getValue( 0.5 ), 200 );
+
+    reservoir.reset();
+    assertEquals( 0, reservoir.size() );
+  }
+
+}
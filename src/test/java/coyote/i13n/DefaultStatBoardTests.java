@@ -13,6 +13,7 @@ package coyote.i13n;
 
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
@@ -96,4 +97,26 @@ public class DefaultStatBoardTests {
 
   }
 
+
+
+
+  @Test
+  public void nullNames() {
+    StatBoard board = new StatBoardImpl();
+    try {
+      board.increment( null );
+      fail( "Counters cannot be named null" );
+    } catch ( IllegalArgumentException e ) {
+      // expected
+    }
+    try {
+      board.setState( null, 1L );
+      fail( "States cannot be named null" );
+    } catch ( IllegalArgumentException e ) {
+      // expected
+    }
+    assertTrue( board.getCounterCount() == 0 );
+    assertTrue( board.removeCounter( null ) == null );
+  }
+
 }
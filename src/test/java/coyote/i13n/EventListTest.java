@@ -13,6 +13,8 @@ package coyote.i13n;
 
 //import static org.junit.Assert.*;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -71,12 +73,11 @@ public class EventListTest {
     AppEvent alert4 = list.createEvent( "Four" );
     AppEvent alert5 = list.createEvent( "Five" );
     AppEvent alert6 = list.createEvent( "Six" );
-    //System.out.println( "Max="+list.getMaxEvents()+" Size=" + list.getSize() );
-    assertTrue( list._list.size() == 5 );
+    assertTrue( list.getSize() == 5 );
 
     // should result in the list being trimmed immediately
     list.setMaxEvents( 2 );
-    assertTrue( list._list.size() == 2 );
+    assertTrue( list.getSize() == 2 );
 
     list.add( alert0 );
     list.add( alert1 );
@@ -87,7 +88,7 @@ public class EventListTest {
     list.add( alert6 );
 
     // should still only contain 2 events
-    assertTrue( list._list.size() == 2 );
+    assertTrue( list.getSize() == 2 );
 
     // Check the first and last event in the list
     assertEquals( alert5, list.getFirst() );
@@ -111,9 +112,74 @@ public class EventListTest {
   /**
    * Test method for {@link coyote.i13n.EventList#add(coyote.i13n.AppEvent)}.
    */
-  //@Test
+  @Test
   public void testAdd() {
-    fail( "Not yet implemented" );
+    EventList.setMaxEvents( 8 );
+    EventList list = new EventList();
+    list.createEvent( "Local" );
+
+    // foreign events keep their sequence and later ones follow on from it
+    AppEvent foreign = new AppEvent( 5, null, null, null, "Foreign", AppEvent.MINOR, 0, 0, null );
+    list.add( foreign );
+    assertEquals( 5, foreign.getSequence() );
+    assertSame( foreign, list.get( 5 ) );
+    assertEquals( 5, list.lastSequence() );
+    assertEquals( 6, list.createEvent( "After" ).getSequence() );
+    assertEquals( 3, list.getSize() );
+
+    // a cursor passes over the sequences which were skipped
+    EventList.Cursor cursor = list.cursor( 0 );
+    assertEquals( 0, cursor.next().getSequence() );
+    assertSame( foreign, cursor.next() );
+    assertEquals( 6, cursor.next().getSequence() );
+    assertNull( cursor.next() );
+
+    // events without a sequence are given the next one
+    AppEvent unsequenced = new AppEvent( -1, null, null, null, "Unsequenced", AppEvent.MINOR, 0, 0, null );
+    list.add( unsequenced );
+    assertEquals( 7, unsequenced.getSequence() );
+
+    // events older than those kept are dropped
+    list.add( new AppEvent( 100, null, null, null, "Far", AppEvent.MINOR, 0, 0, null ) );
+    list.add( new AppEvent( 50, null, null, null, "Old", AppEvent.MINOR, 0, 0, null ) );
+    assertNull( list.get( 50 ) );
+    assertEquals( 1, list.getSize() );
+    EventList.setMaxEvents( 1000 );
+  }
+
+
+
+
+  @Test
+  public void testConcurrentAdd() throws Exception {
+    EventList.setMaxEvents( 50 );
+    final EventList list = new EventList();
+    final Thread[] producers = new Thread[4];
+    for ( int x = 0; x < producers.length; x++ ) {
+      producers[x] = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          for ( int y = 0; y < 20000; y++ ) {
+            list.createEvent( "Event" + y );
+          }
+        }
+      } );
+      producers[x].start();
+    }
+    for ( final Thread producer : producers ) {
+      producer.join();
+    }
+
+    // the count matches the events actually held
+    final int size = list.getSize();
+    assertTrue( size <= 50 );
+    int removed = 0;
+    while ( list.removeFirst() != null ) {
+      removed++;
+    }
+    assertEquals( size, removed );
+    assertEquals( 0, list.getSize() );
+    EventList.setMaxEvents( 1000 );
   }
 
 
@@ -133,9 +199,87 @@ public class EventListTest {
   /**
    * Test method for {@link coyote.i13n.EventList#get(long)}.
    */
-  //@Test
+  @Test
   public void testGet() {
-    fail( "Not yet implemented" );
+    EventList.setMaxEvents( 4 );
+    EventList list = new EventList();
+    AppEvent[] events = new AppEvent[10];
+    for ( int x = 0; x < events.length; x++ ) {
+      events[x] = list.createEvent( "Event" + x );
+      assertEquals( x, events[x].getSequence() );
+    }
+
+    // only the last 4 are retained
+    assertNull( list.get( 5 ) );
+    for ( int x = 6; x < events.length; x++ ) {
+      assertSame( events[x], list.get( x ) );
+    }
+    assertNull( list.get( 10 ) );
+    assertEquals( 9, list.lastSequence() );
+
+    // removed events are no longer found
+    events[7].clear();
+    assertNull( list.get( 7 ) );
+    assertEquals( 3, list.getSize() );
+    assertSame( events[6], list.removeFirst() );
+    assertSame( events[8], list.getFirst() );
+
+    // growing the list keeps what is already there
+    EventList.setMaxEvents( 100 );
+    AppEvent next = list.createEvent( "Ten" );
+    assertSame( events[9], list.get( 9 ) );
+    assertSame( next, list.get( 10 ) );
+    EventList.setMaxEvents( 1000 );
+  }
+
+
+
+
+  @Test
+  public void testCursor() throws Exception {
+    EventList.setMaxEvents( 1000 );
+    final EventList list = new EventList();
+    list.createEvent( "Before" );
+    EventList.Cursor cursor = list.cursor();
+    assertNull( cursor.next() );
+
+    final int THREADS = 4;
+    final int LIMIT = 200;
+    Thread[] threads = new Thread[THREADS];
+    for ( int x = 0; x < THREADS; x++ ) {
+      threads[x] = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          for ( int i = 0; i < LIMIT; i++ ) {
+            list.createEvent( "Event" );
+          }
+        }
+      } );
+      threads[x].start();
+    }
+
+    // tail the list while the producers run, events arrive in sequence order
+    int count = 0;
+    long expected = 1;
+    long deadline = System.currentTimeMillis() + 10000;
+    while ( count < THREADS * LIMIT && System.currentTimeMillis() < deadline ) {
+      AppEvent event = cursor.next();
+      if ( event != null ) {
+        assertEquals( expected++, event.getSequence() );
+        count++;
+      }
+    }
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+    assertEquals( THREADS * LIMIT, count );
+    assertNull( cursor.next() );
+
+    // a cursor which fell behind skips to the oldest event retained
+    EventList.setMaxEvents( 10 );
+    EventList.Cursor late = list.cursor( 0 );
+    assertEquals( list.lastSequence() - 9, late.next().getSequence() );
+    EventList.setMaxEvents( 1000 );
   }
 
 
@@ -166,9 +310,31 @@ public class EventListTest {
   /**
    * Test method for {@link coyote.i13n.EventList#getSize()}.
    */
-  //@Test
+  @Test
   public void testGetSize() {
-    fail( "Not yet implemented" );
+    EventList.setMaxEvents( 5 );
+    EventList list = new EventList();
+    assertEquals( 0, list.getSize() );
+    AppEvent[] events = new AppEvent[12];
+    for ( int x = 0; x < events.length; x++ ) {
+      events[x] = list.createEvent( "Event" + x );
+      assertEquals( Math.min( x + 1, 5 ), list.getSize() );
+    }
+
+    events[10].clear();
+    events[10].clear();
+    events[2].clear(); // long gone
+    assertEquals( 4, list.getSize() );
+    list.removeFirst();
+    assertEquals( 3, list.getSize() );
+
+    // shrinking caps the count, growing keeps the events
+    EventList.setMaxEvents( 2 );
+    assertEquals( 2, list.getSize() );
+    EventList.setMaxEvents( 100 );
+    list.createEvent( "Twelve" );
+    assertEquals( 4, list.getSize() );
+    EventList.setMaxEvents( 1000 );
   }
 
 
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class GaugeBaseTest {
+
+  /**
+   * Sleep until just after the start of the next second.
+   */
+  private static void nextSecond() throws InterruptedException {
+    Thread.sleep( 1010 - ( System.currentTimeMillis() % 1000 ) );
+  }
+
+
+
+
+  @Test
+  public void testNewGauge() {
+    GaugeBase gauge = new GaugeBase( "testNewGauge" );
+    assertEquals( "testNewGauge", gauge.getName() );
+    assertEquals( 0, gauge.getTotal() );
+    assertEquals( 0, gauge.getMinuteTotal() );
+    assertEquals( 0, gauge.getLastValuePerSecond() );
+    assertEquals( 0, gauge.getMaxValuePerSecond() );
+    assertEquals( 0, gauge.getMinValuePerSecond() );
+    assertEquals( 0.0F, gauge.getValuePerSecond(), 0 );
+    assertEquals( 0.0F, gauge.getElapsedSeconds(), 0 );
+  }
+
+
+
+
+  @Test
+  public void testSecondRollover() throws Exception {
+    GaugeBase gauge = new GaugeBase( "testSecondRollover" );
+    nextSecond();
+    gauge.update( 5 );
+    gauge.update( 5 );
+    nextSecond();
+    gauge.update( 3 );
+    nextSecond();
+    gauge.update( 7 );
+
+    assertEquals( 20, gauge.getTotal() );
+    assertEquals( 20, gauge.getMinuteTotal() );
+    assertEquals( 3, gauge.getLastValuePerSecond() );
+    assertEquals( 10, gauge.getMaxValuePerSecond() );
+    assertEquals( 3, gauge.getMinValuePerSecond() );
+    assertTrue( "Rate should reflect the last two seconds", gauge.getValuePerSecond() > 0 );
+    assertTrue( gauge.getElapsedSeconds() >= 2 );
+
+    gauge.reset();
+    assertEquals( 0, gauge.getTotal() );
+    assertEquals( 0, gauge.getMinuteTotal() );
+    assertEquals( 0, gauge.getMaxValuePerSecond() );
+    assertEquals( 0, gauge.getMinValuePerSecond() );
+  }
+
+
+
+
+  @Test
+  public void testConcurrentUpdates() throws Exception {
+    final int THREADS = 8;
+    final int LIMIT = 100000;
+    final GaugeBase gauge = new GaugeBase( "testConcurrentUpdates" );
+
+    Thread[] threads = new Thread[THREADS];
+    for ( int x = 0; x < THREADS; x++ ) {
+      threads[x] = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          for ( int i = 0; i < LIMIT; i++ ) {
+            gauge.update( 1 );
+          }
+        }
+      } );
+      threads[x].start();
+    }
+    for ( Thread thread : threads ) {
+      thread.join();
+    }
+
+    assertEquals( THREADS * LIMIT, gauge.getTotal() );
+    assertEquals( THREADS * LIMIT, gauge.getMinuteTotal() );
+  }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class LatencyHistogramTest {
+
+  private static void assertWithin( final double precision, final long expected, final long actual ) {
+    final double error = Math.abs( actual - expected ) / (double)expected;
+    assertTrue( "Value is " + actual + " and should be within " + precision + " of " + expected, error <= precision );
+  }
+
+
+
+
+  @Test
+  public void testEmpty() {
+    LatencyHistogram.Snapshot snapshot = new LatencyHistogram().getSnapshot();
+    assertEquals( 0, snapshot.getCount() );
+    assertEquals( 0, snapshot.getMin() );
+    assertEquals( 0, snapshot.getMax() );
+    assertEquals( 0, snapshot.getValueAtPercentile( 99 ) );
+  }
+
+
+
+
+  @Test
+  public void testPercentiles() {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    // 1 to 100 microseconds, 1000 values at each step
+    for ( long micros = 1; micros <= 100; micros++ ) {
+      for ( int x = 0; x < 1000; x++ ) {
+        histogram.record( micros * 1000 );
+      }
+    }
+
+    LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+    assertEquals( 100000, snapshot.getCount() );
+    assertEquals( 1000, snapshot.getMin() );
+    assertEquals( 100000, snapshot.getMax() );
+    assertEquals( 50500, snapshot.getMean(), 0.001 );
+    assertWithin( 0.01, 50000, snapshot.getValueAtPercentile( 50 ) );
+    assertWithin( 0.01, 90000, snapshot.getValueAtPercentile( 90 ) );
+    assertWithin( 0.01, 99000, snapshot.getValueAtPercentile( 99 ) );
+    assertWithin( 0.01, 100000, snapshot.getValueAtPercentile( 99.9 ) );
+    assertEquals( 100000, snapshot.getValueAtPercentile( 100 ) );
+  }
+
+
+
+
+  @Test
+  public void testPrecision() {
+    for ( int digits = 1; digits <= 3; digits++ ) {
+      LatencyHistogram histogram = new LatencyHistogram( digits, LatencyHistogram.DEFAULT_HIGHEST_TRACKABLE );
+      final double precision = Math.pow( 10, -digits );
+      for ( long value = 1; value < 1000000000L; value = value * 3 + 7 ) {
+        histogram.record( value );
+        assertWithin( precision, value, histogram.rollover().getValueAtPercentile( 50 ) );
+      }
+    }
+
+    try {
+      new LatencyHistogram( 4, LatencyHistogram.DEFAULT_HIGHEST_TRACKABLE );
+      fail( "Precision of 4 digits should not be supported" );
+    } catch ( IllegalArgumentException e ) {
+      // expected
+    }
+  }
+
+
+
+
+  @Test
+  public void testRollover() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record( 500 );
+    histogram.record( 1500 );
+
+    LatencyHistogram.Snapshot interval = histogram.rollover();
+    assertEquals( 2, interval.getCount() );
+    assertEquals( 500, interval.getMin() );
+    assertEquals( 1500, interval.getMax() );
+    assertEquals( 0, histogram.getSnapshot().getCount() );
+
+    histogram.record( 700 );
+    interval = histogram.rollover();
+    assertEquals( 1, interval.getCount() );
+    assertEquals( 700, interval.getMin() );
+    assertEquals( 700, interval.getMax() );
+  }
+
+
+
+
+  @Test
+  public void testOutOfRange() {
+    LatencyHistogram histogram = new LatencyHistogram( 2, 1000000 );
+    histogram.record( -5 );
+    histogram.record( 5000000 );
+
+    LatencyHistogram.Snapshot snapshot = histogram.getSnapshot();
+    assertEquals( 2, snapshot.getCount() );
+    assertEquals( 0, snapshot.getValueAtPercentile( 50 ) );
+    assertEquals( 5000000, snapshot.getMax() );
+  }
+
+
+
+
+  @Test
+  public void testConcurrentRecording() throws Exception {
+    final int THREADS = 8;
+    final int LIMIT = 50000;
+    final LatencyHistogram histogram = new LatencyHistogram();
+
+    Thread[] threads = new Thread[THREADS];
+    for ( int x = 0; x < THREADS; x++ ) {
+      threads[x] = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          for ( int i = 1; i <= LIMIT; i++ ) {
+            histogram.record( i );
+          }
+        }
+      } );
+      threads[x].start();
+    }
+
+    // counts taken out by concurrent rollovers must not be lost
+    long total = 0;
+    for ( Thread thread : threads ) {
+      while ( thread.isAlive() ) {
+        total += histogram.rollover().getCount();
+      }
+      thread.join();
+    }
+    total += histogram.rollover().getCount();
+
+    assertEquals( THREADS * LIMIT, total );
+  }
+
+}
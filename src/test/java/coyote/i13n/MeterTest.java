@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class MeterTest {
+
+  @Test
+  public void testOneMinuteEwma() {
+    Ewma ewma = Ewma.minutes( 1, Meter.TICK_INTERVAL );
+    ewma.tick( 3 );
+    assertEquals( 0.6, ewma.getRate(), 0.000001 );
+
+    // a minute of silence decays the rate by a factor of e
+    for ( int x = 0; x < 12; x++ ) {
+      ewma.tick( 0 );
+    }
+    assertEquals( 0.6 / Math.E, ewma.getRate(), 0.000001 );
+  }
+
+
+
+
+  @Test
+  public void testFifteenMinuteEwma() {
+    Ewma ewma = Ewma.minutes( 15, Meter.TICK_INTERVAL );
+    ewma.tick( 3 );
+    for ( int x = 0; x < 12; x++ ) {
+      ewma.tick( 0 );
+    }
+    assertEquals( 0.6 * Math.exp( -1 / 15d ), ewma.getRate(), 0.000001 );
+  }
+
+
+
+
+  @Test
+  public void testMark() {
+    Meter meter = new Meter( "testMark" );
+    meter.mark();
+    meter.mark( 4 );
+    assertEquals( 5, meter.getCount() );
+    assertEquals( 5, meter.getUpdateCount() );
+    assertTrue( meter.getMeanRate() >= 0 );
+
+    // no tick interval has elapsed yet
+    assertEquals( 0.0, meter.getOneMinuteRate(), 0 );
+
+    meter.reset();
+    assertEquals( 0, meter.getCount() );
+  }
+
+
+
+
+  @Test
+  public void testStatBoard() {
+    StatBoard board = new StatBoardImpl();
+    board.mark( "requests" );
+    board.mark( "requests", 9 );
+    Meter meter = board.getMeter( "requests" );
+    assertSame( meter, board.getMeter( "requests" ) );
+    assertEquals( 10, meter.getCount() );
+    assertTrue( board.getMeterIterator().hasNext() );
+
+    board.updateReservoir( "sizes", 42 );
+    assertEquals( 1, board.getReservoir( "sizes" ).getCount() );
+
+    board.tick();
+    assertNotNull( meter.toFrame() );
+    assertSame( meter, board.removeMeter( "requests" ) );
+    assertTrue( !board.getMeterIterator().hasNext() );
+  }
+
+}
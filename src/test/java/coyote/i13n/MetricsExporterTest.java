@@ -0,0 +1,280 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+
+import coyote.loader.cfg.Config;
+
+
+/**
+ *
+ */
+public class MetricsExporterTest {
+
+  private static String export( final MetricsExporter exporter ) {
+    return new String( exporter.export(), StandardCharsets.UTF_8 );
+  }
+
+
+
+
+  @Test
+  public void testDeltas() {
+    final StatBoard board = new StatBoardImpl();
+    final MetricsExporter exporter = new MetricsExporter( board );
+    exporter.setPrefix( "app." );
+
+    board.increase( "requests", 5 );
+    board.setState( "queue depth", 7 );
+    String payload = export( exporter );
+    assertTrue( payload, payload.contains( "app.requests:5|c\n" ) );
+    assertTrue( payload, payload.contains( "app.queue_depth:7|g\n" ) );
+
+    // only the change is sent
+    board.increase( "requests", 3 );
+    payload = export( exporter );
+    assertTrue( payload, payload.contains( "app.requests:3|c\n" ) );
+
+    // unchanged counters are left out, states are always sent
+    payload = export( exporter );
+    assertFalse( payload, payload.contains( "app.requests:" ) );
+    assertTrue( payload, payload.contains( "app.queue_depth:7|g\n" ) );
+  }
+
+
+
+
+  @Test
+  public void testSameNames() {
+    final StatBoard board = new StatBoardImpl();
+    final MetricsExporter exporter = new MetricsExporter( board );
+
+    // a counter and a meter of the same name are sent under different names
+    board.increase( "hits", 5 );
+    board.mark( "hits", 2 );
+    String payload = export( exporter );
+    assertTrue( payload, payload.contains( "hits:5|c\n" ) );
+    assertTrue( payload, payload.contains( "hits.marks:2|c\n" ) );
+
+    board.increase( "hits", 1 );
+    payload = export( exporter );
+    assertTrue( payload, payload.contains( "hits:1|c\n" ) );
+    assertFalse( payload, payload.contains( "hits:-" ) );
+    assertFalse( payload, payload.contains( "hits.marks:" ) );
+  }
+
+
+
+
+  @Test
+  public void testRemovedMetrics() {
+    final StatBoard board = new StatBoardImpl();
+    final MetricsExporter exporter = new MetricsExporter( board );
+
+    board.increase( "requests", 5 );
+    export( exporter );
+
+    // a counter added again after removal starts over
+    board.removeCounter( "requests" );
+    assertFalse( export( exporter ).contains( "requests:" ) );
+    board.increase( "requests", 2 );
+    final String payload = export( exporter );
+    assertTrue( payload, payload.contains( "requests:2|c\n" ) );
+  }
+
+
+
+
+  @Test
+  public void testNonFiniteGauges() {
+    final StatBoard board = new StatBoardImpl();
+    final MetricsExporter exporter = new MetricsExporter( board );
+
+    board.setState( "ratio", Double.NaN );
+    board.setState( "limit", Double.POSITIVE_INFINITY );
+    board.setState( "depth", 3 );
+    final String payload = export( exporter );
+    assertFalse( payload, payload.contains( "ratio:" ) );
+    assertFalse( payload, payload.contains( "limit:" ) );
+    assertTrue( payload, payload.contains( "depth:3|g\n" ) );
+  }
+
+
+
+
+  @Test
+  public void testNegativeGauges() {
+    final StatBoard board = new StatBoardImpl();
+    final MetricsExporter exporter = new MetricsExporter( board );
+
+    // StatsD would read -5 as a decrement, so the gauge is zeroed first
+    board.setState( "balance", -5 );
+    final String payload = export( exporter );
+    assertTrue( payload, payload.contains( "balance:0|g\nbalance:-5|g\n" ) );
+  }
+
+
+
+
+  @Test
+  public void testConfig() throws Exception {
+    final Config cfg = new Config( "{\"Interval\" : 2500, \"Prefix\" : \"app.\", "
+        + "\"StatsD\" : { \"Host\" : \"127.0.0.1\", \"Port\" : 8125 }, "
+        + "\"File\" : { \"Directory\" : \"metrics\", \"Name\" : \"app\" }, "
+        + "\"Http\" : { \"URL\" : \"http://127.0.0.1:8080/metrics\", \"Capacity\" : 4 } }" );
+    final MetricsExporter exporter = new MetricsExporter( new StatBoardImpl(), cfg );
+    assertEquals( 2500, exporter.getInterval() );
+    assertEquals( "app.", exporter.getPrefix() );
+    assertEquals( 3, exporter.getSinks().size() );
+    assertTrue( exporter.getSinks().get( 0 ) instanceof StatsdMetricsSink );
+    assertTrue( exporter.getSinks().get( 1 ) instanceof FileMetricsSink );
+    assertTrue( exporter.getSinks().get( 2 ) instanceof HttpMetricsSink );
+
+    try {
+      new MetricsExporter( new StatBoardImpl(), new Config( "{\"Interval\" : \"often\"}" ) );
+      fail( "Invalid interval accepted" );
+    } catch ( final IllegalArgumentException e ) {
+      // expected
+    }
+    try {
+      new MetricsExporter( new StatBoardImpl(), new Config( "{\"File\" : { \"Name\" : \"app\" }}" ) );
+      fail( "File sink without a directory accepted" );
+    } catch ( final IllegalArgumentException e ) {
+      // expected
+    }
+  }
+
+
+
+
+  @Test
+  public void testDroppedWhenFull() throws Exception {
+    final CountDownLatch release = new CountDownLatch( 1 );
+    final MetricsSink sink = new MetricsSink( "blocked", 2 ) {
+      @Override
+      protected void write( final long timestamp, final byte[] payload ) throws Exception {
+        release.await();
+      }
+    };
+    sink.start();
+    sink.waitForActive( 1000 );
+
+    final byte[] payload = "x:1|c\n".getBytes( StandardCharsets.UTF_8 );
+    int dropped = 0;
+    for ( int x = 0; x < 10; x++ ) {
+      if ( !sink.offer( x, payload ) ) {
+        dropped++;
+      }
+    }
+    // at most one is being written and two are queued
+    assertTrue( dropped >= 7 );
+    assertEquals( dropped, sink.getDropped() );
+
+    release.countDown();
+    final long deadline = System.currentTimeMillis() + 2000;
+    while ( sink.getSent() < 10 - dropped && System.currentTimeMillis() < deadline ) {
+      Thread.sleep( 10 );
+    }
+    sink.shutdown();
+    sink.join( 2000 );
+    assertEquals( 10 - dropped, sink.getSent() );
+    assertEquals( 0, sink.getFailed() );
+  }
+
+
+
+
+  @Test
+  public void testStatsdPackets() throws Exception {
+    try (DatagramSocket server = new DatagramSocket( 0 )) {
+      server.setSoTimeout( 2000 );
+      final StatsdMetricsSink sink = new StatsdMetricsSink( new InetSocketAddress( "127.0.0.1", server.getLocalPort() ), 4 );
+
+      final StringBuilder b = new StringBuilder();
+      for ( int x = 0; b.length() < StatsdMetricsSink.MAX_PACKET_SIZE * 2; x++ ) {
+        b.append( "counter." ).append( x ).append( ":1|c\n" );
+      }
+      sink.write( 0, b.toString().getBytes( StandardCharsets.UTF_8 ) );
+      sink.close();
+
+      // every line arrives whole
+      final StringBuilder received = new StringBuilder();
+      final byte[] buffer = new byte[2048];
+      while ( received.length() < b.length() ) {
+        final DatagramPacket packet = new DatagramPacket( buffer, buffer.length );
+        server.receive( packet );
+        assertTrue( packet.getLength() <= StatsdMetricsSink.MAX_PACKET_SIZE );
+        assertEquals( '\n', buffer[packet.getLength() - 1] );
+        received.append( new String( buffer, 0, packet.getLength(), StandardCharsets.UTF_8 ) );
+      }
+      assertEquals( b.toString(), received.toString() );
+    }
+  }
+
+
+
+
+  @Test
+  public void testFileRolling() throws Exception {
+    final File dir = File.createTempFile( "metrics", "" );
+    dir.delete();
+    final FileMetricsSink sink = new FileMetricsSink( dir, "board", 10, 2, 4 );
+    try {
+      final byte[] payload = "a:1|c\n".getBytes( StandardCharsets.UTF_8 );
+      sink.write( 1, payload );
+      sink.write( 2, payload ); // rolls the first file
+      sink.write( 3, payload ); // rolls again, dropping the first
+      sink.close();
+
+      assertEquals( "# 3\na:1|c\n", read( sink.getFile( 0 ) ) );
+      assertEquals( "# 2\na:1|c\n", read( sink.getFile( 1 ) ) );
+      assertFalse( sink.getFile( 2 ).exists() );
+    } finally {
+      sink.getFile( 0 ).delete();
+      sink.getFile( 1 ).delete();
+      dir.delete();
+    }
+  }
+
+
+
+
+  private static String read( final File file ) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in = new GZIPInputStream( new FileInputStream( file ) )) {
+      final byte[] buffer = new byte[256];
+      int count;
+      while ( ( count = in.read( buffer ) ) != -1 ) {
+        out.write( buffer, 0, count );
+      }
+    }
+    return out.toString( "UTF-8" );
+  }
+
+}
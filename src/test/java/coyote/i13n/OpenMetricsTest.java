@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.i13n;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class OpenMetricsTest {
+
+  private static String read( final InputStream in ) throws Exception {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[100];
+    int count;
+    while ( ( count = in.read( buffer ) ) != -1 ) {
+      out.write( buffer, 0, count );
+    }
+    return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+  }
+
+
+
+
+  @Test
+  public void testOpenMetrics() throws Exception {
+    final StatBoard board = new StatBoardImpl();
+    board.enableGauges( true );
+    board.enableTiming( true );
+    board.increase( "requests", 42 );
+    board.updateGauge( "bytes", 100 );
+    board.setState( "mode", "active" );
+    board.setState( "level", 3L );
+    board.startTimer( "work" ).stop();
+    board.mark( "hits" );
+
+    final OpenMetrics.Snapshot snapshot = OpenMetrics.snapshot( board );
+    final String text = snapshot.toString( true );
+    assertTrue( text.contains( "# TYPE statboard_counter gauge\n" ) );
+    assertTrue( text.contains( "statboard_counter{name=\"requests\"} 42\n" ) );
+    assertTrue( text.contains( "# TYPE statboard_gauge counter\n" ) );
+    assertTrue( text.contains( "statboard_gauge_total{name=\"bytes\"} 100\n" ) );
+    assertTrue( text.contains( "statboard_state{name=\"level\"} 3\n" ) );
+    assertTrue( text.contains( "statboard_state_value_info{name=\"mode\",value=\"active\"} 1\n" ) );
+    assertTrue( text.contains( "# UNIT statboard_timer_seconds seconds\n" ) );
+    assertTrue( text.contains( "statboard_timer_seconds_count{name=\"work\"} 1\n" ) );
+    assertTrue( text.contains( "statboard_timer_seconds{name=\"work\",quantile=\"0.99\"} " ) );
+    assertTrue( text.contains( "statboard_meter_total{name=\"hits\"} 1\n" ) );
+    assertTrue( text.endsWith( "# EOF\n" ) );
+
+    // the stream renders exactly what the string does
+    assertEquals( text, read( snapshot.openStream( true ) ) );
+  }
+
+
+
+
+  @Test
+  public void testPrometheusText() throws Exception {
+    final StatBoard board = new StatBoardImpl();
+    board.enableGauges( true );
+    board.updateGauge( "bytes", 100 );
+    board.setState( "mode", "active" );
+
+    final String text = read( OpenMetrics.snapshot( board ).openStream( false ) );
+    assertTrue( text.contains( "# TYPE statboard_gauge_total counter\n" ) );
+    assertTrue( text.contains( "# TYPE statboard_state_value_info gauge\n" ) );
+    assertFalse( text.contains( "# UNIT" ) );
+    assertFalse( text.contains( "# EOF" ) );
+  }
+
+
+
+
+  @Test
+  public void testEscaping() throws Exception {
+    final StatBoard board = new StatBoardImpl();
+    board.increment( "quote\"back\\slash\nline" );
+    final String text = OpenMetrics.snapshot( board ).toString( true );
+    assertTrue( text.contains( "statboard_counter{name=\"quote\\\"back\\\\slash\\nline\"} 1\n" ) );
+  }
+
+
+
+
+  @Test
+  public void testLargeBoard() throws Exception {
+    final StatBoard board = new StatBoardImpl();
+    for ( int x = 0; x < 2000; x++ ) {
+      board.increase( "counter" + x, x );
+    }
+    final OpenMetrics.Snapshot snapshot = OpenMetrics.snapshot( board );
+    final String text = read( snapshot.openStream( true ) );
+    assertTrue( text.contains( "statboard_counter{name=\"counter1999\"} 1999\n" ) );
+    assertEquals( snapshot.toString( true ), text );
+  }
+
+
+
+
+  @Test
+  public void testAccept() {
+    assertTrue( OpenMetrics.acceptsOpenMetrics( "application/openmetrics-text; version=1.0.0,text/plain;q=0.5" ) );
+    assertFalse( OpenMetrics.acceptsOpenMetrics( "text/plain" ) );
+    assertFalse( OpenMetrics.acceptsOpenMetrics( null ) );
+  }
+
+}
@@ -11,50 +11,111 @@
  */
 package coyote.i13n;
 
+import java.util.concurrent.CountDownLatch;
+
 /**
+ * Measures counter throughput as the number of updating threads grows.
  * 
+ * <p>Each round runs 1, 2, 4, 8, 16 and 32 threads against the same counter,
+ * first resolving the counter by name on each call ({@code increment(name)})
+ * and then through a counter handle ({@code add(1)}), and reports the
+ * aggregate calls per second of each.
  */
 public class StatBoardPerfTest {
 
+  private static final int[] THREADS = { 1, 2, 4, 8, 16, 32 };
+  private static final long RUN_MILLIS = 3000;
+  private static final String NAME = "DemoCounter";
+
+
+
+
   /**
-   * Run a 10 second test.
+   * Run the given number of threads for the configured duration.
    * 
-   * @return the actual elapsed time.
+   * @return calls per second across all the threads
    */
-  private static long runTest( StatBoard scorecard ) {
-    long started = System.currentTimeMillis();
-    long end = started + 10000;
-    while ( System.currentTimeMillis() <= end ) {
-      scorecard.increment( "DemoCounter" );
-    }
-    return System.currentTimeMillis() - started;
-  }
+  private static double runTest( final StatBoard scorecard, final int threads, final boolean handle ) throws InterruptedException {
+    final Counter counter = scorecard.getCounter( NAME );
+    counter.reset();
+    final CountDownLatch ready = new CountDownLatch( threads );
+    final CountDownLatch start = new CountDownLatch( 1 );
+    final CountDownLatch done = new CountDownLatch( threads );
+    final long[] calls = new long[threads];
 
+    for ( int x = 0; x < threads; x++ ) {
+      final int slot = x;
+      final Thread thread = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          ready.countDown();
+          try {
+            start.await();
+          } catch ( final InterruptedException e ) {
+            return;
+          }
+          final long end = System.currentTimeMillis() + RUN_MILLIS;
+          long count = 0;
+          if ( handle ) {
+            do {
+              for ( int i = 0; i < 1000; i++ ) {
+                counter.add( 1 );
+              }
+              count += 1000;
+            }
+            while ( System.currentTimeMillis() < end );
+          } else {
+            do {
+              for ( int i = 0; i < 1000; i++ ) {
+                scorecard.increment( NAME );
+              }
+              count += 1000;
+            }
+            while ( System.currentTimeMillis() < end );
+          }
+          calls[slot] = count;
+          done.countDown();
+        }
+      } );
+      thread.setDaemon( true );
+      thread.start();
+    }
 
+    ready.await();
+    final long started = System.currentTimeMillis();
+    start.countDown();
+    done.await();
+    final long elapsed = System.currentTimeMillis() - started;
 
+    long total = 0;
+    for ( final long count : calls ) {
+      total += count;
+    }
+    if ( counter.getValue() != total ) {
+      System.err.println( "Lost updates: counted " + counter.getValue() + " of " + total );
+    }
+    return total / ( elapsed / 1000d );
+  }
 
-  public static void main( String[] args ) {
-    StatBoard scorecard = new StatBoardImpl();
 
-    System.out.println( "Initialized - starting test..." );
 
-    // don't include counter creation in the measures
-    Counter counter = scorecard.getCounter( "DemoCounter" );
 
-    long totalElapsed = 0;
-    long totalCount = 0;
+  public static void main( final String[] args ) throws Exception {
+    final StatBoard scorecard = new StatBoardImpl();
 
-    int runs = 10;
-    for ( int x = 0; x < runs; x++ ) {
-      totalElapsed += runTest( scorecard );
-      totalCount += counter.getValue();
-      counter.reset();
-    }
+    System.out.println( "Initialized - warming up..." );
+    runTest( scorecard, 4, false );
+    runTest( scorecard, 4, true );
 
-    //  2,322,454.52 calls per second on a Pentium 3 JVM 1.4
+    //  2,322,454.52 calls per second on a Pentium 3 JVM 1.4 (single thread, by name)
     // 23,356,136.00 calls per second on a i7 Haswell JVM 1.7  =  0.04 microseconds per call?
 
-    System.out.println( "Throughput = " + ( (float)( ( (float)totalCount / (float)totalElapsed ) * 10000 ) / runs ) + " calls per second" );
+    System.out.println( String.format( "%8s %20s %20s", "threads", "by name/s", "handle/s" ) );
+    for ( final int threads : THREADS ) {
+      final double byName = runTest( scorecard, threads, false );
+      final double byHandle = runTest( scorecard, threads, true );
+      System.out.println( String.format( "%8d %,20.0f %,20.0f", threads, byName, byHandle ) );
+    }
   }
 
 }
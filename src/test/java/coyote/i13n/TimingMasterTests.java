@@ -196,7 +196,6 @@ public class TimingMasterTests {
   @Test
   public void simpleTest() {
     TimingMaster subject = new TimingMaster( "simpleTest" );
-    System.out.println( subject );
     Timer t1 = null;
     for ( int i = 0; i < 10; i++ ) {
       t1 = subject.createTimer();
@@ -204,8 +203,7 @@ public class TimingMasterTests {
       doWork();
       t1.stop();
     }
-    System.out.println( subject );
-
+    assertTrue( subject.getHits() == 10 );
   }
 
 
@@ -236,4 +234,46 @@ public class TimingMasterTests {
 
   }
 
+
+
+
+  @Test
+  public void testLatency() {
+    TimingMaster subject = new TimingMaster( "testLatency" );
+    for ( int x = 0; x < 100; x++ ) {
+      Timer timer = subject.createTimer();
+      timer.start();
+      timer.stop();
+    }
+
+    // sub-millisecond intervals still show up in the latency percentiles
+    LatencyHistogram.Snapshot latency = subject.getLatency();
+    assertTrue( "Latency samples should be 100 not " + latency.getCount(), latency.getCount() == 100 );
+    assertTrue( "P50 should not exceed the max", latency.getValueAtPercentile( 50 ) <= latency.getMax() );
+
+    subject.setPrecision( 3 );
+    assertTrue( "Precision was not changed", subject.getPrecision() == 3 );
+    assertTrue( "Changing the precision should discard the latencies", subject.getLatency().getCount() == 0 );
+  }
+
+
+
+
+  @Test
+  public void testLatencyInterval() throws Exception {
+    TimingMaster subject = new TimingMaster( "testLatencyInterval" );
+    subject.setInterval( 50 );
+    subject.record( 1000 );
+    subject.record( 2000 );
+    assertTrue( "In-progress interval should be reported", subject.getLatency().getCount() == 2 );
+
+    Thread.sleep( 60 );
+    subject.record( 3000 );
+    assertTrue( "Completed interval should be reported", subject.getLatency().getCount() == 3 );
+
+    Thread.sleep( 60 );
+    LatencyHistogram.Snapshot latency = subject.getLatency();
+    assertTrue( "Idle interval should be empty", latency.getCount() == 0 );
+  }
+
 }
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ */
+package coyote.i13n.platform;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Test;
+
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
+
+
+/**
+ *
+ */
+public class RuntimeTelemetryTest {
+
+  @Test
+  public void testSample() {
+    final StatBoard board = new StatBoardImpl();
+    final RuntimeTelemetry telemetry = new RuntimeTelemetry(board);
+    telemetry.sample();
+
+    assertNotNull(board.getState("jvm.threads.count"));
+    final long threads = (Long)board.getState("jvm.threads.count").getValue();
+    assertTrue(threads >= 1);
+
+    // every live thread is counted in exactly one state
+    long total = 0;
+    for (final Thread.State state : Thread.State.values()) {
+      total += (Long)board.getState("jvm.threads." + state.name().toLowerCase()).getValue();
+    }
+    assertTrue(total > 0);
+
+    final String collector = ManagementFactory.getGarbageCollectorMXBeans().get(0).getName();
+    final String name = "jvm.gc." + collector.toLowerCase().replaceAll("[^a-z0-9]+", "_").replaceAll("_$", "") + ".count";
+    assertNotNull(name, board.getState(name));
+    assertEquals(ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).isEmpty(), board.getState("jvm.buffers.direct.used") == null);
+  }
+
+}
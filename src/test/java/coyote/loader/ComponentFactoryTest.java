@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationTargetException;
+
+import org.junit.Test;
+
+import coyote.dataframe.DataFrame;
+import coyote.loader.cfg.Config;
+import coyote.loader.component.ManagedComponent;
+
+
+/**
+ *
+ */
+public class ComponentFactoryTest {
+
+  public static class Failing {
+    public Failing() {
+      throw new IllegalStateException( "no" );
+    }
+  }
+
+
+
+
+  public static abstract class Abstract {}
+
+
+
+
+  @Test
+  public void testConstruct() throws Exception {
+    final ComponentFactory factory = new ComponentFactory();
+    final Object first = factory.newInstance( SimpleComponent.class.getName() );
+    final Object second = factory.newInstance( SimpleComponent.class.getName() );
+    assertTrue( first instanceof SimpleComponent );
+    assertNotSame( first, second );
+    assertSame( SimpleComponent.class, factory.loadClass( SimpleComponent.class.getName() ) );
+
+    try {
+      ComponentFactory.construct( Failing.class );
+      fail( "constructor exception not reported" );
+    } catch ( InvocationTargetException expected ) {
+      assertTrue( expected.getCause() instanceof IllegalStateException );
+    }
+    try {
+      ComponentFactory.construct( Abstract.class );
+      fail( "abstract class constructed" );
+    } catch ( InstantiationException expected ) {}
+    try {
+      factory.newInstance( "coyote.loader.NoSuchComponent" );
+      fail( "missing class not reported" );
+    } catch ( ClassNotFoundException expected ) {}
+  }
+
+
+
+
+  @Test
+  public void testStandby() throws Exception {
+    final ComponentFactory factory = new ComponentFactory();
+    final String name = SimpleComponent.class.getName();
+    assertTrue( factory.prepareStandby( "First", name ) );
+    assertTrue( factory.prepareStandby( "First", name ) );
+    assertEquals( 1, factory.getStandbyCount( "First" ) );
+
+    // the spare of one component is not taken by another
+    assertNull( factory.takeStandby( "Second", name ) );
+    assertEquals( 1, factory.getStandbyCount( "First" ) );
+
+    final Object spare = factory.takeStandby( "First", name );
+    assertTrue( spare instanceof SimpleComponent );
+    assertEquals( 0, factory.getStandbyCount( "First" ) );
+    assertFalse( factory.prepareStandby( "Failing", Failing.class.getName() ) );
+  }
+
+
+
+
+  @Test
+  public void testStandbyOnlyOnRestart() throws Exception {
+    final DefaultLoader loader = new DefaultLoader();
+    final Config first = new Config();
+    first.put( ConfigTag.NAME, "First" );
+    first.put( ConfigTag.CLASS, SimpleComponent.class.getName() );
+    first.put( ConfigTag.STANDBY, true );
+    final Config second = new Config();
+    second.put( ConfigTag.NAME, "Second" );
+    second.put( ConfigTag.CLASS, SimpleComponent.class.getName() );
+    second.put( ConfigTag.STANDBY, true );
+
+    try {
+      // loading the second does not take the spare prepared for the first
+      loader.loadComponent( first );
+      assertEquals( 1, loader.factory.getStandbyCount( "First" ) );
+      loader.loadComponent( second );
+      assertEquals( 1, loader.factory.getStandbyCount( "First" ) );
+      assertEquals( 1, loader.factory.getStandbyCount( "Second" ) );
+
+      loader.loadComponent( first, true );
+      assertEquals( 1, loader.factory.getStandbyCount( "Second" ) );
+    } finally {
+      loader.terminateComponents();
+      loader.getThreadPool().stop();
+    }
+  }
+
+
+
+
+  @Test
+  public void testStartupProfile() throws Exception {
+    final DefaultLoader loader = new DefaultLoader();
+    final Config cfg = new Config();
+    cfg.put( ConfigTag.NAME, "Profiled" );
+    cfg.put( ConfigTag.CLASS, SimpleComponent.class.getName() );
+    cfg.put( ConfigTag.STANDBY, true );
+
+    try {
+      final Object component = loader.loadComponent( cfg );
+      loader.activate( component, cfg );
+      ( (ManagedComponent)component ).waitForActive( 5000 );
+
+      // a spare is ready for the restart, which is profiled as well
+      assertEquals( 1, loader.factory.getStandbyCount( "Profiled" ) );
+      loader.removeComponent( component );
+      final Object replacement = loader.loadComponent( cfg, true );
+      assertNotSame( component, replacement );
+
+      final DataFrame frame = loader.getStartupProfile();
+      assertEquals( 2, frame.getFieldCount() );
+      final DataFrame first = (DataFrame)frame.getObject( 0 );
+      assertEquals( "Profiled", first.getAsString( StartupProfile.NAME ) );
+      assertTrue( first.contains( StartupProfile.CLASS_LOAD ) );
+      assertTrue( first.contains( StartupProfile.CONSTRUCT ) );
+      assertTrue( first.contains( StartupProfile.CONFIGURE ) );
+      assertTrue( first.contains( StartupProfile.INITIALIZE ) );
+      assertTrue( first.contains( StartupProfile.FIRST_ACTIVE ) );
+      assertEquals( Boolean.TRUE, ( (DataFrame)frame.getObject( 1 ) ).getObject( StartupProfile.STANDBY ) );
+    } finally {
+      loader.terminateComponents();
+      loader.getThreadPool().stop();
+    }
+  }
+
+
+
+
+  @Test
+  public void testStartupProfileReleasesComponents() throws Exception {
+    final StartupProfile profile = new StartupProfile();
+    Object component = new SimpleComponent();
+    final WeakReference<Object> reference = new WeakReference<Object>( component );
+    profile.loaded( component, "Released", SimpleComponent.class.getName(), 1, 2, 3, false );
+    profile.activated( component );
+    component = null;
+
+    // the profile only remembers the name and class of a replaced component
+    for ( int x = 0; x < 50 && reference.get() != null; x++ ) {
+      System.gc();
+      Thread.sleep( 10 );
+    }
+    assertNull( reference.get() );
+    final DataFrame entry = (DataFrame)profile.toFrame().getObject( 0 );
+    assertEquals( "Released", entry.getAsString( StartupProfile.NAME ) );
+    assertEquals( SimpleComponent.class.getName(), entry.getAsString( StartupProfile.CLASS ) );
+    assertFalse( entry.contains( StartupProfile.FIRST_ACTIVE ) );
+  }
+
+}
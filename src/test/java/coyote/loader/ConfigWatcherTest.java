@@ -0,0 +1,173 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import coyote.loader.cfg.Config;
+
+
+/**
+ *
+ */
+public class ConfigWatcherTest {
+
+  private static void write( final File file, final String data ) throws IOException {
+    try (OutputStream out = new FileOutputStream( file )) {
+      out.write( data.getBytes( StandardCharsets.UTF_8 ) );
+    }
+  }
+
+
+
+
+  private static ConfigWatcher.Listener collect( final BlockingQueue<Config> changes ) {
+    return new ConfigWatcher.Listener() {
+      @Override
+      public void configChanged( final Config config ) {
+        changes.add( config );
+      }
+    };
+  }
+
+
+
+
+  @Test
+  public void testFile() throws Exception {
+    final File file = File.createTempFile( "watched", ".json" );
+    file.deleteOnExit();
+    write( file, "{\"Port\":80}" );
+
+    final BlockingQueue<Config> changes = new LinkedBlockingQueue<Config>();
+    final ConfigWatcher watcher = new ConfigWatcher( file.toURI(), collect( changes ) );
+    watcher.setInterval( 100 );
+    watcher.daemonize( "ConfigWatcherTest" );
+    try {
+      watcher.waitForActive( 5000 );
+
+      write( file, "{\"Port\":8080}" );
+      final Config changed = changes.poll( 15, TimeUnit.SECONDS );
+      assertNotNull( changed );
+      assertEquals( 8080, changed.getInt( "Port" ) );
+
+      // the same content again is not a change
+      write( file, "{\"Port\":8080}" );
+      assertNull( changes.poll( 1, TimeUnit.SECONDS ) );
+    } finally {
+      watcher.shutdown();
+    }
+  }
+
+
+
+
+  @Test
+  public void testBaseline() throws Exception {
+    final File file = File.createTempFile( "watched", ".json" );
+    file.deleteOnExit();
+    write( file, "{\"Port\":8080}" );
+
+    // the file changed after the loader started with this
+    final Config started = new Config();
+    started.put( "Port", 80 );
+
+    final BlockingQueue<Config> changes = new LinkedBlockingQueue<Config>();
+    final ConfigWatcher watcher = new ConfigWatcher( file.toURI(), collect( changes ) );
+    watcher.setInterval( 100 );
+    watcher.setBaseline( started );
+    watcher.daemonize( "ConfigWatcherTest" );
+    try {
+      final Config changed = changes.poll( 5, TimeUnit.SECONDS );
+      assertNotNull( changed );
+      assertEquals( 8080, changed.getInt( "Port" ) );
+    } finally {
+      watcher.shutdown();
+    }
+  }
+
+
+
+
+  @Test
+  public void testHttp() throws Exception {
+    final String[] body = { "{\"Port\":80}" };
+    final AtomicInteger sent = new AtomicInteger();
+    final AtomicInteger unmodified = new AtomicInteger();
+
+    // a configuration server which honors If-None-Match
+    final HttpServer server = HttpServer.create( new InetSocketAddress( "127.0.0.1", 0 ), 0 );
+    server.createContext( "/config.json", new HttpHandler() {
+      @Override
+      public void handle( final HttpExchange exchange ) throws IOException {
+        final String etag = "\"" + Integer.toHexString( body[0].hashCode() ) + "\"";
+        exchange.getResponseHeaders().set( "ETag", etag );
+        if ( etag.equals( exchange.getRequestHeaders().getFirst( "If-None-Match" ) ) ) {
+          unmodified.incrementAndGet();
+          exchange.sendResponseHeaders( 304, -1 );
+        } else {
+          final byte[] data = body[0].getBytes( StandardCharsets.UTF_8 );
+          sent.incrementAndGet();
+          exchange.sendResponseHeaders( 200, data.length );
+          exchange.getResponseBody().write( data );
+        }
+        exchange.close();
+      }
+    } );
+    server.start();
+
+    final BlockingQueue<Config> changes = new LinkedBlockingQueue<Config>();
+    final URI uri = new URI( "http://127.0.0.1:" + server.getAddress().getPort() + "/config.json" );
+    final ConfigWatcher watcher = new ConfigWatcher( uri, collect( changes ) );
+    watcher.setInterval( 50 );
+    watcher.daemonize( "ConfigWatcherTest" );
+    try {
+      watcher.waitForActive( 5000 );
+
+      // unchanged polls cost a 304 and no callback
+      Thread.sleep( 300 );
+      assertTrue( unmodified.get() > 0 );
+      assertEquals( 1, sent.get() );
+      assertTrue( changes.isEmpty() );
+
+      body[0] = "{\"Port\":8080}";
+      final Config changed = changes.poll( 5, TimeUnit.SECONDS );
+      assertNotNull( changed );
+      assertEquals( 8080, changed.getInt( "Port" ) );
+    } finally {
+      watcher.shutdown();
+      server.stop( 0 );
+    }
+  }
+
+}
@@ -11,8 +11,17 @@
  */
 package coyote.loader;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
 import org.junit.Test;
 
+import coyote.i13n.FileMetricsSink;
+import coyote.i13n.MetricsSink;
+import coyote.loader.cfg.Config;
 import coyote.loader.log.ConsoleAppender;
 import coyote.loader.log.Log;
 
@@ -32,4 +41,71 @@ public class DefaultLoaderTest {
 
   }
 
+
+
+
+  @Test
+  public void testMetrics() throws Exception {
+    final File dir = File.createTempFile( "metrics", "" );
+    dir.delete();
+    final Config sink = new Config();
+    sink.put( "Directory", dir.getAbsolutePath() );
+    sink.put( "Name", "loader" );
+    final Config metrics = new Config();
+    metrics.put( "Interval", 60000 );
+    metrics.add( "File", sink );
+    final Config cfg = new Config();
+    cfg.add( ConfigTag.METRICS, metrics );
+
+    final DefaultLoader loader = new DefaultLoader();
+    loader.configure( cfg );
+    assertNotNull( loader.exporter );
+    assertEquals( 60000, loader.exporter.getInterval() );
+    final MetricsSink file = loader.exporter.getSinks().get( 0 );
+
+    try {
+      loader.initComponents();
+      loader.getStats().increase( "Exported", 3 );
+
+      // the last changes are exported as the loader stops
+      loader.terminateComponents();
+      file.join( 5000 );
+      assertEquals( 1, file.getSent() );
+      assertTrue( ( (FileMetricsSink)file ).getFile( 0 ).exists() );
+    } finally {
+      loader.getThreadPool().stop();
+      final File[] files = dir.listFiles();
+      if ( files != null ) {
+        for ( final File f : files ) {
+          f.delete();
+        }
+      }
+      dir.delete();
+    }
+  }
+
+
+
+
+  @Test
+  public void testRuntimeTelemetry() throws Exception {
+    final Config cfg = new Config();
+    cfg.put( ConfigTag.RUNTIME_TELEMETRY, true );
+    cfg.put( ConfigTag.TELEMETRY_INTERVAL, 60000 );
+
+    final DefaultLoader loader = new DefaultLoader();
+    loader.configure( cfg );
+    assertNotNull( loader.telemetry );
+    assertEquals( 60000, loader.telemetry.getInterval() );
+
+    try {
+      // the first sample is taken as the loader starts
+      loader.initComponents();
+      assertNotNull( loader.getStats().getState( "jvm.threads.count" ).getValue() );
+    } finally {
+      loader.terminateComponents();
+      loader.getThreadPool().stop();
+    }
+  }
+
 }
@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import coyote.loader.cfg.Config;
+import coyote.loader.component.AbstractManagedComponent;
+import coyote.loader.component.AbstractScheduledComponent;
+
+
+/**
+ *
+ */
+public class DrainTest {
+
+  /** When each component stopped */
+  private static final Map<String, Long> stopped = new ConcurrentHashMap<String, Long>();
+
+
+
+
+  /**
+   * A component which is always part way through a unit of work.
+   */
+  public static class BusyComponent extends AbstractManagedComponent {
+    volatile int started = 0;
+    volatile int finished = 0;
+    volatile boolean refused = false;
+
+
+
+
+    @Override
+    public void doWork() {
+      if ( beginWork() ) {
+        started++;
+        try {
+          final long end = System.currentTimeMillis() + 100;
+          while ( System.currentTimeMillis() < end ) {
+            park( 10 );
+          }
+          finished++;
+        } finally {
+          endWork();
+        }
+      } else {
+        refused = true;
+        park( 10 );
+      }
+    }
+
+
+
+
+    @Override
+    public void terminate() {
+      stopped.put( getName(), System.nanoTime() );
+    }
+  }
+
+
+
+
+  /**
+   * A scheduled component whose runs take a while.
+   */
+  public static class SlowScheduledComponent extends AbstractScheduledComponent {
+    volatile boolean began = false;
+    volatile boolean finished = false;
+
+
+
+
+    @Override
+    public void doWork() {
+      began = true;
+      final long end = System.currentTimeMillis() + 200;
+      while ( System.currentTimeMillis() < end ) {
+        park( 10 );
+      }
+      finished = true;
+    }
+  }
+
+
+
+
+  private static Config component( final String name, final String dependsOn ) {
+    final Config cfg = new Config();
+    cfg.put( ConfigTag.NAME, name );
+    cfg.put( ConfigTag.CLASS, BusyComponent.class.getName() );
+    if ( dependsOn != null ) {
+      cfg.put( ConfigTag.DEPENDS_ON, dependsOn );
+    }
+    return cfg;
+  }
+
+
+
+
+  @Test
+  public void testDrain() throws Exception {
+    stopped.clear();
+    final DefaultLoader loader = new DefaultLoader();
+    final Config base = component( "Base", null );
+    final Config client = component( "Client", "Base" );
+
+    try {
+      final BusyComponent first = (BusyComponent)loader.loadComponent( base );
+      final BusyComponent second = (BusyComponent)loader.loadComponent( client );
+      first.setName( "Base" );
+      second.setName( "Client" );
+      loader.activate( first, base );
+      loader.activate( second, client );
+      first.waitForActive( 5000 );
+      second.waitForActive( 5000 );
+      Thread.sleep( 50 );
+
+      loader.terminateComponents();
+
+      // work in flight was finished and nothing new was taken on
+      assertTrue( first.isQuiesced() );
+      assertEquals( 0, first.getInFlight() );
+      assertEquals( first.started, first.finished );
+      assertEquals( second.started, second.finished );
+      assertFalse( first.isActive() );
+      assertFalse( second.isActive() );
+
+      // the dependent stopped before what it depends on
+      assertTrue( stopped.get( "Client" ) < stopped.get( "Base" ) );
+      assertNotNull( loader.getStats().getState( "Drain.Base" ) );
+      assertNotNull( loader.getStats().getState( "Terminate.Client" ) );
+      assertNotNull( loader.getStats().getState( "Drain" ) );
+      synchronized ( loader.components ) {
+        assertEquals( 0, loader.components.size() );
+      }
+    } finally {
+      loader.getThreadPool().stop();
+    }
+  }
+
+
+
+
+  @Test
+  public void testScheduledRun() throws Exception {
+    final SlowScheduledComponent job = new SlowScheduledComponent();
+    final Thread thread = new Thread( job );
+    thread.start();
+    final long expiry = System.currentTimeMillis() + 5000;
+    while ( !job.began && System.currentTimeMillis() < expiry ) {
+      Thread.sleep( 5 );
+    }
+
+    // the run is in flight and is finished after quiescing
+    assertEquals( 1, job.getInFlight() );
+    job.quiesce();
+    assertEquals( 1, job.getInFlight() );
+    thread.join( 5000 );
+    assertTrue( job.finished );
+    assertEquals( 0, job.getInFlight() );
+
+    // later runs are skipped
+    job.began = false;
+    job.run();
+    assertFalse( job.began );
+  }
+
+}
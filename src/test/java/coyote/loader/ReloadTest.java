@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import coyote.loader.cfg.Config;
+import coyote.loader.component.AbstractManagedComponent;
+
+
+/**
+ *
+ */
+public class ReloadTest {
+
+  /** The latest instance of each component */
+  private static final Map<String, TrackedComponent> latest = new ConcurrentHashMap<String, TrackedComponent>();
+
+
+
+
+  /**
+   * A component which records its instances and is restarted on change.
+   */
+  public static class TrackedComponent extends AbstractManagedComponent {
+    @Override
+    public void setConfiguration( final Config config ) {
+      super.setConfiguration( config );
+      latest.put( config.getName(), this );
+    }
+
+
+
+
+    @Override
+    public void doWork() {
+      park( 20 );
+    }
+  }
+
+
+
+
+  /**
+   * A component which applies changed configurations while running.
+   */
+  public static class TunableComponent extends TrackedComponent {
+    volatile int reconfigured = 0;
+
+
+
+
+    @Override
+    public boolean reconfigure( final Config config ) {
+      configuration = config;
+      reconfigured++;
+      return true;
+    }
+  }
+
+
+
+
+  /**
+   * A plain runnable, which the loader runs once and does not manage.
+   */
+  public static class Task implements Runnable {
+    static final AtomicInteger created = new AtomicInteger();
+
+
+
+
+    public Task() {
+      created.incrementAndGet();
+    }
+
+
+
+
+    @Override
+    public void run() {}
+  }
+
+
+
+
+  private static Config component( final String name, final Class<?> type, final int port ) {
+    final Config cfg = new Config();
+    cfg.setName( name );
+    cfg.setClassName( type.getName() );
+    cfg.put( "Port", port );
+    return cfg;
+  }
+
+
+
+
+  private static Config loader( final Config... components ) {
+    final Config retval = new Config();
+    final Config section = new Config();
+    for ( final Config cfg : components ) {
+      section.add( cfg.getName(), cfg );
+    }
+    retval.add( ConfigTag.COMPONENT, section );
+    return retval;
+  }
+
+
+
+
+  @Test
+  public void testReload() throws Exception {
+    latest.clear();
+    final DefaultLoader loader = new DefaultLoader();
+    loader.configuration = loader( component( "Keep", TrackedComponent.class, 1 ), component( "Change", TrackedComponent.class, 2 ), component( "Tune", TunableComponent.class, 3 ), component( "Gone", TrackedComponent.class, 4 ) );
+
+    try {
+      loader.initComponents();
+      final TrackedComponent keep = latest.get( "Keep" );
+      final TrackedComponent change = latest.get( "Change" );
+      final TunableComponent tune = (TunableComponent)latest.get( "Tune" );
+      final TrackedComponent gone = latest.get( "Gone" );
+      keep.waitForActive( 5000 );
+      change.waitForActive( 5000 );
+
+      // nothing changed, nothing touched
+      loader.reload( loader.configuration.copy() );
+      assertEquals( 0, tune.reconfigured );
+      assertSame( change, latest.get( "Change" ) );
+
+      loader.reload( loader( component( "Keep", TrackedComponent.class, 1 ), component( "Change", TrackedComponent.class, 20 ), component( "Tune", TunableComponent.class, 30 ), component( "Fresh", TrackedComponent.class, 5 ) ) );
+
+      // untouched
+      assertSame( keep, latest.get( "Keep" ) );
+      assertTrue( keep.isActive() );
+
+      // reconfigured in place
+      assertSame( tune, latest.get( "Tune" ) );
+      assertEquals( 1, tune.reconfigured );
+      assertEquals( 30, tune.getConfiguration().getInt( "Port" ) );
+
+      // restarted
+      assertNotSame( change, latest.get( "Change" ) );
+      assertEquals( 20, latest.get( "Change" ).getConfiguration().getInt( "Port" ) );
+
+      // added and removed
+      assertNotNull( latest.get( "Fresh" ) );
+      synchronized ( loader.components ) {
+        assertEquals( 4, loader.components.size() );
+        assertFalse( loader.components.containsKey( gone ) );
+        assertFalse( loader.components.containsKey( change ) );
+        assertTrue( loader.components.containsKey( keep ) );
+        assertEquals( 30, loader.components.get( tune ).getInt( "Port" ) );
+      }
+      assertEquals( 1, loader.getStats().getCounter( "Reload" ).getValue() );
+    } finally {
+      loader.terminateComponents();
+      loader.getThreadPool().stop();
+    }
+  }
+
+
+
+
+  @Test
+  public void testReloadUnmanaged() throws Exception {
+    latest.clear();
+    Task.created.set( 0 );
+    final DefaultLoader loader = new DefaultLoader();
+    loader.configuration = loader( component( "Task", Task.class, 1 ), component( "Tracked", TrackedComponent.class, 2 ) );
+
+    try {
+      loader.initComponents();
+      assertEquals( 1, Task.created.get() );
+
+      // a component loaded outside the configuration
+      final Config stray = component( "Stray", TrackedComponent.class, 9 );
+      loader.activate( loader.loadComponent( stray ), stray );
+      final TrackedComponent strayed = latest.get( "Stray" );
+      strayed.waitForActive( 5000 );
+
+      loader.reload( loader( component( "Task", Task.class, 1 ), component( "Tracked", TrackedComponent.class, 3 ) ) );
+
+      // the runnable is matched rather than loaded again
+      assertEquals( 1, Task.created.get() );
+
+      // what the configuration does not hold is stopped
+      assertTrue( strayed.isShutdown() );
+      synchronized ( loader.components ) {
+        assertEquals( 2, loader.components.size() );
+        assertFalse( loader.components.containsKey( strayed ) );
+      }
+    } finally {
+      loader.terminateComponents();
+      loader.getThreadPool().stop();
+    }
+  }
+
+
+
+
+  @Test
+  public void testReloadBadClass() throws Exception {
+    latest.clear();
+    final DefaultLoader loader = new DefaultLoader();
+    loader.configuration = loader( component( "Change", TrackedComponent.class, 1 ) );
+
+    try {
+      loader.initComponents();
+      final TrackedComponent change = latest.get( "Change" );
+      change.waitForActive( 5000 );
+      final Config started = loader.configuration;
+
+      // the running component is kept when its replacement cannot be loaded
+      final Config broken = component( "Change", TrackedComponent.class, 2 );
+      broken.setClassName( "coyote.loader.NoSuchComponent" );
+      loader.reload( loader( broken, component( "Other", Task.class, 3 ) ) );
+      assertSame( change, latest.get( "Change" ) );
+      assertFalse( change.isShutdown() );
+      assertSame( started, loader.configuration );
+      synchronized ( loader.components ) {
+        assertTrue( loader.components.containsKey( change ) );
+      }
+    } finally {
+      loader.terminateComponents();
+      loader.getThreadPool().stop();
+    }
+  }
+
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.junit.Test;
+
+import coyote.loader.cfg.Config;
+import coyote.loader.component.AbstractManagedComponent;
+import coyote.loader.thread.ThreadPool;
+
+
+/**
+ *
+ */
+public class StartupGraphTest {
+
+  /** When each component finished initializing */
+  private static final Map<String, Long> ready = new ConcurrentHashMap<String, Long>();
+
+  /** When each component started initializing */
+  private static final Map<String, Long> began = new ConcurrentHashMap<String, Long>();
+
+
+
+
+  /**
+   * A component which takes a while to initialize.
+   */
+  public static class SlowComponent extends AbstractManagedComponent {
+    @Override
+    public void initialize() {
+      final String name = configuration.getString( ConfigTag.NAME );
+      began.put( name, System.nanoTime() );
+      try {
+        Thread.sleep( 200 );
+      } catch ( InterruptedException e ) {}
+      ready.put( name, System.nanoTime() );
+    }
+
+
+
+
+    @Override
+    public void doWork() {
+      park( 50 );
+    }
+  }
+
+
+
+
+  private static Config component( final String name, final String dependsOn ) {
+    final Config cfg = new Config();
+    cfg.put( ConfigTag.NAME, name );
+    cfg.put( ConfigTag.CLASS, SlowComponent.class.getName() );
+    if ( dependsOn != null ) {
+      cfg.put( ConfigTag.DEPENDS_ON, dependsOn );
+    }
+    return cfg;
+  }
+
+
+
+
+  @Test
+  public void testDependencyOrder() throws Exception {
+    final DefaultLoader loader = new DefaultLoader();
+    final List<Config> configs = new ArrayList<Config>();
+    configs.add( component( "Database", null ) );
+    configs.add( component( "Cache", null ) );
+    configs.add( component( "Service", "Database, Cache" ) );
+    configs.add( component( "Api", "Service" ) );
+    configs.add( component( "Metrics", null ) );
+
+    try {
+      final long start = System.currentTimeMillis();
+      final List<String> failed = new StartupGraph( loader, configs ).start( 5000 );
+      final long elapsed = System.currentTimeMillis() - start;
+      assertEquals( 0, failed.size() );
+
+      // dependents start only after what they need is ready
+      assertTrue( began.get( "Service" ) >= ready.get( "Database" ) );
+      assertTrue( began.get( "Service" ) >= ready.get( "Cache" ) );
+      assertTrue( began.get( "Api" ) >= ready.get( "Service" ) );
+
+      // three levels of 200ms each rather than five components in series
+      assertTrue( "took " + elapsed + "ms", elapsed < 1000 );
+
+      assertNotNull( loader.getStats().getState( "Startup.Api" ) );
+      assertNotNull( loader.getStats().getState( StartupGraph.STARTUP ) );
+    } finally {
+      loader.terminateComponents();
+      loader.getThreadPool().stop();
+    }
+  }
+
+
+
+
+  @Test
+  public void testStealingPool() throws Exception {
+    final DefaultLoader loader = new DefaultLoader();
+    loader.getThreadPool().setMinWorkerCount( 1 );
+    loader.getThreadPool().setMaxThreadCount( 8 );
+    loader.getThreadPool().setMode( ThreadPool.STEALING_MODE );
+    final List<Config> configs = new ArrayList<Config>();
+    configs.add( component( "Queue", null ) );
+    configs.add( component( "Consumer", "Queue" ) );
+
+    try {
+      // each component is started from a worker which then waits for it
+      final List<String> failed = new StartupGraph( loader, configs ).start( 3000 );
+      assertEquals( failed.toString(), 0, failed.size() );
+    } finally {
+      loader.terminateComponents();
+      loader.getThreadPool().stop();
+    }
+  }
+
+
+
+
+  @Test
+  public void testSmallPool() throws Exception {
+    final DefaultLoader loader = new DefaultLoader();
+    loader.getThreadPool().setMaxThreadCount( 3 );
+    final List<Config> configs = new ArrayList<Config>();
+    configs.add( component( "One", null ) );
+    configs.add( component( "Two", null ) );
+    configs.add( component( "Three", null ) );
+
+    try {
+      // every worker is needed to run the components themselves
+      final List<String> failed = new StartupGraph( loader, configs ).start( 3000 );
+      assertEquals( failed.toString(), 0, failed.size() );
+    } finally {
+      loader.terminateComponents();
+      loader.getThreadPool().stop();
+    }
+  }
+
+
+
+
+  @Test
+  public void testBadDependencies() {
+    final DefaultLoader loader = new DefaultLoader();
+    final List<Config> configs = new ArrayList<Config>();
+    configs.add( component( "A", "C" ) );
+    configs.add( component( "B", "A" ) );
+    configs.add( component( "C", "B" ) );
+    try {
+      new StartupGraph( loader, configs );
+      fail( "accepted a cycle" );
+    } catch ( IllegalArgumentException expected ) {
+      assertTrue( expected.getMessage().contains( "cycle" ) );
+    }
+
+    configs.clear();
+    configs.add( component( "A", "Missing" ) );
+    try {
+      new StartupGraph( loader, configs );
+      fail( "accepted an unknown dependency" );
+    } catch ( IllegalArgumentException expected ) {}
+  }
+
+}
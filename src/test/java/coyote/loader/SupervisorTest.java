@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.Test;
+
+import coyote.loader.cfg.Config;
+import coyote.loader.component.AbstractManagedComponent;
+
+
+/**
+ *
+ */
+public class SupervisorTest {
+
+  /** Every instance created, in order */
+  private static final List<HangingComponent> instances = new CopyOnWriteArrayList<HangingComponent>();
+
+
+
+
+  /**
+   * A component which checks in until told to hang.
+   */
+  public static class HangingComponent extends AbstractManagedComponent {
+    volatile boolean hung = false;
+
+
+
+
+    public HangingComponent() {
+      instances.add( this );
+    }
+
+
+
+
+    @Override
+    public void initialize() {
+      getLoader().getWatchdog().setHangTime( 200, this, configuration );
+    }
+
+
+
+
+    @Override
+    public void doWork() {
+      if ( !hung ) {
+        getLoader().getWatchdog().checkIn( this );
+      }
+      park( 20 );
+    }
+  }
+
+
+
+
+  private static HangingComponent waitForInstance( final int count ) throws InterruptedException {
+    final long expiry = System.currentTimeMillis() + 5000;
+    while ( instances.size() < count && System.currentTimeMillis() < expiry ) {
+      Thread.sleep( 10 );
+    }
+    assertTrue( "no instance " + count, instances.size() >= count );
+    final HangingComponent retval = instances.get( count - 1 );
+    retval.waitForActive( 5000 );
+    assertTrue( retval.isActive() );
+    return retval;
+  }
+
+
+
+
+  @Test
+  public void testHangRestart() throws Exception {
+    instances.clear();
+    final DefaultLoader loader = new DefaultLoader();
+    loader.supervisor.setBackoff( 300, 1000 );
+    final Config cfg = new Config();
+    cfg.put( ConfigTag.NAME, "Hanging" );
+    cfg.put( ConfigTag.CLASS, HangingComponent.class.getName() );
+
+    try {
+      loader.activate( loader.loadComponent( cfg ), cfg );
+      final HangingComponent first = waitForInstance( 1 );
+
+      // checking in keeps it alive past its hang time
+      Thread.sleep( 400 );
+      assertEquals( 1, instances.size() );
+      assertEquals( 1, loader.supervisor.size() );
+
+      // hang it; it is replaced straight away the first time
+      first.hung = true;
+      final HangingComponent second = waitForInstance( 2 );
+      assertNotSame( first, second );
+      assertTrue( first.isShutdown() );
+      assertEquals( 1, loader.getStats().getCounter( "Watchdog.hangs" ).getValue() );
+      assertEquals( 1, loader.getStats().getCounter( "Watchdog.Hanging.restarts" ).getValue() );
+
+      // the hung instance is dropped once its replacement is running
+      final long expiry = System.currentTimeMillis() + 5000;
+      boolean dropped = false;
+      while ( !dropped && System.currentTimeMillis() < expiry ) {
+        synchronized ( loader.components ) {
+          assertTrue( loader.components.containsKey( second ) );
+          dropped = !loader.components.containsKey( first );
+        }
+        Thread.sleep( 10 );
+      }
+      assertTrue( dropped );
+
+      // hang the replacement; this restart is delayed
+      final long hungAt = System.currentTimeMillis();
+      second.hung = true;
+      waitForInstance( 3 );
+      // hang time, less the last check-in cycle, plus the backoff
+      assertTrue( System.currentTimeMillis() - hungAt >= 200 - 20 + 300 );
+      assertEquals( 2, loader.getStats().getCounter( "Watchdog.restarts" ).getValue() );
+      assertEquals( "300", loader.getStats().getState( "Watchdog.Hanging.backoff_ms" ).getStringValue() );
+    } finally {
+      loader.terminateComponents();
+      loader.getThreadPool().stop();
+    }
+  }
+
+
+
+
+  @SuppressWarnings("deprecation")
+  @Test
+  public void testHeartbeatViews() throws Exception {
+    final DefaultLoader loader = new DefaultLoader();
+    final Object component = new Object();
+
+    try {
+      // every way of changing the old maps goes through the supervisor
+      loader.hangtime.putAll( Collections.singletonMap( component, Long.valueOf( 60000 ) ) );
+      assertEquals( Long.valueOf( 60000 ), loader.hangtime.get( component ) );
+      assertTrue( loader.checkin.containsKey( component ) );
+      assertNotNull( loader.checkin.putIfAbsent( component, Long.valueOf( 0 ) ) );
+      assertEquals( 1, loader.checkin.size() );
+
+      try {
+        loader.checkin.entrySet().clear();
+        fail( "changed a copy of the heartbeats" );
+      } catch ( UnsupportedOperationException expected ) {}
+
+      loader.hangtime.remove( component );
+      assertFalse( loader.checkin.containsKey( component ) );
+      assertTrue( loader.hangtime.isEmpty() );
+    } finally {
+      loader.getThreadPool().stop();
+    }
+  }
+
+
+
+
+  @SuppressWarnings("deprecation")
+  @Test
+  public void testUnnamedBackoff() throws Exception {
+    instances.clear();
+    final DefaultLoader loader = new DefaultLoader();
+    loader.supervisor.setBackoff( 5000, 10000 );
+    final String backoff = "Watchdog." + HangingComponent.class.getName() + ".backoff_ms";
+    final Config cfg = new Config();
+    cfg.put( ConfigTag.CLASS, HangingComponent.class.getName() );
+
+    try {
+      loader.activate( loader.loadComponent( cfg ), cfg );
+      final HangingComponent first = waitForInstance( 1 );
+      loader.activate( loader.loadComponent( cfg ), cfg );
+      final HangingComponent second = waitForInstance( 2 );
+
+      // the old maps show the heartbeats
+      assertEquals( Long.valueOf( 200 ), loader.hangtime.get( first ) );
+      assertTrue( loader.checkin.containsKey( second ) );
+      assertEquals( 2, loader.checkin.size() );
+
+      // neither is held back by the restart of the other
+      first.hung = true;
+      waitForInstance( 3 );
+      second.hung = true;
+      waitForInstance( 4 );
+      assertEquals( 2, loader.getStats().getCounter( "Watchdog.restarts" ).getValue() );
+      assertEquals( "0", loader.getStats().getState( backoff ).getStringValue() );
+    } finally {
+      loader.terminateComponents();
+      loader.getThreadPool().stop();
+    }
+  }
+
+}
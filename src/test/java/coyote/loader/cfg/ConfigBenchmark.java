@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.loader.cfg;
+
+/**
+ * Compares lookups in a {@link Config} with lookups in its
+ * {@link CompiledConfig} on a configuration of 500 fields.
+ *
+ * <p>The configuration holds string, integer and boolean attributes and a
+ * few sections. Each lookup asks for an attribute spread across the fields
+ * in the case it was not set with, as component code often does, and the
+ * average time of each kind of lookup is reported in nanoseconds.</p>
+ */
+public class ConfigBenchmark {
+
+  private static final int FIELDS = 500;
+  private static final int SECTIONS = 10;
+  private static final int LOOKUPS = 200000;
+
+
+
+
+  private interface Lookup {
+    Object get( int n );
+  }
+
+
+
+
+  private static Config build() {
+    final Config retval = new Config();
+    for ( int x = 0; x < FIELDS - SECTIONS; x++ ) {
+      switch ( x % 3 ) {
+        case 0:
+          retval.put( "String" + x, "value" + x );
+          break;
+        case 1:
+          retval.put( "Int" + x, Integer.toString( x ) );
+          break;
+        default:
+          retval.put( "Flag" + x, ( x % 2 == 0 ) ? "true" : "false" );
+          break;
+      }
+    }
+    for ( int x = 0; x < SECTIONS; x++ ) {
+      final Config section = new Config();
+      section.put( "Name", "Section" + x );
+      section.put( "Port", Integer.toString( 8000 + x ) );
+      retval.add( "Section" + x, section );
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @return the names of the attributes of the given kind, in upper case
+   */
+  private static String[] names( final String prefix, final int remainder ) {
+    final String[] retval = new String[( FIELDS - SECTIONS ) / 3];
+    int count = 0;
+    for ( int x = 0; x < FIELDS - SECTIONS && count < retval.length; x++ ) {
+      if ( x % 3 == remainder ) {
+        retval[count++] = ( prefix + x ).toUpperCase();
+      }
+    }
+    return retval;
+  }
+
+
+
+
+  /**
+   * @return nanoseconds per lookup
+   */
+  private static double time( final Lookup lookup ) {
+    long sink = 0;
+    final long begin = System.nanoTime();
+    for ( int x = 0; x < LOOKUPS; x++ ) {
+      final Object value = lookup.get( x );
+      sink += ( value != null ) ? value.hashCode() : 0;
+    }
+    final long elapsed = System.nanoTime() - begin;
+    if ( sink == 42 ) {
+      System.out.print( "" ); // keep the results alive
+    }
+    return elapsed / (double)LOOKUPS;
+  }
+
+
+
+
+  private static void report( final String label, final Lookup config, final Lookup compiled ) {
+    final double before = time( config );
+    final double after = time( compiled );
+    System.out.println( String.format( "  %-12s %14.1f %14.1f %10.1fx", label, before, after, before / after ) );
+  }
+
+
+
+
+  public static void main( final String[] args ) {
+    final Config config = build();
+    final long begin = System.nanoTime();
+    final CompiledConfig compiled = config.compile();
+    System.out.println( String.format( "Compiled %d fields in %.3fms", config.getElementCount(), ( System.nanoTime() - begin ) / 1e6 ) );
+
+    final String[] strings = names( "String", 0 );
+    final String[] ints = names( "Int", 1 );
+    final String[] flags = names( "Flag", 2 );
+
+    for ( int round = 0; round < 3; round++ ) {
+      System.out.println( ( round == 0 ) ? "Warm up (ns per lookup)" : "Round " + round + " (ns per lookup)" );
+      System.out.println( String.format( "  %-12s %14s %14s %11s", "", "Config", "CompiledConfig", "speedup" ) );
+      report( "getString", new Lookup() {
+        @Override
+        public Object get( final int n ) {
+          return config.getString( strings[n % strings.length] );
+        }
+      }, new Lookup() {
+        @Override
+        public Object get( final int n ) {
+          return compiled.getString( strings[n % strings.length] );
+        }
+      } );
+      report( "getInt", new Lookup() {
+        @Override
+        public Object get( final int n ) {
+          return config.getInt( ints[n % ints.length] );
+        }
+      }, new Lookup() {
+        @Override
+        public Object get( final int n ) {
+          return compiled.getInt( ints[n % ints.length] );
+        }
+      } );
+      report( "getBoolean", new Lookup() {
+        @Override
+        public Object get( final int n ) {
+          return config.getBoolean( flags[n % flags.length] );
+        }
+      }, new Lookup() {
+        @Override
+        public Object get( final int n ) {
+          return compiled.getBoolean( flags[n % flags.length] );
+        }
+      } );
+      report( "getSection", new Lookup() {
+        @Override
+        public Object get( final int n ) {
+          return config.getSection( "SECTION" + ( n % SECTIONS ) ).getString( "port" );
+        }
+      }, new Lookup() {
+        @Override
+        public Object get( final int n ) {
+          return compiled.getSection( "SECTION" + ( n % SECTIONS ) ).getString( "port" );
+        }
+      } );
+    }
+  }
+
+}
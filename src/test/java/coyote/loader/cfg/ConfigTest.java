@@ -1,6 +1,7 @@
 package coyote.loader.cfg;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
@@ -55,10 +56,6 @@ public class ConfigTest {
 
     // Add the component configuration to the main Loader config
     config.add("Component", componentCfg);
-
-    // This is a standard configuration for a loader
-    //System.out.println(JSONMarshaler.toFormattedString(config));
-
   }
 
 
@@ -108,7 +105,6 @@ public class ConfigTest {
       assertNotNull(config.getName());
       assertEquals(basename, config.getName());
     }
-    //System.out.println( JSONMarshaler.toFormattedString( config ) );
   }
 
 
@@ -158,7 +154,6 @@ public class ConfigTest {
     String[] models = {"PT3500", "PT4000", "PT4500"};
     DataFrame config = new DataFrame().set("array", models);
     String cfgData = config.toString();
-    //System.out.println(cfgData);
     List<DataFrame> cfglist = JSONMarshaler.marshal(cfgData);
     //DataFrame frame = cfglist.get(0);
     Config configuration = new Config(cfglist.get(0));
@@ -166,4 +161,95 @@ public class ConfigTest {
     assertNotNull(obj);
     assertTrue(obj instanceof String[]); // Not DataFrame
   }
+
+
+
+  @Test
+  public void compileTest() {
+    Config cfg = new Config();
+    cfg.set("Port", "123");
+    cfg.set("port", "456");
+    cfg.set("Enabled", "true");
+    cfg.set("Rate", "1.5");
+    Config section = new Config();
+    section.set("Name", "first");
+    cfg.add("Section", section);
+    section = new Config();
+    section.set("Name", "second");
+    cfg.add("section", section);
+
+    CompiledConfig compiled = cfg.compile();
+
+    // the first match wins, whatever the case
+    assertEquals(123, compiled.getInt("PORT"));
+    assertEquals(123, compiled.getInt("port"));
+    assertEquals(123L, compiled.getLong("Port"));
+    assertEquals("456", compiled.getString("port", false));
+    assertTrue(compiled.getBoolean("enabled"));
+    assertEquals(1.5, compiled.getDouble("RATE"), 0.0);
+    assertNull(compiled.getString("missing"));
+    assertTrue(compiled.containsIgnoreCase("ENABLED"));
+    assertFalse(compiled.contains("ENABLED"));
+
+    // sections are compiled once and cannot be changed
+    assertEquals("first", compiled.getSection("SECTION").getName());
+    assertTrue(compiled.getSection("section") == compiled.getSection("Section"));
+    assertEquals(2, compiled.getSections("Section").size());
+    assertEquals(2, compiled.getSections().size());
+    try {
+      compiled.getSections().clear();
+      fail("Sections should not be modifiable");
+    } catch (UnsupportedOperationException e) {
+      // expected
+    }
+
+    try {
+      compiled.getInt("missing");
+      fail("Missing value should not convert");
+    } catch (NumberFormatException e) {
+      // expected
+    }
+    try {
+      compiled.getInt("Enabled");
+      fail("Boolean should not convert to an integer");
+    } catch (NumberFormatException e) {
+      // expected
+    }
+
+    // the view is a snapshot
+    cfg.put("Port", "789");
+    assertEquals(123, compiled.getInt("Port"));
+    assertEquals("123", compiled.toConfig().getString("Port"));
+  }
+
+
+
+  @Test
+  public void diffTest() {
+    Config before = new Config();
+    before.set("Name", "Loader");
+    before.set("Timeout", 100);
+    Config component = new Config();
+    component.set("Name", "Listener");
+    component.set("Port", 80);
+    before.add("Component", component);
+
+    Config after = before.copy();
+    assertTrue(ConfigDiff.isSame(before, after));
+    assertEquals(0, ConfigDiff.compare(before, after).size());
+
+    ((DataFrame)after.getObject("Component")).put("Port", 8080);
+    after.remove("Timeout");
+    after.set("Debug", true);
+    List<String> changes = ConfigDiff.compare(before, after);
+    assertEquals(3, changes.size());
+    assertTrue(changes.contains("Timeout"));
+    assertTrue(changes.contains("Component.Port"));
+    assertTrue(changes.contains("Debug"));
+
+    // a value of another type is a change
+    after = before.copy();
+    after.put("Timeout", "100");
+    assertEquals("Timeout", ConfigDiff.compare(before, after).get(0));
+  }
 }
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.loader.thread;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Compares the throughput of the job queues as producers and consumers are
+ * added.
+ *
+ * <p>Each round runs 1, 2, 4, 8 and 16 producers against 1, 2, 4, 8 and 16
+ * consumers on a queue of the size a default thread pool uses, and reports
+ * the objects moved per second through the synchronized
+ * {@link BlockingQueue} and the lock-free {@link RingQueue}.
+ */
+public class QueueBenchmark {
+
+  private static final int[] THREADS = { 1, 2, 4, 8, 16 };
+  private static final long RUN_MILLIS = 1000;
+  private static final int CAPACITY = 640;
+
+
+
+
+  private interface Factory {
+    JobQueue create();
+  }
+
+
+
+
+  /**
+   * Run the given number of producers and consumers for the configured
+   * duration.
+   *
+   * @return objects moved per second
+   */
+  private static double runTest( final JobQueue queue, final int producers, final int consumers ) throws InterruptedException {
+    final CountDownLatch start = new CountDownLatch( 1 );
+    final AtomicBoolean running = new AtomicBoolean( true );
+    final AtomicLong moved = new AtomicLong();
+    final Thread[] threads = new Thread[producers + consumers];
+    final Object item = new Object();
+
+    for ( int x = 0; x < producers; x++ ) {
+      threads[x] = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            while ( running.get() ) {
+              queue.put( item, 100 );
+            }
+          } catch ( final InterruptedException e ) {
+            // timed out or stopping
+          }
+        }
+      } );
+    }
+    for ( int x = 0; x < consumers; x++ ) {
+      threads[producers + x] = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          long count = 0;
+          try {
+            start.await();
+            while ( running.get() ) {
+              if ( queue.get( 100 ) != null ) {
+                count++;
+              }
+            }
+          } catch ( final InterruptedException e ) {
+            // stopping
+          }
+          moved.addAndGet( count );
+        }
+      } );
+    }
+    for ( final Thread thread : threads ) {
+      thread.setDaemon( true );
+      thread.start();
+    }
+
+    final long begin = System.nanoTime();
+    start.countDown();
+    Thread.sleep( RUN_MILLIS );
+    running.set( false );
+    final long elapsed = System.nanoTime() - begin;
+    for ( final Thread thread : threads ) {
+      thread.interrupt();
+      thread.join();
+    }
+    return moved.get() / ( elapsed / 1e9 );
+  }
+
+
+
+
+  private static void runRound( final String label, final Factory factory ) throws InterruptedException {
+    System.out.println( label );
+    System.out.print( "  prod\\cons" );
+    for ( final int consumers : THREADS ) {
+      System.out.print( String.format( "%14d", consumers ) );
+    }
+    System.out.println();
+    for ( final int producers : THREADS ) {
+      System.out.print( String.format( "  %9d", producers ) );
+      for ( final int consumers : THREADS ) {
+        System.out.print( String.format( "%14.0f", runTest( factory.create(), producers, consumers ) ) );
+      }
+      System.out.println();
+    }
+  }
+
+
+
+
+  public static void main( final String[] args ) throws InterruptedException {
+    System.out.println( "Objects moved per second, " + Runtime.getRuntime().availableProcessors() + " processors" );
+    for ( int round = 0; round < 2; round++ ) {
+      runRound( "BlockingQueue", new Factory() {
+        @Override
+        public JobQueue create() {
+          return new BlockingQueue( CAPACITY );
+        }
+      } );
+      runRound( "RingQueue", new Factory() {
+        @Override
+        public JobQueue create() {
+          return new RingQueue( CAPACITY );
+        }
+      } );
+    }
+  }
+
+}
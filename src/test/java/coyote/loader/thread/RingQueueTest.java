@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.loader.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class RingQueueTest {
+
+  @Test
+  public void testBounds() throws Exception {
+    final RingQueue queue = new RingQueue( 3 );
+    assertEquals( 4, queue.capacity() );
+    assertTrue( queue.isEmpty() );
+    assertNull( queue.poll() );
+
+    for ( int x = 0; x < 4; x++ ) {
+      assertTrue( queue.offer( x ) );
+    }
+    assertFalse( queue.offer( 4 ) );
+    assertEquals( 4, queue.size() );
+    assertEquals( 0, queue.space() );
+
+    try {
+      queue.put( 4, 20 );
+      fail( "should have timed out" );
+    } catch ( final InterruptedException expected ) {}
+
+    // first in, first out across laps
+    for ( int x = 0; x < 10; x++ ) {
+      assertEquals( x, queue.get() );
+      queue.put( x + 4 );
+    }
+    queue.clear();
+    assertTrue( queue.isEmpty() );
+    assertNull( queue.get( 20 ) );
+  }
+
+
+
+
+  @Test
+  public void testBatches() throws Exception {
+    final RingQueue queue = new RingQueue( 8 );
+    final Object[] items = new Object[12];
+    for ( int x = 0; x < items.length; x++ ) {
+      items[x] = x;
+    }
+    assertEquals( 8, queue.offerAll( items, 0, items.length ) );
+    assertEquals( 0, queue.offerAll( items, 8, 4 ) );
+
+    final List<Object> drained = new ArrayList<Object>();
+    assertEquals( 5, queue.drainTo( drained, 5 ) );
+    assertEquals( 4, queue.offerAll( items, 8, 4 ) );
+    assertEquals( 7, queue.drainTo( drained, 100 ) );
+    assertEquals( 0, queue.drainTo( drained, 100 ) );
+    for ( int x = 0; x < items.length; x++ ) {
+      assertEquals( x, drained.get( x ) );
+    }
+  }
+
+
+
+
+  @Test
+  public void testBlockedConsumer() throws Exception {
+    final RingQueue queue = new RingQueue( 4 );
+    queue.setSpins( 0 );
+    final Object[] result = new Object[1];
+    final Thread consumer = new Thread( new Runnable() {
+      @Override
+      public void run() {
+        try {
+          result[0] = queue.get( 5000 );
+        } catch ( final InterruptedException e ) {}
+      }
+    } );
+    consumer.start();
+    Thread.sleep( 50 ); // let it park
+    queue.put( "wake" );
+    consumer.join( 5000 );
+    assertEquals( "wake", result[0] );
+  }
+
+
+
+
+  @Test
+  public void testManyProducersAndConsumers() throws Exception {
+    final int THREADS = 4;
+    final int LIMIT = 50000;
+    final RingQueue queue = new RingQueue( 16 );
+    final AtomicLong sum = new AtomicLong();
+    final AtomicLong count = new AtomicLong();
+
+    final Thread[] threads = new Thread[THREADS * 2];
+    for ( int x = 0; x < THREADS; x++ ) {
+      threads[x] = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          try {
+            for ( long i = 1; i <= LIMIT; i++ ) {
+              queue.put( i );
+            }
+          } catch ( final InterruptedException e ) {}
+        }
+      } );
+      threads[THREADS + x] = new Thread( new Runnable() {
+        @Override
+        public void run() {
+          final List<Object> batch = new ArrayList<Object>();
+          try {
+            while ( count.get() < THREADS * LIMIT ) {
+              batch.clear();
+              if ( queue.drainTo( batch, 8, 10 ) > 0 ) {
+                for ( final Object o : batch ) {
+                  sum.addAndGet( (Long)o );
+                }
+                count.addAndGet( batch.size() );
+              }
+            }
+          } catch ( final InterruptedException e ) {}
+        }
+      } );
+    }
+    for ( final Thread thread : threads ) {
+      thread.start();
+    }
+    for ( final Thread thread : threads ) {
+      thread.join( 30000 );
+    }
+
+    // every object arrives exactly once
+    assertEquals( THREADS * LIMIT, count.get() );
+    assertEquals( THREADS * ( (long)LIMIT * ( LIMIT + 1 ) / 2 ), sum.get() );
+    assertTrue( queue.isEmpty() );
+  }
+
+}
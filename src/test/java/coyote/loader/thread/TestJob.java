@@ -5,12 +5,16 @@
  */
 package coyote.loader.thread;
 
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 /**
  * Class TestJob
  */
 public class TestJob extends ThreadJob {
   private String display = ".";
   private int count = 0;
+  private final CountDownLatch finished = new CountDownLatch( 1 );
 
 
 
@@ -72,6 +76,23 @@ public class TestJob extends ThreadJob {
     super.terminate();
     
     System.out.println( display + " Ran for " + ( System.currentTimeMillis() - started_time ) + " milliseconds" );
+    finished.countDown();
+  }
+
+
+
+
+  /**
+   * Wait for the job to terminate.
+   * 
+   * @param millis how long to wait
+   * 
+   * @return true if the job terminated, false if the time ran out
+   * 
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public boolean awaitFinished( final long millis ) throws InterruptedException {
+    return finished.await( millis, TimeUnit.MILLISECONDS );
   }
 
 
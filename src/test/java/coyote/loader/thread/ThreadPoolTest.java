@@ -12,11 +12,30 @@
 package coyote.loader.thread;
 
 //import static org.junit.Assert.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
 import org.junit.After;
 import org.junit.Before;
+import org.junit.Test;
 
+import coyote.i13n.Correlation;
+import coyote.i13n.StatBoard;
+import coyote.i13n.StatBoardImpl;
+import coyote.loader.cfg.Config;
 import coyote.loader.log.Log;
 
 
@@ -54,23 +73,13 @@ public class ThreadPoolTest {
 
 
 
-  //@Test
-  public void testEightJobs() {
-    try {
-      pool.handle( new TestJob( "1" ) );
-      pool.handle( new TestJob( "2" ) );
-      pool.handle( new TestJob( "3" ) );
-      pool.handle( new TestJob( "4" ) );
-      pool.handle( new TestJob( "5" ) );
-      pool.handle( new TestJob( "6" ) );
-      pool.handle( new TestJob( "7" ) );
-      pool.handle( new TestJob( "8" ) );
-
-      try {
-        Thread.sleep( 20000 );
-      } catch ( Exception e ) {}
-    } catch ( InterruptedException ie ) {
-      fail( "Could not run job" );
+  /**
+   * Wait for each of the jobs to finish.
+   */
+  private static void awaitFinished( final long millis, final TestJob... jobs ) throws InterruptedException {
+    final long deadline = System.currentTimeMillis() + millis;
+    for ( final TestJob job : jobs ) {
+      assertTrue( job.awaitFinished( Math.max( 1, deadline - System.currentTimeMillis() ) ) );
     }
   }
 
@@ -78,70 +87,60 @@ public class ThreadPoolTest {
 
 
   //@Test
-  public void testPauser() {
-    TestJob pauser = new TestJob( "P" );
-
-    try {
-      pool.handle( pauser );
-    } catch ( InterruptedException ie ) {
-      System.err.println( "Could not run pauser job" );
+  public void testEightJobs() throws InterruptedException {
+    final TestJob[] jobs = new TestJob[8];
+    for ( int x = 0; x < jobs.length; x++ ) {
+      jobs[x] = new TestJob( String.valueOf( x + 1 ) );
+      pool.handle( jobs[x] );
     }
+    awaitFinished( 20000, jobs );
+  }
 
-    try {
-      Thread.sleep( 1000 );
-    } catch ( Exception e ) {}
 
-    pauser.suspend();
 
-    try {
-      Thread.sleep( 2000 );
-    } catch ( Exception e ) {}
 
+  //@Test
+  public void testPauser() throws InterruptedException {
+    final TestJob pauser = new TestJob( "P" );
+    pool.handle( pauser );
+    pauser.waitForActive( 5000 );
+    assertTrue( pauser.isActive() );
+
+    pauser.suspend();
+    assertTrue( pauser.isSuspended() );
     pauser.resume();
+    assertFalse( pauser.isSuspended() );
 
-    try {
-      Thread.sleep( 5000 );
-    } catch ( Exception e ) {}
+    awaitFinished( 20000, pauser );
   }
 
 
 
 
   //@Test
-  public void testTooMany() {
-    System.out.println( "------------------------------------" );
-
-    try {
-      Thread.sleep( 2000 );
-    } catch ( Exception e ) {}
-
-    System.out.println( "------------------------------------" );
+  public void testTooMany() throws InterruptedException {
     pool.setMaxThreadCount( 3 );
     pool.setMinWorkerCount( 2 );
 
-    try {
-      pool.handle( new TestJob( "A" ) );
-      pool.handle( new TestJob( "B" ) );
-      pool.handle( new TestJob( "C" ) );
-      pool.handle( new TestJob( "D" ) );
-      pool.handle( new TestJob( "E" ) );
-      pool.handle( new TestJob( "F" ) );
-      pool.handle( new TestJob( "G" ) );
-      pool.handle( new TestJob( "H" ) );
-
-      try {
-        Thread.sleep( 20000 );
-      } catch ( Exception e ) {}
-    } catch ( InterruptedException ie ) {
-      fail( "Could not run job" );
+    final TestJob[] jobs = new TestJob[8];
+    for ( int x = 0; x < jobs.length; x++ ) {
+      jobs[x] = new TestJob( String.valueOf( (char)( 'A' + x ) ) );
+      pool.handle( jobs[x] );
+    }
+
+    // the jobs queue for the three workers
+    final long deadline = System.currentTimeMillis() + 30000;
+    while ( !jobs[jobs.length - 1].awaitFinished( 100 ) && System.currentTimeMillis() < deadline ) {
+      assertTrue( pool.getThreadCount() <= 3 );
     }
+    awaitFinished( 1000, jobs );
   }
 
 
 
 
   //@Test
-  public void testJobIdle() {
+  public void testJobIdle() throws InterruptedException {
     pool.setMaxThreadCount( 3 );
     pool.setMinWorkerCount( 0 );
     pool.setIdleTimeout( 3000L );
@@ -150,44 +149,453 @@ public class ThreadPoolTest {
     Log.debug( "Idle Timeout is set to " + pool.getIdleTimeout() );
 
     try {
-      pool.handle( new TestJob( "A" ) );
-      pool.handle( new TestJob( "B" ) );
-      pool.handle( new TestJob( "C" ) );
-
-      try {
-        Thread.sleep( 20000 );
-      } catch ( Exception e ) {}
-    } catch ( InterruptedException ie ) {
-      fail( "Could not run job" );
+      final TestJob[] jobs = { new TestJob( "A" ), new TestJob( "B" ), new TestJob( "C" ) };
+      for ( final TestJob job : jobs ) {
+        pool.handle( job );
+      }
+      awaitFinished( 20000, jobs );
+    } finally {
+      Log.stopLogging( Log.DEBUG );
     }
-
-    Log.stopLogging( Log.DEBUG );
   }
 
 
 
 
   //@Test
-  public void testWaitFor() {
+  public void testWaitFor() throws InterruptedException {
     pool.setMaxThreadCount( 3 );
     pool.setMinWorkerCount( 0 );
 
+    final TestJob first = new TestJob( "SlowStarterA" );
+    final TestJob second = new TestJob( "SlowStarterB" );
+    final TestJob subject = new TestJob( "SlowStarterC" );
+    pool.handle( first );
+    pool.handle( second );
+    pool.handle( subject );
+
+    subject.waitForActive( 5000 );
+    assertTrue( subject.isActive() );
+    awaitFinished( 20000, first, second, subject );
+  }
+
+
+
+
+  @Test
+  public void testCorrelationPropagation() throws Exception {
+    final AtomicReference<String> seen = new AtomicReference<String>( "unset" );
+    final CountDownLatch first = new CountDownLatch( 1 );
+    final String previous = Correlation.setId( "request-42" );
+    try {
+      pool.run( new Runnable() {
+        @Override
+        public void run() {
+          seen.set( Correlation.getId() );
+          first.countDown();
+        }
+      } );
+    } finally {
+      Correlation.setId( previous );
+    }
+    assertTrue( first.await( 5, TimeUnit.SECONDS ) );
+    assertEquals( "request-42", seen.get() );
+
+    // jobs from threads without an identifier run without one
+    final CountDownLatch second = new CountDownLatch( 1 );
+    pool.run( new Runnable() {
+      @Override
+      public void run() {
+        seen.set( Correlation.getId() );
+        second.countDown();
+      }
+    } );
+    assertTrue( second.await( 5, TimeUnit.SECONDS ) );
+    assertNull( seen.get() );
+  }
+
+
+
+
+  @Test
+  public void testExplicitCorrelationKept() throws Exception {
+    final CountDownLatch done = new CountDownLatch( 2 );
+    final ThreadJob tagged = new ThreadJob() {
+      @Override
+      public void doWork() {
+        done.countDown();
+        shutdown();
+      }
+    };
+    final ThreadJob untagged = new ThreadJob() {
+      @Override
+      public void doWork() {
+        done.countDown();
+        shutdown();
+      }
+    };
+    tagged.setCorrelationId( "request-41" );
+    final String previous = Correlation.setId( "request-42" );
     try {
-      TestJob subject = new TestJob( "SlowStarterC" );
-      pool.handle( new TestJob( "SlowStarterA" ) );
-      pool.handle( new TestJob( "SlowStarterB" ) );
-      pool.handle( subject );
-
-      subject.waitForActive( 5000 );
-
-      try {
-        Thread.sleep( 20000 );
-      } catch ( Exception e ) {}
-    } catch ( InterruptedException ie ) {
-      fail( "Could not run job" );
+      pool.handle( tagged );
+      pool.handle( untagged );
+    } finally {
+      Correlation.setId( previous );
     }
 
-    Log.stopLogging( Log.DEBUG );
+    // an identifier set by the caller wins, others come from the submitter
+    assertEquals( "request-41", tagged.getCorrelationId() );
+    assertEquals( "request-42", untagged.getCorrelationId() );
+    assertTrue( done.await( 5, TimeUnit.SECONDS ) );
   }
 
+
+
+
+  @Test
+  public void testWorkStealing() throws Exception {
+    final Config cfg = new Config();
+    cfg.setName( "StealingPool" );
+    cfg.put( ThreadPool.MINWORKERS_TAG, 4 );
+    cfg.put( ThreadPool.MAXWORKERS_TAG, 4 );
+    cfg.put( ThreadPool.MODE_TAG, "stealing" );
+    final ThreadPool stealer = new ThreadPool( cfg );
+    assertEquals( ThreadPool.STEALING_MODE, stealer.getMode() );
+
+    final int CHILDREN = 200;
+    final CountDownLatch done = new CountDownLatch( CHILDREN * 2 );
+    final Set<String> threads = Collections.synchronizedSet( new HashSet<String>() );
+    final Runnable grandchild = new Runnable() {
+      @Override
+      public void run() {
+        threads.add( Thread.currentThread().getName() );
+        done.countDown();
+      }
+    };
+    final Runnable child = new Runnable() {
+      @Override
+      public void run() {
+        stealer.run( grandchild );
+        done.countDown();
+      }
+    };
+
+    try {
+      // jobs handled from within the pool spread across its workers
+      stealer.run( new Runnable() {
+        @Override
+        public void run() {
+          for ( int x = 0; x < CHILDREN; x++ ) {
+            stealer.run( child );
+          }
+        }
+      } );
+      assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+      assertTrue( threads.size() > 1 );
+    } finally {
+      stealer.stop();
+    }
+
+    try {
+      stealer.setMode( "bogus" );
+      fail( "accepted an unknown mode" );
+    } catch ( IllegalArgumentException expected ) {}
+  }
+
+
+
+
+  @Test
+  public void testStealingGrowsAndBounds() throws Exception {
+    final ThreadPool stealer = new ThreadPool( "GrowingPool" );
+    stealer.setMinWorkerCount( 1 );
+    stealer.setMaxThreadCount( 2 );
+    stealer.setMode( ThreadPool.STEALING_MODE );
+
+    final int CHILDREN = ThreadPool.DEQUE_CAPACITY + 10;
+    final CountDownLatch children = new CountDownLatch( CHILDREN );
+    final AtomicInteger overflow = new AtomicInteger( -1 );
+    final CountDownLatch joined = new CountDownLatch( 1 );
+    final Runnable child = new Runnable() {
+      @Override
+      public void run() {
+        children.countDown();
+      }
+    };
+
+    try {
+      // the parent holds the only worker while it waits for its children,
+      // so they can only run if the pool grows to steal them
+      stealer.run( new Runnable() {
+        @Override
+        public void run() {
+          for ( int x = 0; x < CHILDREN; x++ ) {
+            stealer.run( child );
+          }
+          overflow.set( stealer.checkLoad() );
+          try {
+            if ( children.await( 5, TimeUnit.SECONDS ) ) {
+              joined.countDown();
+            }
+          } catch ( InterruptedException e ) {}
+        }
+      } );
+      assertTrue( children.await( 10, TimeUnit.SECONDS ) );
+      assertTrue( joined.await( 5, TimeUnit.SECONDS ) );
+      assertEquals( 2, stealer.getThreadCount() );
+      // what did not fit on the deque went to the shared queue
+      assertTrue( String.valueOf( overflow.get() ), overflow.get() >= 0 && overflow.get() <= 10 );
+    } finally {
+      stealer.stop();
+    }
+  }
+
+
+
+
+  @Test
+  public void testAwaitedJobsAreShared() throws Exception {
+    final ThreadPool stealer = new ThreadPool( "AwaitingPool" );
+    stealer.setMinWorkerCount( 2 );
+    stealer.setMaxThreadCount( 2 );
+    stealer.setMode( ThreadPool.STEALING_MODE );
+
+    final CountDownLatch busy = new CountDownLatch( 1 );
+    final CountDownLatch release = new CountDownLatch( 1 );
+    final CountDownLatch ran = new CountDownLatch( 2 );
+    final AtomicInteger local = new AtomicInteger( -1 );
+    final AtomicInteger shared = new AtomicInteger( -1 );
+    final CountDownLatch joined = new CountDownLatch( 1 );
+    try {
+      // keep the other worker busy so nobody is idle
+      stealer.run( new Runnable() {
+        @Override
+        public void run() {
+          busy.countDown();
+          try {
+            release.await( 10, TimeUnit.SECONDS );
+          } catch ( InterruptedException e ) {}
+        }
+      } );
+      assertTrue( busy.await( 5, TimeUnit.SECONDS ) );
+
+      stealer.run( new Runnable() {
+        @Override
+        public void run() {
+          final Runnable job = new Runnable() {
+            @Override
+            public void run() {
+              ran.countDown();
+            }
+          };
+          try {
+            // an ordinary job stays on our deque, one we wait for does not
+            stealer.handle( new ThreadJob( job ) );
+            local.set( stealer.checkLoad() );
+            stealer.handle( new ThreadJob( job ), true );
+            shared.set( stealer.checkLoad() );
+            release.countDown();
+            if ( ran.await( 5, TimeUnit.SECONDS ) ) {
+              joined.countDown();
+            }
+          } catch ( InterruptedException e ) {}
+        }
+      } );
+      assertTrue( joined.await( 8, TimeUnit.SECONDS ) );
+      assertEquals( 0, local.get() );
+      assertEquals( 1, shared.get() );
+    } finally {
+      release.countDown();
+      stealer.stop();
+    }
+  }
+
+
+
+
+  @Test
+  public void testStoppedStealerReturnsJobs() throws Exception {
+    final ThreadPool stealer = new ThreadPool( "ReturningPool" );
+    stealer.setMinWorkerCount( 1 );
+    stealer.setMaxThreadCount( 1 );
+    stealer.setQueueSize( 2 );
+    stealer.setMode( ThreadPool.STEALING_MODE );
+    stealer.setRejectionPolicy( ThreadPool.REJECT_POLICY );
+    final int CHILDREN = 5;
+    final CountDownLatch rejected = new CountDownLatch( CHILDREN - 2 );
+    stealer.setRejectionHandler( new RejectionHandler() {
+      @Override
+      public void rejected( final ThreadJob job, final ThreadPool pool ) {
+        rejected.countDown();
+      }
+    } );
+
+    final CountDownLatch queued = new CountDownLatch( 1 );
+    final Runnable child = new Runnable() {
+      @Override
+      public void run() {}
+    };
+
+    try {
+      // the only worker holds its children on its deque until it is stopped
+      stealer.run( new Runnable() {
+        @Override
+        public void run() {
+          for ( int x = 0; x < CHILDREN; x++ ) {
+            stealer.run( child );
+          }
+          queued.countDown();
+          try {
+            new CountDownLatch( 1 ).await( 10, TimeUnit.SECONDS );
+          } catch ( InterruptedException e ) {}
+        }
+      } );
+      assertTrue( queued.await( 5, TimeUnit.SECONDS ) );
+      assertEquals( 0, stealer.checkLoad() );
+    } finally {
+      stealer.stop();
+    }
+
+    // what fits goes back on the shared queue, the rest is rejected
+    assertTrue( rejected.await( 5, TimeUnit.SECONDS ) );
+    assertEquals( 2, stealer.checkLoad() );
+    assertEquals( CHILDREN - 2, stealer.getRejectedCount() );
+  }
+
+
+
+
+  @Test
+  public void testRejectionPolicies() throws Exception {
+    final ThreadPool small = new ThreadPool( "SmallPool" );
+    small.setMinWorkerCount( 1 );
+    small.setMaxThreadCount( 1 );
+    small.setQueueSize( 2 );
+    small.setRejectionPolicy( "reject" );
+    final List<ThreadJob> rejects = Collections.synchronizedList( new ArrayList<ThreadJob>() );
+    small.setRejectionHandler( new RejectionHandler() {
+      @Override
+      public void rejected( final ThreadJob job, final ThreadPool pool ) {
+        rejects.add( job );
+      }
+    } );
+    final StatBoard board = new StatBoardImpl();
+    small.setStatBoard( board );
+
+    final CountDownLatch running = new CountDownLatch( 1 );
+    final CountDownLatch release = new CountDownLatch( 1 );
+    final Runnable noop = new Runnable() {
+      @Override
+      public void run() {}
+    };
+
+    try {
+      // occupy the only worker and fill the queue
+      small.run( new Runnable() {
+        @Override
+        public void run() {
+          running.countDown();
+          try {
+            release.await( 10, TimeUnit.SECONDS );
+          } catch ( InterruptedException e ) {}
+        }
+      } );
+      assertTrue( running.await( 5, TimeUnit.SECONDS ) );
+      final ThreadJob first = new ThreadJob( noop );
+      final ThreadJob second = new ThreadJob( noop );
+      small.handle( first );
+      small.handle( second );
+
+      final ThreadJob third = new ThreadJob( noop );
+      small.handle( third );
+      assertEquals( 1, small.getRejectedCount() );
+      assertEquals( third, rejects.get( 0 ) );
+
+      // the oldest queued job makes room for the new one
+      small.setRejectionPolicy( ThreadPool.DROP_OLDEST_POLICY );
+      small.handle( new ThreadJob( noop ) );
+      assertEquals( 2, small.getRejectedCount() );
+      assertEquals( first, rejects.get( 1 ) );
+
+      // the caller runs the job itself
+      small.setRejectionPolicy( ThreadPool.CALLER_RUNS_POLICY );
+      final AtomicReference<Thread> runner = new AtomicReference<Thread>();
+      small.run( new Runnable() {
+        @Override
+        public void run() {
+          runner.set( Thread.currentThread() );
+        }
+      } );
+      assertEquals( Thread.currentThread(), runner.get() );
+      assertEquals( 3, small.getRejectedCount() );
+      assertEquals( 2, rejects.size() );
+      assertEquals( 3, board.getCounter( "SmallPool.rejected" ).getValue() );
+    } finally {
+      release.countDown();
+      small.stop();
+    }
+
+    try {
+      small.setRejectionPolicy( "bogus" );
+      fail( "accepted an unknown policy" );
+    } catch ( IllegalArgumentException expected ) {}
+  }
+
+
+
+
+  @Test
+  public void testAdaptiveSizing() throws Exception {
+    final Config cfg = new Config();
+    cfg.setName( "AdaptivePool" );
+    cfg.put( ThreadPool.MINWORKERS_TAG, 1 );
+    cfg.put( ThreadPool.MAXWORKERS_TAG, 8 );
+    cfg.put( ThreadPool.LATENCY_TAG, 20 );
+    final ThreadPool adaptive = new ThreadPool( cfg );
+    assertEquals( 20, adaptive.getTargetLatency() );
+    final StatBoard board = new StatBoardImpl();
+    adaptive.setStatBoard( board );
+
+    final int JOBS = 40;
+    final CountDownLatch done = new CountDownLatch( JOBS );
+    final Runnable slow = new Runnable() {
+      @Override
+      public void run() {
+        try {
+          Thread.sleep( 50 );
+        } catch ( InterruptedException e ) {}
+        done.countDown();
+      }
+    };
+
+    try {
+      adaptive.start();
+      for ( int x = 0; x < JOBS; x++ ) {
+        adaptive.run( slow );
+      }
+
+      // one worker would need 2 seconds; the controller adds more, but
+      // never more than the maximum
+      int peak = 0;
+      final long expiry = System.currentTimeMillis() + 10000;
+      while ( !done.await( 10, TimeUnit.MILLISECONDS ) && System.currentTimeMillis() < expiry ) {
+        peak = Math.max( peak, adaptive.getThreadCount() );
+      }
+      assertEquals( 0, done.getCount() );
+      assertTrue( peak > 1 );
+      assertTrue( "grew to " + peak, peak <= 8 );
+      assertTrue( board.getState( "AdaptivePool.queue_wait.count" ) != null );
+
+      // and retires them once the work is done
+      final long deadline = System.currentTimeMillis() + 10000;
+      while ( adaptive.getThreadCount() > 1 && System.currentTimeMillis() < deadline ) {
+        Thread.sleep( 50 );
+      }
+      assertEquals( 1, adaptive.getThreadCount() );
+    } finally {
+      adaptive.stop();
+    }
+  }
+
+
 }
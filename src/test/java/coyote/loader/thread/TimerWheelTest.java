@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.loader.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class TimerWheelTest {
+
+  @Test
+  public void testExpiry() throws Exception {
+    final TimerWheel wheel = new TimerWheel( 5, 8 );
+    wheel.daemonize( "TimerWheelTest" );
+    try {
+      final List<Integer> order = new CopyOnWriteArrayList<Integer>();
+      final CountDownLatch latch = new CountDownLatch( 3 );
+      final long[] due = { 150, 20, 80 };
+      final long[] ran = new long[due.length];
+      final long start = System.nanoTime();
+      for ( int i = 0; i < due.length; i++ ) {
+        final int index = i;
+        wheel.schedule( new Runnable() {
+          @Override
+          public void run() {
+            ran[index] = System.nanoTime();
+            order.add( index );
+            latch.countDown();
+          }
+        }, due[i] );
+      }
+      assertEquals( 3, wheel.size() );
+      assertTrue( latch.await( 5, TimeUnit.SECONDS ) );
+
+      // in deadline order, never early, even past a lap of the wheel
+      assertEquals( 1, order.get( 0 ).intValue() );
+      assertEquals( 2, order.get( 1 ).intValue() );
+      assertEquals( 0, order.get( 2 ).intValue() );
+      for ( int i = 0; i < due.length; i++ ) {
+        assertTrue( "timeout " + i + " ran early", ran[i] - start >= due[i] * 1000000 );
+      }
+      assertEquals( 0, wheel.size() );
+    } finally {
+      wheel.shutdown();
+    }
+  }
+
+
+
+
+  @Test
+  public void testCancel() throws Exception {
+    final TimerWheel wheel = new TimerWheel();
+    wheel.daemonize( "TimerWheelTest" );
+    try {
+      final CountDownLatch cancelled = new CountDownLatch( 1 );
+      final CountDownLatch kept = new CountDownLatch( 1 );
+      final TimerWheel.Timeout timeout = wheel.schedule( new Runnable() {
+        @Override
+        public void run() {
+          cancelled.countDown();
+        }
+      }, 30 );
+      wheel.schedule( new Runnable() {
+        @Override
+        public void run() {
+          kept.countDown();
+        }
+      }, 60 );
+      timeout.cancel();
+      assertTrue( timeout.isCancelled() );
+
+      assertTrue( kept.await( 5, TimeUnit.SECONDS ) );
+      assertFalse( cancelled.await( 50, TimeUnit.MILLISECONDS ) );
+      assertEquals( 0, wheel.size() );
+    } finally {
+      wheel.shutdown();
+    }
+  }
+
+}
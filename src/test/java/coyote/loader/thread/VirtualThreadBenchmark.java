@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.loader.thread;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+
+
+/**
+ * Compares the cost of running 1,000 mostly idle components in platform and
+ * in virtual threads.
+ *
+ * <p>Each component is a ThreadJob which does a moment of work and then
+ * parks, as a managed component waiting for its next cycle does. The
+ * benchmark reports how long it takes for all of them to become active, the
+ * number of platform threads the JVM is running and the resident set size
+ * of the process once they have settled.</p>
+ *
+ * <p>Run without arguments to measure each mode in a fresh JVM, or with
+ * {@code platform} or {@code virtual} to measure one mode in this JVM. RSS is
+ * read from {@code /proc} so is only reported on Linux; virtual threads need
+ * a Java 21 or later runtime.</p>
+ */
+public class VirtualThreadBenchmark {
+
+  private static final int COMPONENTS = 1000;
+
+
+
+
+  /**
+   * A component which wakes briefly every second.
+   */
+  private static class IdleComponent extends ThreadJob {
+    @Override
+    public void doWork() {
+      park( 1000 );
+    }
+  }
+
+
+
+
+  private static void measure( final boolean virtual ) throws Exception {
+    final long rssBefore = rss();
+    final IdleComponent[] components = new IdleComponent[COMPONENTS];
+
+    final long start = System.nanoTime();
+    for ( int i = 0; i < COMPONENTS; i++ ) {
+      components[i] = new IdleComponent();
+      components[i].setHyper( true );
+      components[i].setVirtual( virtual );
+      components[i].daemonize( "Component-" + i );
+    }
+    for ( final IdleComponent component : components ) {
+      component.waitForActive( 10000 );
+    }
+    final long elapsed = System.nanoTime() - start;
+
+    Thread.sleep( 2000 ); // let them settle into parking
+    final long rssAfter = rss();
+    final int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+    System.out.println( String.format( "%-8s startup=%6.1fms platformThreads=%5d rss=%s", virtual ? "virtual" : "platform", elapsed / 1e6, threads, ( rssAfter < 0 ) ? "n/a" : ( ( rssAfter - rssBefore ) / 1024 ) + "MB added (" + ( rssAfter / 1024 ) + "MB total)" ) );
+
+    for ( final IdleComponent component : components ) {
+      component.shutdown();
+    }
+    for ( final IdleComponent component : components ) {
+      component.join( 1000 );
+    }
+  }
+
+
+
+
+  /**
+   * @return the resident set size of this process in KB, or -1 if unknown
+   */
+  private static long rss() {
+    final File status = new File( "/proc/self/status" );
+    if ( status.exists() ) {
+      try ( BufferedReader reader = new BufferedReader( new FileReader( status ) ) ) {
+        String line;
+        while ( ( line = reader.readLine() ) != null ) {
+          if ( line.startsWith( "VmRSS:" ) ) {
+            return Long.parseLong( line.substring( 6 ).trim().split( "\\s+" )[0] );
+          }
+        }
+      } catch ( final IOException | NumberFormatException e ) {
+        // fall through
+      }
+    }
+    return -1;
+  }
+
+
+
+
+  private static void fork( final String mode ) throws Exception {
+    final String java = System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java";
+    final Process process = new ProcessBuilder( java, "-cp", System.getProperty( "java.class.path" ), VirtualThreadBenchmark.class.getName(), mode ).inheritIO().start();
+    process.waitFor();
+  }
+
+
+
+
+  public static void main( final String[] args ) throws Exception {
+    if ( args.length > 0 ) {
+      final boolean virtual = "virtual".equalsIgnoreCase( args[0] );
+      if ( virtual && !VirtualThreads.isSupported() ) {
+        System.out.println( "virtual  not supported by Java " + System.getProperty( "java.version" ) + "; platform threads used" );
+      }
+      measure( virtual );
+    } else {
+      System.out.println( COMPONENTS + " idle components on Java " + System.getProperty( "java.version" ) );
+      fork( "platform" );
+      fork( "virtual" );
+    }
+  }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2017 Stephan D. Cote' - All rights reserved.
+ *
+ * This program and the accompanying materials are made available under the
+ * terms of the MIT License which accompanies this distribution, and is
+ * available at http://creativecommons.org/licenses/MIT/
+ *
+ * Contributors:
+ *   Stephan D. Cote
+ *      - Initial concept and implementation
+ */
+package coyote.loader.thread;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+
+/**
+ *
+ */
+public class VirtualThreadsTest {
+
+  @Test
+  public void testVirtualJobLifecycle() throws Exception {
+    final AtomicInteger cycles = new AtomicInteger();
+    final ThreadJob job = new ThreadJob() {
+      @Override
+      public void doWork() {
+        cycles.incrementAndGet();
+        park( 10 );
+      }
+    };
+    job.setVirtual( true );
+    final Thread thread = job.daemonize( "virtual-job" );
+    job.waitForActive( 2000 );
+    assertTrue( job.isActive() );
+
+    // falls back to a platform thread where virtual threads are missing
+    assertEquals( VirtualThreads.isSupported(), VirtualThreads.isVirtual( thread ) );
+
+    // suspended jobs stop working until resumed
+    job.suspend();
+    Thread.sleep( 50 );
+    final int suspended = cycles.get();
+    Thread.sleep( 100 );
+    assertTrue( cycles.get() - suspended <= 1 );
+    job.resume();
+    Thread.sleep( 100 );
+    assertTrue( cycles.get() > suspended + 1 );
+
+    job.shutdown();
+    thread.join( 2000 );
+    assertFalse( thread.isAlive() );
+    assertFalse( job.isActive() );
+  }
+
+
+
+
+  @Test
+  public void testVirtualPool() throws Exception {
+    final ThreadPool pool = new ThreadPool( "VirtualPool" );
+    pool.setVirtual( true );
+    pool.setJobWaitTime( 1000 );
+    final CountDownLatch done = new CountDownLatch( 100 );
+    try {
+      for ( int x = 0; x < 100; x++ ) {
+        pool.run( new Runnable() {
+          @Override
+          public void run() {
+            done.countDown();
+          }
+        } );
+      }
+      assertTrue( done.await( 10, TimeUnit.SECONDS ) );
+    } finally {
+      pool.stop();
+    }
+  }
+
+}